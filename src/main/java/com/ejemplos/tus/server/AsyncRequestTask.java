@@ -0,0 +1,177 @@
+package com.ejemplos.tus.server;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes an asynchronous request on a thread of an executor, see
+ * {@link TusFileUploadService#process(HttpServletRequest, HttpServletResponse, String, java.util.concurrent.Executor)}.
+ * The asynchronous context is completed exactly once: by the worker when it has processed the request, or by the
+ * servlet container callbacks when the request times out or fails first. In the latter case the worker is
+ * interrupted (or skips the request if it did not start yet) and the client receives a
+ * {@value HttpServletResponse#SC_SERVICE_UNAVAILABLE} response if nothing was sent yet. Once the context has been
+ * completed the container may recycle the request and response, so the worker never touches the context again.
+ * <p>
+ * A {@link ReentrantLock} instead of a monitor guards the worker thread, so a virtual thread never pins its
+ * carrier thread.
+ */
+class AsyncRequestTask implements Runnable, AsyncListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncRequestTask.class);
+
+    private final TusFileUploadService uploadService;
+    private final HttpServletRequest servletRequest;
+    private final HttpServletResponse servletResponse;
+    private final String ownerKey;
+    private final AsyncContext asyncContext;
+
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+    private final ReentrantLock workerLock = new ReentrantLock();
+
+    private Thread worker = null;
+
+    AsyncRequestTask(TusFileUploadService uploadService, HttpServletRequest servletRequest,
+                     HttpServletResponse servletResponse, String ownerKey, AsyncContext asyncContext) {
+        this.uploadService = uploadService;
+        this.servletRequest = servletRequest;
+        this.servletResponse = servletResponse;
+        this.ownerKey = ownerKey;
+        this.asyncContext = asyncContext;
+    }
+
+    /**
+     * @return A future that completes when the request has been processed, or completes exceptionally when the
+     * request could not be processed
+     */
+    CompletableFuture<Void> getResult() {
+        return result;
+    }
+
+    @Override
+    public void run() {
+        if (!startWorker()) {
+            //The request already timed out while this task was waiting in the queue of the executor
+            return;
+        }
+
+        try {
+            uploadService.process(servletRequest, servletResponse, ownerKey);
+            finish(null, null);
+        } catch (IOException | RuntimeException e) {
+            finish(e, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            stopWorker();
+        }
+    }
+
+    /**
+     * Complete the request with an error because the executor did not accept this task
+     * @param cause The reason why the task was rejected
+     */
+    void reject(Throwable cause) {
+        finish(cause, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        cancel(new TimeoutException("Request " + servletRequest.getRequestURI() + " timed out"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        cancel(event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        //The context can also be completed by the container, after which the worker must not complete it again
+        if (isFinished.compareAndSet(false, true)) {
+            result.complete(null);
+        }
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        //Nothing to do
+    }
+
+    private void cancel(Throwable cause) {
+        workerLock.lock();
+        try {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        } finally {
+            workerLock.unlock();
+        }
+        finish(cause, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    private boolean startWorker() {
+        workerLock.lock();
+        try {
+            if (isFinished.get()) {
+                return false;
+            }
+            worker = Thread.currentThread();
+            return true;
+        } finally {
+            workerLock.unlock();
+        }
+    }
+
+    private void stopWorker() {
+        workerLock.lock();
+        try {
+            worker = null;
+            //Do not let a late interrupt leak into the next task of the executor
+            Thread.interrupted();
+        } finally {
+            workerLock.unlock();
+        }
+    }
+
+    private void finish(Throwable failure, Integer errorStatus) {
+        if (!isFinished.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            if (failure != null) {
+                log.error("Unable to process request {}", servletRequest.getRequestURI(), failure);
+                sendErrorIfPossible(errorStatus);
+            }
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            log.debug("Unable to complete request {}", servletRequest.getRequestURI(), e);
+        } finally {
+            if (failure == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void sendErrorIfPossible(int errorStatus) {
+        if (!servletResponse.isCommitted()) {
+            try {
+                servletResponse.sendError(errorStatus);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Unable to send the error response for request {}", servletRequest.getRequestURI(), e);
+            }
+        }
+    }
+}
@@ -17,11 +17,36 @@ public class HttpHeader {
     public static final String CONTENT_DISPOSITION = "Content-Disposition";
     public static final String LOCATION = "Location";
 
+    /**
+     * Headers of range requests and conditional requests (RFC 9110) that are used when downloading an upload
+     */
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String RANGE = "Range";
+    public static final String IF_RANGE = "If-Range";
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * Headers that carry the digest of a downloaded upload, Repr-Digest (RFC 9530) and its predecessor Digest
+     * (RFC 3230) which is only sent when the client asks for it with Want-Digest
+     */
+    public static final String REPR_DIGEST = "Repr-Digest";
+    public static final String DIGEST = "Digest";
+    public static final String WANT_DIGEST = "Want-Digest";
+
     /**
      * The Transfer-Encoding header specifies the form of encoding used to safely transfer the entity to the user.
      */
     public static final String TRANSFER_ENCODING = "Transfer-Encoding";
 
+    /**
+     * The Trailer header lists the header fields that the sender will send as trailers after a chunked body.
+     */
+    public static final String TRAILER = "Trailer";
+
     /**
      * The Upload-Offset request and response header indicates a byte offset within a resource.
      * The value MUST be a non-negative integer.
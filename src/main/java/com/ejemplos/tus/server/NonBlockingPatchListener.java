@@ -0,0 +1,247 @@
+package com.ejemplos.tus.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.util.TusServletRequest;
+import com.ejemplos.tus.server.util.TusServletResponse;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the content of an asynchronous PATCH request while it arrives. Every time the servlet container has
+ * new data available, the bytes that can be read without blocking are collected in a buffer, which is appended
+ * to the upload once it holds {@value #APPEND_THRESHOLD} bytes. A slow client that sends its content in many
+ * small bursts therefore does not cause an append (and with {@link
+ * com.ejemplos.tus.server.upload.disk.DurabilityPolicy#ALWAYS} a file sync) per burst. Once all data has been
+ * read, the remaining bytes are appended and the request handlers of the enabled tus extensions complete the
+ * response. The upload lock is held until the request is finished, either successfully, by an error or because
+ * the request timed out. Bytes that were received before an error or a timeout are kept, and the client receives an
+ * error response when nothing was sent yet.
+ * <p>
+ * The servlet container never invokes the read listener methods of one request concurrently, but the
+ * {@link AsyncListener} methods can be invoked from another thread. A {@link ReentrantLock} instead of a monitor
+ * guards the callbacks, so a virtual thread that waits for storage I/O never pins its carrier thread.
+ */
+class NonBlockingPatchListener implements ReadListener, AsyncListener {
+
+    private static final Logger log = LoggerFactory.getLogger(NonBlockingPatchListener.class);
+
+    private static final int DISCARD_BUFFER_SIZE = 8192;
+
+    /** The number of received bytes that are collected before they are appended to the upload */
+    static final int APPEND_THRESHOLD = 64 * 1024;
+
+    private final TusFileUploadService uploadService;
+    private final HttpMethod method;
+    private final TusServletRequest request;
+    private final TusServletResponse response;
+    private final String ownerKey;
+    private final UploadLock uploadLock;
+    private final AsyncContext asyncContext;
+
+    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private byte[] pendingBytes = null;
+    private int pendingLength = 0;
+
+    NonBlockingPatchListener(TusFileUploadService uploadService, HttpMethod method, TusServletRequest request,
+                             TusServletResponse response, String ownerKey, UploadLock uploadLock,
+                             AsyncContext asyncContext) {
+        this.uploadService = uploadService;
+        this.method = method;
+        this.request = request;
+        this.response = response;
+        this.ownerKey = ownerKey;
+        this.uploadLock = uploadLock;
+        this.asyncContext = asyncContext;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        lock.lock();
+        try {
+            if (isFinished.get()) {
+                return;
+            }
+
+            UploadStorageService storageService = request.getRequestContext();
+            try {
+                UploadInfo uploadInfo = storageService.getUploadInfo(request.getRequestURI(), ownerKey);
+                if (uploadInfo != null && uploadInfo.isUploadInProgress()) {
+                    bufferAvailableData(storageService, uploadInfo);
+                } else {
+                    discardAvailableData();
+                }
+            } catch (TusException e) {
+                uploadService.processTusException(method, request, response, ownerKey, e);
+                finish(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        lock.lock();
+        try {
+            if (isFinished.get()) {
+                return;
+            }
+
+            try {
+                appendPendingBytes();
+                //The PATCH request handler will find no more content to append and completes the response
+                uploadService.processLockedFeatures(method, request, response, ownerKey);
+            } catch (TusException e) {
+                uploadService.processTusException(method, request, response, ownerKey, e);
+            } finally {
+                finish(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        lock.lock();
+        try {
+            log.warn("Unable to read the content of request {} {}", method, request.getRequestURI(), throwable);
+            keepPendingBytes();
+            sendErrorIfPossible(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            finish(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        lock.lock();
+        try {
+            finish(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        lock.lock();
+        try {
+            log.warn("Request {} {} timed out while receiving content", method, request.getRequestURI());
+            keepPendingBytes();
+            //The client learns the offset of the kept bytes with a HEAD request
+            sendErrorIfPossible(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            finish(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        //Nothing to do
+    }
+
+    private void bufferAvailableData(UploadStorageService storageService, UploadInfo uploadInfo)
+            throws IOException, TusException {
+        InputStream content = request.getContentInputStream();
+        if (pendingBytes == null) {
+            pendingBytes = new byte[APPEND_THRESHOLD];
+        }
+
+        //The content stream reports the end of the input when no more data can be read without blocking
+        int read;
+        while ((read = content.read(pendingBytes, pendingLength, pendingBytes.length - pendingLength)) > 0) {
+            pendingLength += read;
+            if (pendingLength == pendingBytes.length) {
+                append(storageService, uploadInfo);
+            }
+        }
+    }
+
+    private void appendPendingBytes() throws IOException, TusException {
+        if (pendingLength > 0) {
+            UploadStorageService storageService = request.getRequestContext();
+            UploadInfo uploadInfo = storageService.getUploadInfo(request.getRequestURI(), ownerKey);
+            if (uploadInfo != null && uploadInfo.isUploadInProgress()) {
+                append(storageService, uploadInfo);
+            }
+        }
+    }
+
+    private void append(UploadStorageService storageService, UploadInfo uploadInfo)
+            throws IOException, TusException {
+        try {
+            storageService.append(uploadInfo, new ByteArrayInputStream(pendingBytes, 0, pendingLength));
+        } finally {
+            pendingLength = 0;
+        }
+    }
+
+    private void keepPendingBytes() {
+        if (!isFinished.get()) {
+            try {
+                appendPendingBytes();
+            } catch (IOException | TusException e) {
+                log.warn("Unable to store the received content of request {}", request.getRequestURI(), e);
+            }
+        }
+    }
+
+    private void sendErrorIfPossible(int errorStatus) {
+        if (!isFinished.get() && !response.isCommitted()) {
+            try {
+                response.sendError(errorStatus);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Unable to send the error response for request {}", request.getRequestURI(), e);
+            }
+        }
+    }
+
+    private void discardAvailableData() throws IOException {
+        //The upload does not accept bytes, but the container only signals the end of the request when all content
+        //has been read
+        ServletInputStream inputStream = request.getInputStream();
+        byte[] buffer = new byte[DISCARD_BUFFER_SIZE];
+        while (!inputStream.isFinished() && inputStream.isReady() && inputStream.read(buffer) >= 0) {
+            //Discard the bytes
+        }
+    }
+
+    private void finish(boolean isCompleting) {
+        if (isFinished.compareAndSet(false, true)) {
+            try {
+                uploadService.finishLockedRequest(request, uploadLock);
+            } catch (IOException e) {
+                log.error("Unable to finish request {} {}", method, request.getRequestURI(), e);
+            } finally {
+                if (isCompleting) {
+                    asyncContext.complete();
+                }
+            }
+        }
+    }
+}
@@ -3,25 +3,40 @@ package com.ejemplos.tus.server;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
 import com.ejemplos.tus.server.checksum.ChecksumExtension;
 import com.ejemplos.tus.server.core.CoreProtocol;
 import com.ejemplos.tus.server.creation.CreationExtension;
 import com.ejemplos.tus.server.download.DownloadExtension;
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
 import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadNotFoundException;
 import com.ejemplos.tus.server.expiration.ExpirationExtension;
 import com.ejemplos.tus.server.termination.TerminationExtension;
+import com.ejemplos.tus.server.upload.cache.SharedCachedStorageAndLockingService;
 import com.ejemplos.tus.server.upload.cache.ThreadLocalCachedStorageAndLockingService;
+import com.ejemplos.tus.server.upload.cache.UploadInfoCache;
+import com.ejemplos.tus.server.util.ByteBufferPool;
 import com.ejemplos.tus.server.util.TusServletRequest;
 import com.ejemplos.tus.server.util.TusServletResponse;
+import com.ejemplos.tus.server.util.UploadRequestContext;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import com.ejemplos.tus.server.concatenation.ConcatenationExtension;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import com.ejemplos.tus.server.upload.UUIDUploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadInfo;
@@ -30,6 +45,12 @@ import com.ejemplos.tus.server.upload.UploadLockingService;
 import com.ejemplos.tus.server.upload.UploadStorageService;
 import com.ejemplos.tus.server.upload.disk.DiskLockingService;
 import com.ejemplos.tus.server.upload.disk.DiskStorageService;
+import com.ejemplos.tus.server.upload.disk.FileChannelCache;
+import com.ejemplos.tus.server.upload.disk.PreallocationMode;
+import com.ejemplos.tus.server.upload.disk.SingleFileStorageService;
+import com.ejemplos.tus.server.upload.disk.StorageLayout;
+import com.ejemplos.tus.server.upload.disk.StorageLayoutMigrator;
+import com.ejemplos.tus.server.upload.memory.InMemoryLockingService;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -43,6 +64,9 @@ public class TusFileUploadService {
 
     public static final String TUS_API_VERSION = "1.0.0";
 
+    /** The default timeout of asynchronously processed requests, 10 minutes */
+    public static final long DEFAULT_ASYNC_TIMEOUT = 10L * 60 * 1000;
+
     private static final Logger log = LoggerFactory.getLogger(TusFileUploadService.class);
 
     private UploadStorageService uploadStorageService;
@@ -51,7 +75,20 @@ public class TusFileUploadService {
     private final LinkedHashMap<String, TusExtension> enabledFeatures = new LinkedHashMap< >();
     private final Set<HttpMethod> supportedHttpMethods = EnumSet.noneOf(HttpMethod.class);
     private boolean isThreadLocalCacheEnabled = false;
+    private UploadInfoCache uploadInfoCache = null;
     private boolean isChunkedTransferDecodingEnabled = false;
+    private ByteBufferPool appendBufferPool = null;
+    private ByteBufferPool downloadBufferPool = null;
+    private StorageLayout storageLayout = null;
+    private FileChannelCache fileChannelCache = null;
+    private PreallocationMode preallocationMode = null;
+    private Boolean isUploadDigestEnabled = null;
+    private boolean isNonBlockingPatchEnabled = false;
+    private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+    private Set<ChecksumAlgorithm> checksumAlgorithms = ChecksumAlgorithm.getDefaultAlgorithms();
+    private boolean isDeferredChecksumVerificationEnabled = false;
+    private Executor checksumExecutor = null;
+    private LockAcquisitionStrategy lockAcquisitionStrategy = null;
 
     public TusFileUploadService() {
         String storagePath = FileUtils.getTempDirectoryPath() + File.separator + "tus";
@@ -129,6 +166,7 @@ public class TusFileUploadService {
         uploadStorageService.setIdFactory(this.idFactory);
         //Update the upload storage service
         this.uploadStorageService = uploadStorageService;
+        applyDiskStorageOptions();
         prepareCacheIfEnabled();
         return this;
     }
@@ -144,12 +182,32 @@ public class TusFileUploadService {
     public TusFileUploadService withUploadLockingService(UploadLockingService uploadLockingService) {
         Validate.notNull(uploadLockingService, "The UploadStorageService cannot be null");
         uploadLockingService.setIdFactory(this.idFactory);
+        if (lockAcquisitionStrategy != null) {
+            uploadLockingService.setLockAcquisitionStrategy(lockAcquisitionStrategy);
+        }
         //Update the upload storage service
         this.uploadLockingService = uploadLockingService;
+        applyDiskStorageOptions();
         prepareCacheIfEnabled();
         return this;
     }
 
+    /**
+     * Wait for uploads that are locked by another request according to the given strategy, instead of failing
+     * immediately. This typically happens when a client retries a PATCH request right after its connection dropped,
+     * while the previous request is still being processed. Keep a reference to the strategy to monitor the lock
+     * contention metrics.
+     *
+     * @param lockAcquisitionStrategy The strategy to use, for example {@link LockAcquisitionStrategy#boundedWait(long)}
+     * @return The current service
+     */
+    public TusFileUploadService withLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        Validate.notNull(lockAcquisitionStrategy, "The lock acquisition strategy cannot be null");
+        this.lockAcquisitionStrategy = lockAcquisitionStrategy;
+        uploadLockingService.setLockAcquisitionStrategy(lockAcquisitionStrategy);
+        return this;
+    }
+
     /**
      * If you're using the default file system-based storage service, you can use this method to
      * specify the path where to store the uploaded bytes and upload information.
@@ -170,13 +228,145 @@ public class TusFileUploadService {
      * on the storage backends. By default this cache is disabled.
      * @param isEnabled True if the cache should be enabled, false otherwise
      * @return The current service
+     * @deprecated Upload information is already loaded only once per request by the
+     * {@link UploadRequestContext} of each request, which also works with asynchronous processing.
      */
+    @Deprecated
     public TusFileUploadService withThreadLocalCache(boolean isEnabled) {
         this.isThreadLocalCacheEnabled = isEnabled;
         prepareCacheIfEnabled();
         return this;
     }
 
+    /**
+     * Keep the information of recently used uploads in the given process-wide cache. This avoids reading the
+     * upload information from the storage backend for every request, for example when clients repeatedly
+     * send HEAD requests to resume an upload. Cached entries are invalidated when an upload is modified.
+     * Keep a reference to the cache to monitor its hit, miss and eviction counters.
+     *
+     * @param uploadInfoCache The cache to use, or null to disable caching
+     * @return The current service
+     */
+    public TusFileUploadService withUploadInfoCache(UploadInfoCache uploadInfoCache) {
+        this.uploadInfoCache = uploadInfoCache;
+        prepareCacheIfEnabled();
+        return this;
+    }
+
+    /**
+     * If you're using the default file system-based storage service, you can use this method to configure the
+     * buffers that are used to write uploaded bytes to disk. Each PATCH request borrows one buffer from a pool
+     * instead of allocating new memory. Bigger buffers result in fewer, larger writes. By default 16 buffers of
+     * 64 KB are pooled.
+     *
+     * @param poolSize The maximum number of buffers to keep, which should match the expected number of concurrent
+     *                 uploads
+     * @param bufferSize The size of each buffer in bytes
+     * @return The current service
+     */
+    public TusFileUploadService withAppendBufferPool(int poolSize, int bufferSize) {
+        this.appendBufferPool = new ByteBufferPool(poolSize, bufferSize);
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * If you're using a file system-based storage service, you can use this method to configure the buffers that
+     * are used to copy completed uploads to the response of a download or to
+     * {@link UploadStorageService#copyUploadTo}. Downloads are only copied through these buffers when the servlet
+     * container cannot send the upload file itself. By default 8 buffers of 1 MB are pooled.
+     *
+     * @param poolSize The maximum number of buffers to keep, which should match the expected number of concurrent
+     *                 downloads
+     * @param bufferSize The size of each buffer in bytes
+     * @return The current service
+     */
+    public TusFileUploadService withDownloadBufferPool(int poolSize, int bufferSize) {
+        this.downloadBufferPool = new ByteBufferPool(poolSize, bufferSize);
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * If you're using the default file system-based storage and locking services, you can use this method to
+     * spread the upload directories and lock files over prefix directories, for example
+     * {@link StorageLayout#hashed()}. This keeps lookups and cleanup fast with millions of uploads. Existing
+     * uploads must first be moved to the new layout with {@link StorageLayoutMigrator}. By default all uploads
+     * are stored directly in the storage path ({@link StorageLayout#FLAT}).
+     *
+     * @param storageLayout The layout to use
+     * @return The current service
+     */
+    public TusFileUploadService withStorageLayout(StorageLayout storageLayout) {
+        Validate.notNull(storageLayout, "The storage layout cannot be null");
+        this.storageLayout = storageLayout;
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * If you're using a file system-based storage service, you can use this method to keep the files of uploads
+     * that are in progress open between requests. Clients that send many small PATCH requests then no longer pay
+     * for opening and closing the file every time. Each cached channel uses a file descriptor, so choose the
+     * maximum according to the file descriptor limit of the process. Use
+     * {@link FileChannelCache#getOpenChannelCount()} on {@link #getFileChannelCache()} to monitor the cache. By
+     * default no files are kept open.
+     *
+     * @param maxOpenChannels The maximum number of files to keep open
+     * @param idleTimeoutMillis The number of milliseconds after which an unused file is closed
+     * @return The current service
+     */
+    public TusFileUploadService withFileChannelCache(int maxOpenChannels, long idleTimeoutMillis) {
+        if (fileChannelCache != null) {
+            fileChannelCache.invalidateAll();
+        }
+        this.fileChannelCache = new FileChannelCache(maxOpenChannels, idleTimeoutMillis);
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * If you're using a file system-based storage service, you can use this method to reserve the disk space of
+     * an upload when it is created with a known length. Preallocated files do not have to grow on every PATCH
+     * request and are less fragmented. The uploaded offset is then tracked in the upload info instead of being
+     * derived from the file size, see {@link PreallocationMode} for the consequences. By default the
+     * {@link DiskStorageService} does not preallocate and the {@link SingleFileStorageService} preallocates
+     * sparse files.
+     *
+     * @param preallocationMode The preallocation mode to use
+     * @return The current service
+     */
+    public TusFileUploadService withPreallocationMode(PreallocationMode preallocationMode) {
+        Validate.notNull(preallocationMode, "The preallocation mode cannot be null");
+        this.preallocationMode = preallocationMode;
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * If you're using a file system-based storage service, you can use this method to calculate the SHA-256
+     * digest of every upload while its bytes are stored. The state of the digest is stored with the upload, so it
+     * is continued by every PATCH request, also on another node or after a restart. Once the upload is complete,
+     * the digest is available from {@link UploadInfo#getUploadDigest()} without reading the upload again, and the
+     * download extension returns it in the Repr-Digest header. By default no digests are calculated.
+     *
+     * @param isEnabled True if the digest of every upload should be calculated, false otherwise
+     * @return The current service
+     */
+    public TusFileUploadService withUploadDigest(boolean isEnabled) {
+        this.isUploadDigestEnabled = isEnabled;
+        applyDiskStorageOptions();
+        return this;
+    }
+
+    /**
+     * Get the cache of open upload files configured with {@link #withFileChannelCache(int, long)}
+     * @return The file channel cache or null if not configured
+     */
+    public FileChannelCache getFileChannelCache() {
+        return fileChannelCache;
+    }
+
     /**
      * Instruct this service to (not) decode any requests with Transfer-Encoding value "chunked".
      * Use this method in case the web container in which this service is running does not decode
@@ -190,6 +380,104 @@ public class TusFileUploadService {
         return this;
     }
 
+    /**
+     * Only allow clients to use the given checksum algorithms. Requests with an Upload-Checksum header that uses
+     * another algorithm are rejected and only the allowed algorithms are advertised. When a chunked request can
+     * still send its Upload-Checksum header as a trailer, only the allowed algorithms are calculated while
+     * reading its content. By default the cryptographic digests are allowed (see
+     * {@link ChecksumAlgorithm#getDefaultAlgorithms()}), the CRC32 and CRC32C checksums must be allowed explicitly.
+     * Allow only the algorithms your clients use, or see {@link #withDeferredChecksumVerification(boolean)}, to
+     * avoid calculating checksums that are never requested.
+     *
+     * @param algorithms The allowed checksum algorithms
+     * @return The current service
+     */
+    public TusFileUploadService withChecksumAlgorithms(ChecksumAlgorithm... algorithms) {
+        Validate.notEmpty(algorithms, "At least one checksum algorithm must be allowed");
+        Validate.noNullElements(algorithms, "The checksum algorithms cannot be null");
+        this.checksumAlgorithms = EnumSet.copyOf(Arrays.asList(algorithms));
+        return this;
+    }
+
+    /**
+     * Instruct this service to (not) verify trailing Upload-Checksum headers from the stored bytes. When a chunked
+     * request can still send its Upload-Checksum header as a trailer, the checksum algorithm is not known while
+     * reading the content. Without deferred verification, all allowed checksum algorithms are calculated over the
+     * content. With deferred verification, none are calculated and the bytes stored by the request are read back
+     * and digested with the algorithm of the trailer, which requires a storage service that can copy the stored
+     * bytes of an upload in progress (like the disk storage services). Clients that announce with the Trailer
+     * header that they will not send an Upload-Checksum trailer are never digested. By default, deferred
+     * verification is disabled.
+     *
+     * @param isEnabled True if trailing checksums should be verified from the stored bytes, false otherwise.
+     * @return The current service
+     */
+    public TusFileUploadService withDeferredChecksumVerification(boolean isEnabled) {
+        isDeferredChecksumVerificationEnabled = isEnabled;
+        return this;
+    }
+
+    /**
+     * Calculate the checksums of PATCH requests on the given executor. The content is then hashed in buffers on
+     * the threads of the executor while the next bytes are read from the request and written to storage, instead
+     * of hashing every byte inline on the thread that reads the request. The checksum is complete before it is
+     * verified and the response is sent. Use an executor with enough threads for the number of concurrent uploads
+     * with checksums, for example {@link java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}.
+     * By default, checksums are calculated while reading the content.
+     *
+     * @param checksumExecutor The executor to calculate checksums on or null to calculate them while reading
+     * @return The current service
+     */
+    public TusFileUploadService withChecksumExecutor(Executor checksumExecutor) {
+        this.checksumExecutor = checksumExecutor;
+        return this;
+    }
+
+    /**
+     * Instruct this service to (not) store the content of PATCH requests asynchronously with non-blocking I/O.
+     * When enabled, {@link #process(HttpServletRequest, HttpServletResponse, String)} puts PATCH requests in
+     * asynchronous mode and returns immediately. Bytes are stored as they arrive and the response is completed
+     * by the servlet container once all content has been read, so slow clients do not occupy a container thread
+     * for the duration of their upload. The servlet (and filters) must support asynchronous processing and must
+     * not write to the response after the process method returns. Requests that do not support asynchronous
+     * processing or that require chunked transfer decoding by this service are still processed synchronously.
+     * By default, non-blocking processing is disabled.
+     *
+     * @param isEnabled True if PATCH requests should be processed with non-blocking I/O, false otherwise.
+     * @return The current service
+     */
+    public TusFileUploadService withNonBlockingPatch(boolean isEnabled) {
+        isNonBlockingPatchEnabled = isEnabled;
+        return this;
+    }
+
+    /**
+     * Set the timeout of requests that this service processes asynchronously, like PATCH requests with
+     * non-blocking I/O (see {@link #withNonBlockingPatch(boolean)}) and requests that are processed by an executor
+     * (see {@link #process(HttpServletRequest, HttpServletResponse, String, Executor)}). The timeout is counted from
+     * the start of the request, so it limits the time a client can take to send the content of one PATCH request.
+     * When a request times out, the bytes that were received are kept, the upload lock is released and the client
+     * receives a 503 response, after which it can resume the upload from the offset of a HEAD request. The timeout
+     * of the servlet container (often 30 seconds) is not used. By default, asynchronous requests time out after
+     * {@value #DEFAULT_ASYNC_TIMEOUT} milliseconds, so a stalled client does not hold the upload lock forever.
+     *
+     * @param timeoutMillis The timeout in milliseconds, or 0 for no timeout
+     * @return The current service
+     */
+    public TusFileUploadService withAsyncTimeout(long timeoutMillis) {
+        Validate.isTrue(timeoutMillis >= 0, "The timeout cannot be negative");
+        asyncTimeout = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Get the timeout of asynchronously processed requests configured with {@link #withAsyncTimeout(long)}
+     * @return The timeout in milliseconds, 0 means no timeout
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
     /**
      * You can set the number of milliseconds after which an upload is considered as expired and available for cleanup.
      *
@@ -296,15 +584,79 @@ public class TusFileUploadService {
         log.debug("Processing request with method {} and URL {}", method, servletRequest.getRequestURL());
 
         TusServletRequest request = new TusServletRequest(servletRequest, isChunkedTransferDecodingEnabled);
+        request.setChecksumAlgorithms(checksumAlgorithms);
+        request.setDeferredChecksumVerification(isDeferredChecksumVerificationEnabled);
+        request.setChecksumExecutor(checksumExecutor);
         TusServletResponse response = new TusServletResponse(servletResponse);
 
-        try (UploadLock ignored = uploadLockingService.lockUploadByUri(request.getRequestURI())) {
-
-            processLockedRequest(method, request, response, ownerKey);
-
+        UploadLock uploadLock;
+        try {
+            uploadLock = uploadLockingService.lockUploadByUri(request.getRequestURI());
         } catch (TusException e) {
             log.error("Unable to lock upload for request URI " + request.getRequestURI(), e);
+            return;
+        }
+
+        boolean isProcessedAsynchronously = false;
+        try {
+            request.setRequestContext(createRequestContext(uploadLock));
+            if (isNonBlockingPatchSupported(method, request)) {
+                isProcessedAsynchronously = startNonBlockingPatch(method, request, response, ownerKey, uploadLock);
+            } else {
+                processLockedRequest(method, request, response, ownerKey);
+            }
+        } finally {
+            if (!isProcessedAsynchronously) {
+                finishLockedRequest(request, uploadLock);
+            }
+        }
+    }
+
+    /**
+     * Process a tus upload request that belongs to a specific owner on a thread of the given executor.
+     * The request is put in asynchronous mode and this method returns immediately. The response is completed once
+     * the request has been processed. Use this method with an executor that creates a virtual thread per task
+     * (see {@link java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}) to process a large number of
+     * concurrent uploads without dedicating a platform thread to each of them. Request state is kept in the
+     * request itself, so do not combine this method with the deprecated thread-local cache.
+     * If the request does not support asynchronous processing, it is processed synchronously instead.
+     * <p>
+     * The request is subject to the timeout configured with {@link #withAsyncTimeout(long)}. When the request times
+     * out or the container reports an error before it has been processed, the worker thread is interrupted and the
+     * client receives a 503 response if no response was sent yet. The same response is sent when the executor
+     * rejects the request. In these cases the returned future completes exceptionally.
+     *
+     * @param servletRequest The {@link HttpServletRequest} of the request
+     * @param servletResponse The {@link HttpServletResponse} of the request
+     * @param ownerKey A unique identifier of the owner (group) of this upload
+     * @param executor The executor that processes the request
+     * @return A future that completes when the request has been processed
+     */
+    public CompletableFuture<Void> process(HttpServletRequest servletRequest, HttpServletResponse servletResponse,
+                                           String ownerKey, Executor executor) {
+        Validate.notNull(servletRequest, "The HTTP Servlet request cannot be null");
+        Validate.notNull(servletResponse, "The HTTP Servlet response cannot be null");
+        Validate.notNull(executor, "The executor cannot be null");
+
+        if (!servletRequest.isAsyncSupported()) {
+            try {
+                process(servletRequest, servletResponse, ownerKey);
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+        asyncContext.setTimeout(asyncTimeout);
+        AsyncRequestTask task = new AsyncRequestTask(this, servletRequest, servletResponse, ownerKey, asyncContext);
+        asyncContext.addListener(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.reject(e);
         }
+        return task.getResult();
     }
 
     /**
@@ -337,6 +689,46 @@ public class TusFileUploadService {
         }
     }
 
+    /**
+     * Method to retrieve the bytes of a completed upload as read-only buffers, for example to scan or parse the
+     * upload without reading it through a stream
+     *
+     * @param uploadURI The URI of the upload
+     * @return The buffers that contain the uploaded bytes in order
+     * @throws IOException  When retrieving the uploaded bytes fails
+     * @throws TusException When the upload is still in progress or cannot be found
+     * @see #getUploadedBytesAsBuffers(String, String)
+     */
+    public List<ByteBuffer> getUploadedBytesAsBuffers(String uploadURI) throws IOException, TusException {
+        return getUploadedBytesAsBuffers(uploadURI, null);
+    }
+
+    /**
+     * Method to retrieve the bytes of a completed upload as read-only buffers. The file system-based storage
+     * services map the upload into memory, so the bytes are read on access without copying them through a stream.
+     * Uploads that are too big for one buffer are split in several buffers, and a concatenated upload returns the
+     * buffers of its partial uploads in order.
+     *
+     * @param uploadURI The URI of the upload
+     * @param ownerKey  The key of the owner of this upload
+     * @return The buffers that contain the uploaded bytes in order
+     * @throws IOException  When retrieving the uploaded bytes fails
+     * @throws TusException When the upload is still in progress or cannot be found
+     */
+    public List<ByteBuffer> getUploadedBytesAsBuffers(String uploadURI, String ownerKey)
+            throws IOException, TusException {
+
+        try (UploadLock ignored = uploadLockingService.lockUploadByUri(uploadURI)) {
+
+            UploadInfo uploadInfo = uploadStorageService.getUploadInfo(uploadURI, ownerKey);
+            if (uploadInfo == null) {
+                throw new UploadNotFoundException("The upload " + uploadURI + " could not be found for owner "
+                        + ownerKey);
+            }
+            return uploadStorageService.getUploadedBytesAsBuffers(uploadInfo.getId());
+        }
+    }
+
     /**
      * Get the information on the upload corresponding to the given upload URI
      *
@@ -409,11 +801,62 @@ public class TusFileUploadService {
 
             executeProcessingByFeatures(method, request, response, ownerKey);
 
+            flushRequestContext(request);
+
+        } catch (TusException e) {
+            processTusException(method, request, response, ownerKey, e);
+        }
+    }
+
+    private UploadRequestContext createRequestContext(UploadLock uploadLock) {
+        UploadRequestContext requestContext = new UploadRequestContext(uploadStorageService, idFactory);
+        if (uploadLock != null) {
+            requestContext.setFencingToken(idFactory.readUploadId(uploadLock.getUploadUri()),
+                    uploadLock.getFencingToken());
+        }
+        return requestContext;
+    }
+
+    /**
+     * Finish a request that was processed while holding the upload lock
+     * @param request The processed request
+     * @param uploadLock The lock to release, can be null
+     * @throws IOException When saving the upload information fails
+     */
+    void finishLockedRequest(TusServletRequest request, UploadLock uploadLock) throws IOException {
+        try {
+            //Save the remaining upload information, while we still hold the lock
+            flushRequestContext(request);
+        } catch (TusException e) {
+            //The response was already sent, so it is too late to report this to the client
+            throw new IOException("Unable to save the information of upload " + request.getRequestURI(), e);
+        } finally {
+            if (uploadLock != null) {
+                uploadLock.close();
+            }
+        }
+    }
+
+    void processLockedFeatures(HttpMethod method, TusServletRequest request,
+                               TusServletResponse response, String ownerKey) throws IOException {
+        try {
+            executeProcessingByFeatures(method, request, response, ownerKey);
+            flushRequestContext(request);
         } catch (TusException e) {
             processTusException(method, request, response, ownerKey, e);
         }
     }
 
+    /**
+     * Save the upload information of the request before the response is sent, so that the client is never told
+     * about an upload offset that could not be saved because the upload lock was lost
+     */
+    private void flushRequestContext(TusServletRequest request) throws IOException, TusException {
+        if (request.getRequestContext() != null) {
+            request.getRequestContext().flush();
+        }
+    }
+
     protected void executeProcessingByFeatures(HttpMethod method, TusServletRequest servletRequest,
                                                TusServletResponse servletResponse, String ownerKey)
             throws IOException, TusException {
@@ -421,7 +864,8 @@ public class TusFileUploadService {
         for (TusExtension feature : enabledFeatures.values()) {
             if (!servletRequest.isProcessedBy(feature)) {
                 servletRequest.addProcessor(feature);
-                feature.process(method, servletRequest, servletResponse, uploadStorageService, ownerKey);
+                feature.process(method, servletRequest, servletResponse, getStorageService(servletRequest),
+                        ownerKey);
             }
         }
     }
@@ -430,7 +874,7 @@ public class TusFileUploadService {
                                    String ownerKey) throws TusException, IOException {
 
         for (TusExtension feature : enabledFeatures.values()) {
-            feature.validate(method, servletRequest, uploadStorageService, ownerKey);
+            feature.validate(method, servletRequest, getStorageService(servletRequest), ownerKey);
         }
     }
 
@@ -444,26 +888,75 @@ public class TusFileUploadService {
         log.warn("Unable to process request {} {}. Sent response status {} with message \"{}\"",
                 method, request.getRequestURL(), status, message);
 
-        try {
-            for (TusExtension feature : enabledFeatures.values()) {
+        //A request that lost its lock must leave the upload to the request that holds the lock now
+        if (!(exception instanceof StaleUploadLockException)) {
+            UploadStorageService storageService = getStorageService(request);
+            try {
+                for (TusExtension feature : enabledFeatures.values()) {
 
-                if (!request.isProcessedBy(feature)) {
-                    request.addProcessor(feature);
-                    feature.handleError(method, request, response, uploadStorageService, ownerKey);
+                    if (!request.isProcessedBy(feature)) {
+                        request.addProcessor(feature);
+                        feature.handleError(method, request, response, storageService, ownerKey);
+                    }
                 }
-            }
 
-            //Since an error occurred, the bytes we have written are probably not valid. So remove them.
-            UploadInfo uploadInfo = uploadStorageService.getUploadInfo(request.getRequestURI(), ownerKey);
-            uploadStorageService.removeLastNumberOfBytes(uploadInfo, request.getBytesRead());
+                //Since an error occurred, the bytes we have written are probably not valid. So remove them.
+                UploadInfo uploadInfo = storageService.getUploadInfo(request.getRequestURI(), ownerKey);
+                storageService.removeLastNumberOfBytes(uploadInfo, request.getBytesRead());
 
-        } catch (TusException ex) {
-            log.warn("An exception occurred while handling another exception", ex);
+            } catch (TusException ex) {
+                log.warn("An exception occurred while handling another exception", ex);
+            }
         }
 
         response.sendError(status, message);
     }
 
+    private boolean isNonBlockingPatchSupported(HttpMethod method, TusServletRequest request) {
+        //Our own chunked decoder needs to block until a complete chunk is available. Requests that are processed
+        //by an executor are already asynchronous, and blocking reads are cheap on a virtual thread.
+        return isNonBlockingPatchEnabled && HttpMethod.PATCH.equals(method) && request.isAsyncSupported()
+                && !request.isAsyncStarted() && !request.isDecodingChunkedTransfer();
+    }
+
+
+    private boolean startNonBlockingPatch(HttpMethod method, TusServletRequest request, TusServletResponse response,
+                                          String ownerKey, UploadLock uploadLock) throws IOException {
+        try {
+            validateRequest(method, request, ownerKey);
+        } catch (TusException e) {
+            processTusException(method, request, response, ownerKey, e);
+            return false;
+        }
+
+        UploadInfo uploadInfo = getStorageService(request).getUploadInfo(request.getRequestURI(), ownerKey);
+        if (uploadInfo == null || !uploadInfo.isUploadInProgress()) {
+            //No bytes will be stored, so there is no reason to wait for them
+            processLockedFeatures(method, request, response, ownerKey);
+            return false;
+        }
+
+        request.setNonBlocking(true);
+        AsyncContext asyncContext = request.startAsync();
+        //Large uploads easily take longer than the default timeout of the container
+        asyncContext.setTimeout(asyncTimeout);
+        NonBlockingPatchListener listener = new NonBlockingPatchListener(this, method, request, response,
+                ownerKey, uploadLock, asyncContext);
+        asyncContext.addListener(listener);
+        //From now on the listener is responsible for releasing the lock
+        request.getInputStream().setReadListener(listener);
+        return true;
+    }
+
+    private UploadStorageService getStorageService(HttpServletRequest servletRequest) {
+        if (servletRequest instanceof TusServletRequest tusServletRequest
+                && tusServletRequest.getRequestContext() != null) {
+            return tusServletRequest.getRequestContext();
+        } else {
+            return uploadStorageService;
+        }
+    }
+
     private void updateSupportedHttpMethods() {
         supportedHttpMethods.clear();
         for (TusExtension tusFeature : enabledFeatures.values()) {
@@ -471,16 +964,146 @@ public class TusFileUploadService {
         }
     }
 
+    private void applyDiskStorageOptions() {
+        DiskStorageService diskStorageService = getStorageService(DiskStorageService.class);
+        SingleFileStorageService singleFileStorageService = getStorageService(SingleFileStorageService.class);
+        if (appendBufferPool != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setAppendBufferPool(appendBufferPool);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setAppendBufferPool(appendBufferPool);
+            }
+        }
+        if (downloadBufferPool != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setDownloadBufferPool(downloadBufferPool);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setDownloadBufferPool(downloadBufferPool);
+            }
+        }
+        if (fileChannelCache != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setFileChannelCache(fileChannelCache);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setFileChannelCache(fileChannelCache);
+            }
+        }
+        if (preallocationMode != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setPreallocationMode(preallocationMode);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setPreallocationMode(preallocationMode);
+            }
+        }
+        if (isUploadDigestEnabled != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setUploadDigestEnabled(isUploadDigestEnabled);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setUploadDigestEnabled(isUploadDigestEnabled);
+            }
+        }
+        if (storageLayout != null) {
+            if (diskStorageService != null) {
+                diskStorageService.setStorageLayout(storageLayout);
+            }
+            if (singleFileStorageService != null) {
+                singleFileStorageService.setStorageLayout(storageLayout);
+            }
+            DiskLockingService diskLockingService = getDiskLockingService();
+            if (diskLockingService != null) {
+                diskLockingService.setStorageLayout(storageLayout);
+            }
+        }
+    }
+
+    private DiskLockingService getDiskLockingService() {
+        UploadLockingService lockingService = uploadLockingService;
+        while (lockingService != null) {
+            if (lockingService instanceof DiskLockingService diskLockingService) {
+                return diskLockingService;
+            } else if (lockingService instanceof InMemoryLockingService inMemoryLockingService) {
+                lockingService = inMemoryLockingService.getClusterLockingService();
+            } else {
+                lockingService = getCacheDelegate(lockingService);
+            }
+        }
+        return null;
+    }
+
+    private <T extends UploadStorageService> T getStorageService(Class<T> type) {
+        UploadStorageService storageService = uploadStorageService;
+        while (storageService != null && !type.isInstance(storageService)) {
+            storageService = getCacheDelegate(storageService);
+        }
+        return type.cast(storageService);
+    }
+
     private void prepareCacheIfEnabled() {
-        if (isThreadLocalCacheEnabled && uploadStorageService != null && uploadLockingService != null) {
-            ThreadLocalCachedStorageAndLockingService service =
-                    new ThreadLocalCachedStorageAndLockingService(
+        //Start from the services without caches, so that a cache that was disabled is removed again
+        while (getCacheDelegate(uploadStorageService) != null) {
+            uploadStorageService = getCacheDelegate(uploadStorageService);
+        }
+        while (getCacheDelegate(uploadLockingService) != null) {
+            uploadLockingService = getCacheDelegate(uploadLockingService);
+        }
+
+        if (uploadInfoCache != null && uploadStorageService != null && uploadLockingService != null) {
+            SharedCachedStorageAndLockingService service =
+                    new SharedCachedStorageAndLockingService(
+                            uploadInfoCache,
                             uploadStorageService,
                             uploadLockingService);
             service.setIdFactory(this.idFactory);
             this.uploadStorageService = service;
             this.uploadLockingService = service;
         }
+        if (isThreadLocalCacheEnabled && uploadStorageService != null && uploadLockingService != null) {
+            prepareThreadLocalCache();
+        }
+    }
+
+    @SuppressWarnings("deprecation") //Kept until the deprecated withThreadLocalCache is removed
+    private void prepareThreadLocalCache() {
+        ThreadLocalCachedStorageAndLockingService service =
+                new ThreadLocalCachedStorageAndLockingService(
+                        uploadStorageService,
+                        uploadLockingService);
+        service.setIdFactory(this.idFactory);
+        this.uploadStorageService = service;
+        this.uploadLockingService = service;
+    }
+
+    /**
+     * @return The storage service that the given cache delegates to, or null if the service is not a cache
+     */
+    @SuppressWarnings("deprecation") //The deprecated thread-local cache can still be enabled
+    private static UploadStorageService getCacheDelegate(UploadStorageService storageService) {
+        if (storageService instanceof SharedCachedStorageAndLockingService cachedService) {
+            return cachedService.getStorageServiceDelegate();
+        } else if (storageService instanceof ThreadLocalCachedStorageAndLockingService cachedService) {
+            return cachedService.getStorageServiceDelegate();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return The locking service that the given cache delegates to, or null if the service is not a cache
+     */
+    @SuppressWarnings("deprecation") //The deprecated thread-local cache can still be enabled
+    private static UploadLockingService getCacheDelegate(UploadLockingService lockingService) {
+        if (lockingService instanceof SharedCachedStorageAndLockingService cachedService) {
+            return cachedService.getLockingServiceDelegate();
+        } else if (lockingService instanceof ThreadLocalCachedStorageAndLockingService cachedService) {
+            return cachedService.getLockingServiceDelegate();
+        } else {
+            return null;
+        }
     }
 
 }
@@ -2,6 +2,10 @@ package com.ejemplos.tus.server.checksum;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -10,6 +14,11 @@ import org.slf4j.LoggerFactory;
 /** Enum that contains all supported checksum algorithms
  * The names of the checksum algorithms MUST only consist of ASCII characters
  * with the modification that uppercase characters are excluded.
+ * <p>
+ * Besides the cryptographic digests, the CRC32 and CRC32C checksums of the JDK are supported. These only detect
+ * transfer errors, but are much cheaper to calculate. They are also exposed as {@link MessageDigest} whose digest
+ * is the checksum value in big-endian byte order. The checksums are not part of the
+ * {@linkplain #getDefaultAlgorithms() default algorithms} and must be allowed explicitly.
  */
 public enum ChecksumAlgorithm {
 
@@ -17,7 +26,9 @@ public enum ChecksumAlgorithm {
     SHA1("SHA-1", "sha1"),
     SHA256("SHA-256", "sha256"),
     SHA384("SHA-384", "sha384"),
-    SHA512("SHA-512", "sha512");
+    SHA512("SHA-512", "sha512"),
+    CRC32("CRC32", "crc32", java.util.zip.CRC32::new),
+    CRC32C("CRC32C", "crc32c", java.util.zip.CRC32C::new);
 
     public static final String CHECKSUM_VALUE_SEPARATOR = " ";
 
@@ -25,10 +36,16 @@ public enum ChecksumAlgorithm {
 
     private final String javaName;
     private final String tusName;
+    private final Supplier<Checksum> checksumFactory;
 
     ChecksumAlgorithm(String javaName, String tusName) {
+        this(javaName, tusName, null);
+    }
+
+    ChecksumAlgorithm(String javaName, String tusName, Supplier<Checksum> checksumFactory) {
         this.javaName = javaName;
         this.tusName = tusName;
+        this.checksumFactory = checksumFactory;
     }
 
     public String getJavaName() {
@@ -45,6 +62,9 @@ public enum ChecksumAlgorithm {
     }
 
     public MessageDigest getMessageDigest() {
+        if (checksumFactory != null) {
+            return new ChecksumMessageDigest(getJavaName(), checksumFactory.get());
+        }
         try {
             return MessageDigest.getInstance(getJavaName());
         } catch (NoSuchAlgorithmException e) {
@@ -53,6 +73,16 @@ public enum ChecksumAlgorithm {
         }
     }
 
+    /**
+     * Get the algorithms that are allowed when none are configured: the cryptographic digests. A chunked request
+     * that can still send its Upload-Checksum header as a trailer calculates all allowed algorithms, so the CRC32
+     * and CRC32C checksums are left out to not add to the cost of such requests where no client uses them.
+     * @return A new set with the default algorithms
+     */
+    public static Set<ChecksumAlgorithm> getDefaultAlgorithms() {
+        return EnumSet.of(MD5, SHA1, SHA256, SHA384, SHA512);
+    }
+
     public static ChecksumAlgorithm forTusName(String name) {
         for (ChecksumAlgorithm alg : ChecksumAlgorithm.values()) {
             if (alg.getTusName().equals(name)) {
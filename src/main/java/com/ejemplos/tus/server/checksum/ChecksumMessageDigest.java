@@ -0,0 +1,55 @@
+package com.ejemplos.tus.server.checksum;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+/**
+ * {@link MessageDigest} view on a non-cryptographic {@link Checksum} like {@link java.util.zip.CRC32C}, so that
+ * it can be calculated wherever a message digest is expected. The digest is the 32-bit checksum value in
+ * big-endian byte order.
+ */
+class ChecksumMessageDigest extends MessageDigest {
+
+    private static final int DIGEST_LENGTH = 4;
+
+    private final Checksum checksum;
+
+    ChecksumMessageDigest(String algorithm, Checksum checksum) {
+        super(algorithm);
+        this.checksum = checksum;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        checksum.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        checksum.update(input, offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        //Direct buffers are checksummed without copying them to an array first
+        checksum.update(input);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        int value = (int) checksum.getValue();
+        checksum.reset();
+        return ByteBuffer.allocate(DIGEST_LENGTH).putInt(value).array();
+    }
+
+    @Override
+    protected void engineReset() {
+        checksum.reset();
+    }
+}
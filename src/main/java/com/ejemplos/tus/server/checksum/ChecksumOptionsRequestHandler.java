@@ -24,7 +24,7 @@ public class ChecksumOptionsRequestHandler extends AbstractExtensionRequestHandl
         super.process(method, servletRequest, servletResponse, uploadStorageService, ownerKey);
 
         servletResponse.setHeader(HttpHeader.TUS_CHECKSUM_ALGORITHM,
-                StringUtils.join(ChecksumAlgorithm.values(), ","));
+                StringUtils.join(servletRequest.getChecksumAlgorithms(), ","));
     }
 
     @Override
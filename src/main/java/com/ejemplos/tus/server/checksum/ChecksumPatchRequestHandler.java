@@ -3,7 +3,12 @@ package com.ejemplos.tus.server.checksum;
 import static com.ejemplos.tus.server.checksum.ChecksumAlgorithm.CHECKSUM_VALUE_SEPARATOR;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 
 import com.ejemplos.tus.server.HttpHeader;
@@ -11,6 +16,7 @@ import com.ejemplos.tus.server.HttpMethod;
 import com.ejemplos.tus.server.checksum.validation.ChecksumAlgorithmValidator;
 import com.ejemplos.tus.server.exception.TusException;
 import com.ejemplos.tus.server.exception.UploadChecksumMismatchException;
+import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadStorageService;
 import com.ejemplos.tus.server.util.AbstractRequestHandler;
 import com.ejemplos.tus.server.util.TusServletRequest;
@@ -30,7 +36,8 @@ public class ChecksumPatchRequestHandler extends AbstractRequestHandler {
 
         String uploadChecksumHeader = servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM);
 
-        if (servletRequest.hasCalculatedChecksum() && StringUtils.isNotBlank(uploadChecksumHeader)) {
+        if ((servletRequest.hasCalculatedChecksum() || servletRequest.isChecksumVerificationDeferred())
+                && StringUtils.isNotBlank(uploadChecksumHeader)) {
 
             //The Upload-Checksum header can be a trailing header which is only present after reading the full content.
             //Therefor we need to revalidate that header here
@@ -40,7 +47,9 @@ public class ChecksumPatchRequestHandler extends AbstractRequestHandler {
             String expectedValue = StringUtils.substringAfter(uploadChecksumHeader, CHECKSUM_VALUE_SEPARATOR);
 
             ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.forUploadChecksumHeader(uploadChecksumHeader);
-            String calculatedValue = servletRequest.getCalculatedChecksum(checksumAlgorithm);
+            String calculatedValue = servletRequest.isChecksumVerificationDeferred()
+                    ? calculateStoredChecksum(checksumAlgorithm, servletRequest, uploadStorageService, ownerKey)
+                    : servletRequest.getCalculatedChecksum(checksumAlgorithm);
 
             if (!StringUtils.equals(expectedValue, calculatedValue)) {
                 //throw an exception if the checksum is invalid. This will also trigger the removal of any
@@ -52,4 +61,24 @@ public class ChecksumPatchRequestHandler extends AbstractRequestHandler {
         }
     }
 
+    /**
+     * Calculate the checksum of the bytes that were stored during this request by reading them back
+     */
+    private String calculateStoredChecksum(ChecksumAlgorithm checksumAlgorithm, TusServletRequest servletRequest,
+                                           UploadStorageService uploadStorageService, String ownerKey)
+            throws IOException, TusException {
+
+        UploadInfo uploadInfo = uploadStorageService.getUploadInfo(servletRequest.getRequestURI(), ownerKey);
+        if (uploadInfo == null) {
+            return null;
+        }
+
+        long bytesRead = servletRequest.getBytesRead();
+        MessageDigest messageDigest = checksumAlgorithm.getMessageDigest();
+        try (OutputStream outputStream = new DigestOutputStream(NullOutputStream.INSTANCE, messageDigest)) {
+            uploadStorageService.copyUploadTo(uploadInfo, uploadInfo.getOffset() - bytesRead, bytesRead,
+                    outputStream);
+        }
+        return Base64.encodeBase64String(messageDigest.digest());
+    }
 }
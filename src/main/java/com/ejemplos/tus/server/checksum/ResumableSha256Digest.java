@@ -0,0 +1,233 @@
+package com.ejemplos.tus.server.checksum;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * SHA-256 {@link MessageDigest} whose intermediate state can be exported and restored later, possibly by another
+ * process. This allows the digest of an upload to be calculated incrementally over several requests without
+ * reading the bytes that were stored earlier again. The message digests of the JDK do not expose their state,
+ * which is why the algorithm is implemented here.
+ * <p>
+ * The exported state contains the number of bytes that were digested, the eight hash values and the bytes of the
+ * block that is not complete yet, so it is at most {@value #MAX_STATE_LENGTH} bytes long.
+ */
+public class ResumableSha256Digest extends MessageDigest {
+
+    /** The name of the algorithm */
+    public static final String ALGORITHM = "SHA-256";
+
+    /** The maximum length in bytes of an exported state */
+    public static final int MAX_STATE_LENGTH = Long.BYTES + 8 * Integer.BYTES + 63;
+
+    private static final int DIGEST_LENGTH = 32;
+    private static final int BLOCK_SIZE = 64;
+    private static final int STATE_HEADER_LENGTH = Long.BYTES + 8 * Integer.BYTES;
+
+    private static final int[] INITIAL_HASH = {
+        0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] ROUND_CONSTANTS = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] hash = new int[8];
+    private final int[] schedule = new int[64];
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private long byteCount;
+
+    /**
+     * Create a new digest without any digested bytes
+     */
+    public ResumableSha256Digest() {
+        super(ALGORITHM);
+        engineReset();
+    }
+
+    /**
+     * Restore a digest from a state that was exported with {@link #getState()}
+     * @param state The exported state
+     * @return The digest that continues where the exported digest stopped
+     * @throws IllegalArgumentException When the state is not valid
+     */
+    public static ResumableSha256Digest fromState(byte[] state) {
+        long byteCount = getByteCount(state);
+        if (state.length != STATE_HEADER_LENGTH + (int) (byteCount % BLOCK_SIZE)) {
+            throw new IllegalArgumentException("The length of the digest state does not match its byte count");
+        }
+
+        ResumableSha256Digest digest = new ResumableSha256Digest();
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+        digest.byteCount = buffer.getLong();
+        for (int i = 0; i < digest.hash.length; i++) {
+            digest.hash[i] = buffer.getInt();
+        }
+        buffer.get(digest.block, 0, buffer.remaining());
+        return digest;
+    }
+
+    /**
+     * Get the number of bytes that were digested in an exported state without restoring it
+     * @param state The exported state
+     * @return The number of digested bytes
+     * @throws IllegalArgumentException When the state is not valid
+     */
+    public static long getByteCount(byte[] state) {
+        if (state == null || state.length < STATE_HEADER_LENGTH || state.length > MAX_STATE_LENGTH) {
+            throw new IllegalArgumentException("The digest state is missing or has an invalid length");
+        }
+        long byteCount = ByteBuffer.wrap(state).getLong();
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("The digest state has a negative byte count");
+        }
+        return byteCount;
+    }
+
+    /**
+     * Export the intermediate state of this digest, so that it can be continued later with
+     * {@link #fromState(byte[])}
+     * @return The exported state
+     */
+    public byte[] getState() {
+        int pending = (int) (byteCount % BLOCK_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_HEADER_LENGTH + pending);
+        buffer.putLong(byteCount);
+        for (int value : hash) {
+            buffer.putInt(value);
+        }
+        buffer.put(block, 0, pending);
+        return buffer.array();
+    }
+
+    /**
+     * @return The number of bytes that were digested since the digest was created or reset
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        int pending = (int) (byteCount % BLOCK_SIZE);
+        block[pending] = input;
+        byteCount++;
+        if (pending == BLOCK_SIZE - 1) {
+            processBlock(block, 0);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        int pending = (int) (byteCount % BLOCK_SIZE);
+        byteCount += len;
+
+        if (pending > 0) {
+            int length = Math.min(len, BLOCK_SIZE - pending);
+            System.arraycopy(input, offset, block, pending, length);
+            offset += length;
+            len -= length;
+            if (pending + length < BLOCK_SIZE) {
+                return;
+            }
+            processBlock(block, 0);
+        }
+
+        //Complete blocks are processed straight from the input
+        while (len >= BLOCK_SIZE) {
+            processBlock(input, offset);
+            offset += BLOCK_SIZE;
+            len -= BLOCK_SIZE;
+        }
+        System.arraycopy(input, offset, block, 0, len);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long bitCount = byteCount * 8;
+        int pending = (int) (byteCount % BLOCK_SIZE);
+
+        //Pad with a single 1 bit and zeros up to the last 8 bytes of a block, which hold the message length
+        byte[] padding = new byte[(pending < BLOCK_SIZE - Long.BYTES ? BLOCK_SIZE : 2 * BLOCK_SIZE) - pending];
+        padding[0] = (byte) 0x80;
+        ByteBuffer.wrap(padding).putLong(padding.length - Long.BYTES, bitCount);
+        engineUpdate(padding, 0, padding.length);
+
+        ByteBuffer digest = ByteBuffer.allocate(DIGEST_LENGTH);
+        for (int value : hash) {
+            digest.putInt(value);
+        }
+        engineReset();
+        return digest.array();
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(INITIAL_HASH, 0, hash, 0, hash.length);
+        Arrays.fill(block, (byte) 0);
+        byteCount = 0;
+    }
+
+    private void processBlock(byte[] input, int offset) {
+        int[] w = schedule;
+        for (int t = 0; t < 16; t++) {
+            int position = offset + t * 4;
+            w[t] = (input[position] << 24) | ((input[position + 1] & 0xff) << 16)
+                    | ((input[position + 2] & 0xff) << 8) | (input[position + 3] & 0xff);
+        }
+        for (int t = 16; t < 64; t++) {
+            int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+
+        int a = hash[0];
+        int b = hash[1];
+        int c = hash[2];
+        int d = hash[3];
+        int e = hash[4];
+        int f = hash[5];
+        int g = hash[6];
+        int h = hash[7];
+
+        for (int t = 0; t < 64; t++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int temp1 = h + s1 + ch + ROUND_CONSTANTS[t] + w[t];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int temp2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+
+        hash[0] += a;
+        hash[1] += b;
+        hash[2] += c;
+        hash[3] += d;
+        hash[4] += e;
+        hash[5] += f;
+        hash[6] += g;
+        hash[7] += h;
+    }
+}
@@ -8,6 +8,7 @@ import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
 import com.ejemplos.tus.server.exception.ChecksumAlgorithmNotSupportedException;
 import com.ejemplos.tus.server.exception.TusException;
 import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.util.TusServletRequest;
 import jakarta.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
@@ -16,7 +17,7 @@ import com.ejemplos.tus.server.RequestValidator;
 
 /**
  * The Server MAY respond with one of the following status code: 400 Bad Request
- * if the checksum algorithm is not supported by the server
+ * if the checksum algorithm is not supported by the server (or not allowed by its configuration)
  */
 public class ChecksumAlgorithmValidator implements RequestValidator {
 
@@ -29,7 +30,7 @@ public class ChecksumAlgorithmValidator implements RequestValidator {
 
         //If the client provided a checksum header, check that we support the algorithm
         if (StringUtils.isNotBlank(uploadChecksum)
-                && ChecksumAlgorithm.forUploadChecksumHeader(uploadChecksum) == null) {
+                && !isAllowed(request, ChecksumAlgorithm.forUploadChecksumHeader(uploadChecksum))) {
 
             throw new ChecksumAlgorithmNotSupportedException("The " + HttpHeader.UPLOAD_CHECKSUM + " header value "
                     + uploadChecksum + " is not supported");
@@ -37,6 +38,16 @@ public class ChecksumAlgorithmValidator implements RequestValidator {
         }
     }
 
+    private boolean isAllowed(HttpServletRequest request, ChecksumAlgorithm algorithm) {
+        if (algorithm == null) {
+            return false;
+        } else if (request instanceof TusServletRequest tusServletRequest) {
+            return tusServletRequest.getChecksumAlgorithms().contains(algorithm);
+        } else {
+            return true;
+        }
+    }
+
     @Override
     public boolean supports(HttpMethod method) {
         return HttpMethod.PATCH.equals(method);
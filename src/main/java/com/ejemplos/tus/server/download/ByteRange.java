@@ -0,0 +1,100 @@
+package com.ejemplos.tus.server.download;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single byte range of an upload that was requested with the Range header (RFC 9110 section 14)
+ */
+final class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final ByteRange UNSATISFIABLE = new ByteRange(-1L, -1L);
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse the value of a Range header for a representation of the given length. Headers that are invalid, use
+     * another unit than bytes or request multiple ranges are ignored, in which case the complete representation
+     * should be sent.
+     * @param rangeHeader The value of the Range header
+     * @param length The length of the complete representation
+     * @return The requested range, an unsatisfiable range or null if the header must be ignored
+     */
+    static ByteRange parse(String rangeHeader, long length) {
+        if (!StringUtils.startsWithIgnoreCase(StringUtils.trimToEmpty(rangeHeader), BYTES_UNIT)) {
+            return null;
+        }
+
+        String rangeSpec = StringUtils.trim(rangeHeader).substring(BYTES_UNIT.length()).trim();
+        int separator = rangeSpec.indexOf('-');
+        if (separator < 0 || rangeSpec.indexOf(',') >= 0) {
+            return null;
+        }
+
+        try {
+            String first = rangeSpec.substring(0, separator).trim();
+            String last = rangeSpec.substring(separator + 1).trim();
+
+            if (first.isEmpty()) {
+                //A suffix range contains the last bytes of the representation
+                long suffixLength = parseNumber(last);
+                return suffixLength == 0 || length == 0
+                        ? UNSATISFIABLE : new ByteRange(Math.max(length - suffixLength, 0L), length - 1);
+            }
+
+            long start = parseNumber(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : parseNumber(last);
+            if (end < start) {
+                return null;
+            } else if (start >= length) {
+                return UNSATISFIABLE;
+            } else {
+                return new ByteRange(start, Math.min(end, length - 1));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    boolean isSatisfiable() {
+        return start >= 0;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * @return The position of the last byte of the range
+     */
+    long getEnd() {
+        return end;
+    }
+
+    long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Format the value of the Content-Range header for this range
+     * @param length The length of the complete representation
+     * @return The content range
+     */
+    String toContentRange(long length) {
+        return isSatisfiable() ? "bytes " + start + "-" + end + "/" + length : "bytes */" + length;
+    }
+
+    private static long parseNumber(String value) {
+        if (value.isEmpty() || !StringUtils.isNumeric(value)) {
+            throw new NumberFormatException("Invalid range position " + value);
+        }
+        return Long.parseLong(value);
+    }
+}
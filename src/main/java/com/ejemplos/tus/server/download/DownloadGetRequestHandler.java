@@ -3,27 +3,53 @@ package com.ejemplos.tus.server.download;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Objects;
 
 import com.ejemplos.tus.server.exception.TusException;
 import com.ejemplos.tus.server.exception.UploadInProgressException;
+import com.ejemplos.tus.server.upload.FileRegion;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadStorageService;
 import com.ejemplos.tus.server.util.AbstractRequestHandler;
 import com.ejemplos.tus.server.util.TusServletRequest;
 import com.ejemplos.tus.server.util.TusServletResponse;
 import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
 
 import com.ejemplos.tus.server.HttpHeader;
 import com.ejemplos.tus.server.HttpMethod;
 
 /**
- * Send the uploaded bytes of finished uploads
+ * Send the uploaded bytes of finished uploads.
+ * <p>
+ * A completed upload never changes, so every download carries an entity tag and a modification date. Conditional
+ * requests with If-None-Match or If-Modified-Since are answered with 304 Not Modified, and a single byte range
+ * requested with Range (and optionally If-Range) is answered with 206 Partial Content. The range of a
+ * concatenated upload can span several partial uploads.
+ * <p>
+ * When the servlet container supports sending a file region itself (Tomcat's sendfile support with NIO or NIO2
+ * connectors) and the requested bytes are stored in one file region, the container is asked to send the bytes
+ * straight from the file system. Otherwise the bytes are copied to the response through a pooled buffer by the
+ * storage service.
+ * <p>
+ * When the SHA-256 digest of the upload was calculated while it was stored, it is sent in the Repr-Digest header.
+ * The digest describes the complete upload, also in a partial response.
  */
 public class DownloadGetRequestHandler extends AbstractRequestHandler {
 
     private static final String CONTENT_DISPOSITION_FORMAT = "attachment; filename=\"%s\"; filename*=UTF-8''%s";
 
+    static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private static final String WEAK_ENTITY_TAG_PREFIX = "W/";
+    private static final String SHA256_DIGEST_ALGORITHM = "sha-256";
+    private static final String SHA256_LEGACY_DIGEST_ALGORITHM = "SHA-256";
+
     @Override
     public boolean supports(HttpMethod method) {
         return HttpMethod.GET.equals(method);
@@ -38,24 +64,163 @@ public class DownloadGetRequestHandler extends AbstractRequestHandler {
         if (info == null || info.isUploadInProgress()) {
             throw new UploadInProgressException("Upload " + servletRequest.getRequestURI() + " is still in progress "
                     + "and cannot be downloaded yet");
+        }
+
+        String entityTag = getEntityTag(info);
+        Long lastModified = info.getCreationTimestamp();
+        servletResponse.setHeader(HttpHeader.ACCEPT_RANGES, "bytes");
+        servletResponse.setHeader(HttpHeader.ETAG, entityTag);
+        if (lastModified != null) {
+            servletResponse.setDateHeader(HttpHeader.LAST_MODIFIED, lastModified);
+        }
+
+        if (isNotModified(servletRequest, entityTag, lastModified)) {
+            servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = info.getLength();
+        ByteRange range = null;
+        if (isRangeApplicable(servletRequest, entityTag, lastModified)) {
+            range = ByteRange.parse(servletRequest.getHeader(HttpHeader.RANGE), length);
+        }
+
+        if (range != null && !range.isSatisfiable()) {
+            servletResponse.setHeader(HttpHeader.CONTENT_RANGE, range.toContentRange(length));
+            servletResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        servletResponse.setHeader(HttpHeader.CONTENT_DISPOSITION,
+                String.format(CONTENT_DISPOSITION_FORMAT, info.getFileName(),
+                        URLEncoder.encode(info.getFileName(),
+                                StandardCharsets.UTF_8).replace("+","%20")));
+
+        servletResponse.setHeader(HttpHeader.CONTENT_TYPE, info.getFileMimeType());
+
+        if (info.hasMetadata()) {
+            servletResponse.setHeader(HttpHeader.UPLOAD_METADATA, info.getEncodedMetadata());
+        }
+
+        setDigestHeaders(info, servletRequest, servletResponse);
+
+        if (range == null) {
+            servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Objects.toString(length));
+            servletResponse.setStatus(HttpServletResponse.SC_OK);
+
+            if (!sendFileRegion(info, 0L, length, servletRequest, uploadStorageService)) {
+                uploadStorageService.copyUploadTo(info, servletResponse.getOutputStream());
+            }
         } else {
+            servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Objects.toString(range.getLength()));
+            servletResponse.setHeader(HttpHeader.CONTENT_RANGE, range.toContentRange(length));
+            servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
 
-            servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Objects.toString(info.getLength()));
+            if (!sendFileRegion(info, range.getStart(), range.getLength(), servletRequest, uploadStorageService)) {
+                uploadStorageService.copyUploadTo(info, range.getStart(), range.getLength(),
+                        servletResponse.getOutputStream());
+            }
+        }
+    }
 
-            servletResponse.setHeader(HttpHeader.CONTENT_DISPOSITION,
-                    String.format(CONTENT_DISPOSITION_FORMAT, info.getFileName(),
-                            URLEncoder.encode(info.getFileName(),
-                                    StandardCharsets.UTF_8).replace("+","%20")));
+    private String getEntityTag(UploadInfo info) {
+        //The bytes of a completed upload never change, so its identity and size make a strong validator
+        return "\"" + info.getId() + "-" + Long.toHexString(info.getLength())
+                + (info.getCreationTimestamp() == null ? "" : "-" + Long.toHexString(info.getCreationTimestamp()))
+                + "\"";
+    }
 
-            servletResponse.setHeader(HttpHeader.CONTENT_TYPE, info.getFileMimeType());
+    private void setDigestHeaders(UploadInfo info, TusServletRequest servletRequest,
+                                  TusServletResponse servletResponse) {
+        byte[] digest = info.getUploadDigest();
+        if (digest == null) {
+            return;
+        }
 
-            if (info.hasMetadata()) {
-                servletResponse.setHeader(HttpHeader.UPLOAD_METADATA, info.getEncodedMetadata());
+        String encodedDigest = Base64.encodeBase64String(digest);
+        servletResponse.setHeader(HttpHeader.REPR_DIGEST, SHA256_DIGEST_ALGORITHM + "=:" + encodedDigest + ":");
+        if (isDigestWanted(servletRequest.getHeader(HttpHeader.WANT_DIGEST))) {
+            servletResponse.setHeader(HttpHeader.DIGEST, SHA256_LEGACY_DIGEST_ALGORITHM + "=" + encodedDigest);
+        }
+    }
+
+    private boolean isDigestWanted(String wantDigest) {
+        if (wantDigest == null) {
+            return false;
+        }
+        for (String candidate : wantDigest.split(",")) {
+            String[] parts = candidate.split(";");
+            if (SHA256_DIGEST_ALGORITHM.equalsIgnoreCase(parts[0].trim())) {
+                //A quality value of 0 means the client does not want this digest
+                return parts.length < 2 || !parts[1].trim().matches("(?i)q\\s*=\\s*0(\\.0*)?");
             }
+        }
+        return false;
+    }
 
-            uploadStorageService.copyUploadTo(info, servletResponse.getOutputStream());
+    private boolean isNotModified(TusServletRequest servletRequest, String entityTag, Long lastModified) {
+        String ifNoneMatch = servletRequest.getHeader(HttpHeader.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            //If-Modified-Since is ignored when If-None-Match is present
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = StringUtils.removeStart(candidate.trim(), WEAK_ENTITY_TAG_PREFIX);
+                if ("*".equals(tag) || entityTag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        servletResponse.setStatus(HttpServletResponse.SC_OK);
+        long ifModifiedSince = getDateHeader(servletRequest, HttpHeader.IF_MODIFIED_SINCE);
+        return lastModified != null && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean isRangeApplicable(TusServletRequest servletRequest, String entityTag, Long lastModified) {
+        String ifRange = servletRequest.getHeader(HttpHeader.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        } else if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_ENTITY_TAG_PREFIX)) {
+            //If-Range requires a strong comparison of the entity tags
+            return entityTag.equals(ifRange.trim());
+        } else {
+            long date = getDateHeader(servletRequest, HttpHeader.IF_RANGE);
+            return lastModified != null && date >= 0 && lastModified / 1000 == date / 1000;
+        }
+    }
+
+    private long getDateHeader(TusServletRequest servletRequest, String header) {
+        try {
+            return servletRequest.getDateHeader(header);
+        } catch (IllegalArgumentException e) {
+            //An invalid date is treated as if the header was not present
+            return -1L;
+        }
+    }
+
+    private boolean sendFileRegion(UploadInfo info, long position, long count, TusServletRequest servletRequest,
+                                   UploadStorageService uploadStorageService) throws IOException, TusException {
+
+        if (count == 0 || !Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            return false;
+        }
+
+        List<FileRegion> regions = uploadStorageService.getUploadedFileRegions(info);
+        if (regions == null) {
+            return false;
+        }
+
+        //The container can only send one file region per response, so the bytes must lie within one region
+        long regionStart = 0;
+        for (FileRegion region : regions) {
+            if (position >= regionStart && position + count <= regionStart + region.getCount()) {
+                long start = region.getPosition() + position - regionStart;
+                servletRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, region.getPath().toString());
+                servletRequest.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+                servletRequest.setAttribute(SENDFILE_END_ATTRIBUTE, start + count);
+                return true;
+            }
+            regionStart += region.getCount();
+        }
+        return false;
     }
 }
@@ -0,0 +1,14 @@
+package com.ejemplos.tus.server.exception;
+
+/**
+ * Exception thrown when a request writes to an upload with a lock that was lost and has since been acquired by
+ * another request, for example because the lock expired while the request was paused. For the request holding
+ * the stale lock, the upload can no longer be found, which is why this exception extends
+ * {@link UploadNotFoundException}.
+ */
+public class StaleUploadLockException extends UploadNotFoundException {
+    public StaleUploadLockException(String message) {
+        // 423 is LOCKED (WebDAV rfc 4918), the upload is now locked by another request
+        super(423, message);
+    }
+}
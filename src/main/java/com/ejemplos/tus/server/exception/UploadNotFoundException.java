@@ -11,4 +11,8 @@ public class UploadNotFoundException extends TusException {
     public UploadNotFoundException(String message) {
         super(HttpServletResponse.SC_NOT_FOUND, message);
     }
+
+    protected UploadNotFoundException(int status, String message) {
+        super(status, message);
+    }
 }
@@ -0,0 +1,45 @@
+package com.ejemplos.tus.server.upload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of fencing tokens for {@link UploadLock} implementations.
+ * <p>
+ * A fencing token identifies one acquisition of a lock. A lock that is acquired later on the same upload must get a
+ * bigger token, so that storage services can reject the writes of a request whose lock was lost and taken over by
+ * another request. Tokens follow the clock in microseconds since epoch and are strictly increasing within one
+ * sequence. Because of the clock, tokens also keep increasing after a restart.
+ * <p>
+ * The clocks of different nodes are never exactly in sync, so a sequence must only be used for locks that are
+ * handed out by a single process. Stores that share locks between nodes persist the last token of every lock, or
+ * of all locks together, and derive the next token from it with {@link #nextAfter(long)}. The clock then only
+ * matters when the last token is no longer known.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FencingTokenSequence {
+
+    private final AtomicLong lastToken = new AtomicLong();
+
+    /**
+     * Get the next token of this sequence
+     * @return A token that is bigger than all previous tokens of this sequence
+     */
+    public long next() {
+        return lastToken.accumulateAndGet(clockToken(), (previous, clock) -> Math.max(previous + 1, clock));
+    }
+
+    /**
+     * Get a token that is bigger than the given token, for stores that keep the last token of every lock. The
+     * result is never smaller than the clock token, so tokens also increase after the last token of a lock was lost.
+     * @param previousToken The last token that was handed out for a lock, or 0 if it is unknown
+     * @return A new token for that lock
+     */
+    public static long nextAfter(long previousToken) {
+        return Math.max(previousToken + 1, clockToken());
+    }
+
+    private static long clockToken() {
+        return System.currentTimeMillis() * 1000L;
+    }
+}
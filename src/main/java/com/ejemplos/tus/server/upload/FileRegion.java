@@ -0,0 +1,49 @@
+package com.ejemplos.tus.server.upload;
+
+import java.nio.file.Path;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A contiguous range of bytes in a file that holds (a part of) the bytes of an upload. Servlet containers can
+ * send such a region to the client directly from the file system cache.
+ */
+public class FileRegion {
+
+    private final Path path;
+    private final long position;
+    private final long count;
+
+    /**
+     * Create a new file region
+     * @param path The absolute path to the file
+     * @param position The position in the file of the first byte
+     * @param count The number of bytes in the region
+     */
+    public FileRegion(Path path, long position, long count) {
+        Validate.notNull(path, "The path of a file region cannot be null");
+        Validate.isTrue(position >= 0 && count >= 0, "The position and count of a file region cannot be negative");
+        this.path = path;
+        this.position = position;
+        this.count = count;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The position in the file directly after the last byte of the region
+     */
+    public long getEnd() {
+        return position + count;
+    }
+}
@@ -0,0 +1,189 @@
+package com.ejemplos.tus.server.upload;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ejemplos.tus.server.util.Utils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Strategy that determines how long to wait for a lock that is held by someone else. A typical case is a client
+ * that retries a PATCH request right after its connection dropped, while the previous request still holds the
+ * upload lock. Waiting a few milliseconds for that lock is better than failing the new request immediately.
+ * <p>
+ * Locks that can only be polled are retried with an exponential backoff until the maximum wait time has passed.
+ * Lock implementations that park their waiters until the lock is released use {@link #getMaxWaitMillis()} as
+ * timeout and report their result with {@link #recordUncontended()} and {@link #recordContended(long, boolean)}.
+ * <p>
+ * The strategy also keeps contention metrics. This class is thread-safe.
+ */
+public class LockAcquisitionStrategy {
+
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1L;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 64L;
+
+    private final long maxWaitMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong contendedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong longestWaitNanos = new AtomicLong();
+
+    /**
+     * Create a new strategy
+     * @param maxWaitMillis The maximum time to wait for a lock that is held by someone else
+     * @param initialBackoffMillis The time to wait before polling a lock for the second time
+     * @param maxBackoffMillis The maximum time between two polls, the time between polls doubles until this value
+     */
+    public LockAcquisitionStrategy(long maxWaitMillis, long initialBackoffMillis, long maxBackoffMillis) {
+        Validate.isTrue(maxWaitMillis >= 0, "The maximum wait time cannot be negative");
+        Validate.isTrue(initialBackoffMillis > 0, "The initial backoff must be bigger than 0");
+        Validate.isTrue(maxBackoffMillis >= initialBackoffMillis,
+                "The maximum backoff cannot be smaller than the initial backoff");
+        this.maxWaitMillis = maxWaitMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Create a strategy that never waits, a lock that is held by someone else fails immediately
+     * @return A new strategy
+     */
+    public static LockAcquisitionStrategy failFast() {
+        return new LockAcquisitionStrategy(0L, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Create a strategy that waits at most the given time for a lock, polling with an exponential backoff
+     * starting at 1 millisecond
+     * @param maxWaitMillis The maximum time to wait for a lock
+     * @return A new strategy
+     */
+    public static LockAcquisitionStrategy boundedWait(long maxWaitMillis) {
+        return new LockAcquisitionStrategy(maxWaitMillis, DEFAULT_INITIAL_BACKOFF_MILLIS,
+                DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Try to acquire a lock, polling it until it is acquired or until the maximum wait time has passed
+     * @param attempt The (non-blocking) attempt to acquire the lock
+     * @param <T> The type of lock
+     * @return The acquired lock or null if the lock could not be acquired in time
+     * @throws IOException When an attempt fails
+     */
+    public <T> T acquire(Attempt<T> attempt) throws IOException {
+        long start = System.nanoTime();
+        T lock = attempt.tryAcquire();
+        if (lock != null) {
+            recordUncontended();
+            return lock;
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        long backoffMillis = initialBackoffMillis;
+        long remainingNanos = deadline - System.nanoTime();
+        while (lock == null && remainingNanos > 0 && !Thread.currentThread().isInterrupted()) {
+            Utils.sleep(Math.min(backoffMillis, Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            lock = attempt.tryAcquire();
+            remainingNanos = deadline - System.nanoTime();
+        }
+
+        recordContended(System.nanoTime() - start, lock != null);
+        return lock;
+    }
+
+    /**
+     * Record a lock that was acquired without waiting
+     */
+    public void recordUncontended() {
+        acquiredCount.incrementAndGet();
+    }
+
+    /**
+     * Record a lock that was held by someone else when it was requested
+     * @param waitNanos The time spent waiting for the lock
+     * @param isAcquired True if the lock was acquired in the end, false if waiting timed out
+     */
+    public void recordContended(long waitNanos, boolean isAcquired) {
+        contendedCount.incrementAndGet();
+        if (isAcquired) {
+            acquiredCount.incrementAndGet();
+        } else {
+            timeoutCount.incrementAndGet();
+        }
+        totalWaitNanos.addAndGet(waitNanos);
+        longestWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * Get the number of locks that were acquired, with or without waiting
+     * @return The number of acquired locks
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * Get the number of lock requests that found the lock held by someone else
+     * @return The number of contended lock requests
+     */
+    public long getContendedCount() {
+        return contendedCount.get();
+    }
+
+    /**
+     * Get the number of contended lock requests that gave up because the maximum wait time passed
+     * @return The number of lock requests that failed
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Get the total time that lock requests spent waiting for a lock
+     * @return The total wait time in milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * Get the longest time a single lock request waited for a lock
+     * @return The longest wait time in milliseconds
+     */
+    public long getLongestWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(longestWaitNanos.get());
+    }
+
+    /**
+     * A single, non-blocking attempt to acquire a lock
+     * @param <T> The type of lock
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+
+        /**
+         * Try to acquire the lock without waiting
+         * @return The lock or null if the lock is held by someone else
+         * @throws IOException When the attempt fails
+         */
+        T tryAcquire() throws IOException;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ejemplos.tus.server.upload;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -10,6 +11,8 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class TimeBasedUploadIdFactory extends UploadIdFactory {
 
+    private final AtomicLong lastId = new AtomicLong();
+
     @Override
     protected Serializable getIdValueIfValid(String extractedUrlId) {
         Long id = null;
@@ -25,9 +28,15 @@ public class TimeBasedUploadIdFactory extends UploadIdFactory {
         return id;
     }
 
+    /**
+     * Create a new ID based on the current time. Multiple IDs created within the same millisecond get consecutive
+     * values, so this factory never hands out the same ID twice.
+     * @return A new upload ID
+     */
     @Override
-    public synchronized UploadId createId() {
-        return new UploadId(System.currentTimeMillis());
+    public UploadId createId() {
+        return new UploadId(lastId.accumulateAndGet(System.currentTimeMillis(),
+                (previous, now) -> Math.max(previous + 1, now)));
     }
 
 }
@@ -2,6 +2,7 @@ package com.ejemplos.tus.server.upload;
 
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -9,6 +10,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import jakarta.servlet.http.HttpServletRequest;
 
+import com.ejemplos.tus.server.checksum.ResumableSha256Digest;
 import com.ejemplos.tus.server.util.Utils;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
@@ -37,6 +39,10 @@ public class UploadInfo implements Serializable {
     private Long expirationTimestamp;
     private List<String> concatenationPartIds;
     private String uploadConcatHeaderValue;
+    private byte[] digestState;
+    private byte[] previousDigestState;
+    //Only belongs to the request that holds the lock, so it is neither stored nor copied
+    private transient Long fencingToken;
 
     /**
      * Default constructor to use if an upload is created without HTTP request
@@ -48,6 +54,27 @@ public class UploadInfo implements Serializable {
         length = null;
     }
 
+    /**
+     * Copy constructor that creates a new upload info object with the same values as the given one
+     * @param other The upload info to copy
+     */
+    public UploadInfo(UploadInfo other) {
+        uploadType = other.uploadType;
+        offset = other.offset;
+        encodedMetadata = other.encodedMetadata;
+        length = other.length;
+        id = other.id;
+        ownerKey = other.ownerKey;
+        creationTimestamp = other.creationTimestamp;
+        creatorIpAddresses = other.creatorIpAddresses;
+        expirationTimestamp = other.expirationTimestamp;
+        concatenationPartIds = other.concatenationPartIds == null ? null
+                : new ArrayList<>(other.concatenationPartIds);
+        uploadConcatHeaderValue = other.uploadConcatHeaderValue;
+        digestState = other.digestState == null ? null : other.digestState.clone();
+        previousDigestState = other.previousDigestState == null ? null : other.previousDigestState.clone();
+    }
+
     /**
      * Constructor to use if the upload is created using an HTTP request (which is usually the case)
      * @param servletRequest The HTTP request that creates the new upload
@@ -215,6 +242,15 @@ public class UploadInfo implements Serializable {
         return expirationTimestamp;
     }
 
+    /**
+     * Set the timestamp after which the upload expires in milliseconds since January 1, 1970, 00:00:00 GMT.
+     * Use {@link #updateExpiration(long)} to calculate a new expiration based on an expiration period.
+     * @param expirationTimestamp The expiration timestamp in milliseconds, or null if the upload does not expire
+     */
+    public void setExpirationTimestamp(Long expirationTimestamp) {
+        this.expirationTimestamp = expirationTimestamp;
+    }
+
     /**
      * Calculate the expiration timestamp based on the provided expiration period.
      * @param expirationPeriod The period the upload should remain valid
@@ -231,6 +267,15 @@ public class UploadInfo implements Serializable {
         return creationTimestamp;
     }
 
+    /**
+     * Set the timestamp this upload was created in number of milliseconds since January 1, 1970, 00:00:00 GMT.
+     * This is normally only required when restoring a previously stored upload.
+     * @param creationTimestamp Creation timestamp of this upload object
+     */
+    public void setCreationTimestamp(Long creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
+
     /**
      * Get the ip-addresses that were involved when this upload was created.
      * The returned value is a comma-separated list based on the remote address of the request and the
@@ -241,6 +286,15 @@ public class UploadInfo implements Serializable {
         return creatorIpAddresses;
     }
 
+    /**
+     * Set the comma-separated list of ip-addresses that were involved when this upload was created.
+     * This is normally only required when restoring a previously stored upload.
+     * @param creatorIpAddresses A comma-separated list of ip-addresses
+     */
+    public void setCreatorIpAddresses(String creatorIpAddresses) {
+        this.creatorIpAddresses = creatorIpAddresses;
+    }
+
     /**
      * Return the type of this upload. An upload can have types specified in {@link UploadType}.
      * The type of an upload depends on the Tus concatenation extension:
@@ -293,6 +347,74 @@ public class UploadInfo implements Serializable {
         return uploadConcatHeaderValue;
     }
 
+    /**
+     * Get the exported state of the SHA-256 digest of the uploaded bytes, see {@link ResumableSha256Digest}. The
+     * state is kept up-to-date by storage services that calculate the digest of an upload while storing it.
+     * @return The digest state or null if the digest of this upload is not calculated
+     */
+    public byte[] getDigestState() {
+        return digestState;
+    }
+
+    /**
+     * Set the exported state of the SHA-256 digest of the uploaded bytes.
+     * This is normally only required when restoring a previously stored upload.
+     * @param digestState The digest state or null if the digest of this upload is not calculated
+     */
+    public void setDigestState(byte[] digestState) {
+        this.digestState = digestState;
+    }
+
+    /**
+     * Get the digest state from before the bytes of the last append were digested, so that the digest can be
+     * restored when those bytes are removed again
+     * @return The previous digest state or null if there is none
+     */
+    public byte[] getPreviousDigestState() {
+        return previousDigestState;
+    }
+
+    /**
+     * Set the digest state from before the bytes of the last append were digested.
+     * This is normally only required when restoring a previously stored upload.
+     * @param previousDigestState The previous digest state or null if there is none
+     */
+    public void setPreviousDigestState(byte[] previousDigestState) {
+        this.previousDigestState = previousDigestState;
+    }
+
+    /**
+     * Get the SHA-256 digest of all uploaded bytes, so that a completed upload does not have to be read again to
+     * calculate it. The digest is only available when the storage service calculated it while the bytes were
+     * stored (see {@link #getDigestState()}).
+     * @return The SHA-256 digest of the upload or null if the upload is still in progress or its digest is unknown
+     */
+    public byte[] getUploadDigest() {
+        if (digestState == null || isUploadInProgress()
+                || ResumableSha256Digest.getByteCount(digestState) != offset) {
+            return null;
+        }
+        return ResumableSha256Digest.fromState(digestState).digest();
+    }
+
+    /**
+     * Set the fencing token of the upload lock under which this upload information is modified. Storage services
+     * reject changes with a token that is smaller than the token of an earlier change.
+     * @param fencingToken The fencing token of the lock, or null to modify the upload without fencing
+     */
+    public void setFencingToken(Long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    /**
+     * Get the fencing token of the upload lock under which this upload information is modified. Upload information
+     * that is read from a storage service can carry the token of the last change instead.
+     * @return The fencing token or null if this upload is not modified under a fenced lock
+     */
+    public Long getFencingToken() {
+        return fencingToken;
+    }
+
     /**
      * Try to guess the filename of the uploaded data. If we cannot guess the name
      * we fall back to the ID.
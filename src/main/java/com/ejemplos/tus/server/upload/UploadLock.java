@@ -13,6 +13,15 @@ public interface UploadLock extends AutoCloseable {
      */
     String getUploadUri();
 
+    /**
+     * Get the fencing token of this lock. A lock that is acquired later on the same upload has a bigger token, which
+     * allows storage services to reject writes of a request that lost its lock (see {@link FencingTokenSequence}).
+     * @return The fencing token, or 0 if this lock does not support fencing
+     */
+    default long getFencingToken() {
+        return 0L;
+    }
+
     /**
      * Method to release the lock on an upload when done processing it. It's possible that this method is
      * called multiple times within the same request
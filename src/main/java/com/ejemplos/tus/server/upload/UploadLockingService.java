@@ -35,4 +35,14 @@ public interface UploadLockingService {
      * @param idFactory The {@link UploadIdFactory} to use within this locking service
      */
     void setIdFactory(UploadIdFactory idFactory);
+
+    /**
+     * Set the strategy that determines how long to wait for an upload that is already locked. Implementations
+     * that cannot wait for a lock ignore this setting and fail immediately.
+     *
+     * @param lockAcquisitionStrategy The strategy to use when acquiring locks
+     */
+    default void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        //By default locks are not waited for
+    }
 }
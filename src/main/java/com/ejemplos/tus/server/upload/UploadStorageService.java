@@ -1,12 +1,18 @@
 package com.ejemplos.tus.server.upload;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
 import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
 import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadInProgressException;
 import com.ejemplos.tus.server.exception.UploadNotFoundException;
+import org.apache.commons.io.IOUtils;
 
 /**
  * Interface to a service that is able to store the (partially) uploaded files.
@@ -45,6 +51,20 @@ public interface UploadStorageService {
      */
     UploadInfo append(UploadInfo upload, InputStream inputStream) throws IOException, TusException;
 
+    /**
+     * Append the bytes in the given {@link InputStream} like {@link #append(UploadInfo, InputStream)}, but only set
+     * the new offset on the given {@link UploadInfo} without saving it. The caller must save the upload information
+     * with {@link #update(UploadInfo)} afterwards, also when this method fails. This allows all changes of one
+     * request to be saved at once. The default implementation saves the upload information immediately.
+     * @param upload The upload to append to
+     * @param inputStream The input stream containing the bytes to append
+     * @return The {@link UploadInfo} with the new offset
+     */
+    default UploadInfo appendWithoutUpdate(UploadInfo upload, InputStream inputStream)
+            throws IOException, TusException {
+        return append(upload, inputStream);
+    }
+
     /**
      * Limit the maximum upload size to the given value
      * @param maxUploadSize The maximum upload limit to set
@@ -89,6 +109,44 @@ public interface UploadStorageService {
      */
     InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException;
 
+    /**
+     * Get the bytes of a completed upload as read-only buffers, so that they can be processed without reading them
+     * through a stream. Storage services that keep the bytes in files map them into memory. An upload is split in
+     * several buffers when it is too big for one buffer, and a concatenated upload returns the buffers of its
+     * partial uploads in order. The default implementation reads the bytes of
+     * {@link #getUploadedBytes(UploadId)} into a single buffer.
+     * @param id The ID of the upload
+     * @return The buffers that contain the bytes of the upload in order
+     * @throws IOException When retrieving the bytes from the storage layer fails
+     * @throws TusException When the upload cannot be found or is still in progress
+     */
+    default List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        UploadInfo info = getUploadInfo(id);
+        if (info == null) {
+            throw new UploadNotFoundException("The upload with id " + id + " could not be found");
+        } else if (info.isUploadInProgress()) {
+            throw new UploadInProgressException("Upload " + id + " is still in progress");
+        }
+
+        try (InputStream inputStream = getUploadedBytes(id)) {
+            return Collections.singletonList(ByteBuffer.wrap(IOUtils.toByteArray(inputStream)).asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * Get the regions of the files in which the bytes of a completed upload are stored, in order. This allows the
+     * servlet container to send the bytes straight from the file system. The default implementation returns null
+     * to indicate that the bytes are not stored in plain files, so they must be copied with
+     * {@link #copyUploadTo(UploadInfo, OutputStream)}.
+     * @param info The completed upload
+     * @return The file regions that contain the bytes of the upload, or null if not available
+     * @throws IOException When locating the files fails
+     * @throws UploadNotFoundException When the upload or one of its partial uploads cannot be found
+     */
+    default List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        return null;
+    }
+
     /**
      * Copy the uploaded bytes to the given output stream
      * @param info The upload of which we should copy the bytes
@@ -96,6 +154,29 @@ public interface UploadStorageService {
      */
     void copyUploadTo(UploadInfo info, OutputStream outputStream) throws UploadNotFoundException, IOException;
 
+    /**
+     * Copy a range of the uploaded bytes to the given output stream, for example to answer an HTTP range request.
+     * The range of a concatenated upload can span several partial uploads. Unlike
+     * {@link #copyUploadTo(UploadInfo, OutputStream)} the output stream is not closed and failures are not
+     * ignored. Implementations can also copy the bytes that are already stored of an upload that is still in
+     * progress, which is needed to verify deferred checksums. The default implementation skips the bytes before
+     * the range in {@link #getUploadedBytes(UploadId)}.
+     * @param info The upload of which we should copy the bytes
+     * @param position The position in the upload of the first byte to copy
+     * @param count The number of bytes to copy
+     * @param outputStream The output stream where we have to copy the bytes to
+     * @throws IOException When the upload does not contain the range or copying fails
+     * @throws UploadNotFoundException When the upload or one of its partial uploads cannot be found
+     */
+    default void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        try (InputStream inputStream = getUploadedBytes(info.getId())) {
+            if (IOUtils.copyLarge(inputStream, outputStream, position, count) < count) {
+                throw new EOFException("Upload " + info.getId() + " ends before the requested range");
+            }
+        }
+    }
+
     /**
      * Clean up any upload data that is expired according to the configured expiration time
      * @param uploadLockingService An {@link UploadLockingService} that can be used to check and lock uploads
@@ -109,6 +190,19 @@ public interface UploadStorageService {
      */
     void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount) throws UploadNotFoundException, IOException;
 
+    /**
+     * Remove the given last amount of bytes like {@link #removeLastNumberOfBytes(UploadInfo, long)}, but only set
+     * the new offset on the given {@link UploadInfo} without saving it. The caller must save the upload information
+     * with {@link #update(UploadInfo)} afterwards. The default implementation saves the upload information
+     * immediately.
+     * @param uploadInfo Upload of which to remove the bytes
+     * @param byteCount The number of bytes to remove at the end
+     */
+    default void removeLastNumberOfBytesWithoutUpdate(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        removeLastNumberOfBytes(uploadInfo, byteCount);
+    }
+
     /**
      * Terminate completed and unfinished uploads allowing the Server to free up used resources.
      * @param uploadInfo The upload to terminate
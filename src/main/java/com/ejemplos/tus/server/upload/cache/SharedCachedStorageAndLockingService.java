@@ -0,0 +1,445 @@
+package com.ejemplos.tus.server.upload.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadNotFoundException;
+import com.ejemplos.tus.server.upload.FileRegion;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.upload.UploadType;
+import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Combined implementation of {@link UploadStorageService} and {@link UploadLockingService} that serves upload
+ * information from a shared {@link UploadInfoCache}.
+ * <p>
+ * Cached entries are invalidated when the upload is modified through this service (update, append, remove or
+ * terminate) and, if the upload was modified while it was locked, once more when that lock is released.
+ * Optionally entries are also invalidated when a lock is acquired so that multiple nodes can share the same
+ * storage backend (see {@link UploadInfoCache#setInvalidateOnLockAcquire(boolean)}).
+ */
+public class SharedCachedStorageAndLockingService implements UploadLockingService, UploadStorageService {
+
+    private final UploadInfoCache cache;
+    private final UploadLockingService lockingServiceDelegate;
+    private final UploadStorageService storageServiceDelegate;
+    private final Map<UploadId, CachedLock> heldLocks = new ConcurrentHashMap<>();
+    private UploadIdFactory idFactory;
+
+    public SharedCachedStorageAndLockingService(UploadInfoCache cache, UploadStorageService storageServiceDelegate,
+                                                UploadLockingService lockingServiceDelegate) {
+        Validate.notNull(cache, "The UploadInfoCache cannot be null");
+        this.cache = cache;
+        this.storageServiceDelegate = unwrap(storageServiceDelegate);
+        this.lockingServiceDelegate = unwrap(lockingServiceDelegate);
+    }
+
+    /**
+     * Get the cache that is used by this service
+     * @return The upload info cache
+     */
+    public UploadInfoCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the storage service of which the upload information is cached
+     * @return The underlying upload storage service
+     */
+    public UploadStorageService getStorageServiceDelegate() {
+        return storageServiceDelegate;
+    }
+
+    /**
+     * Get the locking service that is used to lock uploads
+     * @return The underlying upload locking service
+     */
+    public UploadLockingService getLockingServiceDelegate() {
+        return lockingServiceDelegate;
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(UploadId id) throws IOException {
+        UploadInfo uploadInfo = cache.get(id);
+        if (uploadInfo == null) {
+            uploadInfo = storageServiceDelegate.getUploadInfo(id);
+            cache.put(uploadInfo);
+        }
+        return uploadInfo;
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+        UploadId id = idFactory == null ? null : idFactory.readUploadId(uploadUrl);
+        if (id == null) {
+            return storageServiceDelegate.getUploadInfo(uploadUrl, ownerKey);
+        }
+
+        UploadInfo uploadInfo = getUploadInfo(id);
+        if (uploadInfo == null || !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+            return null;
+        } else {
+            return uploadInfo;
+        }
+    }
+
+    @Override
+    public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+        try {
+            storageServiceDelegate.update(uploadInfo);
+        } finally {
+            modified(uploadInfo);
+        }
+    }
+
+    @Override
+    public void setIdFactory(UploadIdFactory idFactory) {
+        this.idFactory = idFactory;
+        this.storageServiceDelegate.setIdFactory(idFactory);
+        this.lockingServiceDelegate.setIdFactory(idFactory);
+    }
+
+    @Override
+    public String getUploadURI() {
+        return storageServiceDelegate.getUploadURI();
+    }
+
+    @Override
+    public UploadInfo append(UploadInfo upload, InputStream inputStream) throws IOException, TusException {
+        try {
+            return storageServiceDelegate.append(upload, inputStream);
+        } finally {
+            modified(upload);
+        }
+    }
+
+    @Override
+    public UploadInfo appendWithoutUpdate(UploadInfo upload, InputStream inputStream)
+            throws IOException, TusException {
+        try {
+            return storageServiceDelegate.appendWithoutUpdate(upload, inputStream);
+        } finally {
+            modified(upload);
+        }
+    }
+
+    @Override
+    public void setMaxUploadSize(Long maxUploadSize) {
+        storageServiceDelegate.setMaxUploadSize(maxUploadSize);
+    }
+
+    @Override
+    public long getMaxUploadSize() {
+        return storageServiceDelegate.getMaxUploadSize();
+    }
+
+    @Override
+    public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+        return storageServiceDelegate.create(info, ownerKey);
+    }
+
+    @Override
+    public InputStream getUploadedBytes(String uploadURI, String ownerKey)
+            throws IOException, UploadNotFoundException {
+        try {
+            return storageServiceDelegate.getUploadedBytes(uploadURI, ownerKey);
+        } finally {
+            //Reading a concatenated upload can merge it in the underlying storage
+            cache.invalidate(idFactory == null ? null : idFactory.readUploadId(uploadURI));
+        }
+    }
+
+    @Override
+    public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+        try {
+            return storageServiceDelegate.getUploadedBytes(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        try {
+            return storageServiceDelegate.getUploadedBytesAsBuffers(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, OutputStream outputStream) throws UploadNotFoundException, IOException {
+        try {
+            storageServiceDelegate.copyUploadTo(info, outputStream);
+        } finally {
+            if (info != null && UploadType.CONCATENATED.equals(info.getUploadType())) {
+                modifiedWithParts(info);
+            }
+        }
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        try {
+            storageServiceDelegate.copyUploadTo(info, position, count, outputStream);
+        } finally {
+            if (info != null && UploadType.CONCATENATED.equals(info.getUploadType())) {
+                modifiedWithParts(info);
+            }
+        }
+    }
+
+    @Override
+    public List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        try {
+            return storageServiceDelegate.getUploadedFileRegions(info);
+        } finally {
+            if (info != null && UploadType.CONCATENATED.equals(info.getUploadType())) {
+                modifiedWithParts(info);
+            }
+        }
+    }
+
+    @Override
+    public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+        storageServiceDelegate.cleanupExpiredUploads(uploadLockingService);
+        //Any of the cached uploads could have been removed by the storage service
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        try {
+            storageServiceDelegate.removeLastNumberOfBytes(uploadInfo, byteCount);
+        } finally {
+            modified(uploadInfo);
+        }
+    }
+
+    @Override
+    public void removeLastNumberOfBytesWithoutUpdate(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        try {
+            storageServiceDelegate.removeLastNumberOfBytesWithoutUpdate(uploadInfo, byteCount);
+        } finally {
+            modified(uploadInfo);
+        }
+    }
+
+    @Override
+    public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
+        try {
+            storageServiceDelegate.terminateUpload(uploadInfo);
+        } finally {
+            modified(uploadInfo);
+        }
+    }
+
+    @Override
+    public Long getUploadExpirationPeriod() {
+        return storageServiceDelegate.getUploadExpirationPeriod();
+    }
+
+    @Override
+    public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+        storageServiceDelegate.setUploadExpirationPeriod(uploadExpirationPeriod);
+    }
+
+    @Override
+    public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+        storageServiceDelegate.setUploadConcatenationService(concatenationService);
+    }
+
+    @Override
+    public UploadConcatenationService getUploadConcatenationService() {
+        UploadConcatenationService concatenationService = storageServiceDelegate.getUploadConcatenationService();
+        return concatenationService == null ? null : new InvalidatingConcatenationService(concatenationService);
+    }
+
+    @Override
+    public UploadLock lockUploadByUri(String requestURI) throws TusException, IOException {
+        UploadLock uploadLock = lockingServiceDelegate.lockUploadByUri(requestURI);
+        if (uploadLock == null) {
+            return null;
+        }
+
+        UploadId id = idFactory == null ? null : idFactory.readUploadId(requestURI);
+        if (id == null) {
+            return uploadLock;
+        }
+
+        if (cache.isInvalidateOnLockAcquire()) {
+            //Another node could have changed this upload while we did not hold the lock
+            cache.invalidate(id);
+        }
+
+        CachedLock cachedLock = new CachedLock(id, uploadLock);
+        heldLocks.put(id, cachedLock);
+        return cachedLock;
+    }
+
+    @Override
+    public void cleanupStaleLocks() throws IOException {
+        lockingServiceDelegate.cleanupStaleLocks();
+    }
+
+    @Override
+    public boolean isLocked(UploadId id) {
+        return lockingServiceDelegate.isLocked(id);
+    }
+
+    @Override
+    public void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        lockingServiceDelegate.setLockAcquisitionStrategy(lockAcquisitionStrategy);
+    }
+
+    @SuppressWarnings("deprecation") //A thread-local cache can still be configured
+    private static UploadStorageService unwrap(UploadStorageService storageService) {
+        UploadStorageService output = storageService;
+        //Never stack caches on top of each other
+        while (true) {
+            if (output instanceof SharedCachedStorageAndLockingService cachedService) {
+                output = cachedService.storageServiceDelegate;
+            } else if (output instanceof ThreadLocalCachedStorageAndLockingService cachedService) {
+                output = cachedService.getStorageServiceDelegate();
+            } else {
+                return output;
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation") //A thread-local cache can still be configured
+    private static UploadLockingService unwrap(UploadLockingService lockingService) {
+        UploadLockingService output = lockingService;
+        while (true) {
+            if (output instanceof SharedCachedStorageAndLockingService cachedService) {
+                output = cachedService.lockingServiceDelegate;
+            } else if (output instanceof ThreadLocalCachedStorageAndLockingService cachedService) {
+                output = cachedService.getLockingServiceDelegate();
+            } else {
+                return output;
+            }
+        }
+    }
+
+    private void modified(UploadInfo uploadInfo) {
+        if (uploadInfo != null && uploadInfo.getId() != null) {
+            cache.invalidate(uploadInfo.getId());
+            CachedLock cachedLock = heldLocks.get(uploadInfo.getId());
+            if (cachedLock != null) {
+                cachedLock.modified = true;
+            }
+        }
+    }
+
+    private void modifiedWithParts(UploadInfo uploadInfo) {
+        modified(uploadInfo);
+        if (uploadInfo != null && uploadInfo.getConcatenationPartIds() != null && idFactory != null) {
+            //Merging a concatenated upload also updates the expiration of its parts
+            for (String partUri : uploadInfo.getConcatenationPartIds()) {
+                cache.invalidate(idFactory.readUploadId(partUri));
+            }
+        }
+    }
+
+    /**
+     * Concatenation services save upload information directly with the storage service they were created with,
+     * so make sure the cache does not keep the previous state of the uploads they touch.
+     */
+    class InvalidatingConcatenationService implements UploadConcatenationService {
+
+        private final UploadConcatenationService delegate;
+
+        InvalidatingConcatenationService(UploadConcatenationService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void merge(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+            try {
+                delegate.merge(uploadInfo);
+            } finally {
+                modifiedWithParts(uploadInfo);
+            }
+        }
+
+        @Override
+        public InputStream getConcatenatedBytes(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+            try {
+                return delegate.getConcatenatedBytes(uploadInfo);
+            } finally {
+                modifiedWithParts(uploadInfo);
+            }
+        }
+
+        @Override
+        public List<UploadInfo> getPartialUploads(UploadInfo info) throws IOException, UploadNotFoundException {
+            return delegate.getPartialUploads(info);
+        }
+    }
+
+    class CachedLock implements UploadLock {
+
+        private final UploadId id;
+        private final UploadLock delegate;
+        private volatile boolean modified = false;
+
+        CachedLock(UploadId id, UploadLock delegate) {
+            this.id = id;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getUploadUri() {
+            return delegate.getUploadUri();
+        }
+
+        @Override
+        public long getFencingToken() {
+            return delegate.getFencingToken();
+        }
+
+        @Override
+        public void release() {
+            try {
+                delegate.release();
+            } finally {
+                releaseCache();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                releaseCache();
+            }
+        }
+
+        private void releaseCache() {
+            heldLocks.remove(id, this);
+            if (modified) {
+                //Make sure nobody keeps reading what was cached while this upload was being modified
+                cache.invalidate(id);
+                modified = false;
+            }
+        }
+    }
+}
@@ -4,9 +4,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Objects;
 
 import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
+import com.ejemplos.tus.server.upload.FileRegion;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadInfo;
@@ -21,7 +25,10 @@ import com.ejemplos.tus.server.exception.UploadNotFoundException;
  * Uses both of them as delegates but allowing to reduce disk operations during a request processing
  * by caching UploadInfo in the memory.
  * UploadLockingService service is used as a delegate to cleanup cached data on releasing a lock.
+ * @deprecated Every request processed by {@link com.ejemplos.tus.server.TusFileUploadService} already loads
+ * the upload information only once through its {@link com.ejemplos.tus.server.util.UploadRequestContext}.
  */
+@Deprecated
 public class ThreadLocalCachedStorageAndLockingService implements UploadLockingService, UploadStorageService {
 
     private final ThreadLocal<WeakReference<UploadInfo>> uploadInfoCache = new ThreadLocal<>();
@@ -91,6 +98,14 @@ public class ThreadLocalCachedStorageAndLockingService implements UploadLockingS
         return info;
     }
 
+    @Override
+    public UploadInfo appendWithoutUpdate(UploadInfo upload, InputStream inputStream)
+            throws IOException, TusException {
+        UploadInfo info = storageServiceDelegate.appendWithoutUpdate(upload, inputStream);
+        uploadInfoCache.set(new WeakReference<>(info));
+        return info;
+    }
+
     @Override
     public void setMaxUploadSize(Long maxUploadSize) {
         storageServiceDelegate.setMaxUploadSize(maxUploadSize);
@@ -119,12 +134,28 @@ public class ThreadLocalCachedStorageAndLockingService implements UploadLockingS
         return storageServiceDelegate.getUploadedBytes(id);
     }
 
+    @Override
+    public List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        return storageServiceDelegate.getUploadedBytesAsBuffers(id);
+    }
+
     @Override
     public void copyUploadTo(UploadInfo info, OutputStream outputStream) throws UploadNotFoundException, IOException {
         storageServiceDelegate.copyUploadTo(info, outputStream);
         uploadInfoCache.set(new WeakReference<>(info));
     }
 
+    @Override
+    public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        storageServiceDelegate.copyUploadTo(info, position, count, outputStream);
+    }
+
+    @Override
+    public List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        return storageServiceDelegate.getUploadedFileRegions(info);
+    }
+
     @Override
     public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
         storageServiceDelegate.cleanupExpiredUploads(uploadLockingService);
@@ -140,6 +171,13 @@ public class ThreadLocalCachedStorageAndLockingService implements UploadLockingS
         uploadInfoCache.set(new WeakReference<>(uploadInfo));
     }
 
+    @Override
+    public void removeLastNumberOfBytesWithoutUpdate(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        storageServiceDelegate.removeLastNumberOfBytesWithoutUpdate(uploadInfo, byteCount);
+        uploadInfoCache.set(new WeakReference<>(uploadInfo));
+    }
+
     @Override
     public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
         storageServiceDelegate.terminateUpload(uploadInfo);
@@ -185,6 +223,19 @@ public class ThreadLocalCachedStorageAndLockingService implements UploadLockingS
         return lockingServiceDelegate.isLocked(id);
     }
 
+    @Override
+    public void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        lockingServiceDelegate.setLockAcquisitionStrategy(lockAcquisitionStrategy);
+    }
+
+    public UploadStorageService getStorageServiceDelegate() {
+        return storageServiceDelegate;
+    }
+
+    public UploadLockingService getLockingServiceDelegate() {
+        return lockingServiceDelegate;
+    }
+
     private void cleanupCache() {
         WeakReference<UploadInfo> ref = uploadInfoCache.get();
         if (ref != null) {
@@ -206,6 +257,11 @@ public class ThreadLocalCachedStorageAndLockingService implements UploadLockingS
             return delegate != null ? delegate.getUploadUri() : null;
         }
 
+        @Override
+        public long getFencingToken() {
+            return delegate != null ? delegate.getFencingToken() : 0L;
+        }
+
         @Override
         public void release() {
             if (delegate != null) {
@@ -0,0 +1,221 @@
+package com.ejemplos.tus.server.upload.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Process-wide, size- and time-bounded cache of {@link UploadInfo} objects.
+ * <p>
+ * When the cache is full, the least recently used entry is evicted. Entries also expire after the configured
+ * time-to-live so that the cache never serves upload information that is older than that period. The cache
+ * only holds copies: callers always receive their own {@link UploadInfo} instance that they can modify freely.
+ * <p>
+ * This class is thread-safe. Use it together with {@link SharedCachedStorageAndLockingService}.
+ */
+public class UploadInfoCache {
+
+    private final int maxSize;
+    private final long timeToLiveMillis;
+    private boolean invalidateOnLockAcquire = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<UploadId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * @param maxSize The maximum number of uploads of which the information is kept in memory
+     * @param timeToLiveMillis The number of milliseconds after which a cached entry expires
+     */
+    public UploadInfoCache(int maxSize, long timeToLiveMillis) {
+        Validate.isTrue(maxSize > 0, "The maximum cache size must be bigger than 0");
+        Validate.isTrue(timeToLiveMillis > 0, "The time to live of cache entries must be bigger than 0");
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Get a copy of the cached information of the given upload
+     * @param id The ID of the upload
+     * @return A copy of the cached upload information or null if not cached or expired
+     */
+    public UploadInfo get(UploadId id) {
+        if (id == null) {
+            return null;
+        }
+
+        lock.lock();
+        try {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.isExpired(currentTime())) {
+                entries.remove(id);
+                evictionCount.incrementAndGet();
+                entry = null;
+            }
+
+            if (entry == null) {
+                missCount.incrementAndGet();
+                return null;
+            } else {
+                hitCount.incrementAndGet();
+                return new UploadInfo(entry.uploadInfo);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store a copy of the given upload information in the cache
+     * @param uploadInfo The upload information to cache
+     */
+    public void put(UploadInfo uploadInfo) {
+        if (uploadInfo == null || uploadInfo.getId() == null) {
+            return;
+        }
+
+        Entry entry = new Entry(new UploadInfo(uploadInfo), currentTime() + timeToLiveMillis);
+
+        lock.lock();
+        try {
+            entries.put(uploadInfo.getId(), entry);
+            evictEntries();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the information of the given upload from the cache
+     * @param id The ID of the upload
+     */
+    public void invalidate(UploadId id) {
+        if (id == null) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            entries.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries from the cache
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of uploads currently in the cache (including expired entries that were not evicted yet)
+     * @return The number of cached entries
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Get the number of lookups that were served from the cache
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups that could not be served from the cache
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of entries that were removed because the cache was full or because they expired
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public boolean isInvalidateOnLockAcquire() {
+        return invalidateOnLockAcquire;
+    }
+
+    /**
+     * Instruct the cache to drop the information of an upload every time a lock is acquired on that upload.
+     * Enable this when multiple nodes share the same storage and locking backend: another node can only
+     * modify an upload while it holds the lock, so reloading the information once the lock is acquired
+     * guarantees that requests never work with stale data. By default this is disabled, which is only safe
+     * when all requests for an upload are handled by this process.
+     * @param invalidateOnLockAcquire True if entries should be invalidated when acquiring a lock
+     */
+    public void setInvalidateOnLockAcquire(boolean invalidateOnLockAcquire) {
+        this.invalidateOnLockAcquire = invalidateOnLockAcquire;
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    private void evictEntries() {
+        long now = currentTime();
+        Iterator<Map.Entry<UploadId, Entry>> iterator = entries.entrySet().iterator();
+        //The iteration order is from least to most recently used
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entries.size() > maxSize || entry.isExpired(now)) {
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final UploadInfo uploadInfo;
+        private final long expirationTime;
+
+        Entry(UploadInfo uploadInfo, long expirationTime) {
+            this.uploadInfo = uploadInfo;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expirationTime;
+        }
+    }
+}
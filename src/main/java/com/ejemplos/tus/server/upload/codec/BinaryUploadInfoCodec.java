@@ -0,0 +1,348 @@
+package com.ejemplos.tus.server.upload.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadType;
+
+/**
+ * {@link UploadInfoCodec} implementation that uses a compact, versioned binary format.
+ * <p>
+ * The format starts with a fixed-size header that contains the magic number, the format version and all numeric
+ * fields of the upload, followed by the variable-length fields (identifier, owner, metadata...). Strings are
+ * stored as a length prefix followed by their UTF-8 bytes. Encoding and decoding only requires a few buffer
+ * operations and does not rely on reflection.
+ * <p>
+ * Upload information that was stored with standard Java serialization (see {@link SerializableUploadInfoCodec})
+ * is still recognized when decoding, so that existing uploads can be read and will be migrated to the binary
+ * format on their next update.
+ */
+public class BinaryUploadInfoCodec implements UploadInfoCodec {
+
+    /**
+     * Magic number that identifies the binary upload info format ("TUSI" in ASCII)
+     */
+    public static final int MAGIC = 0x54555349;
+
+    /**
+     * The most recent version of the binary format that this codec writes. Version 2 added the digest states at
+     * the end of the format, version 3 added the fencing token of the last change after them.
+     */
+    public static final byte VERSION = 3;
+
+    private static final byte VERSION_WITH_DIGEST_STATE = 2;
+    private static final byte VERSION_WITH_FENCING_TOKEN = 3;
+
+    /**
+     * Size of the fixed header: magic, version, flags, upload type, reserved byte and four long values
+     */
+    public static final int HEADER_SIZE = 4 + 4 + 4 * Long.BYTES;
+
+    /**
+     * Position of the upload offset within the fixed header
+     */
+    public static final int OFFSET_POSITION = 8;
+
+    private static final int FLAG_OFFSET = 1;
+    private static final int FLAG_LENGTH = 1 << 1;
+    private static final int FLAG_CREATION_TIMESTAMP = 1 << 2;
+    private static final int FLAG_EXPIRATION_TIMESTAMP = 1 << 3;
+    private static final int FLAG_FENCING_TOKEN = 1 << 4;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte ID_NONE = 0;
+    private static final byte ID_STRING = 1;
+    private static final byte ID_UUID = 2;
+    private static final byte ID_LONG = 3;
+    private static final byte ID_SERIALIZED = 4;
+
+    private final UploadInfoCodec legacyCodec = new SerializableUploadInfoCodec();
+
+    @Override
+    public byte[] encode(UploadInfo uploadInfo) throws IOException {
+        byte[] id = encodeId(uploadInfo.getId());
+        byte[] ownerKey = toBytes(uploadInfo.getOwnerKey());
+        byte[] encodedMetadata = toBytes(uploadInfo.getEncodedMetadata());
+        byte[] creatorIpAddresses = toBytes(uploadInfo.getCreatorIpAddresses());
+        byte[] uploadConcatHeaderValue = toBytes(uploadInfo.getUploadConcatHeaderValue());
+        byte[] digestState = uploadInfo.getDigestState();
+        byte[] previousDigestState = uploadInfo.getPreviousDigestState();
+
+        List<String> partIds = uploadInfo.getConcatenationPartIds();
+        List<byte[]> encodedPartIds = new ArrayList<>();
+        int partIdsSize = Integer.BYTES;
+        if (partIds != null) {
+            for (String partId : partIds) {
+                byte[] encodedPartId = toBytes(partId);
+                encodedPartIds.add(encodedPartId);
+                partIdsSize += sizeOf(encodedPartId);
+            }
+        }
+
+        int size = HEADER_SIZE + id.length + sizeOf(ownerKey) + sizeOf(encodedMetadata)
+                + sizeOf(creatorIpAddresses) + sizeOf(uploadConcatHeaderValue) + partIdsSize
+                + sizeOf(digestState) + sizeOf(previousDigestState) + Long.BYTES;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) flagsOf(uploadInfo));
+        buffer.put(toCode(uploadInfo.getUploadType()));
+        buffer.put((byte) 0);
+        buffer.putLong(valueOf(uploadInfo.getOffset()));
+        buffer.putLong(valueOf(uploadInfo.getLength()));
+        buffer.putLong(valueOf(uploadInfo.getCreationTimestamp()));
+        buffer.putLong(valueOf(uploadInfo.getExpirationTimestamp()));
+
+        buffer.put(id);
+        putBytes(buffer, ownerKey);
+        putBytes(buffer, encodedMetadata);
+        putBytes(buffer, creatorIpAddresses);
+        putBytes(buffer, uploadConcatHeaderValue);
+
+        if (partIds == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(encodedPartIds.size());
+            for (byte[] encodedPartId : encodedPartIds) {
+                putBytes(buffer, encodedPartId);
+            }
+        }
+
+        putBytes(buffer, digestState);
+        putBytes(buffer, previousDigestState);
+        //The token always takes the same space, so raising it does not change the size of the upload information
+        buffer.putLong(valueOf(uploadInfo.getFencingToken()));
+
+        return buffer.array();
+    }
+
+    @Override
+    public UploadInfo decode(byte[] bytes) throws IOException {
+        if (SerializableUploadInfoCodec.isSerializationStream(bytes)) {
+            //This upload information was stored by a previous version, it will be migrated on the next update
+            return legacyCodec.decode(bytes);
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("The upload information does not have a supported format");
+            }
+
+            byte version = buffer.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Version " + version + " of the upload information format is not supported");
+            }
+
+            int flags = buffer.get();
+            UploadType uploadType = fromCode(buffer.get());
+            buffer.get();
+
+            UploadInfo uploadInfo = new UploadInfo();
+            uploadInfo.setUploadType(uploadType);
+            uploadInfo.setOffset(readLong(buffer, flags, FLAG_OFFSET));
+            uploadInfo.setLength(readLong(buffer, flags, FLAG_LENGTH));
+            uploadInfo.setCreationTimestamp(readLong(buffer, flags, FLAG_CREATION_TIMESTAMP));
+            uploadInfo.setExpirationTimestamp(readLong(buffer, flags, FLAG_EXPIRATION_TIMESTAMP));
+
+            uploadInfo.setId(decodeId(buffer));
+            uploadInfo.setOwnerKey(getString(buffer));
+            uploadInfo.setEncodedMetadata(getString(buffer));
+            uploadInfo.setCreatorIpAddresses(getString(buffer));
+            uploadInfo.setUploadConcatHeaderValue(getString(buffer));
+
+            int partCount = buffer.getInt();
+            if (partCount != NULL_LENGTH) {
+                List<String> partIds = new ArrayList<>(partCount);
+                for (int i = 0; i < partCount; i++) {
+                    partIds.add(getString(buffer));
+                }
+                uploadInfo.setConcatenationPartIds(partIds);
+            }
+
+            if (version >= VERSION_WITH_DIGEST_STATE) {
+                uploadInfo.setDigestState(getBytes(buffer));
+                uploadInfo.setPreviousDigestState(getBytes(buffer));
+            }
+            if (version >= VERSION_WITH_FENCING_TOKEN) {
+                uploadInfo.setFencingToken(readLong(buffer, flags, FLAG_FENCING_TOKEN));
+            }
+
+            return uploadInfo;
+
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("The upload information is truncated or corrupt", e);
+        }
+    }
+
+    private int flagsOf(UploadInfo uploadInfo) {
+        int flags = 0;
+        flags |= uploadInfo.getOffset() == null ? 0 : FLAG_OFFSET;
+        flags |= uploadInfo.getLength() == null ? 0 : FLAG_LENGTH;
+        flags |= uploadInfo.getCreationTimestamp() == null ? 0 : FLAG_CREATION_TIMESTAMP;
+        flags |= uploadInfo.getExpirationTimestamp() == null ? 0 : FLAG_EXPIRATION_TIMESTAMP;
+        flags |= uploadInfo.getFencingToken() == null ? 0 : FLAG_FENCING_TOKEN;
+        return flags;
+    }
+
+    private long valueOf(Long value) {
+        return value == null ? 0L : value;
+    }
+
+    private Long readLong(ByteBuffer buffer, int flags, int flag) {
+        long value = buffer.getLong();
+        return (flags & flag) == 0 ? null : value;
+    }
+
+    private byte toCode(UploadType uploadType) {
+        if (uploadType == null) {
+            return 0;
+        }
+        switch (uploadType) {
+            case REGULAR:
+                return 1;
+            case PARTIAL:
+                return 2;
+            case CONCATENATED:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unknown upload type " + uploadType);
+        }
+    }
+
+    private UploadType fromCode(byte code) {
+        switch (code) {
+            case 0:
+                return null;
+            case 1:
+                return UploadType.REGULAR;
+            case 2:
+                return UploadType.PARTIAL;
+            case 3:
+                return UploadType.CONCATENATED;
+            default:
+                throw new IllegalArgumentException("Unknown upload type code " + code);
+        }
+    }
+
+    private byte[] encodeId(UploadId id) throws IOException {
+        if (id == null) {
+            return new byte[] {ID_NONE};
+        }
+
+        Serializable value = id.getOriginalObject();
+        ByteBuffer buffer;
+        if (value instanceof UUID uuid) {
+            buffer = ByteBuffer.allocate(1 + 2 * Long.BYTES);
+            buffer.put(ID_UUID);
+            buffer.putLong(uuid.getMostSignificantBits());
+            buffer.putLong(uuid.getLeastSignificantBits());
+
+        } else if (value instanceof Long longValue) {
+            buffer = ByteBuffer.allocate(1 + Long.BYTES);
+            buffer.put(ID_LONG);
+            buffer.putLong(longValue);
+
+        } else if (value instanceof String stringValue) {
+            byte[] bytes = toBytes(stringValue);
+            buffer = ByteBuffer.allocate(1 + sizeOf(bytes));
+            buffer.put(ID_STRING);
+            putBytes(buffer, bytes);
+
+        } else {
+            //Custom ID types of an application specific UploadIdFactory, fall back to Java serialization
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutput = new ObjectOutputStream(output)) {
+                objectOutput.writeObject(value);
+            }
+            byte[] bytes = output.toByteArray();
+            buffer = ByteBuffer.allocate(1 + sizeOf(bytes));
+            buffer.put(ID_SERIALIZED);
+            putBytes(buffer, bytes);
+        }
+
+        return buffer.array();
+    }
+
+    private UploadId decodeId(ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case ID_NONE:
+                return null;
+            case ID_UUID:
+                return new UploadId(new UUID(buffer.getLong(), buffer.getLong()));
+            case ID_LONG:
+                return new UploadId(buffer.getLong());
+            case ID_STRING:
+                return new UploadId(getString(buffer));
+            case ID_SERIALIZED:
+                return new UploadId(readSerializedId(getBytes(buffer)));
+            default:
+                throw new IOException("Unknown upload ID type " + type);
+        }
+    }
+
+    private Serializable readSerializedId(byte[] bytes) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Serializable) input.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unable to read the serialized upload ID", e);
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        } else if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        } else if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ejemplos.tus.server.upload.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.ejemplos.tus.server.upload.UploadInfo;
+
+/**
+ * {@link UploadInfoCodec} implementation that uses standard Java serialization. This is the format that was
+ * used by previous versions of this library to store upload information on disk.
+ */
+public class SerializableUploadInfoCodec implements UploadInfoCodec {
+
+    /**
+     * The first two bytes of every Java serialization stream
+     */
+    static final int STREAM_MAGIC = 0xACED;
+
+    @Override
+    public byte[] encode(UploadInfo uploadInfo) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(buffer)) {
+            output.writeObject(uploadInfo);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public UploadInfo decode(byte[] bytes) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (UploadInfo) input.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("The serialized upload information is not valid", e);
+        }
+    }
+
+    /**
+     * Check if the given bytes start with the Java serialization stream header
+     * @param bytes The bytes to check
+     * @return True if the bytes are a Java serialization stream, false otherwise
+     */
+    static boolean isSerializationStream(byte[] bytes) {
+        return bytes != null && bytes.length >= 2
+                && ((bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF)) == STREAM_MAGIC;
+    }
+}
@@ -0,0 +1,28 @@
+package com.ejemplos.tus.server.upload.codec;
+
+import java.io.IOException;
+
+import com.ejemplos.tus.server.upload.UploadInfo;
+
+/**
+ * Interface for a codec that is able to convert an {@link UploadInfo} object to bytes and back so that
+ * the upload information can be stored by an upload storage service.
+ */
+public interface UploadInfoCodec {
+
+    /**
+     * Encode the given upload information into a byte array
+     * @param uploadInfo The upload information to encode
+     * @return The encoded upload information
+     * @throws IOException When the upload information cannot be encoded
+     */
+    byte[] encode(UploadInfo uploadInfo) throws IOException;
+
+    /**
+     * Decode the given bytes into an {@link UploadInfo} object
+     * @param bytes The bytes that were previously produced by an upload info codec
+     * @return The decoded upload information
+     * @throws IOException When the bytes cannot be decoded
+     */
+    UploadInfo decode(byte[] bytes) throws IOException;
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.stream.Stream;
 
 import com.ejemplos.tus.server.upload.UploadId;
 import org.apache.commons.lang3.Validate;
@@ -14,6 +15,7 @@ import org.apache.commons.lang3.Validate;
 public class AbstractDiskBasedService {
 
     private final Path storagePath;
+    private StorageLayout storageLayout = StorageLayout.FLAT;
 
     /**
      * Assign disk path
@@ -31,6 +33,21 @@ public class AbstractDiskBasedService {
         return storagePath;
     }
 
+    /**
+     * Set the layout of the entries within the storage directory. By default all entries are stored directly in
+     * the storage directory ({@link StorageLayout#FLAT}). Use {@link StorageLayoutMigrator} to move the entries of
+     * an existing storage directory to the new layout.
+     * @param storageLayout The layout to use
+     */
+    public void setStorageLayout(StorageLayout storageLayout) {
+        Validate.notNull(storageLayout, "The storage layout cannot be null");
+        this.storageLayout = storageLayout;
+    }
+
+    public StorageLayout getStorageLayout() {
+        return storageLayout;
+    }
+
     /**
      * @param id Upload id
      * @return Upload id
@@ -43,14 +60,35 @@ public class AbstractDiskBasedService {
         if (id == null) {
             return null;
         } else {
-            return storagePath.resolve(id.toString());
+            return storageLayout.resolve(storagePath, id.toString());
         }
     }
 
     /**
-     *
+     * Create the prefix directories of the given entry, if the storage layout uses them
+     * @param path The path of an entry in the storage directory
+     * @throws IOException When the directories cannot be created
+     */
+    protected void createParentDirectories(Path path) throws IOException {
+        if (!storageLayout.isFlat()) {
+            Files.createDirectories(path.getParent());
+        }
+    }
+
+    /**
+     * List all entries in the storage directory according to the storage layout. The stream must be closed.
+     * @return The paths of all entries
+     * @throws IOException When the storage directory cannot be read
+     */
+    protected Stream<Path> listStorageDirectory() throws IOException {
+        return storageLayout.list(storagePath);
+    }
+
+    /**
+     * Create the storage directory. This is safe to call concurrently, as creating the directories does not fail
+     * when they already exist.
      */
-    private synchronized void init() {
+    private void init() {
         if (!Files.exists(storagePath)) {
             try {
                 Files.createDirectories(storagePath);
@@ -0,0 +1,23 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.FilterInputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Input stream that reads from the current position of a channel lent by a {@link FileChannelCache}. Closing
+ * the stream returns the channel to the cache instead of closing it.
+ */
+class CachedChannelInputStream extends FilterInputStream {
+
+    private final FileChannelCache.Handle handle;
+
+    CachedChannelInputStream(FileChannelCache.Handle handle) {
+        super(Channels.newInputStream(handle.channel()));
+        this.handle = handle;
+    }
+
+    @Override
+    public void close() {
+        handle.close();
+    }
+}
@@ -0,0 +1,164 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Applies a {@link DurabilityPolicy} to the data files of uploads and keeps track of the number of times the
+ * bytes were forced to disk or such a sync was skipped because of the policy.
+ */
+public class DataFileSynchronizer {
+
+    private final DurabilityPolicy policy;
+    private final long syncIntervalMillis;
+    private final GroupCommitScheduler groupCommitScheduler;
+    private final Map<UploadId, Long> lastSyncTimes = new ConcurrentHashMap<>();
+
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong skippedSyncCount = new AtomicLong();
+
+    /**
+     * Create a synchronizer for a policy that does not depend on time
+     * @param policy The durability policy to apply
+     */
+    public DataFileSynchronizer(DurabilityPolicy policy) {
+        this(policy, 0L);
+    }
+
+    /**
+     * Create a synchronizer
+     * @param policy The durability policy to apply
+     * @param syncIntervalMillis The minimum number of milliseconds between two syncs of the same upload when
+     *                           using {@link DurabilityPolicy#INTERVAL}
+     */
+    public DataFileSynchronizer(DurabilityPolicy policy, long syncIntervalMillis) {
+        Validate.notNull(policy, "The durability policy cannot be null");
+        Validate.isTrue(policy != DurabilityPolicy.INTERVAL || syncIntervalMillis > 0,
+                "The sync interval must be bigger than 0");
+        Validate.isTrue(policy != DurabilityPolicy.GROUP_COMMIT,
+                "Group commit requires a GroupCommitScheduler");
+        this.policy = policy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.groupCommitScheduler = null;
+    }
+
+    /**
+     * Create a synchronizer that uses {@link DurabilityPolicy#GROUP_COMMIT}
+     * @param groupCommitScheduler The (shared) scheduler that executes the commit rounds
+     */
+    public DataFileSynchronizer(GroupCommitScheduler groupCommitScheduler) {
+        Validate.notNull(groupCommitScheduler, "The group commit scheduler cannot be null");
+        this.policy = DurabilityPolicy.GROUP_COMMIT;
+        this.syncIntervalMillis = groupCommitScheduler.getRoundIntervalMillis();
+        this.groupCommitScheduler = groupCommitScheduler;
+    }
+
+    /**
+     * Force the bytes written to the given data file to disk if the policy requires it
+     * @param id The ID of the upload the data file belongs to
+     * @param file The data file that was written to
+     * @param completed True if the upload is complete after this write
+     * @throws IOException When forcing the bytes to disk fails
+     */
+    public void sync(UploadId id, FileChannel file, boolean completed) throws IOException {
+        switch (policy) {
+            case DATA_ONLY:
+                force(file, false);
+                break;
+
+            case INTERVAL:
+                syncOnInterval(id, file, completed);
+                break;
+
+            case ON_COMPLETION:
+                if (completed) {
+                    force(file, true);
+                } else {
+                    skippedSyncCount.incrementAndGet();
+                }
+                break;
+
+            case GROUP_COMMIT:
+                groupCommitScheduler.commit(file);
+                syncCount.incrementAndGet();
+                break;
+
+            case ALWAYS:
+            default:
+                force(file, true);
+                break;
+        }
+
+        if (completed) {
+            forget(id);
+        }
+    }
+
+    /**
+     * Remove any state that is kept for the given upload
+     * @param id The ID of the upload
+     */
+    public void forget(UploadId id) {
+        if (id != null) {
+            lastSyncTimes.remove(id);
+        }
+    }
+
+    public DurabilityPolicy getPolicy() {
+        return policy;
+    }
+
+    public GroupCommitScheduler getGroupCommitScheduler() {
+        return groupCommitScheduler;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Get the number of times data files were forced to disk
+     * @return The number of syncs
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    /**
+     * Get the number of writes after which the data file was not forced to disk because of the policy
+     * @return The number of skipped syncs
+     */
+    public long getSkippedSyncCount() {
+        return skippedSyncCount.get();
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    private void syncOnInterval(UploadId id, FileChannel file, boolean completed) throws IOException {
+        long now = currentTime();
+        //The interval starts with the first write that is not forced to disk
+        Long lastSyncTime = id == null ? null : lastSyncTimes.putIfAbsent(id, now);
+
+        if (completed || id == null || (lastSyncTime != null && now - lastSyncTime >= syncIntervalMillis)) {
+            force(file, true);
+            if (id != null) {
+                lastSyncTimes.put(id, now);
+            }
+        } else {
+            skippedSyncCount.incrementAndGet();
+        }
+    }
+
+    private void force(FileChannel file, boolean metaData) throws IOException {
+        file.force(metaData);
+        syncCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,124 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import com.ejemplos.tus.server.util.ByteBufferPool;
+
+/**
+ * Copies uploaded bytes from an {@link InputStream} to a position in a {@link FileChannel}, or from a
+ * {@link FileChannel} to an {@link OutputStream}, through a pooled buffer. The number of transferred bytes remains
+ * available when the copy fails halfway, so that the bytes that were received before the failure can be kept.
+ * A transfer object copies the bytes of one request.
+ */
+final class DataTransfer {
+
+    private final ByteBufferPool bufferPool;
+    private final MessageDigest digest;
+    private long transferred = 0;
+
+    DataTransfer(ByteBufferPool bufferPool) {
+        this(bufferPool, null);
+    }
+
+    /**
+     * @param bufferPool The pool of the buffer to copy through
+     * @param digest The digest to update with the bytes that are written to a file, or null
+     */
+    DataTransfer(ByteBufferPool bufferPool, MessageDigest digest) {
+        this.bufferPool = bufferPool;
+        this.digest = digest;
+    }
+
+    /**
+     * Copy at most the given number of bytes from the input stream to the file
+     * @param inputStream The stream to read the bytes from
+     * @param file The file to write the bytes to
+     * @param position The position in the file of the first byte
+     * @param count The maximum number of bytes to copy
+     * @return The total number of bytes that were written to the file
+     */
+    long transferFrom(InputStream inputStream, FileChannel file, long position, long count) throws IOException {
+        try (ByteBufferPool.Buffer buffer = bufferPool.acquire()) {
+            byte[] bytes = buffer.array();
+            ByteBuffer byteBuffer = buffer.byteBuffer();
+            int read = 0;
+
+            while (transferred < count && read >= 0) {
+                //Fill the buffer so that every write to the file is as big as possible
+                int filled = 0;
+                try {
+                    while (filled < bytes.length && transferred + filled < count && read >= 0) {
+                        read = inputStream.read(bytes, filled,
+                                (int) Math.min(bytes.length - filled, count - transferred - filled));
+                        filled += Math.max(read, 0);
+                    }
+                } finally {
+                    //Also when reading fails, the bytes that were received are written
+                    int written = write(bytes, filled, byteBuffer, file, position + transferred);
+                    if (digest != null) {
+                        digest.update(bytes, 0, written);
+                    }
+                    transferred += written;
+                }
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Copy the given number of bytes from the file to the output stream. The file is read into the direct buffer
+     * of the pool, so the JDK does not have to allocate a temporary direct buffer of the same size for every thread.
+     * @param file The file to read the bytes from
+     * @param position The position in the file of the first byte
+     * @param count The number of bytes to copy
+     * @param outputStream The stream to write the bytes to
+     * @return The total number of bytes that were written to the output stream
+     */
+    long transferTo(FileChannel file, long position, long count, OutputStream outputStream) throws IOException {
+        try (ByteBufferPool.Buffer buffer = bufferPool.acquire()) {
+            byte[] bytes = buffer.array();
+            ByteBuffer byteBuffer = buffer.byteBuffer();
+
+            while (transferred < count) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(byteBuffer.capacity(), count - transferred));
+                while (byteBuffer.hasRemaining()) {
+                    if (file.read(byteBuffer, position + transferred + byteBuffer.position()) < 0) {
+                        throw new EOFException("The file ends before all " + count + " bytes are read");
+                    }
+                }
+                byteBuffer.flip();
+                int length = byteBuffer.remaining();
+                byteBuffer.get(bytes, 0, length);
+                outputStream.write(bytes, 0, length);
+                transferred += length;
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * @return The number of bytes that were copied so far
+     */
+    long getTransferred() {
+        return transferred;
+    }
+
+    private static int write(byte[] bytes, int length, ByteBuffer byteBuffer, FileChannel file, long position)
+            throws IOException {
+        byteBuffer.clear();
+        byteBuffer.put(bytes, 0, length);
+        byteBuffer.flip();
+        int written = 0;
+        while (byteBuffer.hasRemaining()) {
+            written += file.write(byteBuffer, position + written);
+        }
+        return written;
+    }
+}
@@ -2,13 +2,14 @@ package com.ejemplos.tus.server.upload.disk;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
 
 import com.ejemplos.tus.server.exception.TusException;
 import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadLock;
@@ -23,15 +24,22 @@ import org.apache.commons.lang3.Validate;
  * <p>
  * File locks are also automatically released on application (JVM) shutdown. This means the file locking is not
  * persistent and prevents cleanup and stale lock issues.
+ * <p>
+ * The fencing tokens of the locks are handed out by a single fence file in the lock directory (see
+ * {@link FenceFile}), which is shared by all uploads and all nodes that use the same directory.
  */
 public class DiskLockingService extends AbstractDiskBasedService implements UploadLockingService {
 
-    private static final String LOCK_SUB_DIRECTORY = "locks";
+    static final String LOCK_SUB_DIRECTORY = "locks";
+    static final String FENCE_FILE = ".fence";
 
+    private final FenceFile fenceFile;
     private UploadIdFactory idFactory;
+    private LockAcquisitionStrategy lockAcquisitionStrategy = LockAcquisitionStrategy.failFast();
 
     public DiskLockingService(String storagePath) {
         super(storagePath + File.separator + LOCK_SUB_DIRECTORY);
+        this.fenceFile = new FenceFile(getStoragePath().resolve(FENCE_FILE));
     }
 
     public DiskLockingService(UploadIdFactory idFactory, String storagePath) {
@@ -50,15 +58,19 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
         Path lockPath = getLockPath(id);
         //If lockPath is not null, we know this is a valid Upload URI
         if (lockPath != null) {
-            lock = new FileBasedLock(requestURI, lockPath);
+            createParentDirectories(lockPath);
+            lock = new FileBasedLock(requestURI, lockPath, fenceFile, lockAcquisitionStrategy);
         }
         return lock;
     }
 
     @Override
     public void cleanupStaleLocks() throws IOException {
-        try (DirectoryStream<Path> locksStream = Files.newDirectoryStream(getStoragePath())) {
-            for (Path path : locksStream) {
+        try (Stream<Path> locksStream = listStorageDirectory()) {
+            for (Path path : (Iterable<Path>) locksStream::iterator) {
+                if (FENCE_FILE.equals(path.getFileName().toString())) {
+                    continue;
+                }
 
                 FileTime lastModifiedTime = Files.getLastModifiedTime(path);
                 if (lastModifiedTime.toMillis() < System.currentTimeMillis() - 10000L) {
@@ -79,8 +91,9 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
         Path lockPath = getLockPath(id);
 
         if (lockPath != null) {
-            //Try to obtain a lock to see if the upload is currently locked
-            try (UploadLock ignored = new FileBasedLock(id.toString(), lockPath)) {
+            //Try to obtain a lock to see if the upload is currently locked, without waiting for it
+            try (UploadLock ignored = new FileBasedLock(id.toString(), lockPath,
+                    LockAcquisitionStrategy.failFast())) {
 
                 //We got the lock, so it means no one else is locking it.
                 locked = false;
@@ -100,6 +113,21 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
         this.idFactory = idFactory;
     }
 
+    /**
+     * Set the strategy that determines how long to wait for an upload that is already locked. By default a
+     * request fails immediately when the upload is locked.
+     * @param lockAcquisitionStrategy The strategy to use when acquiring locks
+     */
+    @Override
+    public void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        Validate.notNull(lockAcquisitionStrategy, "The lock acquisition strategy cannot be null");
+        this.lockAcquisitionStrategy = lockAcquisitionStrategy;
+    }
+
+    public LockAcquisitionStrategy getLockAcquisitionStrategy() {
+        return lockAcquisitionStrategy;
+    }
+
     private Path getLockPath(UploadId id) {
         return getPathInStorageDirectory(id);
     }
@@ -3,53 +3,84 @@ package com.ejemplos.tus.server.upload.disk;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.nio.file.DirectoryStream;
+import java.nio.channels.FileLock;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 import com.ejemplos.tus.server.exception.InvalidUploadOffsetException;
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
 import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadInProgressException;
 import com.ejemplos.tus.server.exception.UploadNotFoundException;
 import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
+import com.ejemplos.tus.server.util.ByteBufferPool;
 import com.ejemplos.tus.server.util.Utils;
+import com.ejemplos.tus.server.upload.FileRegion;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadLockingService;
 import com.ejemplos.tus.server.upload.UploadStorageService;
 import com.ejemplos.tus.server.upload.UploadType;
+import com.ejemplos.tus.server.upload.codec.BinaryUploadInfoCodec;
+import com.ejemplos.tus.server.upload.codec.UploadInfoCodec;
 import com.ejemplos.tus.server.upload.concatenation.VirtualConcatenationService;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of {@link UploadStorageService} that implements storage on disk
+ * <p>
+ * Changes to an upload that carry a fencing token (see {@link UploadInfo#getFencingToken()}) are validated against
+ * the token of the last change, which is saved with the upload information. The token is checked and raised while
+ * holding the lock on the data file, so a request that lost its upload lock can no longer append, truncate or save
+ * the upload information once another request has written to it. This requires an {@link UploadInfoCodec} that
+ * stores the fencing token, like the default {@link BinaryUploadInfoCodec}.
  */
 public class DiskStorageService extends AbstractDiskBasedService implements UploadStorageService {
 
     private static final Logger log = LoggerFactory.getLogger(DiskStorageService.class);
 
-    private static final String UPLOAD_SUB_DIRECTORY = "uploads";
+    static final String UPLOAD_SUB_DIRECTORY = "uploads";
     private static final String INFO_FILE = "info";
     private static final String DATA_FILE = "data";
 
+    private static final int DEFAULT_APPEND_POOL_SIZE = 16;
+    private static final int DEFAULT_APPEND_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_DOWNLOAD_POOL_SIZE = 8;
+    private static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+
     private Long maxUploadSize = null;
     private Long uploadExpirationPeriod = null;
     private UploadIdFactory idFactory;
     private UploadConcatenationService uploadConcatenationService;
+    private UploadInfoCodec uploadInfoCodec = new BinaryUploadInfoCodec();
+    private DataFileSynchronizer dataFileSynchronizer = new DataFileSynchronizer(DurabilityPolicy.ALWAYS);
+    private GroupCommitScheduler ownGroupCommitScheduler = null;
+    private ByteBufferPool appendBufferPool = new ByteBufferPool(DEFAULT_APPEND_POOL_SIZE,
+            DEFAULT_APPEND_BUFFER_SIZE);
+    private ByteBufferPool downloadBufferPool = new ByteBufferPool(DEFAULT_DOWNLOAD_POOL_SIZE,
+            DEFAULT_DOWNLOAD_BUFFER_SIZE);
+    private FileChannelCache fileChannelCache = FileChannelCache.disabled();
+    private PreallocationMode preallocationMode = PreallocationMode.NONE;
+    private boolean uploadDigestEnabled = false;
 
     public DiskStorageService(String storagePath) {
         super(storagePath + File.separator + UPLOAD_SUB_DIRECTORY);
@@ -68,6 +99,146 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
         this.idFactory = idFactory;
     }
 
+    /**
+     * Set the codec that is used to store the upload information on disk. By default a compact binary format is
+     * used that is also able to read upload information written with Java serialization. Changes to uploads are
+     * only fenced when the codec stores the fencing token.
+     * @param uploadInfoCodec The codec to use for the upload info files
+     */
+    public void setUploadInfoCodec(UploadInfoCodec uploadInfoCodec) {
+        Validate.notNull(uploadInfoCodec, "The UploadInfoCodec cannot be null");
+        this.uploadInfoCodec = uploadInfoCodec;
+    }
+
+    public UploadInfoCodec getUploadInfoCodec() {
+        return uploadInfoCodec;
+    }
+
+    /**
+     * Set the policy that determines when uploaded bytes are forced to disk. By default the bytes are forced to
+     * disk after every write ({@link DurabilityPolicy#ALWAYS}).
+     * @param durabilityPolicy The durability policy to use
+     * @param syncIntervalMillis The minimum time between two syncs of the same upload for
+     *                           {@link DurabilityPolicy#INTERVAL}, or the round interval of a new
+     *                           {@link GroupCommitScheduler} for {@link DurabilityPolicy#GROUP_COMMIT}. That
+     *                           scheduler is closed again when the durability policy is replaced.
+     * @throws IllegalStateException When data files are preallocated and the policy does not sync on every write
+     */
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy, long syncIntervalMillis) {
+        Validate.notNull(durabilityPolicy, "The durability policy cannot be null");
+        validatePreallocation(durabilityPolicy, preallocationMode);
+        if (durabilityPolicy == DurabilityPolicy.GROUP_COMMIT) {
+            GroupCommitScheduler groupCommitScheduler = new GroupCommitScheduler(syncIntervalMillis);
+            setDataFileSynchronizer(new DataFileSynchronizer(groupCommitScheduler));
+            this.ownGroupCommitScheduler = groupCommitScheduler;
+        } else {
+            setDataFileSynchronizer(new DataFileSynchronizer(durabilityPolicy, syncIntervalMillis));
+        }
+    }
+
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        setDurabilityPolicy(durabilityPolicy, 0L);
+    }
+
+    /**
+     * Force uploaded bytes to disk in commit rounds of the given scheduler ({@link DurabilityPolicy#GROUP_COMMIT}).
+     * The same scheduler can be shared by multiple storage services, so the caller remains responsible for closing it.
+     * @param groupCommitScheduler The scheduler to use
+     */
+    public void setGroupCommitScheduler(GroupCommitScheduler groupCommitScheduler) {
+        setDataFileSynchronizer(new DataFileSynchronizer(groupCommitScheduler));
+    }
+
+    public DurabilityPolicy getDurabilityPolicy() {
+        return dataFileSynchronizer.getPolicy();
+    }
+
+    /**
+     * Get the synchronizer that applies the durability policy. Use it to monitor the number of executed and
+     * skipped syncs.
+     * @return The data file synchronizer
+     */
+    public DataFileSynchronizer getDataFileSynchronizer() {
+        return dataFileSynchronizer;
+    }
+
+    /**
+     * Set the pool of buffers that is used to copy uploaded bytes to disk. Every append borrows one buffer for
+     * the duration of the request. By default 16 buffers of 64 KB are pooled.
+     * @param appendBufferPool The buffer pool to use
+     */
+    public void setAppendBufferPool(ByteBufferPool appendBufferPool) {
+        Validate.notNull(appendBufferPool, "The ByteBufferPool cannot be null");
+        this.appendBufferPool = appendBufferPool;
+    }
+
+    public ByteBufferPool getAppendBufferPool() {
+        return appendBufferPool;
+    }
+
+    /**
+     * Set the pool of buffers that is used to copy the bytes of a completed upload to an output stream in
+     * {@link #copyUploadTo(UploadInfo, OutputStream)}. By default 8 buffers of 1 MB are pooled.
+     * @param downloadBufferPool The buffer pool to use
+     */
+    public void setDownloadBufferPool(ByteBufferPool downloadBufferPool) {
+        Validate.notNull(downloadBufferPool, "The ByteBufferPool cannot be null");
+        this.downloadBufferPool = downloadBufferPool;
+    }
+
+    public ByteBufferPool getDownloadBufferPool() {
+        return downloadBufferPool;
+    }
+
+    /**
+     * Set the cache of open channels to the data files of uploads. With a cache, consecutive requests on the same
+     * upload reuse the open data file instead of opening and closing it every time. By default no channels are
+     * kept open.
+     * @param fileChannelCache The channel cache to use
+     */
+    public void setFileChannelCache(FileChannelCache fileChannelCache) {
+        Validate.notNull(fileChannelCache, "The FileChannelCache cannot be null");
+        this.fileChannelCache = fileChannelCache;
+    }
+
+    public FileChannelCache getFileChannelCache() {
+        return fileChannelCache;
+    }
+
+    /**
+     * Set how the data file of an upload with a known length is preallocated when the upload is created, so that
+     * it does not grow through many small extensions. By default the data files are not preallocated
+     * ({@link PreallocationMode#NONE}).
+     * <p>
+     * The size of a preallocated file does not tell how many bytes survived a crash, so preallocation can only be
+     * combined with a {@link DurabilityPolicy} that forces the bytes to disk before the offset is saved.
+     * @param preallocationMode The preallocation mode to use
+     * @throws IllegalStateException When the durability policy does not sync on every write
+     */
+    public void setPreallocationMode(PreallocationMode preallocationMode) {
+        Validate.notNull(preallocationMode, "The preallocation mode cannot be null");
+        validatePreallocation(getDurabilityPolicy(), preallocationMode);
+        this.preallocationMode = preallocationMode;
+    }
+
+    public PreallocationMode getPreallocationMode() {
+        return preallocationMode;
+    }
+
+    /**
+     * Calculate the SHA-256 digest of every upload while its bytes are appended, so that it is available from
+     * {@link UploadInfo#getUploadDigest()} once the upload is complete. The state of the digest is stored with the
+     * upload information, so it survives between requests and restarts. By default no digests are calculated.
+     * @param uploadDigestEnabled True to calculate the digest of every upload
+     */
+    public void setUploadDigestEnabled(boolean uploadDigestEnabled) {
+        this.uploadDigestEnabled = uploadDigestEnabled;
+    }
+
+    public boolean isUploadDigestEnabled() {
+        return uploadDigestEnabled;
+    }
+
     @Override
     public void setMaxUploadSize(Long maxUploadSize) {
         this.maxUploadSize = (maxUploadSize != null && maxUploadSize > 0 ? maxUploadSize : 0);
@@ -92,7 +263,8 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     public UploadInfo getUploadInfo(UploadId id) throws IOException {
         try {
             Path infoPath = getInfoPath(id);
-            return Utils.readSerializable(infoPath, UploadInfo.class);
+            byte[] bytes = Utils.readBytes(infoPath);
+            return bytes == null ? null : reconcileOffset(uploadInfoCodec.decode(bytes));
         } catch (UploadNotFoundException e) {
             return null;
         }
@@ -107,8 +279,6 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
         UploadId id = createNewId();
 
-        createUploadDirectory(id);
-
         try {
             Path bytesPath = getBytesPath(id);
 
@@ -120,6 +290,12 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
             info.setOffset(0L);
             info.setOwnerKey(ownerKey);
 
+            if (preallocationMode != PreallocationMode.NONE && info.getLength() != null) {
+                try (FileChannelCache.Handle handle = acquireBytesFile(id)) {
+                    preallocationMode.preallocate(handle.channel(), 0L, info.getLength());
+                }
+            }
+
             update(info);
 
             return info;
@@ -133,46 +309,76 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     @Override
     public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
         Path infoPath = getInfoPath(uploadInfo.getId());
-        Utils.writeSerializable(uploadInfo, infoPath);
+        if (uploadInfo.getFencingToken() == null) {
+            Utils.writeBytes(uploadInfoCodec.encode(uploadInfo), infoPath, isInfoSyncRequired(uploadInfo));
+            return;
+        }
+
+        try (FileChannelCache.Handle handle = acquireBytesFile(uploadInfo.getId());
+             FileLock ignored = handle.channel().lock()) {
+            checkFencingToken(uploadInfo, false);
+            Utils.writeBytes(uploadInfoCodec.encode(uploadInfo), infoPath, isInfoSyncRequired(uploadInfo));
+        }
     }
 
     @Override
     public UploadInfo append(UploadInfo info, InputStream inputStream) throws IOException, TusException {
-        if (info != null) {
-            Path bytesPath = getBytesPath(info.getId());
+        try {
+            return appendWithoutUpdate(info, inputStream);
+        } finally {
+            if (info != null) {
+                update(info);
+            }
+        }
+    }
 
+    @Override
+    public UploadInfo appendWithoutUpdate(UploadInfo info, InputStream inputStream)
+            throws IOException, TusException {
+        if (info != null) {
             long max = getMaxUploadSize() > 0 ? getMaxUploadSize() : Long.MAX_VALUE;
-            long transferred;
             Long offset = info.getOffset();
             long newOffset = offset;
+            boolean preallocated = preallocationMode != PreallocationMode.NONE;
+            UploadDigestTracker digestTracker = UploadDigestTracker.start(info, uploadDigestEnabled);
+            DataTransfer transfer = new DataTransfer(appendBufferPool, digestTracker.getDigest());
 
-            try (ReadableByteChannel uploadedBytes = Channels.newChannel(inputStream);
-                FileChannel file = FileChannel.open(bytesPath, WRITE)) {
+            try (FileChannelCache.Handle handle = acquireBytesFile(info.getId());
+                 FileLock ignored = handle.channel().lock()) {
+                FileChannel file = handle.channel();
+                long savedOffset = getSavedOffset(info, checkFencingToken(info, true));
 
                 try {
-                    //Lock will be released when the channel closes
-                    file.lock();
-
-                    //Validate that the given offset is at the end of the file
-                    if (!offset.equals(file.size())) {
+                    //Validate that the given offset is at the end of the uploaded bytes. The size of a preallocated
+                    //file does not tell how many bytes were written, so the saved offset is used instead.
+                    if (offset < savedOffset || offset > (preallocated ? savedOffset : file.size())) {
                         throw new InvalidUploadOffsetException("The upload offset does not correspond to the written"
                                 + " bytes. You can only append to the end of an upload");
+                    } else if (offset < file.size() && !preallocated) {
+                        //These bytes were written after the saved offset, so they were never acknowledged
+                        log.warn("Discarding {} unacknowledged bytes of upload {}", file.size() - offset, info.getId());
+                        file.truncate(offset);
                     }
 
-                    //write all bytes in the channel up to the configured maximum
-                    transferred = file.transferFrom(uploadedBytes, offset, max - offset);
-                    file.force(true);
-                    newOffset = offset + transferred;
+                    //write all bytes in the channel up to the configured maximum, in a preallocated file the bytes
+                    //behind the offset are simply overwritten
+                    newOffset = offset + transfer.transferFrom(inputStream, file, offset, max - offset);
+                    dataFileSynchronizer.sync(info.getId(), file, info.getLength() != null
+                            && newOffset >= info.getLength());
 
                 } catch (Exception ex) {
                     //An error occurred, try to write as much data as possible
                     newOffset = writeAsMuchAsPossible(file);
+                    if (preallocated) {
+                        //The size of a preallocated file does not tell how many bytes were written
+                        newOffset = offset + transfer.getTransferred();
+                    }
                     throw ex;
                 }
 
             } finally {
                 info.setOffset(newOffset);
-                update(info);
+                digestTracker.finish(info);
             }
         }
 
@@ -184,18 +390,30 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
             throws UploadNotFoundException, IOException {
 
         if (info != null && byteCount > 0) {
-            Path bytesPath = getBytesPath(info.getId());
-
-            try (FileChannel file = FileChannel.open(bytesPath, WRITE)) {
-
-                //Lock will be released when the channel closes
-                file.lock();
+            removeLastNumberOfBytesWithoutUpdate(info, byteCount);
+            update(info);
+        }
+    }
 
-                file.truncate(file.size() - byteCount);
-                file.force(true);
+    @Override
+    public void removeLastNumberOfBytesWithoutUpdate(UploadInfo info, long byteCount)
+            throws UploadNotFoundException, IOException {
 
-                info.setOffset(file.size());
-                update(info);
+        if (info != null && byteCount > 0) {
+            try (FileChannelCache.Handle handle = acquireBytesFile(info.getId());
+                 FileLock ignored = handle.channel().lock()) {
+                FileChannel file = handle.channel();
+                checkFencingToken(info, true);
+
+                if (preallocationMode == PreallocationMode.NONE) {
+                    file.truncate(file.size() - byteCount);
+                    dataFileSynchronizer.sync(info.getId(), file, false);
+                    info.setOffset(file.size());
+                } else {
+                    //Keep the preallocated space, the removed bytes will be overwritten by the next append
+                    info.setOffset(Math.max(info.getOffset() - byteCount, 0L));
+                }
+                UploadDigestTracker.rollback(info);
             }
         }
     }
@@ -204,7 +422,9 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     public void terminateUpload(UploadInfo info) throws IOException {
         if (info != null) {
             Path uploadPath = getPathInStorageDirectory(info.getId());
+            fileChannelCache.invalidate(info.getId());
             FileUtils.deleteDirectory(uploadPath.toFile());
+            dataFileSynchronizer.forget(info.getId());
         }
     }
 
@@ -251,11 +471,18 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
             inputStream = uploadConcatenationService.getConcatenatedBytes(uploadInfo);
 
         } else {
-            Path bytesPath = getBytesPath(id);
-            //If bytesPath is not null, we know this is a valid Upload URI
-            if (bytesPath != null) {
-                inputStream = Channels.newInputStream(FileChannel.open(bytesPath, READ));
+            FileChannelCache.Handle handle = acquireBytesFileForReading(id);
+            try {
+                handle.channel().position(0);
+            } catch (IOException e) {
+                handle.discard();
+                throw e;
             }
+            //Bytes behind the saved offset are preallocated or were never acknowledged
+            inputStream = BoundedInputStream.builder()
+                    .setInputStream(new CachedChannelInputStream(handle))
+                    .setMaxCount(uploadInfo.getOffset() == null ? -1L : uploadInfo.getOffset())
+                    .get();
         }
 
         return inputStream;
@@ -267,7 +494,7 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
         List<UploadInfo> uploads = getUploads(info);
 
-        try (WritableByteChannel outputChannel = Channels.newChannel(outputStream)) {
+        try (OutputStream output = outputStream) {
 
             for (UploadInfo upload : uploads) {
                 if (upload == null) {
@@ -277,10 +504,11 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
                     log.warn("We cannot copy the bytes of upload {} because it is still in progress", upload.getId());
 
                 } else {
-                    Path bytesPath = getBytesPath(upload.getId());
-                    try (FileChannel file = FileChannel.open(bytesPath, READ)) {
-                        //Efficiently copy the bytes to the output stream
-                        file.transferTo(0, upload.getLength(), outputChannel);
+                    try (FileChannelCache.Handle handle = acquireBytesFileForReading(upload.getId())) {
+                        //A channel around the output stream would make transferTo copy in small chunks, copy
+                        //through a large pooled buffer instead
+                        new DataTransfer(downloadBufferPool).transferTo(handle.channel(), 0, upload.getLength(),
+                                output);
                     }
                 }
             }
@@ -290,15 +518,87 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
     }
 
+    @Override
+    public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        Validate.isTrue(position >= 0 && count >= 0, "The position and count of a range cannot be negative");
+
+        long partStart = 0;
+        long end = position + count;
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null) {
+                throw new UploadNotFoundException("A partial upload of upload " + info.getId() + " does not exist");
+            } else if (upload.isUploadInProgress() && upload != info) {
+                throw new IOException("Upload " + upload.getId() + " is still in progress");
+            }
+
+            //Only copy the part of the range that falls within this (partial) upload
+            long storedLength = upload.isUploadInProgress() ? upload.getOffset() : upload.getLength();
+            long from = Math.max(position, partStart);
+            long to = Math.min(end, partStart + storedLength);
+            if (from < to) {
+                try (FileChannelCache.Handle handle = acquireBytesFileForReading(upload.getId())) {
+                    new DataTransfer(downloadBufferPool).transferTo(handle.channel(), from - partStart, to - from,
+                            outputStream);
+                }
+            }
+            partStart += storedLength;
+        }
+
+        if (partStart < end) {
+            throw new EOFException("Upload " + info.getId() + " ends before the requested range");
+        }
+    }
+
+    @Override
+    public List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        List<FileRegion> regions = new ArrayList<>();
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null || upload.isUploadInProgress()) {
+                //The bytes cannot be sent from the files, let the caller fall back to copying
+                return null;
+            }
+            regions.add(new FileRegion(getBytesPath(upload.getId()).toAbsolutePath(), 0L, upload.getLength()));
+        }
+        return regions;
+    }
+
+    @Override
+    public List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        UploadInfo info = getUploadInfo(id);
+        if (info == null) {
+            throw new UploadNotFoundException("The upload with id " + id + " could not be found");
+        }
+
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null) {
+                throw new UploadNotFoundException("A partial upload of upload " + id + " could not be found");
+            } else if (upload.isUploadInProgress()) {
+                //The file of an upload in progress can still be truncated, which breaks a mapping
+                throw new UploadInProgressException("Upload " + upload.getId() + " is still in progress");
+            }
+
+            try (FileChannelCache.Handle handle = acquireBytesFileForReading(upload.getId())) {
+                MappedRegions.map(handle.channel(), 0L, upload.getOffset(), MappedRegions.MAX_CHUNK_SIZE, buffers);
+            }
+        }
+        return buffers;
+    }
+
     @Override
     public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
-        try (DirectoryStream<Path> expiredUploadsStream = Files.newDirectoryStream(getStoragePath(),
-                new ExpiredUploadFilter(this, uploadLockingService))) {
+        ExpiredUploadFilter expiredUploadFilter = new ExpiredUploadFilter(this, uploadLockingService);
+        try (Stream<Path> uploadsStream = listStorageDirectory()) {
 
-            for (Path path : expiredUploadsStream) {
-                FileUtils.deleteDirectory(path.toFile());
+            for (Path path : (Iterable<Path>) uploadsStream::iterator) {
+                if (expiredUploadFilter.accept(path)) {
+                    fileChannelCache.invalidate(new UploadId(path.getFileName().toString()));
+                    FileUtils.deleteDirectory(path.toFile());
+                }
             }
         }
+        fileChannelCache.evictIdleChannels();
     }
 
     private List<UploadInfo> getUploads(UploadInfo info) throws IOException, UploadNotFoundException {
@@ -318,12 +618,71 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
         return getPathInUploadDir(id, DATA_FILE);
     }
 
+    private FileChannelCache.Handle acquireBytesFile(UploadId id) throws IOException, UploadNotFoundException {
+        Path bytesPath = getBytesPath(id);
+        try {
+            return fileChannelCache.acquire(id, bytesPath);
+        } catch (NoSuchFileException e) {
+            throw new UploadNotFoundException("The upload for id " + id + " was not found.");
+        }
+    }
+
+    private FileChannelCache.Handle acquireBytesFileForReading(UploadId id)
+            throws IOException, UploadNotFoundException {
+        Path bytesPath = getBytesPath(id);
+        try {
+            return fileChannelCache.acquireForReading(id, bytesPath);
+        } catch (NoSuchFileException e) {
+            throw new UploadNotFoundException("The upload for id " + id + " was not found.");
+        }
+    }
+
     private Path getInfoPath(UploadId id) throws UploadNotFoundException {
         return getPathInUploadDir(id, INFO_FILE);
     }
 
-    private Path createUploadDirectory(UploadId id) throws IOException {
-        return Files.createDirectories(getPathInStorageDirectory(id));
+    /**
+     * Reject a change that carries a fencing token smaller than the token of the last change, which is saved with
+     * the upload information. The caller must hold the lock on the data file of the upload.
+     * @param raise True to save a bigger token right away, so that requests with an older lock can no longer write
+     *              to the upload even before the upload information is saved
+     * @return The saved upload information, or null if the change does not carry a fencing token
+     */
+    private UploadInfo checkFencingToken(UploadInfo info, boolean raise) throws IOException, UploadNotFoundException {
+        Long fencingToken = info.getFencingToken();
+        if (fencingToken == null) {
+            return null;
+        }
+
+        Path infoPath = getInfoPath(info.getId());
+        try (FileChannel file = raise ? FileChannel.open(infoPath, READ, WRITE) : FileChannel.open(infoPath, READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+            while (buffer.hasRemaining() && file.read(buffer, buffer.position()) >= 0) {
+                //Keep reading until the upload information is complete
+            }
+            UploadInfo savedInfo = uploadInfoCodec.decode(buffer.array());
+            Long savedToken = savedInfo.getFencingToken();
+
+            if (savedToken != null && savedToken > fencingToken) {
+                throw new StaleUploadLockException("The lock on upload " + info.getId()
+                        + " was lost and has been acquired by another request");
+            } else if (raise && !fencingToken.equals(savedToken)) {
+                savedInfo.setFencingToken(fencingToken);
+                byte[] bytes = uploadInfoCodec.encode(savedInfo);
+                if (bytes.length == buffer.capacity()) {
+                    //Only the token changes, so overwrite it in place instead of replacing the file
+                    buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        file.write(buffer, buffer.position());
+                    }
+                } else {
+                    Utils.writeBytes(bytes, infoPath, false);
+                }
+            }
+            return savedInfo;
+        } catch (NoSuchFileException e) {
+            throw new UploadNotFoundException("The upload for id " + info.getId() + " was not found.");
+        }
     }
 
     private Path getPathInUploadDir(UploadId id, String fileName) throws UploadNotFoundException {
@@ -336,13 +695,76 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
         }
     }
 
-    private synchronized UploadId createNewId() throws IOException {
-        UploadId id;
-        do {
-            id = idFactory.createId();
-            //For extra safety, double check that this ID is not in use yet
-        } while (getUploadInfo(id) != null);
-        return id;
+    private UploadId createNewId() throws IOException {
+        while (true) {
+            UploadId id = idFactory.createId();
+            try {
+                //Creating the upload directory atomically reserves the ID, so we don't need a monitor to make sure
+                //the ID is not in use yet
+                Path uploadDir = getPathInStorageDirectory(id);
+                createParentDirectories(uploadDir);
+                Files.createDirectory(uploadDir);
+                return id;
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Upload ID {} is already in use, creating a new one", id);
+            }
+        }
+    }
+
+    /**
+     * Bytes that were not forced to disk can be lost in a crash while the saved offset already includes them.
+     * Make sure we never report an offset beyond the bytes that are actually present.
+     */
+    private UploadInfo reconcileOffset(UploadInfo info) throws IOException, UploadNotFoundException {
+        if (info != null && info.getOffset() != null && !dataFileSynchronizer.getPolicy().isSyncedOnEveryWrite()
+                && !UploadType.CONCATENATED.equals(info.getUploadType())) {
+            Path bytesPath = getBytesPath(info.getId());
+            if (Files.exists(bytesPath)) {
+                long size = Files.size(bytesPath);
+                if (size < info.getOffset()) {
+                    log.warn("Upload {} has offset {} but only {} bytes are stored, resuming from the stored bytes",
+                            info.getId(), info.getOffset(), size);
+                    info.setOffset(size);
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * The upload information follows the durability policy of the data file: when the bytes are not forced to
+     * disk after every write, the saved offset does not need to be either, it is corrected when the upload is read.
+     * The information of a completed upload is always forced to disk.
+     */
+    private boolean isInfoSyncRequired(UploadInfo uploadInfo) {
+        return getDurabilityPolicy().isSyncedOnEveryWrite() || !uploadInfo.isUploadInProgress();
+    }
+
+    /**
+     * Replace the synchronizer and close the group commit scheduler that this service created for the previous one
+     */
+    private void setDataFileSynchronizer(DataFileSynchronizer dataFileSynchronizer) {
+        this.dataFileSynchronizer = dataFileSynchronizer;
+        if (ownGroupCommitScheduler != null) {
+            ownGroupCommitScheduler.close();
+            ownGroupCommitScheduler = null;
+        }
+    }
+
+    private static void validatePreallocation(DurabilityPolicy durabilityPolicy,
+                                              PreallocationMode preallocationMode) {
+        Validate.validState(preallocationMode == PreallocationMode.NONE || durabilityPolicy.isSyncedOnEveryWrite(),
+                "Preallocation mode %s cannot be combined with durability policy %s, the offset of an upload could"
+                        + " not be corrected after a crash", preallocationMode, durabilityPolicy);
+    }
+
+    /**
+     * Get the offset in the saved upload information. The bytes before it were acknowledged to the client and must
+     * never be discarded. Reuse the saved information that was already read to check the fencing token, if any.
+     */
+    private long getSavedOffset(UploadInfo info, UploadInfo savedInfo) throws IOException {
+        UploadInfo storedInfo = savedInfo != null ? savedInfo : getUploadInfo(info.getId());
+        return storedInfo == null || storedInfo.getOffset() == null ? 0L : storedInfo.getOffset();
     }
 
     private long writeAsMuchAsPossible(FileChannel file) throws IOException {
@@ -0,0 +1,50 @@
+package com.ejemplos.tus.server.upload.disk;
+
+/**
+ * Policy that determines when {@link DiskStorageService} forces uploaded bytes to the storage device.
+ * <p>
+ * Whatever the policy, the upload information is only saved after the bytes have been written. When the policy
+ * does not sync on every write, an upload offset that is larger than the bytes that survived a crash is corrected
+ * when the upload is read again. Clients
+ * will then simply resume from the corrected offset. Policies other than {@link #ALWAYS} trade this risk of
+ * having to re-send data for a lower latency per request.
+ * <p>
+ * The upload information follows the same policy: it is only forced to disk after every write when the bytes are,
+ * and always when the upload is complete.
+ */
+public enum DurabilityPolicy {
+
+    /**
+     * Force the bytes and file metadata to disk after every write. This is the default.
+     */
+    ALWAYS,
+
+    /**
+     * Force only the bytes (and the metadata needed to read them back) after every write
+     */
+    DATA_ONLY,
+
+    /**
+     * Force the bytes of an upload at most once per configured interval and when the upload completes
+     */
+    INTERVAL,
+
+    /**
+     * Only force the bytes of an upload to disk when the upload is complete
+     */
+    ON_COMPLETION,
+
+    /**
+     * Force the bytes to disk in periodic commit rounds shared by all concurrent writes (see
+     * {@link GroupCommitScheduler}). A write only completes once its round is durable.
+     */
+    GROUP_COMMIT;
+
+    /**
+     * Check if this policy forces the bytes to disk after every write
+     * @return True if written bytes are always on disk before the upload offset is saved, false otherwise
+     */
+    public boolean isSyncedOnEveryWrite() {
+        return this == ALWAYS || this == DATA_ONLY || this == GROUP_COMMIT;
+    }
+}
@@ -7,6 +7,7 @@ import java.nio.file.Path;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,11 +18,11 @@ public class ExpiredUploadFilter implements DirectoryStream.Filter<Path> {
 
     private static final Logger log = LoggerFactory.getLogger(ExpiredUploadFilter.class);
 
-    private final DiskStorageService diskStorageService;
+    private final UploadStorageService uploadStorageService;
     private final UploadLockingService uploadLockingService;
 
-    ExpiredUploadFilter(DiskStorageService diskStorageService, UploadLockingService uploadLockingService) {
-        this.diskStorageService = diskStorageService;
+    ExpiredUploadFilter(UploadStorageService uploadStorageService, UploadLockingService uploadLockingService) {
+        this.uploadStorageService = uploadStorageService;
         this.uploadLockingService = uploadLockingService;
     }
 
@@ -30,7 +31,7 @@ public class ExpiredUploadFilter implements DirectoryStream.Filter<Path> {
         UploadId id = null;
         try {
             id = new UploadId(upload.getFileName().toString());
-            UploadInfo info = diskStorageService.getUploadInfo(id);
+            UploadInfo info = uploadStorageService.getUploadInfo(id);
 
             if (info != null && info.isExpired() && !uploadLockingService.isLocked(id)) {
                 return true;
@@ -0,0 +1,89 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ejemplos.tus.server.upload.FencingTokenSequence;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * File that keeps the last fencing token handed out by the {@link FileBasedLock}s of all uploads in a lock
+ * directory. Every node that shares the lock directory raises the token under an exclusive lock on the file, so
+ * tokens keep increasing across nodes no matter how far their clocks are apart.
+ * <p>
+ * One file serves all uploads, so the lock directory does not grow with the number of uploads, and it is kept open
+ * between locks. The new token is not forced to disk: when it is lost in a crash, the next token is taken from the
+ * clock (see {@link FencingTokenSequence#nextAfter(long)}).
+ * <p>
+ * This class is thread-safe.
+ */
+class FenceFile implements Closeable {
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    private FileChannel channel = null;
+
+    FenceFile(Path path) {
+        Validate.notNull(path, "The path to the fence file cannot be null");
+        this.path = path;
+    }
+
+    /**
+     * Hand out a fencing token that is bigger than every token handed out before through this file
+     * @return The new fencing token
+     * @throws IOException When the fence file cannot be read or written
+     */
+    long raise() throws IOException {
+        //A file lock is held by the whole JVM, so the threads of this JVM take turns first
+        lock.lock();
+        try {
+            FileChannel file = open();
+            try (FileLock ignored = file.lock()) {
+                buffer.clear();
+                while (buffer.hasRemaining() && file.read(buffer, buffer.position()) > 0) {
+                    //Read the complete token
+                }
+                long token = FencingTokenSequence.nextAfter(buffer.hasRemaining() ? 0L : buffer.getLong(0));
+
+                buffer.clear();
+                buffer.putLong(0, token);
+                while (buffer.hasRemaining()) {
+                    file.write(buffer, buffer.position());
+                }
+                return token;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        //The channel is closed when a thread is interrupted while using it, the next thread opens it again
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, CREATE, READ, WRITE);
+        }
+        return channel;
+    }
+}
@@ -4,13 +4,17 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.FencingTokenSequence;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import com.ejemplos.tus.server.upload.UploadLock;
 import com.ejemplos.tus.server.util.Utils;
 import org.apache.commons.lang3.Validate;
@@ -24,55 +28,127 @@ import org.slf4j.LoggerFactory;
  * <p>
  * File locks are also automatically released on application (JVM) shutdown. This means the file locking is not
  * persistent and prevents cleanup and stale lock issues.
+ * <p>
+ * The lock file is removed when the lock is released. Before removing it, a tombstone is written to the file so
+ * that a request which was waiting for the lock on the removed file knows it has to start over with a new file.
+ * <p>
+ * When a {@link FenceFile} is given, the fencing token of the lock is raised in that file once the lock is
+ * obtained, so every lock gets a bigger token than the previous one, no matter which node obtained it and how far
+ * the clocks of the nodes are apart. Without a fence file, the token is taken from the clock (see
+ * {@link FencingTokenSequence}).
  */
 public class FileBasedLock implements UploadLock {
 
     private static final Logger log = LoggerFactory.getLogger(FileBasedLock.class);
 
+    private static final byte[] TOMBSTONE = {0};
+    private static final int MAX_TOMBSTONE_RETRIES = 3;
+    private static final Object MISSING_FILE = new Object();
+    private static final FencingTokenSequence FENCING_TOKENS = new FencingTokenSequence();
+
     private final String uploadUri;
+    private final FenceFile fenceFile;
+    private final LockAcquisitionStrategy lockAcquisitionStrategy;
     private FileChannel fileChannel = null;
+    private long fencingToken;
     protected Path lockPath;
 
     /**
-     * Constructor
+     * Constructor that fails immediately when the upload is already locked
      * @param uploadUri Upload Uri
      * @param lockPath Lock path
      */
     public FileBasedLock(String uploadUri, Path lockPath) throws UploadAlreadyLockedException, IOException {
+        this(uploadUri, lockPath, LockAcquisitionStrategy.failFast());
+    }
+
+    /**
+     * Constructor
+     * @param uploadUri Upload Uri
+     * @param lockPath Lock path
+     * @param lockAcquisitionStrategy The strategy that determines how long to wait when the upload is locked
+     */
+    public FileBasedLock(String uploadUri, Path lockPath, LockAcquisitionStrategy lockAcquisitionStrategy)
+            throws UploadAlreadyLockedException, IOException {
+        this(uploadUri, lockPath, null, lockAcquisitionStrategy);
+    }
+
+    /**
+     * Constructor of a lock that takes its fencing token from a fence file
+     * @param uploadUri Upload Uri
+     * @param lockPath Lock path
+     * @param fenceFile The fence file that hands out the fencing tokens, or null to take them from the clock
+     * @param lockAcquisitionStrategy The strategy that determines how long to wait when the upload is locked
+     */
+    FileBasedLock(String uploadUri, Path lockPath, FenceFile fenceFile, LockAcquisitionStrategy lockAcquisitionStrategy)
+            throws UploadAlreadyLockedException, IOException {
         Validate.notBlank(uploadUri, "The upload URI cannot be blank");
         Validate.notNull(lockPath, "The path to the lock cannot be null");
+        Validate.notNull(lockAcquisitionStrategy, "The lock acquisition strategy cannot be null");
         this.uploadUri = uploadUri;
         this.lockPath = lockPath;
+        this.fenceFile = fenceFile;
+        this.lockAcquisitionStrategy = lockAcquisitionStrategy;
 
         tryToObtainFileLock();
     }
 
     private void tryToObtainFileLock() throws UploadAlreadyLockedException, IOException {
-        String message = "The upload " + getUploadUri() + " is already locked";
-
+        FileChannel lockedChannel;
         try {
-            //Try to acquire a lock
-            fileChannel = createFileChannel();
-            FileLock fileLock = Utils.lockFileExclusively(fileChannel);
+            lockedChannel = lockAcquisitionStrategy.acquire(this::tryToLockFile);
+        } catch (IOException e) {
+            throw new IOException("Unable to create or open file required to implement file-based locking", e);
+        }
 
-            //If the upload is already locked, our lock will be null
-            if (fileLock == null) {
-                fileChannel.close();
-                throw new UploadAlreadyLockedException(message);
+        //If the upload is already locked, our channel will be null
+        if (lockedChannel == null) {
+            throw new UploadAlreadyLockedException("The upload " + getUploadUri() + " is already locked");
+        }
+        fileChannel = lockedChannel;
+        if (fenceFile == null) {
+            fencingToken = FENCING_TOKENS.next();
+        } else {
+            try {
+                fencingToken = fenceFile.raise();
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
             }
+        }
+    }
 
-        } catch (OverlappingFileLockException e) {
-            if (fileChannel != null) {
-                try {
-                    fileChannel.close();
-                } catch (IOException e1) {
-                    //Should not happen
+    private FileChannel tryToLockFile() throws IOException {
+        for (int i = 0; i < MAX_TOMBSTONE_RETRIES; i++) {
+            FileChannel channel = createFileChannel();
+            FileLock fileLock = null;
+            try {
+                Object fileKey = readFileKey();
+                fileLock = Utils.tryLockFile(channel, false);
+                if (fileLock != null && channel.size() > 0 && i == MAX_TOMBSTONE_RETRIES - 1) {
+                    //The file can have been removed and replaced since we opened it, then our lock is worthless
+                    if (!isSameFile(fileKey, readFileKey())) {
+                        closeQuietly(channel);
+                        return null;
+                    }
+                    //The previous holder released the lock but never removed the file, so reclaim it
+                    channel.truncate(0);
+                }
+                if (fileLock != null && channel.size() == 0) {
+                    return channel;
                 }
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(channel);
+                throw e;
             }
-            throw new UploadAlreadyLockedException(message);
-        } catch (IOException e) {
-            throw new IOException("Unable to create or open file required to implement file-based locking", e);
+
+            closeQuietly(channel);
+            if (fileLock == null) {
+                return null;
+            }
+            //We locked a file that was released and removed by the previous lock holder, open the new file
         }
+        return null;
     }
 
     @Override
@@ -80,14 +156,26 @@ public class FileBasedLock implements UploadLock {
         return uploadUri;
     }
 
+    @Override
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
     @Override
     public void release() {
+        if (!fileChannel.isOpen()) {
+            return;
+        }
+
         try {
-            //Closing the channel will also release the lock
-            fileChannel.close();
+            //Mark and remove the lock file while we still hold the lock
+            fileChannel.write(ByteBuffer.wrap(TOMBSTONE), 0);
             Files.deleteIfExists(lockPath);
         } catch (IOException e) {
-            log.warn("Unable to release file lock for URI " + getUploadUri(), e);
+            log.warn("Unable to remove lock file for URI " + getUploadUri(), e);
+        } finally {
+            //Closing the channel will also release the lock
+            closeQuietly(fileChannel);
         }
     }
 
@@ -96,6 +184,34 @@ public class FileBasedLock implements UploadLock {
         release();
     }
 
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close lock file for URI " + getUploadUri(), e);
+        }
+    }
+
+    /**
+     * @return The key that identifies the current lock file, {@link #MISSING_FILE} if there is no lock file or null
+     * if the file system does not support file keys
+     */
+    private Object readFileKey() throws IOException {
+        try {
+            return Files.readAttributes(lockPath, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return MISSING_FILE;
+        }
+    }
+
+    private static boolean isSameFile(Object openedFileKey, Object currentFileKey) {
+        if (openedFileKey == MISSING_FILE || currentFileKey == MISSING_FILE) {
+            return false;
+        }
+        //Without file keys we cannot tell, assume the file was left behind by a crashed lock holder
+        return openedFileKey == null || openedFileKey.equals(currentFileKey);
+    }
+
     protected FileChannel createFileChannel() throws IOException {
         return FileChannel.open(lockPath, CREATE, WRITE);
     }
@@ -0,0 +1,395 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size- and time-bounded cache of open {@link FileChannel}s to the files of uploads that are in progress, so that
+ * consecutive requests on the same upload do not have to open and close the file every time.
+ * <p>
+ * A channel is lent to one request at a time with {@link #acquire(UploadId, Path)} and returned to the cache when
+ * the {@link Handle} is closed. When the cached channel of an upload is in use, another request gets a new channel
+ * that is closed after use, so a cached channel is never shared and file locks on it work as usual. Idle channels
+ * are closed when the cache is full (least recently used first), when they were not used for the configured idle
+ * timeout and when the upload is terminated with {@link #invalidate(UploadId)}.
+ * <p>
+ * Channels for {@link #acquireForReading(UploadId, Path)} are opened read-only, so files and mounts that cannot be
+ * written are still readable. A cached read-write channel is also lent for reading, while an idle read-only channel
+ * is replaced by a read-write one when the upload is written again.
+ * <p>
+ * A cache with a maximum size of 0 does not keep any channel open. This class is thread-safe.
+ */
+public class FileChannelCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FileChannelCache.class);
+
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<UploadId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong uncachedCount = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * @param maxSize The maximum number of channels to keep open, 0 disables caching
+     * @param idleTimeoutMillis The number of milliseconds after which an unused channel is closed
+     */
+    public FileChannelCache(int maxSize, long idleTimeoutMillis) {
+        Validate.isTrue(maxSize >= 0, "The maximum number of open channels cannot be negative");
+        Validate.isTrue(idleTimeoutMillis > 0 || maxSize == 0, "The idle timeout must be bigger than 0");
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Create a cache that does not keep any channel open
+     * @return A disabled cache
+     */
+    public static FileChannelCache disabled() {
+        return new FileChannelCache(0, 0L);
+    }
+
+    /**
+     * Get a channel to read and write the given file of an upload. The handle must be closed after use.
+     * @param id The ID of the upload
+     * @param path The path to the file of the upload
+     * @return A handle to an open channel that is only used by the caller until the handle is closed
+     * @throws IOException When the file cannot be opened
+     */
+    public Handle acquire(UploadId id, Path path) throws IOException {
+        return acquire(id, path, true);
+    }
+
+    /**
+     * Get a channel to read the given file of an upload. The channel can be read-only, so it must not be written
+     * or locked exclusively. The handle must be closed after use.
+     * @param id The ID of the upload
+     * @param path The path to the file of the upload
+     * @return A handle to an open channel that is only used by the caller until the handle is closed
+     * @throws IOException When the file cannot be opened
+     */
+    public Handle acquireForReading(UploadId id, Path path) throws IOException {
+        return acquire(id, path, false);
+    }
+
+    /**
+     * Close the cached channel of an upload, for example because the upload is removed. A channel that is in use
+     * is closed as soon as it is returned.
+     * @param id The ID of the upload
+     */
+    public void invalidate(UploadId id) {
+        if (id == null || maxSize == 0) {
+            return;
+        }
+
+        FileChannel idleChannel = null;
+        lock.lock();
+        try {
+            Entry entry = entries.remove(id);
+            if (entry != null) {
+                entry.invalidated = true;
+                idleChannel = entry.inUse ? null : entry.channel;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (idleChannel != null) {
+            close(idleChannel);
+        }
+    }
+
+    /**
+     * Close all channels that were not used for longer than the idle timeout. Idle channels are also closed while
+     * acquiring and returning channels, but call this method regularly to release file handles when the server
+     * is idle.
+     */
+    public void evictIdleChannels() {
+        if (maxSize > 0) {
+            closeAll(evict(currentTime()));
+        }
+    }
+
+    /**
+     * Close all idle channels and stop caching the channels that are in use
+     */
+    public void invalidateAll() {
+        List<FileChannel> channels = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Entry entry : entries.values()) {
+                entry.invalidated = true;
+                if (!entry.inUse) {
+                    channels.add(entry.channel);
+                }
+            }
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+        closeAll(channels);
+    }
+
+    /**
+     * Get the number of channels that are kept open by the cache, including the channels that are in use
+     * @return The number of cached channels
+     */
+    public int getOpenChannelCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of cached channels that are currently lent to a request
+     * @return The number of cached channels in use
+     */
+    public int getInUseChannelCount() {
+        lock.lock();
+        try {
+            return (int) entries.values().stream().filter(entry -> entry.inUse).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return The number of channels that were opened, for the cache or for a single use
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * @return The number of requests that were served with a cached channel
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of channels that were opened for a single use because the cached channel was in use or
+     *         caching is disabled
+     */
+    public long getUncachedCount() {
+        return uncachedCount.get();
+    }
+
+    /**
+     * @return The number of cached channels that were closed because the cache was full or they were idle
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    private void release(UploadId id, FileChannel channel, Entry entry) {
+        if (entry == null) {
+            close(channel);
+            return;
+        }
+
+        List<FileChannel> channels;
+        lock.lock();
+        try {
+            entry.inUse = false;
+            entry.lastUsed = currentTime();
+            if (entry.invalidated || !channel.isOpen()) {
+                if (entries.get(id) == entry) {
+                    entries.remove(id);
+                }
+                channels = new ArrayList<>();
+                channels.add(channel);
+            } else {
+                channels = evictEntries(entry.lastUsed);
+            }
+        } finally {
+            lock.unlock();
+        }
+        closeAll(channels);
+    }
+
+    private List<FileChannel> evict(long now) {
+        lock.lock();
+        try {
+            return evictEntries(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<FileChannel> evictEntries(long now) {
+        List<FileChannel> evicted = new ArrayList<>();
+        Iterator<Map.Entry<UploadId, Entry>> iterator = entries.entrySet().iterator();
+        //The iteration order is from least to most recently used
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (!entry.inUse && (entries.size() > maxSize || now - entry.lastUsed >= idleTimeoutMillis)) {
+                iterator.remove();
+                evicted.add(entry.channel);
+                evictionCount.incrementAndGet();
+            }
+        }
+        return evicted;
+    }
+
+    private Handle acquire(UploadId id, Path path, boolean writable) throws IOException {
+        if (maxSize > 0) {
+            boolean cacheable;
+            FileChannel readOnlyChannel = null;
+            lock.lock();
+            try {
+                Entry entry = entries.get(id);
+                if (entry != null && !entry.inUse && entry.path.equals(path) && (entry.writable || !writable)) {
+                    entry.inUse = true;
+                    hitCount.incrementAndGet();
+                    return new Handle(this, id, entry.channel, entry);
+                } else if (entry != null && !entry.inUse && !entry.writable) {
+                    //Replace the idle read-only channel with one that can also be written
+                    entries.remove(id);
+                    readOnlyChannel = entry.channel;
+                    entry = null;
+                }
+                cacheable = entry == null;
+            } finally {
+                lock.unlock();
+            }
+            if (readOnlyChannel != null) {
+                close(readOnlyChannel);
+            }
+
+            if (cacheable) {
+                //Open the file without holding the lock, so that other uploads are not blocked
+                FileChannel channel = open(path, writable);
+                lock.lock();
+                try {
+                    if (!entries.containsKey(id)) {
+                        Entry entry = new Entry(path, channel, writable);
+                        entries.put(id, entry);
+                        return new Handle(this, id, channel, entry);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                uncachedCount.incrementAndGet();
+                return new Handle(this, id, channel, null);
+            }
+        }
+
+        //The cached channel is in use or caching is disabled
+        uncachedCount.incrementAndGet();
+        return new Handle(this, id, open(path, writable), null);
+    }
+
+    private FileChannel open(Path path, boolean writable) throws IOException {
+        FileChannel channel = writable ? FileChannel.open(path, READ, WRITE) : FileChannel.open(path, READ);
+        openedCount.incrementAndGet();
+        return channel;
+    }
+
+    private static void closeAll(List<FileChannel> channels) {
+        for (FileChannel channel : channels) {
+            close(channel);
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close cached file channel", e);
+        }
+    }
+
+    /**
+     * Handle to a channel that was lent by the cache. Closing the handle returns the channel to the cache.
+     */
+    public static final class Handle implements AutoCloseable {
+
+        private final FileChannelCache cache;
+        private final UploadId id;
+        private final FileChannel channel;
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Handle(FileChannelCache cache, UploadId id, FileChannel channel, Entry entry) {
+            this.cache = cache;
+            this.id = id;
+            this.channel = channel;
+            this.entry = entry;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Close the channel instead of returning it to the cache, for example because it is in an unknown state
+         */
+        public void discard() {
+            if (entry != null) {
+                entry.invalidated = true;
+            }
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                cache.release(id, channel, entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final boolean writable;
+        private boolean inUse = true;
+        private boolean invalidated = false;
+        private long lastUsed;
+
+        Entry(Path path, FileChannel channel, boolean writable) {
+            this.path = path;
+            this.channel = channel;
+            this.writable = writable;
+        }
+    }
+}
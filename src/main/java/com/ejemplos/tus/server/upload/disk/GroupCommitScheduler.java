@@ -0,0 +1,235 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared component that batches the {@link FileChannel#force(boolean)} calls of many concurrent writes into
+ * commit rounds.
+ * <p>
+ * A thread that wants its written bytes to be durable calls {@link #commit(FileChannel)}. The file is added to
+ * the next round and the calling thread waits until that round has forced all of its files to disk. A round starts
+ * as soon as the previous round is complete, but at most once per round interval, so a single write is not delayed
+ * while concurrent writes arriving during a round are collected into the next one. Within a round every file is
+ * forced only once, however many writes are waiting for it, and different files are forced in parallel by a small
+ * pool of threads. Because {@link #commit(FileChannel)} only returns once the bytes are durable, the new upload
+ * offset is still only saved and acknowledged for bytes that are safely stored.
+ * <p>
+ * One scheduler can be shared by multiple {@link DiskStorageService} instances.
+ */
+public class GroupCommitScheduler implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitScheduler.class);
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private final long roundIntervalMillis;
+    private final ScheduledExecutorService roundExecutor;
+    private final ExecutorService forceExecutor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Map<FileChannel, CompletableFuture<Void>> nextRound = new LinkedHashMap<>();
+    private boolean roundPending = false;
+    private long lastRoundStart = 0L;
+    private volatile boolean closed = false;
+
+    private final AtomicLong roundCount = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong forceCount = new AtomicLong();
+
+    /**
+     * Create a new scheduler with its own background threads that force up to 4 files in parallel
+     * @param roundIntervalMillis The minimum time in milliseconds between the start of two rounds
+     */
+    public GroupCommitScheduler(long roundIntervalMillis) {
+        this(roundIntervalMillis, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Create a new scheduler with its own background threads
+     * @param roundIntervalMillis The minimum time in milliseconds between the start of two rounds
+     * @param parallelism The maximum number of files that are forced to disk at the same time
+     */
+    public GroupCommitScheduler(long roundIntervalMillis, int parallelism) {
+        Validate.isTrue(roundIntervalMillis > 0, "The round interval must be bigger than 0");
+        Validate.isTrue(parallelism > 0, "The parallelism must be bigger than 0");
+        this.roundIntervalMillis = roundIntervalMillis;
+        this.roundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> newThread(runnable,
+                "tus-group-commit"));
+        this.forceExecutor = Executors.newFixedThreadPool(parallelism, runnable -> newThread(runnable,
+                "tus-group-commit-force"));
+    }
+
+    /**
+     * Force the bytes written to the given file to disk as part of the next commit round. This method blocks
+     * until that round is complete.
+     * @param file The file of which the written bytes must become durable
+     * @throws IOException When forcing the bytes to disk fails or the waiting thread is interrupted
+     */
+    public void commit(FileChannel file) throws IOException {
+        CompletableFuture<Void> result = addToNextRound(file);
+        if (result == null) {
+            file.force(true);
+            forceCount.incrementAndGet();
+            commitCount.incrementAndGet();
+            return;
+        }
+
+        try {
+            result.get();
+            commitCount.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the commit round");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Unable to force the written bytes to disk", e.getCause());
+        }
+    }
+
+    public long getRoundIntervalMillis() {
+        return roundIntervalMillis;
+    }
+
+    /**
+     * Get the number of commit rounds that were executed
+     * @return The number of rounds
+     */
+    public long getRoundCount() {
+        return roundCount.get();
+    }
+
+    /**
+     * Get the number of writes that were made durable by this scheduler
+     * @return The number of commits
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Get the number of times a file was forced to disk. Writes to the same file in the same round share one force,
+     * so this number can be smaller than the number of commits.
+     * @return The number of forces
+     */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
+    /**
+     * Stop the background threads after executing the pending round. Later commits force their file directly.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            roundExecutor.shutdown();
+            forceExecutor.shutdown();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<Void> addToNextRound(FileChannel file) {
+        lock.lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            if (!roundPending) {
+                long delay = lastRoundStart + roundIntervalMillis - System.currentTimeMillis();
+                roundExecutor.schedule(this::executeRounds, Math.max(delay, 0L), TimeUnit.MILLISECONDS);
+                roundPending = true;
+            }
+            return nextRound.computeIfAbsent(file, f -> new CompletableFuture<>());
+        } catch (RejectedExecutionException e) {
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Execute rounds until no more writes are waiting. A round that collected writes while the previous round was
+     * forcing its files starts right away, but not before the round interval has passed.
+     */
+    private void executeRounds() {
+        while (true) {
+            Map<FileChannel, CompletableFuture<Void>> round;
+            lock.lock();
+            try {
+                if (nextRound.isEmpty()) {
+                    roundPending = false;
+                    return;
+                }
+                long delay = lastRoundStart + roundIntervalMillis - System.currentTimeMillis();
+                if (delay > 0 && !closed) {
+                    roundExecutor.schedule(this::executeRounds, delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                round = nextRound;
+                nextRound = new LinkedHashMap<>();
+                lastRoundStart = System.currentTimeMillis();
+            } catch (RejectedExecutionException e) {
+                //The scheduler was closed in the meantime, execute the pending round right away
+                round = nextRound;
+                nextRound = new LinkedHashMap<>();
+            } finally {
+                lock.unlock();
+            }
+
+            roundCount.incrementAndGet();
+            forceAll(round);
+        }
+    }
+
+    private void forceAll(Map<FileChannel, CompletableFuture<Void>> round) {
+        for (Map.Entry<FileChannel, CompletableFuture<Void>> commit : round.entrySet()) {
+            try {
+                forceExecutor.execute(() -> force(commit.getKey(), commit.getValue()));
+            } catch (RejectedExecutionException e) {
+                force(commit.getKey(), commit.getValue());
+            }
+        }
+
+        //Wait until the round is complete so that rounds never overlap
+        CompletableFuture.allOf(round.values().toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, failure) -> null)
+                .join();
+    }
+
+    private void force(FileChannel file, CompletableFuture<Void> result) {
+        try {
+            file.force(true);
+            forceCount.incrementAndGet();
+            result.complete(null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to force the written bytes to disk", e);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,41 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Helper to map a region of a file into memory as read-only buffers. A single buffer cannot hold more than 2 GB,
+ * so bigger regions are split in chunks.
+ */
+final class MappedRegions {
+
+    /**
+     * The maximum size of one mapped buffer, a power of two so that all chunks start on a page boundary
+     */
+    static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private MappedRegions() {
+        //Utility class
+    }
+
+    /**
+     * Map a region of a file and add the buffers to the given list. The buffers stay valid after the channel is
+     * closed.
+     * @param file The file to map
+     * @param position The position in the file where the region starts
+     * @param length The length of the region
+     * @param chunkSize The maximum size of one buffer
+     * @param buffers The list to which the mapped buffers are added in file order
+     * @throws IOException When mapping the file fails
+     */
+    static void map(FileChannel file, long position, long length, int chunkSize, List<ByteBuffer> buffers)
+            throws IOException {
+        for (long mapped = 0; mapped < length; ) {
+            long size = Math.min(chunkSize, length - mapped);
+            buffers.add(file.map(FileChannel.MapMode.READ_ONLY, position + mapped, size));
+            mapped += size;
+        }
+    }
+}
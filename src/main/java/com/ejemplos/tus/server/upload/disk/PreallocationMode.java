@@ -0,0 +1,69 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Mode that determines how the storage services reserve disk space for an upload of which the length is known when
+ * it is created.
+ * <p>
+ * Once the file of an upload is preallocated, its size no longer tells how many bytes were uploaded. The saved
+ * upload offset is used instead. This also means that an offset that was saved before the bytes were forced to disk
+ * cannot be corrected after a crash, which is why {@link DiskStorageService} only preallocates with a
+ * {@link DurabilityPolicy} that syncs on every write.
+ */
+public enum PreallocationMode {
+
+    /**
+     * Do not preallocate, the file grows while the bytes are written. This is the default.
+     */
+    NONE,
+
+    /**
+     * Extend the file to its final size without writing the bytes. Most file systems create a sparse file, which
+     * does not use space up front but avoids extending the file on every write.
+     */
+    SPARSE,
+
+    /**
+     * Fill the file with zeros up to its final size, so that all space is allocated when the upload is created and
+     * the file system can choose contiguous blocks. Creating large uploads takes longer in this mode.
+     */
+    FULL;
+
+    private static final int ZERO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reserve space for the given number of bytes in a file
+     * @param file The file in which to reserve the space
+     * @param position The position of the first byte of the upload in the file
+     * @param length The length of the upload
+     * @throws IOException When extending the file fails
+     */
+    void preallocate(FileChannel file, long position, long length) throws IOException {
+        if (this == NONE || length <= 0 || file.size() >= position + length) {
+            return;
+        }
+
+        if (this == SPARSE) {
+            //Writing the last byte makes the file system extend the file without allocating the bytes before it
+            write(file, ByteBuffer.allocate(1), position + length - 1);
+        } else {
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, ZERO_BUFFER_SIZE));
+            for (long written = Math.max(file.size() - position, 0); written < length; ) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), length - written));
+                written += write(file, zeros, position + written);
+            }
+        }
+    }
+
+    private static int write(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += file.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,872 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.ejemplos.tus.server.exception.InvalidUploadOffsetException;
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadInProgressException;
+import com.ejemplos.tus.server.exception.UploadNotFoundException;
+import com.ejemplos.tus.server.upload.FileRegion;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.upload.UploadType;
+import com.ejemplos.tus.server.upload.codec.BinaryUploadInfoCodec;
+import com.ejemplos.tus.server.upload.codec.UploadInfoCodec;
+import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
+import com.ejemplos.tus.server.upload.concatenation.VirtualConcatenationService;
+import com.ejemplos.tus.server.util.ByteBufferPool;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link UploadStorageService} that stores every upload in a single container file on disk.
+ * <p>
+ * A container starts with a fixed-size header with the offset, length, expiration timestamp and fencing token of
+ * the upload and a pointer to the remaining upload information. That information is encoded with the configured
+ * {@link UploadInfoCodec} into one of two metadata slots behind the header and the uploaded bytes start at the next
+ * 4 KB boundary. Where {@link DiskStorageService} needs an upload directory with separate info and data files, a
+ * PATCH request on a container opens one file and appends the bytes and saves the new offset with positional writes
+ * on the same {@link FileChannel}.
+ * <p>
+ * The metadata is only written when it changes, and always to the slot that is not in use. It replaces the
+ * previous metadata once the header that points to it is written, so the metadata in use is never overwritten in
+ * place. The offset in the header, not the size of the file, determines which bytes were uploaded. This allows
+ * the container of an upload with a known length to be preallocated when it is created (see
+ * {@link PreallocationMode}).
+ */
+public class SingleFileStorageService extends AbstractDiskBasedService implements UploadStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFileStorageService.class);
+
+    static final String CONTAINER_SUB_DIRECTORY = "containers";
+
+    static final int MAGIC = 0x54555343;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int DATA_ALIGNMENT = 4096;
+    private static final int MIN_SLOT_SIZE = 512;
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final long NONE = -1L;
+
+    private static final int DEFAULT_APPEND_POOL_SIZE = 16;
+    private static final int DEFAULT_APPEND_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_DOWNLOAD_POOL_SIZE = 8;
+    private static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+
+    private Long maxUploadSize = null;
+    private Long uploadExpirationPeriod = null;
+    private UploadIdFactory idFactory;
+    private UploadConcatenationService uploadConcatenationService;
+    private UploadInfoCodec uploadInfoCodec = new BinaryUploadInfoCodec();
+    private DataFileSynchronizer dataFileSynchronizer = new DataFileSynchronizer(DurabilityPolicy.ALWAYS);
+    private GroupCommitScheduler ownGroupCommitScheduler = null;
+    private ByteBufferPool appendBufferPool = new ByteBufferPool(DEFAULT_APPEND_POOL_SIZE,
+            DEFAULT_APPEND_BUFFER_SIZE);
+    private ByteBufferPool downloadBufferPool = new ByteBufferPool(DEFAULT_DOWNLOAD_POOL_SIZE,
+            DEFAULT_DOWNLOAD_BUFFER_SIZE);
+    private PreallocationMode preallocationMode = PreallocationMode.SPARSE;
+    private FileChannelCache fileChannelCache = FileChannelCache.disabled();
+    private boolean uploadDigestEnabled = false;
+
+    public SingleFileStorageService(String storagePath) {
+        super(storagePath + File.separator + CONTAINER_SUB_DIRECTORY);
+        setUploadConcatenationService(new VirtualConcatenationService(this));
+    }
+
+    public SingleFileStorageService(UploadIdFactory idFactory, String storagePath) {
+        this(storagePath);
+        Validate.notNull(idFactory, "The IdFactory cannot be null");
+        this.idFactory = idFactory;
+    }
+
+    @Override
+    public void setIdFactory(UploadIdFactory idFactory) {
+        Validate.notNull(idFactory, "The IdFactory cannot be null");
+        this.idFactory = idFactory;
+    }
+
+    /**
+     * Set the codec that is used to store the upload information in the metadata slots of a container. The
+     * offset, length and expiration timestamp are always kept in the container header.
+     * @param uploadInfoCodec The codec to use for the upload information
+     */
+    public void setUploadInfoCodec(UploadInfoCodec uploadInfoCodec) {
+        Validate.notNull(uploadInfoCodec, "The UploadInfoCodec cannot be null");
+        this.uploadInfoCodec = uploadInfoCodec;
+    }
+
+    public UploadInfoCodec getUploadInfoCodec() {
+        return uploadInfoCodec;
+    }
+
+    /**
+     * Set the policy that determines when uploaded bytes are forced to disk. By default the bytes are forced to
+     * disk after every write ({@link DurabilityPolicy#ALWAYS}).
+     * @param durabilityPolicy The durability policy to use
+     * @param syncIntervalMillis The minimum time between two syncs of the same upload for
+     *                           {@link DurabilityPolicy#INTERVAL}, or the round interval of a new
+     *                           {@link GroupCommitScheduler} for {@link DurabilityPolicy#GROUP_COMMIT}. That
+     *                           scheduler is closed again when the durability policy is replaced.
+     * @throws IllegalStateException When containers are preallocated and the policy does not sync on every write
+     */
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy, long syncIntervalMillis) {
+        Validate.notNull(durabilityPolicy, "The durability policy cannot be null");
+        validatePreallocation(durabilityPolicy, preallocationMode);
+        if (durabilityPolicy == DurabilityPolicy.GROUP_COMMIT) {
+            GroupCommitScheduler groupCommitScheduler = new GroupCommitScheduler(syncIntervalMillis);
+            setDataFileSynchronizer(new DataFileSynchronizer(groupCommitScheduler));
+            this.ownGroupCommitScheduler = groupCommitScheduler;
+        } else {
+            setDataFileSynchronizer(new DataFileSynchronizer(durabilityPolicy, syncIntervalMillis));
+        }
+    }
+
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        setDurabilityPolicy(durabilityPolicy, 0L);
+    }
+
+    public DataFileSynchronizer getDataFileSynchronizer() {
+        return dataFileSynchronizer;
+    }
+
+    /**
+     * Set the pool of buffers that is used to copy uploaded bytes to disk. By default 16 buffers of 64 KB are
+     * pooled.
+     * @param appendBufferPool The buffer pool to use
+     */
+    public void setAppendBufferPool(ByteBufferPool appendBufferPool) {
+        Validate.notNull(appendBufferPool, "The ByteBufferPool cannot be null");
+        this.appendBufferPool = appendBufferPool;
+    }
+
+    public ByteBufferPool getAppendBufferPool() {
+        return appendBufferPool;
+    }
+
+    /**
+     * Set the pool of buffers that is used to copy the bytes of a completed upload to an output stream in
+     * {@link #copyUploadTo(UploadInfo, OutputStream)}. By default 8 buffers of 1 MB are pooled.
+     * @param downloadBufferPool The buffer pool to use
+     */
+    public void setDownloadBufferPool(ByteBufferPool downloadBufferPool) {
+        Validate.notNull(downloadBufferPool, "The ByteBufferPool cannot be null");
+        this.downloadBufferPool = downloadBufferPool;
+    }
+
+    public ByteBufferPool getDownloadBufferPool() {
+        return downloadBufferPool;
+    }
+
+    /**
+     * Set how the container of an upload with a known length is extended to its final size when the upload is
+     * created. By default the container is extended as a sparse file ({@link PreallocationMode#SPARSE}).
+     * <p>
+     * The bytes of a preallocated container that were lost in a crash cannot be told apart from uploaded bytes, so
+     * preallocation can only be combined with a {@link DurabilityPolicy} that forces the bytes to disk before the
+     * offset is saved. Use {@link PreallocationMode#NONE} before choosing a policy that skips syncs.
+     * @param preallocationMode The preallocation mode to use
+     * @throws IllegalStateException When the durability policy does not sync on every write
+     */
+    public void setPreallocationMode(PreallocationMode preallocationMode) {
+        Validate.notNull(preallocationMode, "The preallocation mode cannot be null");
+        validatePreallocation(dataFileSynchronizer.getPolicy(), preallocationMode);
+        this.preallocationMode = preallocationMode;
+    }
+
+    public PreallocationMode getPreallocationMode() {
+        return preallocationMode;
+    }
+
+    /**
+     * Set the cache of open channels to the containers of uploads. With a cache, consecutive requests on the same
+     * upload reuse the open container instead of opening and closing it every time. By default no channels are
+     * kept open.
+     * @param fileChannelCache The channel cache to use
+     */
+    public void setFileChannelCache(FileChannelCache fileChannelCache) {
+        Validate.notNull(fileChannelCache, "The FileChannelCache cannot be null");
+        this.fileChannelCache = fileChannelCache;
+    }
+
+    public FileChannelCache getFileChannelCache() {
+        return fileChannelCache;
+    }
+
+    /**
+     * Calculate the SHA-256 digest of every upload while its bytes are appended, so that it is available from
+     * {@link UploadInfo#getUploadDigest()} once the upload is complete. The state of the digest is stored with the
+     * upload information, so it survives between requests and restarts. By default no digests are calculated.
+     * @param uploadDigestEnabled True to calculate the digest of every upload
+     */
+    public void setUploadDigestEnabled(boolean uploadDigestEnabled) {
+        this.uploadDigestEnabled = uploadDigestEnabled;
+    }
+
+    public boolean isUploadDigestEnabled() {
+        return uploadDigestEnabled;
+    }
+
+    @Override
+    public void setMaxUploadSize(Long maxUploadSize) {
+        this.maxUploadSize = (maxUploadSize != null && maxUploadSize > 0 ? maxUploadSize : 0);
+    }
+
+    @Override
+    public long getMaxUploadSize() {
+        return maxUploadSize == null ? 0 : maxUploadSize;
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+        UploadInfo uploadInfo = getUploadInfo(idFactory.readUploadId(uploadUrl));
+        if (uploadInfo == null || !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+            return null;
+        } else {
+            return uploadInfo;
+        }
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(UploadId id) throws IOException {
+        try (FileChannelCache.Handle handle = acquireContainerForReading(id)) {
+            return readUploadInfo(id, handle.channel());
+        } catch (UploadNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getUploadURI() {
+        return idFactory.getUploadURI();
+    }
+
+    @Override
+    public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+        UploadId id = createNewId();
+
+        //Set starting values
+        info.setId(id);
+        info.setOffset(0L);
+        info.setOwnerKey(ownerKey);
+
+        try (FileChannelCache.Handle handle = acquireContainer(id);
+             FileLock ignored = handle.channel().lock()) {
+            FileChannel file = handle.channel();
+
+            //Reserve room for twice the initial upload information so that later changes still fit
+            byte[] metadata = encodeMetadata(info);
+            long slotSize = roundUp(Math.max(2L * metadata.length, MIN_SLOT_SIZE), MIN_SLOT_SIZE);
+            Header header = new Header();
+            header.dataPosition = roundUp(HEADER_SIZE + 2 * slotSize, DATA_ALIGNMENT);
+            header.metadataPosition = HEADER_SIZE + (int) header.getSlotSize();
+
+            save(file, header, info, metadata);
+
+            if (info.getLength() != null) {
+                preallocationMode.preallocate(file, header.dataPosition, info.getLength());
+            }
+            dataFileSynchronizer.sync(id, file, false);
+
+            return info;
+        } catch (UploadNotFoundException e) {
+            //Normally this cannot happen
+            log.error("Unable to create UploadInfo because of an upload not found exception", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+        try (FileChannelCache.Handle handle = acquireContainer(uploadInfo.getId());
+             FileLock ignored = handle.channel().lock()) {
+            FileChannel file = handle.channel();
+            Header header = readHeader(uploadInfo.getId(), file);
+            checkFencingToken(header, uploadInfo);
+            save(file, header, uploadInfo, encodeMetadata(uploadInfo));
+        }
+    }
+
+    @Override
+    public UploadInfo append(UploadInfo info, InputStream inputStream) throws IOException, TusException {
+        return append(info, inputStream, true);
+    }
+
+    @Override
+    public UploadInfo appendWithoutUpdate(UploadInfo info, InputStream inputStream)
+            throws IOException, TusException {
+        return append(info, inputStream, false);
+    }
+
+    @Override
+    public void removeLastNumberOfBytes(UploadInfo info, long byteCount)
+            throws UploadNotFoundException, IOException {
+        removeLastNumberOfBytes(info, byteCount, true);
+    }
+
+    @Override
+    public void removeLastNumberOfBytesWithoutUpdate(UploadInfo info, long byteCount)
+            throws UploadNotFoundException, IOException {
+        removeLastNumberOfBytes(info, byteCount, false);
+    }
+
+    @Override
+    public void terminateUpload(UploadInfo info) throws IOException {
+        if (info != null) {
+            Path containerPath = getPathInStorageDirectory(info.getId());
+            fileChannelCache.invalidate(info.getId());
+            if (containerPath != null) {
+                Files.deleteIfExists(containerPath);
+            }
+            dataFileSynchronizer.forget(info.getId());
+        }
+    }
+
+    @Override
+    public Long getUploadExpirationPeriod() {
+        return uploadExpirationPeriod;
+    }
+
+    @Override
+    public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+        this.uploadExpirationPeriod = uploadExpirationPeriod;
+    }
+
+    @Override
+    public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+        Objects.requireNonNull(concatenationService);
+        this.uploadConcatenationService = concatenationService;
+    }
+
+    @Override
+    public UploadConcatenationService getUploadConcatenationService() {
+        return uploadConcatenationService;
+    }
+
+    @Override
+    public InputStream getUploadedBytes(String uploadURI, String ownerKey)
+            throws IOException, UploadNotFoundException {
+
+        UploadId id = idFactory.readUploadId(uploadURI);
+
+        UploadInfo uploadInfo = getUploadInfo(id);
+        if (uploadInfo == null || !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+            throw new UploadNotFoundException("The upload with id " + id + " could not be found for owner " + ownerKey);
+        } else {
+            return getUploadedBytes(id);
+        }
+    }
+
+    @Override
+    public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+        FileChannelCache.Handle handle = acquireContainerForReading(id);
+        try {
+            FileChannel file = handle.channel();
+            UploadInfo uploadInfo = readUploadInfo(id, file);
+            if (UploadType.CONCATENATED.equals(uploadInfo.getUploadType()) && uploadConcatenationService != null) {
+                handle.close();
+                return uploadConcatenationService.getConcatenatedBytes(uploadInfo);
+            }
+
+            //Only the bytes up to the saved offset belong to the upload
+            file.position(readHeader(id, file).dataPosition);
+            return BoundedInputStream.builder()
+                    .setInputStream(new CachedChannelInputStream(handle))
+                    .setMaxCount(uploadInfo.getOffset())
+                    .get();
+        } catch (IOException | UploadNotFoundException | RuntimeException e) {
+            handle.discard();
+            throw e;
+        }
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+
+        List<UploadInfo> uploads = getUploads(info);
+
+        try (OutputStream output = outputStream) {
+
+            for (UploadInfo upload : uploads) {
+                if (upload == null) {
+                    log.warn("We cannot copy the bytes of an upload that does not exist");
+
+                } else if (upload.isUploadInProgress()) {
+                    log.warn("We cannot copy the bytes of upload {} because it is still in progress", upload.getId());
+
+                } else {
+                    try (FileChannelCache.Handle handle = acquireContainerForReading(upload.getId())) {
+                        FileChannel file = handle.channel();
+                        long dataPosition = readHeader(upload.getId(), file).dataPosition;
+                        //Copy through a large pooled buffer, transferTo to a stream copies in small chunks
+                        new DataTransfer(downloadBufferPool).transferTo(file, dataPosition, upload.getLength(),
+                                output);
+                    }
+                }
+            }
+        } catch (Exception exc) {
+            log.warn(exc.getMessage());
+        }
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        Validate.isTrue(position >= 0 && count >= 0, "The position and count of a range cannot be negative");
+
+        long partStart = 0;
+        long end = position + count;
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null) {
+                throw new UploadNotFoundException("A partial upload of upload " + info.getId() + " does not exist");
+            } else if (upload.isUploadInProgress() && upload != info) {
+                throw new IOException("Upload " + upload.getId() + " is still in progress");
+            }
+
+            //Only copy the part of the range that falls within this (partial) upload
+            long storedLength = upload.isUploadInProgress() ? upload.getOffset() : upload.getLength();
+            long from = Math.max(position, partStart);
+            long to = Math.min(end, partStart + storedLength);
+            if (from < to) {
+                try (FileChannelCache.Handle handle = acquireContainerForReading(upload.getId())) {
+                    FileChannel file = handle.channel();
+                    long dataPosition = readHeader(upload.getId(), file).dataPosition;
+                    new DataTransfer(downloadBufferPool).transferTo(file, dataPosition + from - partStart,
+                            to - from, outputStream);
+                }
+            }
+            partStart += storedLength;
+        }
+
+        if (partStart < end) {
+            throw new EOFException("Upload " + info.getId() + " ends before the requested range");
+        }
+    }
+
+    @Override
+    public List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        List<FileRegion> regions = new ArrayList<>();
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null || upload.isUploadInProgress()) {
+                //The bytes cannot be sent from the containers, let the caller fall back to copying
+                return null;
+            }
+            try (FileChannelCache.Handle handle = acquireContainerForReading(upload.getId())) {
+                long dataPosition = readHeader(upload.getId(), handle.channel()).dataPosition;
+                regions.add(new FileRegion(getPathInStorageDirectory(upload.getId()).toAbsolutePath(), dataPosition,
+                        upload.getLength()));
+            }
+        }
+        return regions;
+    }
+
+    @Override
+    public List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        UploadInfo info = getUploadInfo(id);
+        if (info == null) {
+            throw new UploadNotFoundException("The upload with id " + id + " could not be found");
+        }
+
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (UploadInfo upload : getUploads(info)) {
+            if (upload == null) {
+                throw new UploadNotFoundException("A partial upload of upload " + id + " could not be found");
+            } else if (upload.isUploadInProgress()) {
+                //The file of an upload in progress can still be truncated, which breaks a mapping
+                throw new UploadInProgressException("Upload " + upload.getId() + " is still in progress");
+            }
+
+            try (FileChannelCache.Handle handle = acquireContainerForReading(upload.getId())) {
+                FileChannel file = handle.channel();
+                MappedRegions.map(file, readHeader(upload.getId(), file).dataPosition, upload.getOffset(),
+                        MappedRegions.MAX_CHUNK_SIZE, buffers);
+            }
+        }
+        return buffers;
+    }
+
+    @Override
+    public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+        ExpiredUploadFilter expiredUploadFilter = new ExpiredUploadFilter(this, uploadLockingService);
+        try (Stream<Path> containerStream = listStorageDirectory()) {
+
+            for (Path path : (Iterable<Path>) containerStream::iterator) {
+                if (expiredUploadFilter.accept(path)) {
+                    fileChannelCache.invalidate(new UploadId(path.getFileName().toString()));
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        fileChannelCache.evictIdleChannels();
+    }
+
+    private UploadInfo append(UploadInfo info, InputStream inputStream, boolean save)
+            throws IOException, TusException {
+        if (info != null) {
+            long max = getMaxUploadSize() > 0 ? getMaxUploadSize() : Long.MAX_VALUE;
+            long offset = info.getOffset();
+            UploadDigestTracker digestTracker = UploadDigestTracker.start(info, uploadDigestEnabled);
+            DataTransfer transfer = new DataTransfer(appendBufferPool, digestTracker.getDigest());
+
+            try (FileChannelCache.Handle handle = acquireContainer(info.getId());
+                 FileLock ignored = handle.channel().lock()) {
+                FileChannel file = handle.channel();
+                Header header = readHeader(info.getId(), file);
+                if (checkFencingToken(header, info) && !save) {
+                    //Make sure a request with an older lock can no longer write to this upload
+                    header.write(file);
+                }
+
+                boolean validOffset = offset <= header.offset;
+                try {
+                    //Validate that the given offset is at the end of the upload
+                    if (!validOffset) {
+                        throw new InvalidUploadOffsetException("The upload offset does not correspond to the written"
+                                + " bytes. You can only append to the end of an upload");
+                    } else if (offset < header.offset) {
+                        log.warn("Overwriting {} bytes of upload {} with an outdated offset",
+                                header.offset - offset, info.getId());
+                    }
+
+                    //write all bytes in the container up to the configured maximum
+                    transfer.transferFrom(inputStream, file, header.dataPosition + offset, max - offset);
+                    dataFileSynchronizer.sync(info.getId(), file, info.getLength() != null
+                            && offset + transfer.getTransferred() >= info.getLength());
+
+                } finally {
+                    //Also when appending failed, the bytes that were received are kept
+                    info.setOffset(validOffset ? offset + transfer.getTransferred() : header.offset);
+                    if (validOffset) {
+                        digestTracker.finish(info);
+                    }
+                    if (save) {
+                        save(file, header, info, encodeMetadata(info));
+                    }
+                }
+            }
+        }
+
+        return info;
+    }
+
+    private void removeLastNumberOfBytes(UploadInfo info, long byteCount, boolean save)
+            throws UploadNotFoundException, IOException {
+
+        if (info != null && byteCount > 0) {
+            try (FileChannelCache.Handle handle = acquireContainer(info.getId());
+                 FileLock ignored = handle.channel().lock()) {
+                FileChannel file = handle.channel();
+                Header header = readHeader(info.getId(), file);
+                boolean fenceRaised = checkFencingToken(header, info);
+
+                //The bytes behind the offset are ignored and overwritten by the next append
+                info.setOffset(Math.max(info.getOffset() - byteCount, 0L));
+                UploadDigestTracker.rollback(info);
+
+                if (save) {
+                    save(file, header, info, encodeMetadata(info));
+                } else if (fenceRaised) {
+                    header.write(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the synchronizer and close the group commit scheduler that this service created for the previous one
+     */
+    private void setDataFileSynchronizer(DataFileSynchronizer dataFileSynchronizer) {
+        this.dataFileSynchronizer = dataFileSynchronizer;
+        if (ownGroupCommitScheduler != null) {
+            ownGroupCommitScheduler.close();
+            ownGroupCommitScheduler = null;
+        }
+    }
+
+    private static void validatePreallocation(DurabilityPolicy durabilityPolicy,
+                                              PreallocationMode preallocationMode) {
+        Validate.validState(preallocationMode == PreallocationMode.NONE || durabilityPolicy.isSyncedOnEveryWrite(),
+                "Preallocation mode %s cannot be combined with durability policy %s, the offset of an upload could"
+                        + " not be corrected after a crash", preallocationMode, durabilityPolicy);
+    }
+
+        private List<UploadInfo> getUploads(UploadInfo info) throws IOException, UploadNotFoundException {
+        List<UploadInfo> uploads;
+
+        if (info != null && UploadType.CONCATENATED.equals(info.getUploadType())
+                && uploadConcatenationService != null) {
+            uploadConcatenationService.merge(info);
+            uploads = uploadConcatenationService.getPartialUploads(info);
+        } else {
+            uploads = Collections.singletonList(info);
+        }
+        return uploads;
+    }
+
+    private UploadId createNewId() throws IOException {
+        while (true) {
+            UploadId id = idFactory.createId();
+            try {
+                //Creating the container atomically reserves the ID, so we don't need a monitor to make sure
+                //the ID is not in use yet
+                Path containerPath = getPathInStorageDirectory(id);
+                createParentDirectories(containerPath);
+                Files.createFile(containerPath);
+                return id;
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Upload ID {} is already in use, creating a new one", id);
+            }
+        }
+    }
+
+    private FileChannelCache.Handle acquireContainer(UploadId id) throws IOException, UploadNotFoundException {
+        return acquireContainer(id, true);
+    }
+
+    private FileChannelCache.Handle acquireContainerForReading(UploadId id)
+            throws IOException, UploadNotFoundException {
+        return acquireContainer(id, false);
+    }
+
+    private FileChannelCache.Handle acquireContainer(UploadId id, boolean writable)
+            throws IOException, UploadNotFoundException {
+        Path containerPath = getPathInStorageDirectory(id);
+        try {
+            if (containerPath != null) {
+                return writable ? fileChannelCache.acquire(id, containerPath)
+                        : fileChannelCache.acquireForReading(id, containerPath);
+            }
+        } catch (NoSuchFileException e) {
+            //The upload does not exist
+        }
+        throw new UploadNotFoundException("The upload for id " + id + " was not found.");
+    }
+
+    /**
+     * Read the upload information without holding the container lock. A concurrent write can be observed halfway,
+     * which is detected by the checksums in the header, so the information is read again in that case.
+     */
+    private UploadInfo readUploadInfo(UploadId id, FileChannel file) throws IOException, UploadNotFoundException {
+        for (int attempt = 1; attempt <= MAX_READ_ATTEMPTS; attempt++) {
+            Header header = Header.read(file);
+            if (header == null) {
+                //The upload is still being created
+                throw new UploadNotFoundException("The upload for id " + id + " was not found.");
+            } else if (header.isValid()) {
+                byte[] metadata = readMetadata(file, header);
+                if (checksum(metadata) == header.metadataChecksum) {
+                    UploadInfo info = uploadInfoCodec.decode(metadata);
+                    info.setOffset(header.offset);
+                    info.setLength(header.length == NONE ? null : header.length);
+                    info.setExpirationTimestamp(header.expirationTimestamp == NONE ? null
+                            : header.expirationTimestamp);
+                    return info;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        throw new IOException("The container of upload " + id + " is corrupt");
+    }
+
+    private Header readHeader(UploadId id, FileChannel file) throws IOException, UploadNotFoundException {
+        Header header = Header.read(file);
+        if (header == null) {
+            throw new UploadNotFoundException("The upload for id " + id + " was not found.");
+        } else if (!header.isValid()) {
+            throw new IOException("The header of the container of upload " + id + " is corrupt");
+        }
+        return header;
+    }
+
+    private static byte[] readMetadata(FileChannel file, Header header) throws IOException {
+        if (header.metadataLength < 0 || header.metadataLength > header.getSlotSize()) {
+            return new byte[0];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(header.metadataLength);
+        readFully(file, buffer, header.metadataPosition);
+        return buffer.array();
+    }
+
+    /**
+     * Write the given upload information to the container. The metadata is only written when it differs from
+     * the metadata in use, the header is always written.
+     */
+    private void save(FileChannel file, Header header, UploadInfo info, byte[] metadata) throws IOException {
+        int metadataChecksum = checksum(metadata);
+        if (metadata.length != header.metadataLength || metadataChecksum != header.metadataChecksum) {
+            if (metadata.length > header.getSlotSize()) {
+                throw new IOException("The information of upload " + info.getId() + " does not fit in the "
+                        + header.getSlotSize() + " bytes reserved in its container");
+            }
+            int position = header.metadataPosition == HEADER_SIZE
+                    ? HEADER_SIZE + (int) header.getSlotSize() : HEADER_SIZE;
+            writeFully(file, ByteBuffer.wrap(metadata), position);
+            header.metadataPosition = position;
+            header.metadataLength = metadata.length;
+            header.metadataChecksum = metadataChecksum;
+        }
+
+        header.offset = info.getOffset() == null ? 0L : info.getOffset();
+        header.length = info.getLength() == null ? NONE : info.getLength();
+        header.expirationTimestamp = info.getExpirationTimestamp() == null ? NONE : info.getExpirationTimestamp();
+        header.write(file);
+    }
+
+    /**
+     * Encode the upload information without the fields that are kept in the header, so that the metadata does not
+     * change on every append
+     */
+    private byte[] encodeMetadata(UploadInfo info) throws IOException {
+        UploadInfo metadata = new UploadInfo(info);
+        metadata.setOffset(null);
+        metadata.setLength(null);
+        metadata.setExpirationTimestamp(null);
+        return uploadInfoCodec.encode(metadata);
+    }
+
+    /**
+     * Reject a change that carries a fencing token smaller than the token of an earlier change and raise the token
+     * in the header otherwise. The caller must hold the lock on the container.
+     * @return True if the token in the header was raised and the header still has to be written
+     */
+    private static boolean checkFencingToken(Header header, UploadInfo info) throws StaleUploadLockException {
+        Long fencingToken = info.getFencingToken();
+        if (fencingToken == null || header.fencingToken == fencingToken) {
+            return false;
+        } else if (header.fencingToken > fencingToken) {
+            throw new StaleUploadLockException("The lock on upload " + info.getId()
+                    + " was lost and has been acquired by another request");
+        } else {
+            header.fencingToken = fencingToken;
+            return true;
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining() && file.read(buffer, position + buffer.position()) >= 0) {
+            //Keep reading until the buffer is full or the end of the file is reached
+        }
+    }
+
+    private static void writeFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            file.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Fixed-size header at the start of every container. All numbers are stored big-endian:
+     * <pre>
+     *  0 magic (int)               4 version (int)           8 offset (long)
+     * 16 length (long, -1 if none) 24 expiration (long, -1)  32 fencing token (long)
+     * 40 data position (long)      48 metadata position (int) 52 metadata length (int)
+     * 56 metadata CRC32 (int)      60 header CRC32 (int)
+     * </pre>
+     */
+    static final class Header {
+
+        private static final int CHECKSUM_POSITION = HEADER_SIZE - Integer.BYTES;
+
+        private long offset = 0L;
+        private long length = NONE;
+        private long expirationTimestamp = NONE;
+        private long fencingToken = 0L;
+        private long dataPosition;
+        private int metadataPosition;
+        private int metadataLength = 0;
+        private int metadataChecksum = 0;
+        private boolean valid = true;
+
+        /**
+         * @return The header of the container or null if the container does not have a complete header yet
+         */
+        static Header read(FileChannel file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(file, buffer, 0);
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("The file is not an upload container");
+            } else if (buffer.getInt(Integer.BYTES) != VERSION) {
+                throw new IOException("Unsupported upload container version " + buffer.getInt(Integer.BYTES));
+            }
+
+            Header header = new Header();
+            header.offset = buffer.getLong(8);
+            header.length = buffer.getLong(16);
+            header.expirationTimestamp = buffer.getLong(24);
+            header.fencingToken = buffer.getLong(32);
+            header.dataPosition = buffer.getLong(40);
+            header.metadataPosition = buffer.getInt(48);
+            header.metadataLength = buffer.getInt(52);
+            header.metadataChecksum = buffer.getInt(56);
+            header.valid = buffer.getInt(CHECKSUM_POSITION) == checksum(buffer);
+            return header;
+        }
+
+        void write(FileChannel file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.putLong(8, offset);
+            buffer.putLong(16, length);
+            buffer.putLong(24, expirationTimestamp);
+            buffer.putLong(32, fencingToken);
+            buffer.putLong(40, dataPosition);
+            buffer.putInt(48, metadataPosition);
+            buffer.putInt(52, metadataLength);
+            buffer.putInt(56, metadataChecksum);
+            buffer.putInt(CHECKSUM_POSITION, checksum(buffer));
+            writeFully(file, buffer, 0);
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        long getSlotSize() {
+            return (dataPosition - HEADER_SIZE) / 2;
+        }
+
+        private static int checksum(ByteBuffer buffer) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, CHECKSUM_POSITION);
+            return (int) crc.getValue();
+        }
+    }
+}
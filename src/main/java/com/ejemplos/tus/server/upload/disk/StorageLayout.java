@@ -0,0 +1,138 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Layout of the entries (upload directories or lock files) within the storage directory of a disk based service.
+ * <p>
+ * The {@link #FLAT} layout puts every entry directly in the storage directory. With millions of uploads such a
+ * directory makes lookups and scans slow on most file systems. A {@link #hashed(int, int)} layout spreads the
+ * entries over levels of prefix directories that are derived from a hash of the upload ID, for example
+ * {@code uploads/3f/a2/<upload ID>}. The hash does not depend on the format of the ID, so sequential IDs are
+ * spread evenly too.
+ * <p>
+ * The layout of an existing storage directory can be changed with {@link StorageLayoutMigrator}.
+ */
+public final class StorageLayout {
+
+    /**
+     * Layout that stores all entries directly in the storage directory
+     */
+    public static final StorageLayout FLAT = new StorageLayout(0, 0);
+
+    private static final int HASH_LENGTH = 8;
+
+    private final int levels;
+    private final int charactersPerLevel;
+
+    private StorageLayout(int levels, int charactersPerLevel) {
+        this.levels = levels;
+        this.charactersPerLevel = charactersPerLevel;
+    }
+
+    /**
+     * Create a layout with two levels of prefix directories of two hexadecimal characters each, which results in
+     * 65536 directories that each hold 1/65536 of the entries
+     * @return A hashed layout
+     */
+    public static StorageLayout hashed() {
+        return hashed(2, 2);
+    }
+
+    /**
+     * Create a layout with the given number of prefix directories
+     * @param levels The number of nested prefix directories
+     * @param charactersPerLevel The number of hexadecimal characters in the name of each prefix directory
+     * @return A hashed layout, or {@link #FLAT} if the number of levels is 0
+     */
+    public static StorageLayout hashed(int levels, int charactersPerLevel) {
+        Validate.isTrue(levels >= 0, "The number of levels cannot be negative");
+        if (levels == 0) {
+            return FLAT;
+        }
+        Validate.isTrue(charactersPerLevel > 0, "The number of characters per level must be bigger than 0");
+        Validate.isTrue(levels * charactersPerLevel <= HASH_LENGTH,
+                "The prefix directories cannot use more than %d characters", HASH_LENGTH);
+        return new StorageLayout(levels, charactersPerLevel);
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getCharactersPerLevel() {
+        return charactersPerLevel;
+    }
+
+    public boolean isFlat() {
+        return levels == 0;
+    }
+
+    /**
+     * Get the path of an entry
+     * @param root The storage directory
+     * @param name The name of the entry, typically the upload ID
+     * @return The path of the entry within the storage directory
+     */
+    public Path resolve(Path root, String name) {
+        Path parent = root;
+        if (levels > 0) {
+            String hash = hash(name);
+            for (int level = 0; level < levels; level++) {
+                parent = parent.resolve(hash.substring(level * charactersPerLevel, (level + 1) * charactersPerLevel));
+            }
+        }
+        return parent.resolve(name);
+    }
+
+    /**
+     * List all entries in the storage directory. The returned stream must be closed.
+     * @param root The storage directory
+     * @return The paths of all entries, prefix directories are not included
+     * @throws IOException When the storage directory cannot be read
+     */
+    public Stream<Path> list(Path root) throws IOException {
+        if (levels == 0) {
+            return Files.list(root);
+        }
+
+        int depth = root.getNameCount() + levels + 1;
+        return Files.find(root, levels + 1, (path, attributes) -> path.getNameCount() == depth);
+    }
+
+    private static String hash(String name) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        String hash = Long.toHexString(crc.getValue());
+        return "0".repeat(HASH_LENGTH - hash.length()) + hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StorageLayout that)) {
+            return false;
+        }
+        return levels == that.levels && charactersPerLevel == that.charactersPerLevel;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * levels + charactersPerLevel;
+    }
+
+    @Override
+    public String toString() {
+        return isFlat() ? "StorageLayout{flat}"
+                : "StorageLayout{levels=" + levels + ", charactersPerLevel=" + charactersPerLevel + "}";
+    }
+}
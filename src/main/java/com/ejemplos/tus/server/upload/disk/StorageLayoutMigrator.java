@@ -0,0 +1,117 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tool that moves the uploads and locks of an existing storage path from one {@link StorageLayout} to another,
+ * for example from the flat layout to a hashed layout.
+ * <p>
+ * Entries are moved with atomic renames into a temporary sibling directory that uses the new layout. Once all
+ * entries have been moved, the old (now empty) directory is replaced by the new one. A migration that was
+ * interrupted can simply be started again. The uploads must not be processed while the migration is running.
+ */
+public class StorageLayoutMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageLayoutMigrator.class);
+
+    private static final String MIGRATION_SUFFIX = ".migration";
+
+    private final StorageLayout sourceLayout;
+    private final StorageLayout targetLayout;
+
+    /**
+     * Create a new migrator
+     * @param sourceLayout The layout that is currently used
+     * @param targetLayout The layout to migrate to
+     */
+    public StorageLayoutMigrator(StorageLayout sourceLayout, StorageLayout targetLayout) {
+        Validate.notNull(sourceLayout, "The source layout cannot be null");
+        Validate.notNull(targetLayout, "The target layout cannot be null");
+        this.sourceLayout = sourceLayout;
+        this.targetLayout = targetLayout;
+    }
+
+    /**
+     * Migrate the uploads and locks of the given storage path, which is the path that was passed to
+     * {@link DiskStorageService} and {@link DiskLockingService}
+     * @param storagePath The storage path
+     * @return The number of uploads and locks that were moved
+     * @throws IOException When moving an entry fails
+     */
+    public long migrateStoragePath(String storagePath) throws IOException {
+        Validate.notBlank(storagePath, "The storage path cannot be blank");
+        return migrate(Paths.get(storagePath + File.separator + DiskStorageService.UPLOAD_SUB_DIRECTORY))
+                + migrate(Paths.get(storagePath + File.separator + DiskLockingService.LOCK_SUB_DIRECTORY));
+    }
+
+    /**
+     * Migrate all entries of a single storage directory
+     * @param directory The storage directory of a disk based service
+     * @return The number of entries that were moved
+     * @throws IOException When moving an entry fails
+     */
+    public long migrate(Path directory) throws IOException {
+        Path migrationDirectory = directory.resolveSibling(directory.getFileName() + MIGRATION_SUFFIX);
+        if (sourceLayout.equals(targetLayout) || !Files.exists(directory) && !Files.exists(migrationDirectory)) {
+            return 0L;
+        }
+
+        long count = 0L;
+        if (Files.exists(directory)) {
+            //The fence of the lock directory is shared by all uploads and stays in the root of any layout
+            Path fence = directory.resolve(DiskLockingService.FENCE_FILE);
+            if (Files.exists(fence)) {
+                Files.createDirectories(migrationDirectory);
+                Files.move(fence, migrationDirectory.resolve(DiskLockingService.FENCE_FILE),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            try (Stream<Path> entries = sourceLayout.list(directory)) {
+                Iterator<Path> iterator = entries.iterator();
+                while (iterator.hasNext()) {
+                    Path entry = iterator.next();
+                    Path destination = targetLayout.resolve(migrationDirectory, entry.getFileName().toString());
+                    Files.createDirectories(destination.getParent());
+                    Files.move(entry, destination, StandardCopyOption.ATOMIC_MOVE);
+                    count++;
+                }
+            }
+            deleteEmptyDirectories(directory);
+        }
+
+        Files.createDirectories(migrationDirectory);
+        Files.move(migrationDirectory, directory, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Moved {} entries of {} from {} to {}", count, directory, sourceLayout, targetLayout);
+        return count;
+    }
+
+    private void deleteEmptyDirectories(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            //Children before their parents
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            if (!Files.isDirectory(path)) {
+                throw new IOException("Unable to migrate " + directory + ", the entry " + path
+                        + " does not match the " + sourceLayout);
+            }
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import java.security.MessageDigest;
+
+import com.ejemplos.tus.server.checksum.ResumableSha256Digest;
+import com.ejemplos.tus.server.upload.UploadInfo;
+
+/**
+ * Keeps the SHA-256 digest of all bytes of an upload up-to-date while they are appended, see
+ * {@link UploadInfo#getDigestState()}. The digest continues from the state that was stored with the upload, so
+ * the bytes of earlier requests are never read again. When the stored state does not match the offset of the
+ * upload (for example because the upload was created before digests were enabled), the digest of the upload is
+ * no longer calculated. A tracker follows the append of one request.
+ */
+final class UploadDigestTracker {
+
+    private static final UploadDigestTracker DISABLED = new UploadDigestTracker(false, null, null);
+
+    private final boolean enabled;
+    private final byte[] initialState;
+    private final ResumableSha256Digest digest;
+
+    private UploadDigestTracker(boolean enabled, byte[] initialState, ResumableSha256Digest digest) {
+        this.enabled = enabled;
+        this.initialState = initialState;
+        this.digest = digest;
+    }
+
+    /**
+     * Resume the digest of an upload before bytes are appended at its current offset
+     * @param info The upload to append to
+     * @param enabled True if the storage service calculates upload digests
+     * @return The tracker of the append
+     */
+    static UploadDigestTracker start(UploadInfo info, boolean enabled) {
+        if (!enabled) {
+            return DISABLED;
+        }
+
+        byte[] state = info.getDigestState();
+        long offset = info.getOffset() == null ? 0L : info.getOffset();
+        ResumableSha256Digest digest = null;
+        if (state != null && getByteCount(state) == offset) {
+            digest = restore(state);
+        } else if (offset == 0) {
+            digest = new ResumableSha256Digest();
+        }
+        return new UploadDigestTracker(true, state, digest);
+    }
+
+    /**
+     * @return The digest to update with the appended bytes or null if the digest is not calculated
+     */
+    MessageDigest getDigest() {
+        return digest;
+    }
+
+    /**
+     * Store the state of the digest in the upload after the offset was updated to the end of the appended bytes.
+     * When the digest does not contain exactly the stored bytes, the digest of the upload is dropped.
+     * @param info The upload that bytes were appended to
+     */
+    void finish(UploadInfo info) {
+        if (!enabled) {
+            return;
+        }
+
+        if (digest == null || digest.getByteCount() != info.getOffset()) {
+            info.setDigestState(null);
+            info.setPreviousDigestState(null);
+        } else if (initialState == null || digest.getByteCount() != getByteCount(initialState)) {
+            info.setPreviousDigestState(initialState);
+            info.setDigestState(digest.getState());
+        }
+    }
+
+    /**
+     * Restore the digest of an upload after the offset was moved back because the last appended bytes were removed
+     * @param info The upload whose bytes were removed
+     */
+    static void rollback(UploadInfo info) {
+        byte[] state = info.getDigestState();
+        if (state == null || getByteCount(state) == info.getOffset()) {
+            return;
+        }
+
+        byte[] previousState = info.getPreviousDigestState();
+        if (previousState != null && getByteCount(previousState) == info.getOffset()) {
+            info.setDigestState(previousState);
+        } else {
+            info.setDigestState(null);
+        }
+        info.setPreviousDigestState(null);
+    }
+
+    private static ResumableSha256Digest restore(byte[] state) {
+        try {
+            return ResumableSha256Digest.fromState(state);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long getByteCount(byte[] state) {
+        try {
+            return ResumableSha256Digest.getByteCount(state);
+        } catch (IllegalArgumentException e) {
+            //An invalid state never matches an offset
+            return -1L;
+        }
+    }
+}
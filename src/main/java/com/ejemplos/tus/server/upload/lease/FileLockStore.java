@@ -0,0 +1,227 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ejemplos.tus.server.upload.FencingTokenSequence;
+import com.ejemplos.tus.server.util.Utils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link LockStore} implementation that keeps every lease in a small file in a local directory. It serves as a
+ * reference implementation and allows multiple JVMs on the same machine to share their leases.
+ * <p>
+ * A lease file is only locked while a lease is read or modified, never while the lease is held, so a slow or
+ * unreliable file lock of a network drive does not determine how long an upload stays locked. Released leases
+ * are kept in their file so that the next lease gets a bigger fencing token. When a lease file is removed by
+ * {@link #removeExpiredLeases()}, fencing tokens continue from the clock (see {@link FencingTokenSequence}),
+ * which is ahead of any token that was handed out before the removed lease expired.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FileLockStore implements LockStore {
+
+    /**
+     * Lease files of this size were removed by {@link #removeExpiredLeases()} while another thread or process
+     * was waiting to lock them
+     */
+    private static final int TOMBSTONE_SIZE = 1;
+    private static final int MAX_TOMBSTONE_RETRIES = 3;
+    private static final int LEASE_HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final Path storagePath;
+
+    /**
+     * Create a new store
+     * @param storagePath The directory in which to store the lease files
+     */
+    public FileLockStore(String storagePath) {
+        Validate.notBlank(storagePath, "The storage path cannot be blank");
+        this.storagePath = Paths.get(storagePath);
+    }
+
+    public Path getStoragePath() {
+        return storagePath;
+    }
+
+    @Override
+    public Lease tryAcquire(String key, String owner, long durationMillis) throws IOException {
+        return update(key, channel -> {
+            Lease current = readLease(key, channel);
+            long now = currentTime();
+            if (current != null && !current.isExpired(now)) {
+                return null;
+            }
+
+            long fencingToken = FencingTokenSequence.nextAfter(current == null ? 0L : current.getFencingToken());
+            Lease lease = new Lease(key, owner, fencingToken, now + durationMillis);
+            writeLease(channel, lease);
+            return lease;
+        });
+    }
+
+    @Override
+    public Lease renew(Lease lease, long durationMillis) throws IOException {
+        return update(lease.getKey(), channel -> {
+            Lease current = readLease(lease.getKey(), channel);
+            long now = currentTime();
+            if (current == null || current.getFencingToken() != lease.getFencingToken() || current.isExpired(now)) {
+                return null;
+            }
+
+            Lease renewed = current.withExpirationTimestamp(now + durationMillis);
+            writeLease(channel, renewed);
+            return renewed;
+        });
+    }
+
+    @Override
+    public void release(Lease lease) throws IOException {
+        update(lease.getKey(), channel -> {
+            Lease current = readLease(lease.getKey(), channel);
+            if (current != null && current.getFencingToken() == lease.getFencingToken()) {
+                //Keep the fencing token, only mark the lease as expired
+                writeLease(channel, current.withExpirationTimestamp(0L));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Lease getLease(String key) throws IOException {
+        Path path = getLeasePath(key);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        Lease lease = update(key, channel -> readLease(key, channel));
+        return lease == null || lease.isExpired(currentTime()) ? null : lease;
+    }
+
+    @Override
+    public void removeExpiredLeases() throws IOException {
+        if (!Files.exists(storagePath)) {
+            return;
+        }
+
+        List<Path> leaseFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(storagePath)) {
+            for (Path path : stream) {
+                leaseFiles.add(path);
+            }
+        }
+
+        for (Path path : leaseFiles) {
+            try (FileChannel channel = FileChannel.open(path, READ, WRITE);
+                 FileLock lock = lockExclusively(channel, path)) {
+
+                Lease lease = readLease(path.getFileName().toString(), channel);
+                if (lease == null || lease.isExpired(currentTime())) {
+                    //Mark the file as removed before deleting it, threads waiting for the lock will open a new file
+                    channel.truncate(0L);
+                    channel.write(ByteBuffer.allocate(TOMBSTONE_SIZE), 0L);
+                    Files.deleteIfExists(path);
+                }
+            } catch (NoSuchFileException e) {
+                //Removed by someone else in the meantime
+            }
+        }
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    private <T> T update(String key, LeaseFileOperation<T> operation) throws IOException {
+        Path path = getLeasePath(key);
+        Files.createDirectories(storagePath);
+
+        for (int retry = 1; ; retry++) {
+            try (FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE);
+                 FileLock lock = lockExclusively(channel, path)) {
+
+                if (channel.size() == TOMBSTONE_SIZE) {
+                    if (retry < MAX_TOMBSTONE_RETRIES) {
+                        //This file was removed while we were waiting for the lock
+                        continue;
+                    }
+                    //The process that removed the file crashed before deleting it
+                    channel.truncate(0L);
+                }
+                return operation.execute(channel);
+            }
+        }
+    }
+
+    private Path getLeasePath(String key) {
+        Validate.notBlank(key, "The key cannot be blank");
+        Path path = storagePath.resolve(key);
+        Validate.isTrue(storagePath.equals(path.getParent()), "The key %s is not a valid file name", key);
+        return path;
+    }
+
+    private static FileLock lockExclusively(FileChannel channel, Path path) throws IOException {
+        FileLock lock = Utils.lockFileExclusively(channel);
+        if (lock == null) {
+            throw new IOException("Unable to lock the lease file " + path);
+        }
+        return lock;
+    }
+
+    private static Lease readLease(String key, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < LEASE_HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            //Keep reading until the buffer is full
+        }
+        buffer.flip();
+
+        long fencingToken = buffer.getLong();
+        long expirationTimestamp = buffer.getLong();
+        int ownerLength = buffer.getInt();
+        if (ownerLength < 0 || ownerLength > buffer.remaining()) {
+            throw new IOException("The lease file of " + key + " is corrupt");
+        }
+        byte[] owner = new byte[ownerLength];
+        buffer.get(owner);
+        return new Lease(key, new String(owner, StandardCharsets.UTF_8), fencingToken, expirationTimestamp);
+    }
+
+    private static void writeLease(FileChannel channel, Lease lease) throws IOException {
+        byte[] owner = lease.getOwner() == null ? new byte[0] : lease.getOwner().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(LEASE_HEADER_SIZE + owner.length);
+        buffer.putLong(lease.getFencingToken());
+        buffer.putLong(lease.getExpirationTimestamp());
+        buffer.putInt(owner.length);
+        buffer.put(owner);
+        buffer.flip();
+
+        channel.truncate(0L);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    @FunctionalInterface
+    private interface LeaseFileOperation<T> {
+        T execute(FileChannel channel) throws IOException;
+    }
+}
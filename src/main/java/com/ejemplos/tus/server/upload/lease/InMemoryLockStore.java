@@ -0,0 +1,79 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import java.util.concurrent.ConcurrentHashMap;
+import com.ejemplos.tus.server.upload.FencingTokenSequence;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link LockStore} implementation that keeps the leases in memory. Leases are only shared between the
+ * {@link LeaseLockingService} instances of the same JVM, which makes this store suitable for single-node
+ * deployments and as a reference for other implementations.
+ * <p>
+ * This class is thread-safe.
+ */
+public class InMemoryLockStore implements LockStore {
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final FencingTokenSequence fencingTokenSequence = new FencingTokenSequence();
+
+    @Override
+    public Lease tryAcquire(String key, String owner, long durationMillis) {
+        Validate.notBlank(key, "The key cannot be blank");
+        long now = currentTime();
+        Lease[] acquired = new Lease[1];
+        leases.compute(key, (k, current) -> {
+            if (current != null && !current.isExpired(now)) {
+                return current;
+            }
+            acquired[0] = new Lease(k, owner, fencingTokenSequence.next(), now + durationMillis);
+            return acquired[0];
+        });
+        return acquired[0];
+    }
+
+    @Override
+    public Lease renew(Lease lease, long durationMillis) {
+        long now = currentTime();
+        Lease[] renewed = new Lease[1];
+        leases.computeIfPresent(lease.getKey(), (k, current) -> {
+            if (current.getFencingToken() == lease.getFencingToken() && !current.isExpired(now)) {
+                renewed[0] = current.withExpirationTimestamp(now + durationMillis);
+                return renewed[0];
+            }
+            return current;
+        });
+        return renewed[0];
+    }
+
+    @Override
+    public void release(Lease lease) {
+        leases.computeIfPresent(lease.getKey(),
+                (k, current) -> current.getFencingToken() == lease.getFencingToken() ? null : current);
+    }
+
+    @Override
+    public Lease getLease(String key) {
+        Lease lease = key == null ? null : leases.get(key);
+        return lease == null || lease.isExpired(currentTime()) ? null : lease;
+    }
+
+    @Override
+    public void removeExpiredLeases() {
+        long now = currentTime();
+        for (String key : leases.keySet()) {
+            leases.computeIfPresent(key, (k, current) -> current.isExpired(now) ? null : current);
+        }
+    }
+
+    /**
+     * Get the number of leases in this store, including expired leases that were not removed yet
+     * @return The number of leases
+     */
+    public int size() {
+        return leases.size();
+    }
+
+    long currentTime() {
+        return System.currentTimeMillis();
+    }
+}
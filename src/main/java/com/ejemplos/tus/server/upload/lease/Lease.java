@@ -0,0 +1,74 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Time-bounded, exclusive right to process an upload that was granted by a {@link LockStore}.
+ * <p>
+ * Every lease on a key gets a fencing token that is bigger than the token of any earlier lease on that key. A
+ * holder whose lease expired (for example because of a long garbage collection pause) can therefore be
+ * recognised by its outdated token. Leases are immutable, renewing a lease results in a new lease object with
+ * the same token and a later expiration timestamp.
+ */
+public class Lease {
+
+    private final String key;
+    private final String owner;
+    private final long fencingToken;
+    private final long expirationTimestamp;
+
+    /**
+     * Create a new lease
+     * @param key The key of the locked resource
+     * @param owner An identification of the holder of the lease, only used for diagnostics
+     * @param fencingToken The fencing token of the lease
+     * @param expirationTimestamp The time (in milliseconds since epoch) at which the lease expires
+     */
+    public Lease(String key, String owner, long fencingToken, long expirationTimestamp) {
+        Validate.notBlank(key, "The key of a lease cannot be blank");
+        this.key = key;
+        this.owner = owner;
+        this.fencingToken = fencingToken;
+        this.expirationTimestamp = expirationTimestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public long getExpirationTimestamp() {
+        return expirationTimestamp;
+    }
+
+    /**
+     * Check if this lease expired
+     * @param now The current time in milliseconds since epoch
+     * @return True if the lease is no longer valid at the given time, false otherwise
+     */
+    public boolean isExpired(long now) {
+        return now >= expirationTimestamp;
+    }
+
+    /**
+     * Create a copy of this lease with a different expiration timestamp
+     * @param expirationTimestamp The new expiration timestamp
+     * @return A lease with the same key, owner and fencing token
+     */
+    public Lease withExpirationTimestamp(long expirationTimestamp) {
+        return new Lease(key, owner, fencingToken, expirationTimestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "Lease{key=" + key + ", owner=" + owner + ", fencingToken=" + fencingToken
+                + ", expirationTimestamp=" + expirationTimestamp + "}";
+    }
+}
@@ -0,0 +1,278 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UploadLockingService} implementation that locks uploads with time-bounded leases kept in a
+ * {@link LockStore}. Nodes that share the same lock store can process the same uploads.
+ * <p>
+ * Acquiring or releasing a lock is a single operation on the lock store, so the lock latency only depends on
+ * that store and not on the file locking support of a network drive. A lease that is held by a request is renewed
+ * by a background thread every third of the lease duration. When a node crashes, its leases are no longer renewed
+ * and expire by themselves after the lease duration, so there are no stale locks to clean up.
+ * <p>
+ * Every lock carries the fencing token of its lease. When the renewal of a lease fails (because the node was
+ * paused for longer than the lease duration or lost its connection to the store), the lock is marked as lost
+ * and another node may already hold a lease with a bigger token.
+ * <p>
+ * Call {@link #close()} to stop the renewal thread. This class is thread-safe.
+ */
+public class LeaseLockingService implements UploadLockingService, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaseLockingService.class);
+
+    private static final long DEFAULT_LEASE_DURATION_MILLIS = 30000L;
+
+    private final LockStore lockStore;
+    private final long leaseDurationMillis;
+    private final String ownerId = UUID.randomUUID().toString();
+    private final Set<LeaseLock> activeLocks = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService renewalExecutor;
+    private final AtomicLong lostLeaseCount = new AtomicLong();
+    private UploadIdFactory idFactory;
+    private LockAcquisitionStrategy lockAcquisitionStrategy = LockAcquisitionStrategy.failFast();
+
+    /**
+     * Create a locking service with leases of 30 seconds
+     * @param lockStore The store that is shared by all nodes
+     */
+    public LeaseLockingService(LockStore lockStore) {
+        this(lockStore, DEFAULT_LEASE_DURATION_MILLIS);
+    }
+
+    /**
+     * Create a locking service
+     * @param lockStore The store that is shared by all nodes
+     * @param leaseDurationMillis The time after which the lock of a crashed node expires
+     */
+    public LeaseLockingService(LockStore lockStore, long leaseDurationMillis) {
+        Validate.notNull(lockStore, "The lock store cannot be null");
+        Validate.isTrue(leaseDurationMillis > 0, "The lease duration must be bigger than 0");
+        this.lockStore = lockStore;
+        this.leaseDurationMillis = leaseDurationMillis;
+
+        long renewalIntervalMillis = Math.max(1L, leaseDurationMillis / 3);
+        this.renewalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tus-lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.renewalExecutor.scheduleWithFixedDelay(this::renewLeases, renewalIntervalMillis,
+                renewalIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public LockStore getLockStore() {
+        return lockStore;
+    }
+
+    public long getLeaseDurationMillis() {
+        return leaseDurationMillis;
+    }
+
+    /**
+     * Get the identification of this node that is stored as owner of its leases
+     * @return The owner ID
+     */
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    @Override
+    public UploadLock lockUploadByUri(String requestURI) throws TusException, IOException {
+        UploadId id = idFactory == null ? null : idFactory.readUploadId(requestURI);
+        if (id == null) {
+            return null;
+        }
+
+        String key = id.toString();
+        Lease lease = lockAcquisitionStrategy.acquire(
+                () -> lockStore.tryAcquire(key, ownerId, leaseDurationMillis));
+        if (lease == null) {
+            throw new UploadAlreadyLockedException("The upload " + requestURI + " is already locked");
+        }
+
+        LeaseLock lock = new LeaseLock(requestURI, lease);
+        activeLocks.add(lock);
+        return lock;
+    }
+
+    @Override
+    public void cleanupStaleLocks() throws IOException {
+        //Leases expire by themselves, this only removes what is left of them in the store
+        lockStore.removeExpiredLeases();
+    }
+
+    @Override
+    public boolean isLocked(UploadId id) {
+        if (id == null) {
+            return false;
+        }
+
+        try {
+            return lockStore.getLease(id.toString()) != null;
+        } catch (IOException e) {
+            log.warn("Unable to read the lease of upload " + id + ", assuming it is locked", e);
+            return true;
+        }
+    }
+
+    @Override
+    public void setIdFactory(UploadIdFactory idFactory) {
+        Validate.notNull(idFactory, "The IdFactory cannot be null");
+        this.idFactory = idFactory;
+    }
+
+    /**
+     * Set the strategy that determines how long to wait for an upload that is already locked. The lock store is
+     * polled with an exponential backoff. By default a request fails immediately when the upload is locked.
+     * @param lockAcquisitionStrategy The strategy to use when acquiring locks
+     */
+    @Override
+    public void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        Validate.notNull(lockAcquisitionStrategy, "The lock acquisition strategy cannot be null");
+        this.lockAcquisitionStrategy = lockAcquisitionStrategy;
+    }
+
+    public LockAcquisitionStrategy getLockAcquisitionStrategy() {
+        return lockAcquisitionStrategy;
+    }
+
+    /**
+     * Get the number of locks held by this node
+     * @return The number of locks of which the lease is being renewed
+     */
+    public int getActiveLockCount() {
+        return activeLocks.size();
+    }
+
+    /**
+     * Get the number of locks of which the lease expired or was taken over before the lock was released
+     * @return The number of lost leases
+     */
+    public long getLostLeaseCount() {
+        return lostLeaseCount.get();
+    }
+
+    /**
+     * Stop renewing leases. Locks that are still held expire after the lease duration.
+     */
+    @Override
+    public void close() {
+        renewalExecutor.shutdownNow();
+    }
+
+    void renewLeases() {
+        for (LeaseLock lock : activeLocks) {
+            lock.renew();
+        }
+    }
+
+    /**
+     * Lock on an upload that is backed by a lease
+     */
+    public class LeaseLock implements UploadLock {
+
+        private final String uploadUri;
+        private volatile Lease lease;
+        private volatile boolean isLost = false;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        LeaseLock(String uploadUri, Lease lease) {
+            this.uploadUri = uploadUri;
+            this.lease = lease;
+        }
+
+        @Override
+        public String getUploadUri() {
+            return uploadUri;
+        }
+
+        /**
+         * Get the lease that backs this lock
+         * @return The lease as it was last acquired or renewed
+         */
+        public Lease getLease() {
+            return lease;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return lease.getFencingToken();
+        }
+
+        /**
+         * Check if this lock still guarantees exclusive access to the upload
+         * @return True if the lock was not released and its lease did not expire, false otherwise
+         */
+        public boolean isValid() {
+            return !isReleased.get() && !isLost && !lease.isExpired(System.currentTimeMillis());
+        }
+
+        @Override
+        public void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                activeLocks.remove(this);
+                if (!isLost) {
+                    try {
+                        lockStore.release(lease);
+                    } catch (IOException e) {
+                        log.warn("Unable to release the lease of upload " + uploadUri
+                                + ", it will expire by itself", e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+
+        void renew() {
+            Lease current = lease;
+            try {
+                Lease renewed = lockStore.renew(current, leaseDurationMillis);
+                if (renewed != null) {
+                    lease = renewed;
+                } else {
+                    markLost();
+                }
+            } catch (IOException e) {
+                //Keep trying until the lease expires
+                log.warn("Unable to renew the lease of upload " + uploadUri, e);
+                if (current.isExpired(System.currentTimeMillis())) {
+                    markLost();
+                }
+            }
+        }
+
+        private void markLost() {
+            if (!isReleased.get() && !isLost) {
+                isLost = true;
+                activeLocks.remove(this);
+                lostLeaseCount.incrementAndGet();
+                log.warn("The lease with fencing token {} on upload {} was lost", lease.getFencingToken(),
+                        uploadUri);
+            }
+        }
+    }
+}
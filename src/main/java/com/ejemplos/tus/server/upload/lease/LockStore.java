@@ -0,0 +1,56 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import java.io.IOException;
+
+/**
+ * Service provider interface of the store in which a {@link LeaseLockingService} keeps its leases. To support
+ * clustering, all nodes must use a store that is backed by the same shared system (a database, a key-value
+ * store, a shared drive...).
+ * <p>
+ * Every method must be atomic with respect to the other nodes and threads using the same store. Implementations
+ * must be thread-safe.
+ */
+public interface LockStore {
+
+    /**
+     * Grant a new lease on the given key if there is no valid lease on that key
+     * @param key The key of the resource to lock
+     * @param owner An identification of the requesting node, only used for diagnostics
+     * @param durationMillis The number of milliseconds the lease remains valid if it is not renewed
+     * @return The new lease with a fencing token bigger than that of any previous lease on the key, or null if
+     *         another lease on the key is still valid
+     * @throws IOException When the store cannot be accessed
+     */
+    Lease tryAcquire(String key, String owner, long durationMillis) throws IOException;
+
+    /**
+     * Extend a lease that is still valid
+     * @param lease The lease to renew
+     * @param durationMillis The number of milliseconds the lease remains valid from now on
+     * @return The renewed lease, or null if the lease already expired or was replaced by another lease
+     * @throws IOException When the store cannot be accessed
+     */
+    Lease renew(Lease lease, long durationMillis) throws IOException;
+
+    /**
+     * Release a lease, so that the key can be locked again immediately. Releasing a lease that already expired
+     * or that was replaced by another lease has no effect.
+     * @param lease The lease to release
+     * @throws IOException When the store cannot be accessed
+     */
+    void release(Lease lease) throws IOException;
+
+    /**
+     * Get the valid lease on the given key
+     * @param key The key of the resource
+     * @return The lease on the key or null if the key is not locked
+     * @throws IOException When the store cannot be accessed
+     */
+    Lease getLease(String key) throws IOException;
+
+    /**
+     * Remove all information about leases that expired or were released
+     * @throws IOException When the store cannot be accessed
+     */
+    void removeExpiredLeases() throws IOException;
+}
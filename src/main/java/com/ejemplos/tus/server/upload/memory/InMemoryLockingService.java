@@ -0,0 +1,239 @@
+package com.ejemplos.tus.server.upload.memory;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.FencingTokenSequence;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link UploadLockingService} implementation that keeps the locks in memory. Locking an upload does not touch
+ * the file system, which makes this implementation the fastest choice for single-node deployments.
+ * <p>
+ * To support clustering, create this service with the locking service that is shared between the nodes (for
+ * example a {@link com.ejemplos.tus.server.upload.disk.DiskLockingService} on a shared drive). Requests of this
+ * node then first compete for the in-memory lock and only the winner also acquires the shared lock.
+ * <p>
+ * Locks are not bound to a thread, so a lock can be released by another thread than the one that acquired it.
+ * This class is thread-safe.
+ */
+public class InMemoryLockingService implements UploadLockingService {
+
+    private final ConcurrentHashMap<UploadId, LockEntry> lockTable = new ConcurrentHashMap<>();
+    private final UploadLockingService clusterLockingService;
+    private final FencingTokenSequence fencingTokenSequence = new FencingTokenSequence();
+    private UploadIdFactory idFactory;
+    private LockAcquisitionStrategy lockAcquisitionStrategy = LockAcquisitionStrategy.failFast();
+
+    /**
+     * Create a locking service for a single-node deployment
+     */
+    public InMemoryLockingService() {
+        this(null);
+    }
+
+    /**
+     * Create a locking service that takes an in-memory lock before it takes the lock of the given (clustered)
+     * locking service
+     * @param clusterLockingService The locking service that is shared with other nodes, or null if this node
+     *                              is the only one processing uploads
+     */
+    public InMemoryLockingService(UploadLockingService clusterLockingService) {
+        this.clusterLockingService = clusterLockingService;
+    }
+
+    /**
+     * Set the strategy that determines how long to wait for an upload that is already locked. Requests of this
+     * node that wait for a lock are woken up as soon as the lock is released. By default a request fails
+     * immediately when the upload is locked. The strategy is also passed on to the clustered locking service.
+     * @param lockAcquisitionStrategy The strategy to use when acquiring locks
+     */
+    @Override
+    public void setLockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy) {
+        Validate.notNull(lockAcquisitionStrategy, "The lock acquisition strategy cannot be null");
+        this.lockAcquisitionStrategy = lockAcquisitionStrategy;
+        if (clusterLockingService != null) {
+            clusterLockingService.setLockAcquisitionStrategy(lockAcquisitionStrategy);
+        }
+    }
+
+    public LockAcquisitionStrategy getLockAcquisitionStrategy() {
+        return lockAcquisitionStrategy;
+    }
+
+    /**
+     * Get the locking service that is shared with other nodes
+     * @return The clustered locking service or null if not clustered
+     */
+    public UploadLockingService getClusterLockingService() {
+        return clusterLockingService;
+    }
+
+    @Override
+    public UploadLock lockUploadByUri(String requestURI) throws TusException, IOException {
+        UploadId id = idFactory == null ? null : idFactory.readUploadId(requestURI);
+        if (id == null) {
+            return null;
+        }
+
+        LockEntry entry = lockTable.compute(id, (key, value) -> {
+            LockEntry output = value == null ? new LockEntry() : value;
+            output.userCount++;
+            return output;
+        });
+
+        boolean isSuccessful = false;
+        try {
+            if (!acquire(entry.permit)) {
+                throw new UploadAlreadyLockedException("The upload " + requestURI + " is already locked");
+            }
+
+            UploadLock clusterLock = null;
+            try {
+                if (clusterLockingService != null) {
+                    clusterLock = clusterLockingService.lockUploadByUri(requestURI);
+                }
+                isSuccessful = true;
+            } finally {
+                if (!isSuccessful) {
+                    entry.permit.release();
+                }
+            }
+            //Use the token of the shared lock when available, it is also known by the other nodes
+            long fencingToken = clusterLock != null && clusterLock.getFencingToken() > 0
+                    ? clusterLock.getFencingToken() : fencingTokenSequence.next();
+            return new InMemoryLock(requestURI, id, entry, clusterLock, fencingToken);
+
+        } finally {
+            if (!isSuccessful) {
+                removeUser(id);
+            }
+        }
+    }
+
+    @Override
+    public void cleanupStaleLocks() throws IOException {
+        //In-memory locks are always released together with their request
+        if (clusterLockingService != null) {
+            clusterLockingService.cleanupStaleLocks();
+        }
+    }
+
+    @Override
+    public boolean isLocked(UploadId id) {
+        LockEntry entry = id == null ? null : lockTable.get(id);
+        if (entry != null && entry.permit.availablePermits() == 0) {
+            return true;
+        } else {
+            return clusterLockingService != null && clusterLockingService.isLocked(id);
+        }
+    }
+
+    @Override
+    public void setIdFactory(UploadIdFactory idFactory) {
+        Validate.notNull(idFactory, "The IdFactory cannot be null");
+        this.idFactory = idFactory;
+        if (clusterLockingService != null) {
+            clusterLockingService.setIdFactory(idFactory);
+        }
+    }
+
+    /**
+     * Get the number of uploads that are locked or for which a lock is being requested
+     * @return The size of the lock table
+     */
+    public int getLockTableSize() {
+        return lockTable.size();
+    }
+
+    private boolean acquire(Semaphore permit) throws UploadAlreadyLockedException {
+        LockAcquisitionStrategy strategy = lockAcquisitionStrategy;
+        if (permit.tryAcquire()) {
+            strategy.recordUncontended();
+            return true;
+        }
+
+        long start = System.nanoTime();
+        boolean isAcquired = false;
+        try {
+            //Waiters are parked and notified when the lock is released
+            isAcquired = strategy.getMaxWaitMillis() > 0
+                    && permit.tryAcquire(strategy.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+            return isAcquired;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UploadAlreadyLockedException("Interrupted while waiting for the upload lock");
+        } finally {
+            strategy.recordContended(System.nanoTime() - start, isAcquired);
+        }
+    }
+
+    private void removeUser(UploadId id) {
+        //Remove the entry once nobody holds or waits for the lock, so the table only contains active uploads
+        lockTable.computeIfPresent(id, (key, value) -> --value.userCount == 0 ? null : value);
+    }
+
+    private static class LockEntry {
+        //A semaphore instead of a lock, so that another thread can release it
+        private final Semaphore permit = new Semaphore(1);
+        //Only modified within the atomic compute methods of the lock table
+        private int userCount = 0;
+    }
+
+    private class InMemoryLock implements UploadLock {
+
+        private final String uploadUri;
+        private final UploadId id;
+        private final LockEntry entry;
+        private final UploadLock clusterLock;
+        private final long fencingToken;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        InMemoryLock(String uploadUri, UploadId id, LockEntry entry, UploadLock clusterLock, long fencingToken) {
+            this.uploadUri = uploadUri;
+            this.id = id;
+            this.entry = entry;
+            this.clusterLock = clusterLock;
+            this.fencingToken = fencingToken;
+        }
+
+        @Override
+        public String getUploadUri() {
+            return uploadUri;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                try {
+                    if (clusterLock != null) {
+                        clusterLock.release();
+                    }
+                } finally {
+                    entry.permit.release();
+                    removeUser(id);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
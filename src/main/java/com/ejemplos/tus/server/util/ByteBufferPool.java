@@ -0,0 +1,130 @@
+package com.ejemplos.tus.server.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded pool of reusable buffers to copy bytes from an {@link java.io.InputStream} to a
+ * {@link java.nio.channels.FileChannel}.
+ * <p>
+ * Each pooled {@link Buffer} consists of a direct {@link ByteBuffer} that can be handed to the channel without
+ * an extra copy, and a heap array of the same size to read from the input stream. Buffers are allocated lazily.
+ * When all pooled buffers are in use, a temporary heap buffer is handed out that is not returned to the pool.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ByteBufferPool {
+
+    private final int poolSize;
+    private final int bufferSize;
+    private final BlockingQueue<Buffer> availableBuffers;
+
+    private final AtomicLong pooledBufferCount = new AtomicLong();
+    private final AtomicLong temporaryBufferCount = new AtomicLong();
+
+    /**
+     * Create a new pool
+     * @param poolSize The maximum number of buffers that are kept in the pool
+     * @param bufferSize The size in bytes of each buffer
+     */
+    public ByteBufferPool(int poolSize, int bufferSize) {
+        Validate.isTrue(poolSize > 0, "The pool size must be bigger than 0");
+        Validate.isTrue(bufferSize > 0, "The buffer size must be bigger than 0");
+        this.poolSize = poolSize;
+        this.bufferSize = bufferSize;
+        this.availableBuffers = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Take a buffer from the pool. The buffer must be returned by closing it.
+     * @return A cleared buffer
+     */
+    public Buffer acquire() {
+        Buffer buffer = availableBuffers.poll();
+        if (buffer == null) {
+            if (pooledBufferCount.incrementAndGet() <= poolSize) {
+                buffer = new Buffer(this, ByteBuffer.allocateDirect(bufferSize));
+            } else {
+                pooledBufferCount.decrementAndGet();
+                temporaryBufferCount.incrementAndGet();
+                buffer = new Buffer(null, ByteBuffer.allocate(bufferSize));
+            }
+        }
+        buffer.byteBuffer.clear();
+        return buffer;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Get the number of buffers that are currently available for reuse
+     * @return The number of idle pooled buffers
+     */
+    public int getAvailableCount() {
+        return availableBuffers.size();
+    }
+
+    /**
+     * Get the number of temporary buffers that were allocated because the pool was exhausted
+     * @return The number of temporary buffers
+     */
+    public long getTemporaryBufferCount() {
+        return temporaryBufferCount.get();
+    }
+
+    private void release(Buffer buffer) {
+        if (!availableBuffers.offer(buffer)) {
+            //This cannot happen as we never create more buffers than the pool can hold
+            pooledBufferCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * A buffer of the pool, close it to return it to the pool
+     */
+    public static final class Buffer implements AutoCloseable {
+
+        private final ByteBufferPool pool;
+        private final ByteBuffer byteBuffer;
+        private final byte[] array;
+
+        private Buffer(ByteBufferPool pool, ByteBuffer byteBuffer) {
+            this.pool = pool;
+            this.byteBuffer = byteBuffer;
+            this.array = byteBuffer.hasArray() ? byteBuffer.array() : new byte[byteBuffer.capacity()];
+        }
+
+        /**
+         * The buffer to write to a channel
+         * @return The (direct) byte buffer
+         */
+        public ByteBuffer byteBuffer() {
+            return byteBuffer;
+        }
+
+        /**
+         * The array to read bytes into from a stream
+         * @return A heap array with the same capacity as the byte buffer
+         */
+        public byte[] array() {
+            return array;
+        }
+
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.release(this);
+            }
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package com.ejemplos.tus.server.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,20 +17,36 @@ import org.slf4j.LoggerFactory;
  * This {@link InputStream} wrapper also supports collecting Trailer header values that are
  * sent at the end of the stream.
  * <p>
+ * The wrapped stream is read in bulk into an internal buffer from which the chunk sizes, CRLF terminators
+ * and trailers are parsed directly, so no objects are allocated per chunk. Reads that are larger than the
+ * buffer bypass it and go straight to the wrapped stream.
+ * <p>
  * Based on org.apache.commons.httpclient.ChunkedInputStream
  */
 public class HttpChunkedEncodingInputStream extends InputStream {
 
+    /** The default size of the internal read buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
     private static final Logger log = LoggerFactory.getLogger(HttpChunkedEncodingInputStream.class);
 
     /** The input stream that we're wrapping */
     private final InputStream in;
 
+    /** Buffer with bytes read from the wrapped stream but not yet consumed */
+    private final byte[] buffer;
+
+    /** The position of the next unconsumed byte in the buffer */
+    private int bufferPos = 0;
+
+    /** The number of valid bytes in the buffer */
+    private int bufferLimit = 0;
+
     /** The current chunk size */
-    private int chunkSize = 0;
+    private long chunkSize = 0;
 
     /** The current position within the current chunk */
-    private int pos = 0;
+    private long pos = 0;
 
     /** True if we'are at the beginning of stream */
     private boolean bof = true;
@@ -49,15 +64,30 @@ public class HttpChunkedEncodingInputStream extends InputStream {
      * Wrap the given input stream and store any trailing headers in the provided map.
      * @param in the raw input stream
      * @param trailerHeaders Map to store any trailer header values. Can be <code>null</code>.
+     * @param bufferSize The size of the internal read buffer
      */
     public HttpChunkedEncodingInputStream(
-            InputStream in, Map<String, List<String>> trailerHeaders) {
+            InputStream in, Map<String, List<String>> trailerHeaders, int bufferSize) {
 
         if (in == null) {
             throw new IllegalArgumentException("InputStream parameter may not be null");
         }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
         this.in = in;
         this.trailerHeaders = trailerHeaders;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Wrap the given input stream and store any trailing headers in the provided map.
+     * @param in the raw input stream
+     * @param trailerHeaders Map to store any trailer header values. Can be <code>null</code>.
+     */
+    public HttpChunkedEncodingInputStream(
+            InputStream in, Map<String, List<String>> trailerHeaders) {
+        this(in, trailerHeaders, DEFAULT_BUFFER_SIZE);
     }
 
     /**
@@ -79,21 +109,14 @@ public class HttpChunkedEncodingInputStream extends InputStream {
      */
     @Override
     public int read() throws IOException {
-
-        if (closed) {
-            throw new IOException("Attempted read from closed stream.");
-        }
-        if (eof) {
+        if (!hasChunkData()) {
             return -1;
         }
-        if (pos >= chunkSize) {
-            nextChunk();
-            if (eof) {
-                return -1;
-            }
+        int b = readRawByte();
+        if (b >= 0) {
+            pos++;
         }
-        pos++;
-        return in.read();
+        return b;
     }
 
     /**
@@ -107,23 +130,33 @@ public class HttpChunkedEncodingInputStream extends InputStream {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-
-        if (closed) {
-            throw new IOException("Attempted read from closed stream.");
+        if (len == 0) {
+            return 0;
         }
-
-        if (eof) {
+        if (!hasChunkData()) {
             return -1;
         }
-        if (pos >= chunkSize) {
-            nextChunk();
-            if (eof) {
-                return -1;
-            }
+
+        int minLen = (int) Math.min(len, chunkSize - pos);
+        int count;
+        if (bufferPos < bufferLimit) {
+            count = Math.min(minLen, bufferLimit - bufferPos);
+            System.arraycopy(buffer, bufferPos, b, off, count);
+            bufferPos += count;
+        } else if (minLen >= buffer.length) {
+            //Copying through our buffer would only add overhead for large reads
+            count = in.read(b, off, minLen);
+        } else if (fillBuffer()) {
+            count = Math.min(minLen, bufferLimit - bufferPos);
+            System.arraycopy(buffer, bufferPos, b, off, count);
+            bufferPos += count;
+        } else {
+            count = -1;
+        }
+
+        if (count > 0) {
+            pos += count;
         }
-        int minLen = Math.min(len, chunkSize - pos);
-        int count = in.read(b, off, minLen);
-        pos += count;
         return count;
     }
 
@@ -139,13 +172,43 @@ public class HttpChunkedEncodingInputStream extends InputStream {
         return read(b, 0, b.length);
     }
 
+    /**
+     * @return The number of bytes of the current chunk that can be read without blocking
+     * @throws IOException if an IO problem occurs.
+     */
+    @Override
+    public int available() throws IOException {
+        if (closed || eof) {
+            return 0;
+        }
+        return (int) Math.min(bufferLimit - bufferPos, chunkSize - pos);
+    }
+
+    /**
+     * Make sure the current chunk has data left to read, moving to the next chunk if needed.
+     * @return False if the end of the stream has been reached
+     * @throws IOException If an IO problem occurs or the stream is closed
+     */
+    private boolean hasChunkData() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted read from closed stream.");
+        }
+        if (eof) {
+            return false;
+        }
+        if (pos >= chunkSize) {
+            nextChunk();
+        }
+        return !eof;
+    }
+
     /**
      * Read the CRLF terminator.
      * @throws IOException If an IO error occurs.
      */
     private void readCRLF() throws IOException {
-        int cr = in.read();
-        int lf = in.read();
+        int cr = readRawByte();
+        int lf = readRawByte();
         if ((cr != '\r') || (lf != '\n')) {
             throw new IOException(
                     "CRLF expected at end of chunk: " + cr + "/" + lf);
@@ -160,10 +223,7 @@ public class HttpChunkedEncodingInputStream extends InputStream {
         if (!bof) {
             readCRLF();
         }
-        chunkSize = getChunkSize();
-        if (chunkSize < 0) {
-            throw new IOException("Negative chunk size");
-        }
+        chunkSize = readChunkSize();
 
         bof = false;
         pos = 0;
@@ -177,44 +237,84 @@ public class HttpChunkedEncodingInputStream extends InputStream {
      * Expects the stream to start with a chunk size in hex with optional
      * comments after a semicolon. The line must end with a CRLF: "a3; some
      * comment\r\n" Positions the stream at the start of the next line.
+     * The size is parsed directly from the bytes in the buffer.
      *
-     * @return the chunk size as integer
+     * @return the chunk size
      *
      * @throws IOException when the chunk size could not be parsed
      */
+    private long readChunkSize() throws IOException {
+        long size = 0;
+        int digits = 0;
+        ChunkSizeState state = ChunkSizeState.LEADING_WHITESPACE;
 
-    private int getChunkSize() throws IOException {
-
-        String dataString = readChunkSizeInformation();
-
-        int separator = dataString.indexOf(';');
-        dataString = (separator > 0)
-                ? dataString.substring(0, separator).trim()
-                : dataString.trim();
-
-        int result;
-        try {
-            result = Integer.parseInt(dataString.trim(), 16);
-        } catch (NumberFormatException e) {
-            throw new IOException("Bad chunk size: " + dataString);
-        }
-        return result;
-    }
-
-    private String readChunkSizeInformation() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        ChunkSizeState state = ChunkSizeState.NORMAL;
         while (state != ChunkSizeState.END) {
-            int b = in.read();
+            int b = readRawByte();
             if (b == -1) {
                 throw new IOException("Chunked stream ended unexpectedly");
             }
-            state = state.process(in, baos, b);
+
+            switch (state) {
+                case LEADING_WHITESPACE:
+                case SIZE:
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (size > (Long.MAX_VALUE >> 4)) {
+                            throw new IOException("Chunk size too large");
+                        }
+                        size = (size << 4) | digit;
+                        digits++;
+                        state = ChunkSizeState.SIZE;
+                    } else if (isLwsChar(b)) {
+                        state = digits == 0 ? ChunkSizeState.LEADING_WHITESPACE : ChunkSizeState.TRAILING_WHITESPACE;
+                    } else {
+                        state = endOfSize(b, digits);
+                    }
+                    break;
+                case TRAILING_WHITESPACE:
+                    state = isLwsChar(b) ? ChunkSizeState.TRAILING_WHITESPACE : endOfSize(b, digits);
+                    break;
+                case EXTENSION:
+                    if (b == '\r') {
+                        state = ChunkSizeState.READ_CARRIAGE_RETURN;
+                    } else if (b == '"') {
+                        state = ChunkSizeState.INSIDE_QUOTED_STRING;
+                    }
+                    break;
+                case INSIDE_QUOTED_STRING:
+                    if (b == '\\') {
+                        //Skip the escaped character
+                        readRawByte();
+                    } else if (b == '"') {
+                        state = ChunkSizeState.EXTENSION;
+                    }
+                    break;
+                case READ_CARRIAGE_RETURN:
+                    if (b != '\n') {
+                        // this was not CRLF
+                        throw new IOException("Protocol violation: Unexpected"
+                                + " single newline character in chunk size");
+                    }
+                    state = ChunkSizeState.END;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected chunk size state " + state);
+            }
         }
 
-        //parse data
-        return baos.toString(StandardCharsets.US_ASCII);
+        return size;
+    }
+
+    private ChunkSizeState endOfSize(int b, int digits) throws IOException {
+        if (digits == 0) {
+            throw new IOException(b == '-' ? "Negative chunk size" : "Bad chunk size: missing hex digits");
+        } else if (b == ';') {
+            return ChunkSizeState.EXTENSION;
+        } else if (b == '\r') {
+            return ChunkSizeState.READ_CARRIAGE_RETURN;
+        } else {
+            throw new IOException("Bad chunk size: unexpected character " + b);
+        }
     }
 
     /**
@@ -223,7 +323,7 @@ public class HttpChunkedEncodingInputStream extends InputStream {
      */
     private void parseTrailerHeaders() throws IOException {
         if (trailerHeaders != null) {
-            List<Pair<String, String>> footers = parseHeaders(in, StandardCharsets.US_ASCII);
+            List<Pair<String, String>> footers = parseHeaders();
             for (Pair<String, String> footer : footers) {
                 List<String> values = trailerHeaders.computeIfAbsent(footer.getKey(), k -> new LinkedList<>());
 
@@ -255,31 +355,53 @@ public class HttpChunkedEncodingInputStream extends InputStream {
     /**
      * Exhaust our input stream, reading until EOF has been encountered.
      *
-     * <p>Note that this function is intended as a non-public utility.
-     * This is a little weird, but it seemed silly to make a utility
-     * class for this one function, so instead it is just static and
-     * shared that way.</p>
-     *
      * @throws IOException If an IO problem occurs
      */
     private void exhaustInputStream() throws IOException {
         // read and discard the remainder of the message
-        byte[] buffer = new byte[1024];
-
         log.trace("Clearing underlying input stream, this is what was left:");
-        while (in.read(buffer) >= 0) {
+        do {
             if (log.isTraceEnabled()) {
-                log.trace(new String(buffer, StandardCharsets.UTF_8));
+                log.trace(new String(buffer, bufferPos, bufferLimit - bufferPos, StandardCharsets.UTF_8));
             }
+            bufferPos = bufferLimit;
+        } while (fillBuffer());
+    }
+
+    /**
+     * Read the next byte of the raw chunked stream from the buffer
+     * @return The next byte or -1 if the wrapped stream has ended
+     * @throws IOException If an IO problem occurs
+     */
+    private int readRawByte() throws IOException {
+        if (bufferPos >= bufferLimit && !fillBuffer()) {
+            return -1;
         }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    /**
+     * Replace the (consumed) content of the buffer with the next bytes of the wrapped stream
+     * @return False if the wrapped stream has ended
+     * @throws IOException If an IO problem occurs
+     */
+    private boolean fillBuffer() throws IOException {
+        int count;
+        do {
+            count = in.read(buffer, 0, buffer.length);
+        } while (count == 0);
+
+        bufferPos = 0;
+        bufferLimit = Math.max(count, 0);
+        return count > 0;
     }
 
-    private List<Pair<String, String>> parseHeaders(InputStream is, Charset charset) throws IOException {
+    private List<Pair<String, String>> parseHeaders() throws IOException {
         List<Pair<String, String>> headers = new LinkedList<>();
         String name = null;
         StringBuilder value = null;
-        String line = readLine(is, charset);
-        while (org.apache.commons.lang3.StringUtils.isNotBlank(line)) {
+        String line = readLine();
+        while (StringUtils.isNotBlank(line)) {
             // Parse the header name and value
             // Check for folded headers first
             // Detect LWS-char see HTTP/1.0 or HTTP/1.1 Section 2.2
@@ -304,7 +426,7 @@ public class HttpChunkedEncodingInputStream extends InputStream {
                 }
             }
 
-            line = readLine(is, charset);
+            line = readLine();
         }
 
         // make sure we save the last name,value pair if present
@@ -320,105 +442,38 @@ public class HttpChunkedEncodingInputStream extends InputStream {
         }
     }
 
-    private boolean isLwsChar(char c) {
+    private boolean isLwsChar(int c) {
         return c == ' ' || c == '\t';
     }
 
-    private String readLine(InputStream inputStream, Charset charset) throws IOException {
-        byte[] rawdata = readRawLine(inputStream);
-        if (rawdata == null || rawdata.length == 0) {
-            return null;
-        }
-        // strip CR and LF from the end
-        int len = rawdata.length;
-        int offset = 0;
-        if (rawdata[len - 1] == '\n') {
-            offset++;
-            if (len > 1 && rawdata[len - 2] == '\r') {
-                offset++;
-            }
-        }
-
-        return new String(rawdata, 0, len - offset, charset);
-    }
-
-    private byte[] readRawLine(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    /**
+     * Read a trailer line from the buffer, without the CR and LF at the end.
+     * @return The line or null if the end of the stream has been reached
+     * @throws IOException If an IO problem occurs
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
         int ch;
-        while ((ch = inputStream.read()) >= 0) {
-            buf.write(ch);
+        while ((ch = readRawByte()) >= 0) {
             if (ch == '\n') { // be tolerant (RFC-2616 Section 19.3)
-                break;
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
             }
+            line.append((char) ch);
         }
-        return buf.toByteArray();
+        return line.length() == 0 ? null : line.toString();
     }
 
     private enum ChunkSizeState {
-        NORMAL {
-            @Override
-            public ChunkSizeState process(InputStream in, ByteArrayOutputStream baos, int b)
-                    throws IOException {
-
-                ChunkSizeState newState;
-                if (b == '\r') {
-                    newState = READ_CARRIAGE_RETURN;
-                } else {
-                    if (b == '\"') {
-                        newState = INSIDE_QUOTED_STRING;
-                    } else {
-                        newState = NORMAL;
-                    }
-                    baos.write(b);
-                }
-                return newState;
-            }
-        },
-        READ_CARRIAGE_RETURN {
-            @Override
-            public ChunkSizeState process(InputStream in, ByteArrayOutputStream baos, int b)
-                    throws IOException {
-
-                if (b != '\n') {
-                    // this was not CRLF
-                    throw new IOException("Protocol violation: Unexpected"
-                            + " single newline character in chunk size");
-                }
-                return END;
-            }
-        },
-        INSIDE_QUOTED_STRING {
-            @Override
-            public ChunkSizeState process(InputStream in, ByteArrayOutputStream baos, int b)
-                    throws IOException {
-
-                ChunkSizeState newState;
-                if (b == '\\') {
-                    int nextByte = in.read();
-                    if (nextByte >= 0) {
-                        baos.write(nextByte);
-                    }
-                    newState = INSIDE_QUOTED_STRING;
-                } else {
-                    if (b == '\"') {
-                        newState = NORMAL;
-                    } else {
-                        newState = INSIDE_QUOTED_STRING;
-                    }
-                    baos.write(b);
-                }
-                return newState;
-            }
-        },
-        END {
-            @Override
-            public ChunkSizeState process(InputStream in, ByteArrayOutputStream baos, int b)
-                    throws IOException {
-                throw new UnsupportedOperationException("The END state cannot do any processing");
-            }
-        };
-
-        public abstract ChunkSizeState process(InputStream in, ByteArrayOutputStream baos, int b)
-                throws IOException;
+        LEADING_WHITESPACE,
+        SIZE,
+        TRAILING_WHITESPACE,
+        EXTENSION,
+        INSIDE_QUOTED_STRING,
+        READ_CARRIAGE_RETURN,
+        END
     }
 }
@@ -0,0 +1,56 @@
+package com.ejemplos.tus.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jakarta.servlet.ServletInputStream;
+
+/**
+ * {@link InputStream} view on a {@link ServletInputStream} in non-blocking mode. Reads never block: when the
+ * servlet container has no more data available, the stream reports the end of the input. The container will
+ * notify its {@link jakarta.servlet.ReadListener} again once more data arrives, after which this stream can be
+ * read again.
+ */
+public class NonBlockingInputStream extends InputStream {
+
+    private final ServletInputStream servletInputStream;
+
+    public NonBlockingInputStream(ServletInputStream servletInputStream) {
+        this.servletInputStream = servletInputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (isDataAvailable()) {
+            return servletInputStream.read();
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (isDataAvailable()) {
+            return servletInputStream.read(b, off, len);
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return isDataAvailable() ? servletInputStream.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        servletInputStream.close();
+    }
+
+    private boolean isDataAvailable() {
+        //Calling isReady() also instructs the container to notify the read listener when new data arrives
+        return !servletInputStream.isFinished() && servletInputStream.isReady();
+    }
+}
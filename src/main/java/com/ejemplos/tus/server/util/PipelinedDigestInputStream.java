@@ -0,0 +1,211 @@
+package com.ejemplos.tus.server.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link InputStream} wrapper that updates message digests with the bytes that are read, like
+ * {@link java.security.DigestInputStream}, but on the threads of an {@link Executor}. Bytes that are read are
+ * copied into one of a small number of buffers. Once a buffer is full, it is handed to the executor and the
+ * caller can continue reading (and storing) the next bytes while the previous ones are being digested. When all
+ * buffers are waiting to be digested, reading blocks until one becomes available again.
+ * <p>
+ * Buffers are digested one after the other in the order in which they were filled. Call {@link #awaitDigests()}
+ * after reading to wait for the digests to be complete before using them. The digests must not be accessed
+ * before that.
+ * <p>
+ * This class is not thread-safe, it must be read by one thread at a time.
+ */
+public class PipelinedDigestInputStream extends FilterInputStream {
+
+    /** The default number of buffers that can be digested while reading */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    /** The default size in bytes of each buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long POLL_TIMEOUT_MILLIS = 100L;
+
+    private final List<MessageDigest> messageDigests;
+    private final Executor executor;
+    private final int bufferCount;
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> availableBuffers;
+    private int allocatedBuffers = 0;
+
+    private byte[] buffer = null;
+    private int bufferLength = 0;
+    private CompletableFuture<Void> pendingDigests = CompletableFuture.completedFuture(null);
+
+    /**
+     * Wrap the given input stream with the default number and size of buffers
+     * @param in The input stream to read from
+     * @param messageDigests The digests to update with the bytes that are read
+     * @param executor The executor that updates the digests
+     */
+    public PipelinedDigestInputStream(InputStream in, Collection<MessageDigest> messageDigests, Executor executor) {
+        this(in, messageDigests, executor, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Wrap the given input stream
+     * @param in The input stream to read from
+     * @param messageDigests The digests to update with the bytes that are read
+     * @param executor The executor that updates the digests
+     * @param bufferCount The maximum number of buffers that can be digested while reading
+     * @param bufferSize The size in bytes of each buffer
+     */
+    public PipelinedDigestInputStream(InputStream in, Collection<MessageDigest> messageDigests, Executor executor,
+                                      int bufferCount, int bufferSize) {
+        super(in);
+        Validate.notNull(in, "The input stream cannot be null");
+        Validate.notNull(executor, "The executor cannot be null");
+        Validate.isTrue(bufferCount > 0, "The buffer count must be bigger than 0");
+        Validate.isTrue(bufferSize > 0, "The buffer size must be bigger than 0");
+        this.messageDigests = new ArrayList<>(messageDigests);
+        this.executor = executor;
+        this.bufferCount = bufferCount;
+        this.bufferSize = bufferSize;
+        this.availableBuffers = new ArrayBlockingQueue<>(bufferCount);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            ensureBuffer();
+            buffer[bufferLength++] = (byte) b;
+            submitIfFull();
+        } else {
+            submitBuffer();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = in.read(b, off, len);
+        if (count > 0) {
+            int copied = 0;
+            while (copied < count) {
+                ensureBuffer();
+                int length = Math.min(count - copied, bufferSize - bufferLength);
+                System.arraycopy(b, off + copied, buffer, bufferLength, length);
+                bufferLength += length;
+                copied += length;
+                submitIfFull();
+            }
+        } else if (count < 0) {
+            //Digest what we have while the caller processes the end of the stream
+            submitBuffer();
+        }
+        return count;
+    }
+
+    /**
+     * Skipping bytes would leave them out of the digests, so only skip by reading
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipBuffer = new byte[(int) Math.min(Math.max(n, 0), bufferSize)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+            if (count < 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Digest all bytes that have been read so far and wait until the digests are up-to-date
+     * @throws IOException When the digests could not be updated
+     */
+    public void awaitDigests() throws IOException {
+        submitBuffer();
+        try {
+            pendingDigests.join();
+        } catch (CompletionException e) {
+            throw new IOException("Unable to calculate the checksum of the uploaded bytes", e.getCause());
+        }
+    }
+
+    private void ensureBuffer() throws IOException {
+        if (buffer == null) {
+            buffer = takeBuffer();
+            bufferLength = 0;
+        }
+    }
+
+    private byte[] takeBuffer() throws IOException {
+        byte[] available = availableBuffers.poll();
+        if (available == null && allocatedBuffers < bufferCount) {
+            //Buffers are allocated lazily, so small requests only need one
+            allocatedBuffers++;
+            available = new byte[bufferSize];
+        }
+
+        try {
+            while (available == null) {
+                if (pendingDigests.isCompletedExceptionally()) {
+                    //The buffers that are in use will never be returned
+                    awaitDigests();
+                }
+                available = availableBuffers.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the checksum calculation");
+        }
+        return available;
+    }
+
+    private void submitIfFull() {
+        if (bufferLength == bufferSize) {
+            submitBuffer();
+        }
+    }
+
+    private void submitBuffer() {
+        if (buffer != null && bufferLength > 0) {
+            byte[] filled = buffer;
+            int length = bufferLength;
+            pendingDigests = pendingDigests.thenRunAsync(() -> digest(filled, length), executor);
+        } else if (buffer != null) {
+            availableBuffers.offer(buffer);
+        }
+        buffer = null;
+        bufferLength = 0;
+    }
+
+    private void digest(byte[] filled, int length) {
+        try {
+            for (MessageDigest messageDigest : messageDigests) {
+                messageDigest.update(filled, 0, length);
+            }
+        } finally {
+            availableBuffers.offer(filled);
+        }
+    }
+}
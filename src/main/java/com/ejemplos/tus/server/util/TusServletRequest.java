@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
 import jakarta.servlet.http.HttpServletRequest;
@@ -20,20 +21,31 @@ import jakarta.servlet.http.HttpServletRequestWrapper;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.ejemplos.tus.server.HttpHeader;
 import com.ejemplos.tus.server.TusExtension;
 
 public class TusServletRequest extends HttpServletRequestWrapper {
 
+    private static final Logger log = LoggerFactory.getLogger(TusServletRequest.class);
+
     private BoundedInputStream boundedInputStream;
-    private final Map<ChecksumAlgorithm, DigestInputStream> digestInputStreamMap = new EnumMap<>(ChecksumAlgorithm.class);
+    private final Map<ChecksumAlgorithm, MessageDigest> messageDigestMap = new EnumMap<>(ChecksumAlgorithm.class);
+    private PipelinedDigestInputStream pipelinedDigestInputStream = null;
+    private Executor checksumExecutor = null;
 
     private InputStream contentInputStream = null;
     private boolean isChunkedTransferDecodingEnabled = true;
+    private boolean isNonBlocking = false;
+    private Set<ChecksumAlgorithm> checksumAlgorithms = ChecksumAlgorithm.getDefaultAlgorithms();
+    private boolean isDeferredChecksumVerificationEnabled = false;
+    private boolean isChecksumVerificationDeferred = false;
 
     private final Map<String, List<String>> trailerHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     private final Set<String> processedBySet = new TreeSet<>();
+    private UploadRequestContext requestContext;
 
     /**
      * Constructs a request object wrapping the given request.
@@ -59,7 +71,9 @@ public class TusServletRequest extends HttpServletRequestWrapper {
 
     public InputStream getContentInputStream() throws IOException {
         if (contentInputStream == null) {
-            contentInputStream = super.getInputStream();
+            contentInputStream = isNonBlocking
+                    ? new NonBlockingInputStream(super.getInputStream())
+                    : super.getInputStream();
 
             //If we're dealing with chunked transfer encoding,
             //abstract it so that the rest of our code doesn't need to care
@@ -73,25 +87,20 @@ public class TusServletRequest extends HttpServletRequestWrapper {
                     .get();
             contentInputStream = boundedInputStream;
 
-            ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.forUploadChecksumHeader(
-                    getHeader(HttpHeader.UPLOAD_CHECKSUM));
-
-            List<ChecksumAlgorithm> algorithms;
+            for (ChecksumAlgorithm algorithm : getChecksumAlgorithmsToCalculate(isChunked)) {
+                MessageDigest messageDigest = algorithm.getMessageDigest();
+                messageDigestMap.put(algorithm, messageDigest);
 
-            if (isChunked) {
-                //Since the Checksum header can still come at the end, keep track of all checksums
-                algorithms = Arrays.asList(ChecksumAlgorithm.values());
-            } else if (checksumAlgorithm != null) {
-                algorithms = Collections.singletonList(checksumAlgorithm);
-            } else {
-                algorithms = Collections.emptyList();
+                if (checksumExecutor == null) {
+                    contentInputStream = new DigestInputStream(contentInputStream, messageDigest);
+                }
             }
 
-            for (ChecksumAlgorithm algorithm : algorithms) {
-                DigestInputStream is = new DigestInputStream(contentInputStream, algorithm.getMessageDigest());
-                digestInputStreamMap.put(algorithm, is);
-
-                contentInputStream = is;
+            if (checksumExecutor != null && !messageDigestMap.isEmpty()) {
+                //Calculate the checksums on another thread while the next bytes are read and stored
+                pipelinedDigestInputStream = new PipelinedDigestInputStream(contentInputStream,
+                        messageDigestMap.values(), checksumExecutor);
+                contentInputStream = pipelinedDigestInputStream;
             }
         }
 
@@ -103,7 +112,7 @@ public class TusServletRequest extends HttpServletRequestWrapper {
     }
 
     public boolean hasCalculatedChecksum() {
-        return !digestInputStreamMap.isEmpty();
+        return !messageDigestMap.isEmpty();
     }
 
     public String getCalculatedChecksum(ChecksumAlgorithm algorithm) {
@@ -112,12 +121,22 @@ public class TusServletRequest extends HttpServletRequestWrapper {
                 Base64.encodeBase64String(messageDigest.digest());
     }
 
+    /**
+     * Check if the checksum of the content of this request is not calculated while reading, but has to be
+     * verified afterwards from the stored bytes. This is the case when the Upload-Checksum header can still
+     * arrive as a trailer and its algorithm is not known up front.
+     * @return True if the checksum must be calculated over the stored bytes
+     */
+    public boolean isChecksumVerificationDeferred() {
+        return isChecksumVerificationDeferred;
+    }
+
     /**
      * Get the set of checksum algorithms that are actively calculated within this request
      * @return The set of active checksum algorithms
      */
     public Set<ChecksumAlgorithm> getEnabledChecksums() {
-        return digestInputStreamMap.keySet();
+        return messageDigestMap.keySet();
     }
 
     @Override
@@ -142,15 +161,125 @@ public class TusServletRequest extends HttpServletRequestWrapper {
         processedBySet.add(processor.getName());
     }
 
+    /**
+     * Get the context of this request that gives access to the (memoized) upload information
+     * @return The request context or null if this request is not processed by a tus upload service
+     */
+    public UploadRequestContext getRequestContext() {
+        return requestContext;
+    }
+
+    public void setRequestContext(UploadRequestContext requestContext) {
+        this.requestContext = requestContext;
+    }
+
+    /**
+     * Check if the content of this request is chunked and decoded by this wrapper instead of the servlet container
+     * @return True if the content input stream decodes chunked transfer encoding
+     */
+    public boolean isDecodingChunkedTransfer() {
+        return isChunkedTransferDecodingEnabled && hasChunkedTransferEncoding();
+    }
+
+    public boolean isNonBlocking() {
+        return isNonBlocking;
+    }
+
+    /**
+     * Only read the content of this request as far as this is possible without blocking. This must be set before
+     * the content input stream is requested and requires the servlet input stream to be in non-blocking mode.
+     * @param isNonBlocking True if the content input stream should never block
+     */
+    public void setNonBlocking(boolean isNonBlocking) {
+        this.isNonBlocking = isNonBlocking;
+    }
+
+    /**
+     * Get the checksum algorithms that clients are allowed to use
+     * @return The allowed checksum algorithms
+     */
+    public Set<ChecksumAlgorithm> getChecksumAlgorithms() {
+        return checksumAlgorithms;
+    }
+
+    /**
+     * Set the checksum algorithms that clients are allowed to use. When the algorithm of a chunked request is not
+     * known up front, only these algorithms are calculated. This must be set before the content input stream is
+     * requested.
+     * @param checksumAlgorithms The allowed checksum algorithms
+     */
+    public void setChecksumAlgorithms(Set<ChecksumAlgorithm> checksumAlgorithms) {
+        this.checksumAlgorithms = checksumAlgorithms;
+    }
+
+    /**
+     * Verify checksums of which the algorithm is not known up front from the stored bytes, instead of calculating
+     * all allowed algorithms while reading the content. This must be set before the content input stream is
+     * requested.
+     * @param isEnabled True if checksum verification can be deferred
+     */
+    public void setDeferredChecksumVerification(boolean isEnabled) {
+        this.isDeferredChecksumVerificationEnabled = isEnabled;
+    }
+
+    /**
+     * Calculate the checksums of the content on the given executor, while the next bytes of the content are read
+     * and stored. The checksums are complete once they are requested. This must be set before the content input
+     * stream is requested.
+     * @param checksumExecutor The executor to calculate checksums on or null to calculate them while reading
+     */
+    public void setChecksumExecutor(Executor checksumExecutor) {
+        this.checksumExecutor = checksumExecutor;
+    }
+
+    private Collection<ChecksumAlgorithm> getChecksumAlgorithmsToCalculate(boolean isChunked) {
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.forUploadChecksumHeader(
+                getHeader(HttpHeader.UPLOAD_CHECKSUM));
+
+        if (checksumAlgorithm != null) {
+            return Collections.singletonList(checksumAlgorithm);
+        } else if (!isChunked || !isTrailerAnnounced(HttpHeader.UPLOAD_CHECKSUM)) {
+            return Collections.emptyList();
+        } else if (isDeferredChecksumVerificationEnabled && checksumAlgorithms.size() > 1) {
+            //Calculate the checksum afterwards once we know the algorithm from the trailer
+            isChecksumVerificationDeferred = true;
+            return Collections.emptyList();
+        } else {
+            //Since the Checksum header can still come at the end, keep track of all allowed checksums
+            return checksumAlgorithms;
+        }
+    }
+
+    /**
+     * Check if the given header can be sent as a trailer. Clients can announce trailers with the Trailer header,
+     * but if they do not, any header can still arrive as a trailer.
+     */
+    private boolean isTrailerAnnounced(String name) {
+        String trailer = super.getHeader(HttpHeader.TRAILER);
+        if (StringUtils.isBlank(trailer)) {
+            return true;
+        }
+        for (String field : StringUtils.split(trailer, ',')) {
+            if (StringUtils.equalsIgnoreCase(StringUtils.trim(field), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean hasChunkedTransferEncoding() {
         return StringUtils.equalsIgnoreCase("chunked", getHeader(HttpHeader.TRANSFER_ENCODING));
     }
 
     private MessageDigest getMessageDigest(ChecksumAlgorithm algorithm) {
-        if (digestInputStreamMap.containsKey(algorithm)) {
-            return digestInputStreamMap.get(algorithm).getMessageDigest();
-        } else {
-            return null;
+        if (pipelinedDigestInputStream != null) {
+            try {
+                pipelinedDigestInputStream.awaitDigests();
+            } catch (IOException e) {
+                log.error("Unable to calculate the " + algorithm + " checksum of request " + getRequestURI(), e);
+                return null;
+            }
         }
+        return messageDigestMap.get(algorithm);
     }
 }
@@ -0,0 +1,311 @@
+package com.ejemplos.tus.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.exception.TusException;
+import com.ejemplos.tus.server.exception.UploadNotFoundException;
+import com.ejemplos.tus.server.upload.FileRegion;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.upload.concatenation.UploadConcatenationService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Context of a single tus request that is processed while holding the upload lock.
+ * <p>
+ * The context acts as a request-scoped view on the actual {@link UploadStorageService}. Upload information is
+ * loaded at most once per upload (also when the upload does not exist) and the same {@link UploadInfo} instance
+ * is handed to every {@link com.ejemplos.tus.server.RequestValidator} and
+ * {@link com.ejemplos.tus.server.RequestHandler}. Bytes are appended and removed immediately, but all changes to
+ * the upload information (offsets, expiration...) are deferred and written to the storage service only once
+ * when the request is finished by {@link #flush()}.
+ * <p>
+ * All changes to the locked upload carry the fencing token of the upload lock, so that the storage service can
+ * reject them if the lock was lost in the meantime.
+ * <p>
+ * A context is bound to one request and is not thread-safe.
+ */
+public class UploadRequestContext implements UploadStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadRequestContext.class);
+
+    private final UploadStorageService storageService;
+    private final UploadIdFactory idFactory;
+
+    private final Map<UploadId, UploadInfo> uploadInfoById = new HashMap<>();
+    private final Map<UploadId, UploadInfo> pendingUpdates = new LinkedHashMap<>();
+    private UploadId lockedId;
+    private Long fencingToken;
+
+    public UploadRequestContext(UploadStorageService storageService, UploadIdFactory idFactory) {
+        Validate.notNull(storageService, "The UploadStorageService cannot be null");
+        Validate.notNull(idFactory, "The UploadIdFactory cannot be null");
+        this.storageService = storageService;
+        this.idFactory = idFactory;
+    }
+
+    /**
+     * Get the storage service to which this context delegates
+     * @return The actual upload storage service
+     */
+    public UploadStorageService getStorageService() {
+        return storageService;
+    }
+
+    /**
+     * Set the fencing token of the lock that this request holds on an upload
+     * @param lockedId The ID of the locked upload
+     * @param fencingToken The fencing token of the lock, changes to the upload will carry this token
+     */
+    public void setFencingToken(UploadId lockedId, long fencingToken) {
+        this.lockedId = lockedId;
+        this.fencingToken = lockedId == null || fencingToken <= 0 ? null : fencingToken;
+    }
+
+    /**
+     * Check if there are upload information updates that have not been written to the storage service yet
+     * @return True if {@link #flush()} still has work to do, false otherwise
+     */
+    public boolean hasPendingUpdates() {
+        return !pendingUpdates.isEmpty();
+    }
+
+    /**
+     * Write all deferred upload information updates to the storage service. This method must be called before the
+     * upload lock of the request is released.
+     * @throws IOException When writing the upload information fails
+     * @throws StaleUploadLockException When the upload lock was lost, the remaining updates are discarded
+     */
+    public void flush() throws IOException, StaleUploadLockException {
+        try {
+            for (UploadInfo uploadInfo : pendingUpdates.values()) {
+                try {
+                    storageService.update(uploadInfo);
+                } catch (StaleUploadLockException e) {
+                    throw e;
+                } catch (UploadNotFoundException e) {
+                    log.warn("Unable to save the information of upload {} because it no longer exists",
+                            uploadInfo.getId());
+                }
+            }
+        } finally {
+            pendingUpdates.clear();
+        }
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+        UploadId id = idFactory.readUploadId(uploadUrl);
+        if (id == null) {
+            return storageService.getUploadInfo(uploadUrl, ownerKey);
+        }
+
+        UploadInfo uploadInfo = getUploadInfo(id);
+        if (uploadInfo == null || !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+            return null;
+        } else {
+            return uploadInfo;
+        }
+    }
+
+    @Override
+    public UploadInfo getUploadInfo(UploadId id) throws IOException {
+        if (id == null) {
+            return storageService.getUploadInfo(id);
+        }
+
+        //The absence of an upload is also remembered
+        if (!uploadInfoById.containsKey(id)) {
+            uploadInfoById.put(id, storageService.getUploadInfo(id));
+        }
+        return uploadInfoById.get(id);
+    }
+
+    @Override
+    public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+        if (uploadInfo == null || uploadInfo.getId() == null) {
+            storageService.update(uploadInfo);
+        } else {
+            deferUpdate(uploadInfo);
+        }
+    }
+
+    @Override
+    public String getUploadURI() {
+        return storageService.getUploadURI();
+    }
+
+    @Override
+    public UploadInfo append(UploadInfo upload, InputStream inputStream) throws IOException, TusException {
+        UploadInfo uploadInfo = upload;
+        try {
+            fence(upload);
+            uploadInfo = storageService.appendWithoutUpdate(upload, inputStream);
+            return uploadInfo;
+        } finally {
+            //Also when appending failed, the offset may have changed
+            deferUpdate(uploadInfo);
+        }
+    }
+
+    @Override
+    public UploadInfo appendWithoutUpdate(UploadInfo upload, InputStream inputStream)
+            throws IOException, TusException {
+        return append(upload, inputStream);
+    }
+
+    @Override
+    public void setMaxUploadSize(Long maxUploadSize) {
+        storageService.setMaxUploadSize(maxUploadSize);
+    }
+
+    @Override
+    public long getMaxUploadSize() {
+        return storageService.getMaxUploadSize();
+    }
+
+    @Override
+    public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+        UploadInfo uploadInfo = storageService.create(info, ownerKey);
+        written(uploadInfo);
+        return uploadInfo;
+    }
+
+    @Override
+    public InputStream getUploadedBytes(String uploadURI, String ownerKey)
+            throws IOException, UploadNotFoundException {
+        flush();
+        return storageService.getUploadedBytes(uploadURI, ownerKey);
+    }
+
+    @Override
+    public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+        flush();
+        return storageService.getUploadedBytes(id);
+    }
+
+    @Override
+    public List<ByteBuffer> getUploadedBytesAsBuffers(UploadId id) throws IOException, TusException {
+        flush();
+        return storageService.getUploadedBytesAsBuffers(id);
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, OutputStream outputStream) throws UploadNotFoundException, IOException {
+        flush();
+        storageService.copyUploadTo(info, outputStream);
+    }
+
+    @Override
+    public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+            throws UploadNotFoundException, IOException {
+        flush();
+        storageService.copyUploadTo(info, position, count, outputStream);
+    }
+
+    @Override
+    public List<FileRegion> getUploadedFileRegions(UploadInfo info) throws IOException, UploadNotFoundException {
+        flush();
+        return storageService.getUploadedFileRegions(info);
+    }
+
+    @Override
+    public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+        storageService.cleanupExpiredUploads(uploadLockingService);
+    }
+
+    @Override
+    public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        fence(uploadInfo);
+        storageService.removeLastNumberOfBytesWithoutUpdate(uploadInfo, byteCount);
+        if (byteCount > 0) {
+            deferUpdate(uploadInfo);
+        }
+    }
+
+    @Override
+    public void removeLastNumberOfBytesWithoutUpdate(UploadInfo uploadInfo, long byteCount)
+            throws UploadNotFoundException, IOException {
+        removeLastNumberOfBytes(uploadInfo, byteCount);
+    }
+
+    @Override
+    public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
+        storageService.terminateUpload(uploadInfo);
+        if (uploadInfo != null && uploadInfo.getId() != null) {
+            //The upload is gone, so there is nothing left to write
+            pendingUpdates.remove(uploadInfo.getId());
+            uploadInfoById.put(uploadInfo.getId(), null);
+        }
+    }
+
+    @Override
+    public Long getUploadExpirationPeriod() {
+        return storageService.getUploadExpirationPeriod();
+    }
+
+    @Override
+    public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+        storageService.setUploadExpirationPeriod(uploadExpirationPeriod);
+    }
+
+    @Override
+    public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+        storageService.setUploadConcatenationService(concatenationService);
+    }
+
+    @Override
+    public UploadConcatenationService getUploadConcatenationService() {
+        return storageService.getUploadConcatenationService();
+    }
+
+    @Override
+    public void setIdFactory(UploadIdFactory idFactory) {
+        //The ID factory of a request context is fixed for the duration of the request
+    }
+
+    private void deferUpdate(UploadInfo uploadInfo) {
+        if (uploadInfo != null && uploadInfo.getId() != null) {
+            fence(uploadInfo);
+            remember(uploadInfo);
+            pendingUpdates.put(uploadInfo.getId(), uploadInfo);
+        }
+    }
+
+    private void fence(UploadInfo uploadInfo) {
+        if (fencingToken != null && uploadInfo != null && lockedId.equals(uploadInfo.getId())) {
+            uploadInfo.setFencingToken(fencingToken);
+        }
+    }
+
+    private void remember(UploadInfo uploadInfo) {
+        if (uploadInfo != null && uploadInfo.getId() != null) {
+            uploadInfoById.put(uploadInfo.getId(), uploadInfo);
+        }
+    }
+
+    private void written(UploadInfo uploadInfo) {
+        if (uploadInfo != null && uploadInfo.getId() != null) {
+            remember(uploadInfo);
+            //The storage service just saved this exact object, a pending update would only write it again
+            if (pendingUpdates.get(uploadInfo.getId()) == uploadInfo) {
+                pendingUpdates.remove(uploadInfo.getId());
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.ejemplos.tus.server.util;
 
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
@@ -12,16 +13,24 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.UUID;
 import jakarta.servlet.http.HttpServletRequest;
 
 import com.ejemplos.tus.server.HttpHeader;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,8 +41,9 @@ import org.slf4j.LoggerFactory;
 public class Utils {
 
     private static final Logger log = LoggerFactory.getLogger(Utils.class);
-    private static final int LOCK_FILE_RETRY_COUNT = 3;
-    private static final long LOCK_FILE_SLEEP_TIME = 500;
+    private static final long LOCK_FILE_MAX_WAIT_MILLIS = 1000L;
+    private static final LockAcquisitionStrategy FILE_LOCK_STRATEGY =
+            LockAcquisitionStrategy.boundedWait(LOCK_FILE_MAX_WAIT_MILLIS);
 
     private Utils() {
         //This is a utility class that only holds static utility methods
@@ -113,12 +123,87 @@ public class Utils {
         }
     }
 
+    /**
+     * Read all bytes of the given file. Files written with {@link #writeBytes(byte[], Path, boolean)} are always
+     * replaced atomically, so no file lock is needed to get a consistent result.
+     * @param path The file to read
+     * @return The content of the file or null if the path is null
+     * @throws IOException When the file cannot be read
+     */
+    public static byte[] readBytes(Path path) throws IOException {
+        return path == null ? null : Files.readAllBytes(path);
+    }
+
+    /**
+     * Replace the content of the given file with the given bytes. The bytes are first written to a temporary
+     * file in the same directory, after which that file is renamed to the target file. Readers will therefore
+     * either see the complete old or the complete new content.
+     * <p>
+     * When the write must be durable, the temporary file is synced to disk before the rename and the directory is
+     * synced after the rename, so the new content also survives a crash of the operating system.
+     * @param bytes The new content of the file
+     * @param path The file to write
+     * @param durable True to force the new content and the rename to disk before returning
+     * @throws IOException When the file cannot be written
+     */
+    public static void writeBytes(byte[] bytes, Path path, boolean durable) throws IOException {
+        if (path != null) {
+            Path tempFile = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tempFile, WRITE, CREATE_NEW)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (durable) {
+                        channel.force(true);
+                    }
+                }
+                moveAtomically(tempFile, path);
+                if (durable) {
+                    syncDirectory(path.toAbsolutePath().getParent());
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
     public static FileLock lockFileExclusively(FileChannel channel) throws IOException {
-        return lockFile(channel, false);
+        return lockFile(channel, false, FILE_LOCK_STRATEGY);
     }
 
     public static FileLock lockFileShared(FileChannel channel) throws IOException {
-        return lockFile(channel, true);
+        return lockFile(channel, true, FILE_LOCK_STRATEGY);
+    }
+
+    /**
+     * Lock the given file, waiting for the lock according to the given strategy
+     * @param channel The channel of the file to lock
+     * @param shared True for a shared lock, false for an exclusive lock
+     * @param strategy The strategy that determines how long to wait for the lock
+     * @return The lock or null if the lock could not be acquired in time
+     * @throws IOException When locking the file fails
+     */
+    public static FileLock lockFile(FileChannel channel, boolean shared, LockAcquisitionStrategy strategy)
+            throws IOException {
+        return strategy.acquire(() -> tryLockFile(channel, shared));
+    }
+
+    /**
+     * Try to lock the given file without waiting
+     * @param channel The channel of the file to lock
+     * @param shared True for a shared lock, false for an exclusive lock
+     * @return The lock or null if the file is already locked by this or another process
+     * @throws IOException When locking the file fails
+     */
+    public static FileLock tryLockFile(FileChannel channel, boolean shared) throws IOException {
+        try {
+            return channel.tryLock(0L, Long.MAX_VALUE, shared);
+        } catch (OverlappingFileLockException e) {
+            //The file is locked by another thread of this JVM
+            return null;
+        }
     }
 
     /**
@@ -135,20 +220,24 @@ public class Utils {
         }
     }
 
-    private static FileLock lockFile(FileChannel channel, boolean shared) throws IOException {
-        int i = 0;
-        FileLock lock;
-        do {
-            if (i > 0) {
-                sleep(LOCK_FILE_SLEEP_TIME);
+    private static void syncDirectory(Path directory) throws IOException {
+        if (directory != null) {
+            try (FileChannel channel = FileChannel.open(directory, READ)) {
+                channel.force(true);
+            } catch (AccessDeniedException ex) {
+                //Some platforms, like Windows, cannot open a directory as a file
+                log.debug("Unable to sync directory {}", directory, ex);
             }
+        }
+    }
 
-            lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
-
-            i++;
-        } while (lock == null && i < LOCK_FILE_RETRY_COUNT);
-
-        return lock;
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            log.debug("File system does not support atomic moves, falling back to a regular move", ex);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
 }
@@ -1,5 +1,6 @@
 package com.ejemplos.tus.server;
 
+import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
 import com.ejemplos.tus.server.exception.TusException;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.util.Utils;
@@ -17,12 +18,16 @@ import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 
@@ -219,6 +224,12 @@ public class ITTusFileUploadService {
                     is("This is my test upload content"));
         }
 
+        //Get uploaded bytes as buffers from service
+        List<ByteBuffer> buffers = tusFileUploadService.getUploadedBytesAsBuffers(location, OWNER_KEY);
+        assertThat(buffers.size(), is(1));
+        assertThat(buffers.get(0).isReadOnly(), is(true));
+        assertThat(toString(buffers), is("This is my test upload content"));
+
         //Make sure cleanup does not interfere with this test
         tusFileUploadService.cleanup();
 
@@ -748,6 +759,186 @@ public class ITTusFileUploadService {
         assertResponseHeader(HttpHeader.CONTENT_LENGTH, "0");
     }
 
+    @Test
+    void testProcessUploadDigest() throws Exception {
+        tusFileUploadService.withUploadDigest(true);
+        String part1 = "29\r\nThis is the first part of my test upload " +
+                "\r\n0\r\nUPLOAD-CHECKSUM: sha1 n5RQbRwM6UVAD+9iuHEmnN6HCGQ=";
+        String part2 = "1C\r\nand this is the second part." +
+                "\r\n0\r\nupload-checksum: sha1 invalid";
+
+        //Create upload
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, "69");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+        String location = UPLOAD_URI +
+                StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+        //Upload part 1 bytes
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+        servletRequest.setContent(part1.getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "41");
+
+        //Upload part 2 bytes with an invalid checksum, the bytes are removed again
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, "41");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+        servletRequest.setContent(part2.getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(460);
+        assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getUploadDigest(), is(nullValue()));
+
+        //Upload part 2 bytes again
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, "41");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.setContent("and this is the second part.".getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "69");
+
+        //The digest of the complete upload is known without reading it again
+        byte[] expectedDigest = MessageDigest.getInstance("SHA-256").digest(
+                "This is the first part of my test upload and this is the second part.".getBytes());
+        UploadInfo info = tusFileUploadService.getUploadInfo(location, OWNER_KEY);
+        assertThat(info.isUploadInProgress(), is(false));
+        assertThat(info.getUploadDigest(), is(expectedDigest));
+
+        //Download the upload with its digest
+        reset();
+        servletRequest.setMethod("GET");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_OK);
+        assertResponseHeader(HttpHeader.REPR_DIGEST,
+                "sha-256=:" + Base64.getEncoder().encodeToString(expectedDigest) + ":");
+    }
+
+    @Test
+    void testProcessUploadDeferredTrailingChecksum() throws Exception {
+        tusFileUploadService.withDeferredChecksumVerification(true);
+
+        String part1 = "29\r\nThis is the first part of my test upload " +
+                "\r\n0\r\nUpload-Checksum: sha256 k6woSqkBZ537BEaoaGNZJgMfF+pbHBB4jLtnQglt1lI=\r\n\r\n";
+        String part2 = "1C\r\nand this is the second part." +
+                "\r\n0\r\nUpload-Checksum: sha256 invalid\r\n\r\n";
+
+        //Create upload
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, "69");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+        String location = UPLOAD_URI +
+                StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+        //Upload part 1 bytes, the checksum is verified from the stored bytes
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+        servletRequest.addHeader(HttpHeader.TRAILER, "Upload-Checksum");
+        servletRequest.setContent(part1.getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "41");
+
+        //Upload part 2 bytes with an invalid checksum
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, "41");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+        servletRequest.setContent(part2.getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(460);
+
+        //We only stored the first valid part
+        UploadInfo info = tusFileUploadService.getUploadInfo(location, OWNER_KEY);
+        assertThat(info.getOffset(), is(41L));
+        try (InputStream uploadedBytes = tusFileUploadService.getUploadedBytes(location, OWNER_KEY)) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8),
+                    is("This is the first part of my test upload "));
+        }
+    }
+
+    @Test
+    void testProcessUploadNotAllowedChecksumAlgorithm() throws Exception {
+        tusFileUploadService.withChecksumAlgorithms(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA512);
+
+        servletRequest.setMethod("OPTIONS");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseHeader(HttpHeader.TUS_CHECKSUM_ALGORITHM, "sha256,sha512");
+
+        //Create upload
+        reset();
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, "41");
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+        String location = UPLOAD_URI +
+                StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+        //Supported, but not allowed checksum algorithm
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 n5RQbRwM6UVAD+9iuHEmnN6HCGQ=");
+        servletRequest.setContent("This is the first part of my test upload ".getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(), is(0L));
+    }
+
     @Test
     void testCleanupExpiredUpload() throws Exception {
         //Set the expiration period to 500 ms
@@ -1174,6 +1365,27 @@ public class ITTusFileUploadService {
                                     "This is the second part of our concatenated upload. " +
                                     "Finally when sending the third part, the final upload is complete."));
         }
+
+        //Download a range that spans the first two partial uploads
+        reset();
+        servletRequest.setMethod("GET");
+        servletRequest.setRequestURI(locationFinal);
+        servletRequest.addHeader(HttpHeader.RANGE, "bytes=" + (part1.length() - 10) + "-" + (part1.length() + 9));
+
+        tusFileUploadService.process(servletRequest, servletResponse, null);
+        assertResponseStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertResponseHeader(HttpHeader.CONTENT_LENGTH, "20");
+        assertResponseHeader(HttpHeader.CONTENT_RANGE, "bytes " + (part1.length() - 10) + "-" + (part1.length() + 9)
+                + "/" + (part1 + part2 + part3).getBytes().length);
+        assertThat(servletResponse.getContentAsString(),
+                is((part1 + part2).substring(part1.length() - 10, part1.length() + 10)));
+
+        //A concatenated upload returns the buffers of its partial uploads
+        List<ByteBuffer> buffers = tusFileUploadService.getUploadedBytesAsBuffers(locationFinal);
+        assertThat(buffers.size(), is(3));
+        assertThat(toString(buffers), is("When sending this part, the final upload was already created. " +
+                "This is the second part of our concatenated upload. " +
+                "Finally when sending the third part, the final upload is complete."));
     }
 
     @Test
@@ -1373,4 +1585,12 @@ public class ITTusFileUploadService {
         assertThat(servletResponse.getStatus(), is(httpStatus));
     }
 
+    private static String toString(List<ByteBuffer> buffers) {
+        StringBuilder builder = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            builder.append(StandardCharsets.UTF_8.decode(buffer.duplicate()));
+        }
+        return builder.toString();
+    }
+
 }
\ No newline at end of file
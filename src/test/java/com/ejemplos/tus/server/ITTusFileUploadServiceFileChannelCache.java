@@ -0,0 +1,23 @@
+package com.ejemplos.tus.server;
+
+import com.ejemplos.tus.server.upload.disk.FileChannelCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+public class ITTusFileUploadServiceFileChannelCache extends ITTusFileUploadService {
+
+    private FileChannelCache fileChannelCache;
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        tusFileUploadService = tusFileUploadService.withFileChannelCache(16, 60000L);
+        fileChannelCache = tusFileUploadService.getFileChannelCache();
+    }
+
+    @AfterEach
+    public void closeFileChannels() {
+        fileChannelCache.invalidateAll();
+    }
+}
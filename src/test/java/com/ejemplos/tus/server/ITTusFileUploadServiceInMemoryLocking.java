@@ -0,0 +1,14 @@
+package com.ejemplos.tus.server;
+
+import com.ejemplos.tus.server.upload.memory.InMemoryLockingService;
+import org.junit.jupiter.api.BeforeEach;
+
+public class ITTusFileUploadServiceInMemoryLocking extends ITTusFileUploadService {
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        tusFileUploadService = tusFileUploadService.withUploadLockingService(new InMemoryLockingService());
+    }
+}
@@ -0,0 +1,70 @@
+package com.ejemplos.tus.server;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.disk.DiskStorageService;
+import com.ejemplos.tus.server.upload.lease.FileLockStore;
+import com.ejemplos.tus.server.upload.lease.LeaseLockingService;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ITTusFileUploadServiceLeaseLocking extends ITTusFileUploadService {
+
+    private LeaseLockingService lockingService;
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        lockingService = new LeaseLockingService(
+                new FileLockStore(storagePath.toAbsolutePath() + File.separator + "leases"));
+        tusFileUploadService = tusFileUploadService.withUploadLockingService(lockingService);
+    }
+
+    @AfterEach
+    public void closeLockingService() {
+        lockingService.close();
+    }
+
+    @Test
+    void testLostLockFailsRequest() throws Exception {
+        DiskStorageService storageService = spy(new DiskStorageService(storagePath.toAbsolutePath().toString()));
+        tusFileUploadService.withUploadStorageService(storageService);
+        String uploadContent = "This is my test upload content";
+
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, uploadContent.getBytes().length);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        String location = UPLOAD_URI +
+                StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+        //The lock is taken over by another request while the bytes are being stored
+        doThrow(new StaleUploadLockException("Lock lost")).when(storageService).update(any(UploadInfo.class));
+
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.setContent(uploadContent.getBytes());
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+
+        //The client must not be told about an offset that was never saved
+        assertResponseStatus(423);
+        assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(), is(0L));
+    }
+}
@@ -0,0 +1,215 @@
+package com.ejemplos.tus.server;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.ejemplos.tus.server.util.MockNonBlockingServletInputStream;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Runs all upload scenarios with PATCH requests of which the content arrives in small rounds
+ */
+public class ITTusFileUploadServiceNonBlocking extends ITTusFileUploadService {
+
+    private static final int ROUND_SIZE = 5;
+
+    /** Timeout that the emulated servlet container uses when the service does not set one */
+    private static final long CONTAINER_TIMEOUT_MILLIS = 50L;
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        tusFileUploadService = tusFileUploadService.withNonBlockingPatch(true);
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        NonBlockingMockHttpServletRequest request = new NonBlockingMockHttpServletRequest();
+        request.setRemoteAddr("192.168.1.1");
+        request.addHeader(HttpHeader.X_FORWARDED_FOR, "10.0.2.1, 123.231.12.4");
+        request.setAsyncSupported(true);
+        servletRequest = request;
+    }
+
+    @Test
+    void testContentIsStoredAsItArrives() throws Exception {
+        String uploadContent = "This is content that arrives slowly";
+
+        //Create upload
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, uploadContent.getBytes().length);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_CREATED);
+        assertThat(servletRequest.isAsyncStarted(), is(false));
+
+        String location = UPLOAD_URI +
+                StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+        //Upload bytes
+        reset();
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, uploadContent.getBytes().length);
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.setContent(uploadContent.getBytes());
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "" + uploadContent.getBytes().length);
+        assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+
+        MockNonBlockingServletInputStream inputStream =
+                (MockNonBlockingServletInputStream) servletRequest.getInputStream();
+        assertThat(inputStream.getRoundCount(), greaterThan(1));
+        //The request was completed asynchronously and the lock was released
+        assertThat(servletRequest.getAsyncContext(), notNullValue());
+        assertThat(servletRequest.isAsyncStarted(), is(false));
+        assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(),
+                is((long) uploadContent.getBytes().length));
+
+        try (InputStream uploadedBytes = tusFileUploadService.getUploadedBytes(location, OWNER_KEY)) {
+            assertThat(new String(uploadedBytes.readAllBytes(), StandardCharsets.UTF_8), is(uploadContent));
+        }
+    }
+
+    @Test
+    void testSlowContentOutlivesContainerTimeout() throws Exception {
+        String uploadContent = "This is content that arrives slower than the container timeout";
+        String location = createUpload(uploadContent.getBytes().length);
+
+        //Upload bytes, every round of content takes a while to arrive
+        reset();
+        preparePatch(location, uploadContent);
+        ((NonBlockingMockHttpServletRequest) servletRequest).setRoundDelayMillis(10L);
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+
+        //The default timeout is longer than the timeout of the container
+        assertThat(servletRequest.getAsyncContext().getTimeout(), is(TusFileUploadService.DEFAULT_ASYNC_TIMEOUT));
+        assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "" + uploadContent.getBytes().length);
+        assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(),
+                is((long) uploadContent.getBytes().length));
+    }
+
+    @Test
+    void testConfiguredAsyncTimeout() throws Exception {
+        tusFileUploadService.withAsyncTimeout(30L);
+        String uploadContent = "This is content that arrives slower than the configured timeout";
+        String location = createUpload(uploadContent.getBytes().length);
+
+        reset();
+        preparePatch(location, uploadContent);
+        ((NonBlockingMockHttpServletRequest) servletRequest).setRoundDelayMillis(10L);
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+
+        //The bytes that arrived before the timeout are kept and the upload is no longer locked
+        assertThat(servletRequest.getAsyncContext().getTimeout(), is(30L));
+        assertThat(servletRequest.isAsyncStarted(), is(false));
+        assertResponseStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        long offset = tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset();
+        assertThat(offset, greaterThan(0L));
+        assertThat(offset, lessThan((long) uploadContent.getBytes().length));
+    }
+
+    private String createUpload(int length) throws Exception {
+        servletRequest.setMethod("POST");
+        servletRequest.setRequestURI(UPLOAD_URI);
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, length);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+        assertResponseStatus(HttpServletResponse.SC_CREATED);
+        return UPLOAD_URI + StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+    }
+
+    private void preparePatch(String location, String uploadContent) {
+        servletRequest.setMethod("PATCH");
+        servletRequest.setRequestURI(location);
+        servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, uploadContent.getBytes().length);
+        servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        servletRequest.setContent(uploadContent.getBytes());
+    }
+
+    private static class NonBlockingMockHttpServletRequest extends MockHttpServletRequest {
+
+        private MockNonBlockingServletInputStream inputStream;
+        private long roundDelayMillis = 0L;
+        private long asyncStartTime;
+
+        void setRoundDelayMillis(long roundDelayMillis) {
+            this.roundDelayMillis = roundDelayMillis;
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            AsyncContext asyncContext = super.startAsync(request, response);
+            asyncContext.setTimeout(CONTAINER_TIMEOUT_MILLIS);
+            asyncStartTime = System.nanoTime();
+            return asyncContext;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            if (inputStream == null) {
+                inputStream = new MockNonBlockingServletInputStream(getContentAsByteArray(), ROUND_SIZE);
+                if (roundDelayMillis > 0) {
+                    inputStream.setBeforeRound(this::waitForRound);
+                }
+            }
+            return inputStream;
+        }
+
+        private void waitForRound() {
+            try {
+                Thread.sleep(roundDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            //Like a servlet container, notify the listeners once the request exceeds its timeout
+            MockAsyncContext asyncContext = (MockAsyncContext) getAsyncContext();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - asyncStartTime);
+            if (isAsyncStarted() && asyncContext.getTimeout() > 0 && elapsedMillis > asyncContext.getTimeout()) {
+                for (AsyncListener listener : asyncContext.getListeners()) {
+                    try {
+                        listener.onTimeout(new AsyncEvent(asyncContext));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ejemplos.tus.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+public class ITTusFileUploadServicePipelinedChecksum extends ITTusFileUploadService {
+
+    private ExecutorService checksumExecutor;
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        checksumExecutor = Executors.newFixedThreadPool(2);
+        tusFileUploadService = tusFileUploadService.withChecksumExecutor(checksumExecutor);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        checksumExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,14 @@
+package com.ejemplos.tus.server;
+
+import com.ejemplos.tus.server.upload.disk.PreallocationMode;
+import org.junit.jupiter.api.BeforeEach;
+
+public class ITTusFileUploadServicePreallocation extends ITTusFileUploadService {
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        tusFileUploadService = tusFileUploadService.withPreallocationMode(PreallocationMode.SPARSE);
+    }
+}
@@ -0,0 +1,41 @@
+package com.ejemplos.tus.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import com.ejemplos.tus.server.upload.cache.UploadInfoCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ITTusFileUploadServiceSharedCache extends ITTusFileUploadService {
+
+    private UploadInfoCache uploadInfoCache;
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        uploadInfoCache = new UploadInfoCache(100, 60000L);
+        tusFileUploadService = tusFileUploadService.withUploadInfoCache(uploadInfoCache);
+    }
+
+    @Test
+    void testCacheIsUsed() throws Exception {
+        testProcessCompleteUpload();
+
+        assertThat(uploadInfoCache.getHitCount(), greaterThan(0L));
+        assertThat(uploadInfoCache.getMissCount(), greaterThan(0L));
+    }
+
+    @Test
+    void testCacheCanBeDisabled() throws Exception {
+        tusFileUploadService.withUploadInfoCache(null);
+
+        testProcessCompleteUpload();
+
+        assertThat(uploadInfoCache.getHitCount(), is(0L));
+        assertThat(uploadInfoCache.getMissCount(), is(0L));
+        assertThat(uploadInfoCache.size(), is(0));
+    }
+}
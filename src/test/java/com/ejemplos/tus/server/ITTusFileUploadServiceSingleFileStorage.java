@@ -0,0 +1,15 @@
+package com.ejemplos.tus.server;
+
+import com.ejemplos.tus.server.upload.disk.SingleFileStorageService;
+import org.junit.jupiter.api.BeforeEach;
+
+public class ITTusFileUploadServiceSingleFileStorage extends ITTusFileUploadService {
+
+    @Override
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        tusFileUploadService = tusFileUploadService.withUploadStorageService(
+                new SingleFileStorageService(storagePath.toAbsolutePath().toString()));
+    }
+}
@@ -0,0 +1,334 @@
+package com.ejemplos.tus.server;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Processes uploads on virtual threads. By default {@value #DEFAULT_IN_FLIGHT_UPLOADS} uploads are in flight at the
+ * same time, which can be changed with the system property {@value #IN_FLIGHT_UPLOADS_PROPERTY}. Every in-flight
+ * upload keeps two files open (the upload lock and the data file), so fewer uploads are started when the limit on
+ * open files of the process is too low.
+ */
+public class ITTusFileUploadServiceVirtualThreads {
+
+    private static final Logger log = LoggerFactory.getLogger(ITTusFileUploadServiceVirtualThreads.class);
+
+    private static final String IN_FLIGHT_UPLOADS_PROPERTY = "tus.test.inFlightUploads";
+    private static final int DEFAULT_IN_FLIGHT_UPLOADS = 10_000;
+    private static final int RESERVED_FILE_DESCRIPTORS = 512;
+    private static final String UPLOAD_URI = "/test/upload";
+    private static final String OWNER_KEY = "JOHN_DOE";
+    private static final String UPLOAD_CONTENT = "This is the content of an upload on a virtual thread";
+
+    private static Path storagePath;
+
+    private TusFileUploadService tusFileUploadService;
+
+    @BeforeAll
+    public static void setupDataFolder() throws IOException {
+        storagePath = Paths.get("target", "tus", "virtual-threads").toAbsolutePath();
+        Files.createDirectories(storagePath);
+    }
+
+    @AfterAll
+    public static void destroyDataFolder() throws IOException {
+        FileUtils.deleteDirectory(storagePath.toFile());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        tusFileUploadService = new TusFileUploadService()
+                .withUploadURI(UPLOAD_URI)
+                .withStoragePath(storagePath.toString())
+                .withAppendBufferPool(16, 4096);
+    }
+
+    @Test
+    void testProcessWithExecutor() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            MockHttpServletRequest request = createRequest();
+            String location = createUpload(executor, request, response);
+            assertThat(request.isAsyncStarted(), is(false));
+
+            response = new MockHttpServletResponse();
+            request = createPatchRequest(location, new DelegatingServletInputStream(toInputStream(UPLOAD_CONTENT)));
+            tusFileUploadService.process(request, response, OWNER_KEY, executor).get(10, TimeUnit.SECONDS);
+
+            assertThat(response.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+            assertThat(response.getHeader(HttpHeader.UPLOAD_OFFSET), is("" + UPLOAD_CONTENT.length()));
+            assertThat(request.isAsyncStarted(), is(false));
+        }
+    }
+
+    @Test
+    void testProcessWithoutAsyncSupport() throws Exception {
+        MockHttpServletRequest request = createRequest();
+        request.setAsyncSupported(false);
+        request.setMethod("OPTIONS");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        CompletableFuture<Void> future = tusFileUploadService.process(request, response, OWNER_KEY,
+                command -> {
+                    throw new IllegalStateException("The request should be processed synchronously");
+                });
+
+        assertThat(future.isDone(), is(true));
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    }
+
+    @Test
+    void testRejectedExecution() throws Exception {
+        MockHttpServletRequest request = createRequest();
+        request.setMethod("OPTIONS");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        CompletableFuture<Void> future = tusFileUploadService.process(request, response, OWNER_KEY,
+                command -> {
+                    throw new RejectedExecutionException("The executor is shut down");
+                });
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> future.get(10, TimeUnit.SECONDS));
+        assertThat(exception.getCause() instanceof RejectedExecutionException, is(true));
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        assertThat(request.isAsyncStarted(), is(false));
+    }
+
+    @Test
+    void testTimeoutBeforeProcessing() throws Exception {
+        tusFileUploadService.withAsyncTimeout(30);
+        MockHttpServletRequest request = createRequest();
+        request.setMethod("OPTIONS");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        List<Runnable> queue = new ArrayList<>();
+
+        CompletableFuture<Void> future = tusFileUploadService.process(request, response, OWNER_KEY, queue::add);
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        assertThat(asyncContext.getTimeout(), is(30L));
+        fireTimeout(asyncContext);
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> future.get(10, TimeUnit.SECONDS));
+        assertThat(exception.getCause() instanceof TimeoutException, is(true));
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        assertThat(request.isAsyncStarted(), is(false));
+
+        //The queued task does not touch the recycled request anymore
+        queue.forEach(Runnable::run);
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        assertThat(response.getHeader(HttpHeader.TUS_VERSION), is(nullValue()));
+    }
+
+    @Test
+    void testTimeoutInterruptsWorker() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            String location = createUpload(executor, createRequest(), new MockHttpServletResponse());
+
+            CountDownLatch isReading = new CountDownLatch(1);
+            CountDownLatch isInterrupted = new CountDownLatch(1);
+            InputStream stalledContent = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    isReading.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                        return -1;
+                    } catch (InterruptedException e) {
+                        isInterrupted.countDown();
+                        throw new InterruptedIOException("The client did not send its content in time");
+                    }
+                }
+            };
+            MockHttpServletRequest request = createPatchRequest(location,
+                    new DelegatingServletInputStream(stalledContent));
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            CompletableFuture<Void> future = tusFileUploadService.process(request, response, OWNER_KEY, executor);
+            assertThat(isReading.await(10, TimeUnit.SECONDS), is(true));
+            fireTimeout((MockAsyncContext) request.getAsyncContext());
+
+            ExecutionException exception = assertThrows(ExecutionException.class,
+                    () -> future.get(10, TimeUnit.SECONDS));
+            assertThat(exception.getCause() instanceof TimeoutException, is(true));
+            assertThat(isInterrupted.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(response.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        }
+    }
+
+    @Test
+    void testConcurrentInFlightUploads() throws Exception {
+        int uploadCount = getInFlightUploadCount();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<String> locations = new ArrayList<>();
+            for (int i = 0; i < uploadCount; i++) {
+                locations.add(createUpload(executor, createRequest(), new MockHttpServletResponse()));
+            }
+
+            //None of the uploads receives its content before all of them are being processed
+            CountDownLatch allInFlight = new CountDownLatch(uploadCount);
+            List<MockHttpServletResponse> responses = new ArrayList<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+            long start = System.nanoTime();
+            for (String location : locations) {
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                responses.add(response);
+                MockHttpServletRequest request = createPatchRequest(location,
+                        new DelegatingServletInputStream(new SlowClientInputStream(allInFlight)));
+                futures.add(tusFileUploadService.process(request, response, OWNER_KEY, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.MINUTES);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            log.info("Processed {} concurrent in-flight uploads on virtual threads in {} ms", uploadCount,
+                    elapsedMillis);
+            assertThat(allInFlight.getCount(), is(0L));
+            for (MockHttpServletResponse response : responses) {
+                assertThat(response.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+                assertThat(response.getHeader(HttpHeader.UPLOAD_OFFSET), is("" + UPLOAD_CONTENT.length()));
+            }
+        }
+    }
+
+    private static int getInFlightUploadCount() {
+        int uploadCount = Integer.getInteger(IN_FLIGHT_UPLOADS_PROPERTY, DEFAULT_IN_FLIGHT_UPLOADS);
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean os) {
+            long available = os.getMaxFileDescriptorCount() - os.getOpenFileDescriptorCount()
+                    - RESERVED_FILE_DESCRIPTORS;
+            if (available < 2L * uploadCount) {
+                log.warn("Only {} file descriptors are available, so {} instead of {} uploads are in flight",
+                        available, available / 2, uploadCount);
+                uploadCount = (int) (available / 2);
+            }
+        }
+        return uploadCount;
+    }
+
+    private String createUpload(ExecutorService executor, MockHttpServletRequest request,
+                                MockHttpServletResponse response) throws Exception {
+        request.setMethod("POST");
+        request.setRequestURI(UPLOAD_URI);
+        request.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+        request.addHeader(HttpHeader.UPLOAD_LENGTH, UPLOAD_CONTENT.length());
+        request.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+        tusFileUploadService.process(request, response, OWNER_KEY, executor).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_CREATED));
+
+        return UPLOAD_URI + StringUtils.substringAfter(response.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+    }
+
+    private MockHttpServletRequest createPatchRequest(String location, ServletInputStream inputStream) {
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public ServletInputStream getInputStream() {
+                return inputStream;
+            }
+        };
+        request.setAsyncSupported(true);
+        request.setMethod("PATCH");
+        request.setRequestURI(location);
+        request.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+        request.addHeader(HttpHeader.CONTENT_LENGTH, UPLOAD_CONTENT.length());
+        request.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+        request.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+        return request;
+    }
+
+    private MockHttpServletRequest createRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    private static void fireTimeout(MockAsyncContext asyncContext) throws IOException {
+        //What the servlet container does when the timeout of the request expires
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+    }
+
+    private static InputStream toInputStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Content of a client that only starts sending once all uploads are in flight
+     */
+    private static class SlowClientInputStream extends InputStream {
+
+        private final CountDownLatch allInFlight;
+        private final InputStream content = toInputStream(UPLOAD_CONTENT);
+        private boolean isWaiting = true;
+
+        SlowClientInputStream(CountDownLatch allInFlight) {
+            this.allInFlight = allInFlight;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 0 ? read : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isWaiting) {
+                isWaiting = false;
+                allInFlight.countDown();
+                try {
+                    if (!allInFlight.await(4, TimeUnit.MINUTES)) {
+                        throw new IOException("Not all uploads were in flight at the same time");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            return content.read(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.ejemplos.tus.server;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.util.TusServletRequest;
+import com.ejemplos.tus.server.util.TusServletResponse;
+import com.ejemplos.tus.server.util.UploadRequestContext;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class NonBlockingPatchListenerTest {
+
+    private static final String UPLOAD_URI = "/upload/test/1234";
+
+    @Mock
+    private TusFileUploadService uploadService;
+
+    @Mock
+    private TusServletRequest request;
+
+    @Mock
+    private TusServletResponse response;
+
+    @Mock
+    private UploadLock uploadLock;
+
+    @Mock
+    private AsyncContext asyncContext;
+
+    @Mock
+    private UploadRequestContext requestContext;
+
+    private BurstInputStream content;
+    private UploadInfo uploadInfo;
+    private List<Integer> appendedLengths;
+    private NonBlockingPatchListener listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        uploadInfo = new UploadInfo();
+        uploadInfo.setLength(10L * NonBlockingPatchListener.APPEND_THRESHOLD);
+        content = new BurstInputStream();
+        appendedLengths = new ArrayList<>();
+
+        when(request.getRequestURI()).thenReturn(UPLOAD_URI);
+        when(request.getRequestContext()).thenReturn(requestContext);
+        when(request.getContentInputStream()).thenReturn(content);
+        when(requestContext.getUploadInfo(UPLOAD_URI, null)).thenReturn(uploadInfo);
+        when(requestContext.append(any(UploadInfo.class), any(InputStream.class))).thenAnswer(invocation -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ((InputStream) invocation.getArgument(1)).transferTo(bytes);
+            appendedLengths.add(bytes.size());
+            return uploadInfo;
+        });
+
+        listener = new NonBlockingPatchListener(uploadService, HttpMethod.PATCH, request, response, null,
+                uploadLock, asyncContext);
+    }
+
+    @Test
+    void smallBurstsAreAppendedTogether() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            content.arrive(100);
+            listener.onDataAvailable();
+        }
+        verify(requestContext, never()).append(any(UploadInfo.class), any(InputStream.class));
+
+        listener.onAllDataRead();
+
+        assertThat(appendedLengths, is(List.of(1000)));
+        verify(uploadService, times(1)).processLockedFeatures(HttpMethod.PATCH, request, response, null);
+        verify(uploadService, times(1)).finishLockedRequest(request, uploadLock);
+        verify(asyncContext, times(1)).complete();
+    }
+
+    @Test
+    void fullBufferIsAppendedImmediately() throws Exception {
+        content.arrive(NonBlockingPatchListener.APPEND_THRESHOLD + 10);
+        listener.onDataAvailable();
+
+        assertThat(appendedLengths, is(List.of(NonBlockingPatchListener.APPEND_THRESHOLD)));
+
+        listener.onAllDataRead();
+        assertThat(appendedLengths, is(List.of(NonBlockingPatchListener.APPEND_THRESHOLD, 10)));
+    }
+
+    @Test
+    void receivedBytesAreKeptOnTimeout() throws Exception {
+        content.arrive(300);
+        listener.onDataAvailable();
+
+        listener.onTimeout(new AsyncEvent(asyncContext));
+
+        assertThat(appendedLengths, is(List.of(300)));
+        verify(response, times(1)).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(uploadService, times(1)).finishLockedRequest(request, uploadLock);
+        verify(asyncContext, times(1)).complete();
+
+        //Callbacks after the request was finished are ignored
+        content.arrive(100);
+        listener.onDataAvailable();
+        listener.onAllDataRead();
+        assertThat(appendedLengths, is(List.of(300)));
+    }
+
+    /**
+     * Stream that returns the bytes of the bursts that arrived so far and then reports the end of the input, like
+     * the content stream of a non-blocking request
+     */
+    private static class BurstInputStream extends InputStream {
+
+        private int available = 0;
+
+        void arrive(int count) {
+            available += count;
+        }
+
+        @Override
+        public int read() {
+            if (available == 0) {
+                return -1;
+            }
+            available--;
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (available == 0) {
+                return -1;
+            }
+            int read = Math.min(len, available);
+            available -= read;
+            return read;
+        }
+    }
+}
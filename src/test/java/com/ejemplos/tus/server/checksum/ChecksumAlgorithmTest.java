@@ -1,5 +1,11 @@
 package com.ejemplos.tus.server.checksum;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -12,6 +18,37 @@ class ChecksumAlgorithmTest {
         assertNotNull(ChecksumAlgorithm.SHA256.getMessageDigest());
         assertNotNull(ChecksumAlgorithm.SHA384.getMessageDigest());
         assertNotNull(ChecksumAlgorithm.SHA512.getMessageDigest());
+        assertNotNull(ChecksumAlgorithm.CRC32.getMessageDigest());
+        assertNotNull(ChecksumAlgorithm.CRC32C.getMessageDigest());
+    }
+
+    @Test
+    void getChecksumMessageDigest() throws Exception {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+        MessageDigest crc32 = ChecksumAlgorithm.CRC32.getMessageDigest();
+        assertEquals(4, crc32.getDigestLength());
+        assertArrayEquals(new byte[] {(byte) 0xCB, (byte) 0xF4, 0x39, 0x26}, crc32.digest(check));
+
+        //Direct buffers and single bytes are checksummed as well, the checksum is reset after each digest
+        MessageDigest crc32c = ChecksumAlgorithm.CRC32C.getMessageDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(check.length - 1);
+        buffer.put(check, 0, check.length - 1).flip();
+        crc32c.update(buffer);
+        crc32c.update(check[check.length - 1]);
+        assertArrayEquals(new byte[] {(byte) 0xE3, 0x06, (byte) 0x92, (byte) 0x83}, crc32c.digest());
+        assertArrayEquals(new byte[] {(byte) 0xE3, 0x06, (byte) 0x92, (byte) 0x83}, crc32c.digest(check));
+    }
+
+    @Test
+    void getDefaultAlgorithms() throws Exception {
+        Set<ChecksumAlgorithm> algorithms = ChecksumAlgorithm.getDefaultAlgorithms();
+
+        assertEquals(EnumSet.of(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA1, ChecksumAlgorithm.SHA256,
+                ChecksumAlgorithm.SHA384, ChecksumAlgorithm.SHA512), algorithms);
+        //Every call returns a new set
+        algorithms.clear();
+        assertEquals(5, ChecksumAlgorithm.getDefaultAlgorithms().size());
     }
 
     @Test
@@ -21,6 +58,8 @@ class ChecksumAlgorithmTest {
         assertEquals(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.forTusName("sha256"));
         assertEquals(ChecksumAlgorithm.SHA384, ChecksumAlgorithm.forTusName("sha384"));
         assertEquals(ChecksumAlgorithm.SHA512, ChecksumAlgorithm.forTusName("sha512"));
+        assertEquals(ChecksumAlgorithm.CRC32, ChecksumAlgorithm.forTusName("crc32"));
+        assertEquals(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.forTusName("crc32c"));
         assertNull(ChecksumAlgorithm.forTusName("test"));
     }
 
@@ -31,6 +70,7 @@ class ChecksumAlgorithmTest {
         assertEquals(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.forUploadChecksumHeader("sha256 1234567890"));
         assertEquals(ChecksumAlgorithm.SHA384, ChecksumAlgorithm.forUploadChecksumHeader("sha384 1234567890"));
         assertEquals(ChecksumAlgorithm.SHA512, ChecksumAlgorithm.forUploadChecksumHeader("sha512 1234567890"));
+        assertEquals(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.forUploadChecksumHeader("crc32c 1234567890"));
         assertNull(ChecksumAlgorithm.forUploadChecksumHeader("test 1234567890"));
     }
 
@@ -41,5 +81,7 @@ class ChecksumAlgorithmTest {
         assertEquals("sha256", ChecksumAlgorithm.SHA256.toString());
         assertEquals("sha384", ChecksumAlgorithm.SHA384.toString());
         assertEquals("sha512", ChecksumAlgorithm.SHA512.toString());
+        assertEquals("crc32", ChecksumAlgorithm.CRC32.toString());
+        assertEquals("crc32c", ChecksumAlgorithm.CRC32C.toString());
     }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 
 import java.util.Arrays;
+import java.util.EnumSet;
 
 import com.ejemplos.tus.server.util.TusServletRequest;
 import com.ejemplos.tus.server.util.TusServletResponse;
@@ -45,6 +46,17 @@ class ChecksumOptionsRequestHandlerTest {
                 containsInAnyOrder("md5", "sha1", "sha256", "sha384", "sha512"));
     }
 
+    @Test
+    void processListAllowedAlgorithms() throws Exception {
+        TusServletRequest tusServletRequest = new TusServletRequest(servletRequest);
+        tusServletRequest.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA512));
+
+        handler.process(HttpMethod.OPTIONS, tusServletRequest, new TusServletResponse(servletResponse), null, null);
+
+        assertThat(Arrays.asList(servletResponse.getHeader(HttpHeader.TUS_CHECKSUM_ALGORITHM).split(",")),
+                containsInAnyOrder("sha256", "sha512"));
+    }
+
     @Test
     void supports() throws Exception {
         MatcherAssert.assertThat(handler.supports(HttpMethod.GET), is(false));
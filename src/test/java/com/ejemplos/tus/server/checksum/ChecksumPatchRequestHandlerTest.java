@@ -4,12 +4,18 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
 import com.ejemplos.tus.server.exception.ChecksumAlgorithmNotSupportedException;
 import com.ejemplos.tus.server.exception.UploadChecksumMismatchException;
 import com.ejemplos.tus.server.upload.UploadInfo;
@@ -47,6 +53,7 @@ class ChecksumPatchRequestHandlerTest {
         info.setOffset(2L);
         info.setLength(10L);
         when(uploadStorageService.getUploadInfo(nullable(String.class), nullable(String.class))).thenReturn(info);
+        when(servletRequest.getChecksumAlgorithms()).thenReturn(EnumSet.allOf(ChecksumAlgorithm.class));
     }
 
     @Test
@@ -103,4 +110,44 @@ class ChecksumPatchRequestHandlerTest {
             handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    void testNotAllowedAlgorithm() {
+        assertThrows(ChecksumAlgorithmNotSupportedException.class, () -> {
+            when(servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM)).thenReturn("sha1 1234567890");
+            when(servletRequest.getChecksumAlgorithms()).thenReturn(EnumSet.of(ChecksumAlgorithm.SHA256));
+            when(servletRequest.hasCalculatedChecksum()).thenReturn(true);
+
+            handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
+        });
+    }
+
+    @Test
+    void testDeferredChecksum() throws Exception {
+        when(servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM)).thenReturn("sha1 2iNhTgJGmg18e9G9q1ycR0sZBNw=");
+        when(servletRequest.isChecksumVerificationDeferred()).thenReturn(true);
+        when(servletRequest.getBytesRead()).thenReturn(2L);
+        doAnswer(invocation -> {
+            invocation.getArgument(3, OutputStream.class).write("ab".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(uploadStorageService).copyUploadTo(any(UploadInfo.class), eq(0L), eq(2L), any(OutputStream.class));
+
+        handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
+
+        //The checksum is calculated over the two bytes that were stored by this request
+        verify(uploadStorageService, times(1))
+                .copyUploadTo(any(UploadInfo.class), eq(0L), eq(2L), any(OutputStream.class));
+        verify(servletRequest, never()).getCalculatedChecksum(any(ChecksumAlgorithm.class));
+    }
+
+    @Test
+    void testDeferredInvalidChecksum() {
+        assertThrows(UploadChecksumMismatchException.class, () -> {
+            when(servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM)).thenReturn("sha1 1234567890");
+            when(servletRequest.isChecksumVerificationDeferred()).thenReturn(true);
+            when(servletRequest.getBytesRead()).thenReturn(2L);
+
+            handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
+        });
+    }
+}
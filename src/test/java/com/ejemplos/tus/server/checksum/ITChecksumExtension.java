@@ -1,10 +1,15 @@
 package com.ejemplos.tus.server.checksum;
 
+import java.util.EnumSet;
+
 import com.ejemplos.tus.server.AbstractTusExtensionIntegrationTest;
 import com.ejemplos.tus.server.HttpHeader;
 import com.ejemplos.tus.server.HttpMethod;
 import com.ejemplos.tus.server.exception.ChecksumAlgorithmNotSupportedException;
 import com.ejemplos.tus.server.exception.UploadChecksumMismatchException;
+import com.ejemplos.tus.server.util.TusServletRequest;
+import com.ejemplos.tus.server.util.TusServletResponse;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -78,6 +83,41 @@ class ITChecksumExtension extends AbstractTusExtensionIntegrationTest {
         verify(servletRequest, atLeastOnce()).getHeader(HttpHeader.UPLOAD_CHECKSUM);
     }
 
+    @Test
+    void testValidCrcChecksumTrailerHeader() throws Exception {
+        String content = "8\r\n" +
+                "Mozilla \r\n" +
+                "A\r\n" +
+                "Developer \r\n" +
+                "7\r\n" +
+                "Network\r\n" +
+                "0\r\n" +
+                "Upload-Checksum: crc32c 9OSNEg==\r\n" +
+                "\r\n";
+
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+        servletRequest.setContent(content.getBytes());
+
+        //The CRC checksums are only calculated for a trailer when they are allowed explicitly
+        TusServletRequest tusServletRequest = new TusServletRequest(servletRequest, true);
+        tusServletRequest.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.CRC32C));
+        IOUtils.toByteArray(tusServletRequest.getContentInputStream());
+
+        tusFeature.process(HttpMethod.PATCH, tusServletRequest, new TusServletResponse(servletResponse),
+                uploadStorageService, null);
+    }
+
+    @Test
+    void testCrcChecksumNotAllowedByDefault() {
+        String content = "Mozilla Developer Network";
+        assertThrows(ChecksumAlgorithmNotSupportedException.class, () -> {
+            servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "crc32 9OSNEg==");
+            servletRequest.setContent(content.getBytes());
+
+            executeCall(HttpMethod.PATCH, true);
+        });
+    }
+
     @Test
     void testInvalidChecksumTrailerHeader() {
         String content = "8\r\n" +
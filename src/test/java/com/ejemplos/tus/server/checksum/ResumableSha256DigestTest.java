@@ -0,0 +1,79 @@
+package com.ejemplos.tus.server.checksum;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ResumableSha256DigestTest {
+
+    @Test
+    void digestMatchesJdkImplementation() throws Exception {
+        Random random = new Random(25L);
+        for (int length : new int[] {0, 1, 55, 56, 63, 64, 65, 119, 120, 128, 1000, 100_000}) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes),
+                    new ResumableSha256Digest().digest(bytes), "Length " + length);
+        }
+    }
+
+    @Test
+    void digestOfSingleBytesAndSplitUpdates() throws Exception {
+        byte[] bytes = new byte[300];
+        new Random(7L).nextBytes(bytes);
+        ResumableSha256Digest digest = new ResumableSha256Digest();
+
+        digest.update(bytes, 0, 3);
+        for (int i = 3; i < 70; i++) {
+            digest.update(bytes[i]);
+        }
+        digest.update(bytes, 70, 130);
+        digest.update(bytes, 200, 100);
+
+        assertEquals(300L, digest.getByteCount());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), digest.digest());
+        //The digest is reset afterwards
+        assertEquals(0L, digest.getByteCount());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(), digest.digest());
+    }
+
+    @Test
+    void continueFromExportedState() throws Exception {
+        byte[] bytes = new byte[10_000];
+        new Random(11L).nextBytes(bytes);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(bytes);
+
+        for (int split : new int[] {0, 1, 64, 100, 9_999, 10_000}) {
+            ResumableSha256Digest first = new ResumableSha256Digest();
+            first.update(bytes, 0, split);
+            byte[] state = first.getState();
+
+            assertTrue(state.length <= ResumableSha256Digest.MAX_STATE_LENGTH);
+            assertEquals(split, ResumableSha256Digest.getByteCount(state));
+
+            ResumableSha256Digest second = ResumableSha256Digest.fromState(state);
+            second.update(bytes, split, bytes.length - split);
+            assertArrayEquals(expected, second.digest(), "Split " + split);
+        }
+    }
+
+    @Test
+    void invalidState() {
+        ResumableSha256Digest digest = new ResumableSha256Digest();
+        digest.update(new byte[10]);
+        byte[] state = digest.getState();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ResumableSha256Digest.fromState(Arrays.copyOf(state, state.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> ResumableSha256Digest.getByteCount(new byte[3]));
+        assertThrows(IllegalArgumentException.class, () -> ResumableSha256Digest.getByteCount(null));
+    }
+}
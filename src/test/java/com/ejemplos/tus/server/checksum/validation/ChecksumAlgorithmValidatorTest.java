@@ -8,8 +8,12 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.EnumSet;
+
+import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
 import com.ejemplos.tus.server.exception.ChecksumAlgorithmNotSupportedException;
 import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.util.TusServletRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -75,4 +79,24 @@ class ChecksumAlgorithmValidatorTest {
         });
     }
 
-}
\ No newline at end of file
+    @Test
+    void testNotAllowedAlgorithm() {
+        servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 1234567890");
+        TusServletRequest tusServletRequest = new TusServletRequest(servletRequest);
+        tusServletRequest.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA512));
+
+        assertThrows(ChecksumAlgorithmNotSupportedException.class, () ->
+                validator.validate(HttpMethod.PATCH, tusServletRequest, uploadStorageService, null));
+    }
+
+    @Test
+    void testAllowedAlgorithm() throws Exception {
+        servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha256 1234567890");
+        TusServletRequest tusServletRequest = new TusServletRequest(servletRequest);
+        tusServletRequest.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA512));
+
+        validator.validate(HttpMethod.PATCH, tusServletRequest, uploadStorageService, null);
+
+        verify(servletRequest, times(1)).getHeader(HttpHeader.UPLOAD_CHECKSUM);
+    }
+}
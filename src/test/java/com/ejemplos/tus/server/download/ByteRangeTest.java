@@ -0,0 +1,50 @@
+package com.ejemplos.tus.server.download;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangeTest {
+
+    @Test
+    void parseClosedRange() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100L);
+
+        assertThat(range.isSatisfiable(), is(true));
+        assertThat(range.getStart(), is(10L));
+        assertThat(range.getEnd(), is(19L));
+        assertThat(range.getLength(), is(10L));
+        assertThat(range.toContentRange(100L), is("bytes 10-19/100"));
+    }
+
+    @Test
+    void parseOpenAndSuffixRanges() {
+        assertThat(ByteRange.parse("bytes=90-", 100L).toContentRange(100L), is("bytes 90-99/100"));
+        assertThat(ByteRange.parse("bytes=-30", 100L).toContentRange(100L), is("bytes 70-99/100"));
+        assertThat(ByteRange.parse("bytes=-300", 100L).toContentRange(100L), is("bytes 0-99/100"));
+        //The last position is limited to the end of the upload
+        assertThat(ByteRange.parse("Bytes= 50-500", 100L).toContentRange(100L), is("bytes 50-99/100"));
+    }
+
+    @Test
+    void parseUnsatisfiableRanges() {
+        assertThat(ByteRange.parse("bytes=100-", 100L).isSatisfiable(), is(false));
+        assertThat(ByteRange.parse("bytes=-0", 100L).isSatisfiable(), is(false));
+        assertThat(ByteRange.parse("bytes=0-10", 0L).isSatisfiable(), is(false));
+        assertThat(ByteRange.parse("bytes=200-300", 100L).toContentRange(100L), is("bytes */100"));
+    }
+
+    @Test
+    void ignoreInvalidRanges() {
+        assertThat(ByteRange.parse(null, 100L), is(nullValue()));
+        assertThat(ByteRange.parse("items=0-10", 100L), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=10", 100L), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=20-10", 100L), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=a-10", 100L), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=99999999999999999999-", 100L), is(nullValue()));
+        //Multiple ranges are not supported, the complete upload is sent instead
+        assertThat(ByteRange.parse("bytes=0-10,20-30", 100L), is(nullValue()));
+    }
+}
@@ -1,9 +1,13 @@
 package com.ejemplos.tus.server.download;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -11,10 +15,17 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.UUID;
 
 import jakarta.servlet.http.HttpServletResponse;
 
+import com.ejemplos.tus.server.checksum.ResumableSha256Digest;
 import com.ejemplos.tus.server.exception.UploadInProgressException;
 import com.ejemplos.tus.server.util.TusServletRequest;
 import com.ejemplos.tus.server.util.TusServletResponse;
@@ -28,6 +39,7 @@ import org.springframework.mock.web.MockHttpServletResponse;
 
 import com.ejemplos.tus.server.HttpHeader;
 import com.ejemplos.tus.server.HttpMethod;
+import com.ejemplos.tus.server.upload.FileRegion;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadStorageService;
@@ -120,6 +132,208 @@ class DownloadGetRequestHandlerTest {
                 assertThat(servletResponse.getHeader(HttpHeader.CONTENT_TYPE), is("application/octet-stream"));
         }
 
+        @Test
+        void testWithContainerSendFileSupport() throws Exception {
+                UploadInfo info = new UploadInfo();
+                info.setId(new UploadId(UUID.randomUUID()));
+                info.setOffset(10L);
+                info.setLength(10L);
+                Path dataPath = Paths.get("uploads", "data").toAbsolutePath();
+                when(uploadStorageService.getUploadInfo(nullable(String.class), nullable(String.class)))
+                                .thenReturn(info);
+                when(uploadStorageService.getUploadedFileRegions(info))
+                                .thenReturn(Collections.singletonList(new FileRegion(dataPath, 64L, 10L)));
+                servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE);
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                //The container sends the file, so the bytes are not copied
+                verify(uploadStorageService, never()).copyUploadTo(any(UploadInfo.class), any(OutputStream.class));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+                                is(dataPath.toString()));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_START_ATTRIBUTE), is(64L));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_END_ATTRIBUTE), is(74L));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_OK));
+                assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("10"));
+        }
+
+        @Test
+        void testWithContainerSendFileSupportAndMultipleRegions() throws Exception {
+                UploadInfo info = new UploadInfo();
+                info.setId(new UploadId(UUID.randomUUID()));
+                info.setOffset(10L);
+                info.setLength(10L);
+                when(uploadStorageService.getUploadInfo(nullable(String.class), nullable(String.class)))
+                                .thenReturn(info);
+                when(uploadStorageService.getUploadedFileRegions(info)).thenReturn(Arrays.asList(
+                                new FileRegion(Paths.get("part1").toAbsolutePath(), 0L, 4L),
+                                new FileRegion(Paths.get("part2").toAbsolutePath(), 0L, 6L)));
+                servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE);
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                //A concatenated upload is copied, as the container can only send one file region
+                verify(uploadStorageService, times(1))
+                                .copyUploadTo(any(UploadInfo.class), any(OutputStream.class));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+                                is(nullValue()));
+        }
+
+        @Test
+        void testRangeRequest() throws Exception {
+                UploadInfo info = createCompletedUpload(100L);
+                servletRequest.addHeader(HttpHeader.RANGE, "bytes=10-29");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                verify(uploadStorageService, times(1)).copyUploadTo(eq(info), eq(10L), eq(20L),
+                                any(OutputStream.class));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+                assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("20"));
+                assertThat(servletResponse.getHeader(HttpHeader.CONTENT_RANGE), is("bytes 10-29/100"));
+                assertThat(servletResponse.getHeader(HttpHeader.ACCEPT_RANGES), is("bytes"));
+        }
+
+        @Test
+        void testUnsatisfiableRangeRequest() throws Exception {
+                createCompletedUpload(100L);
+                servletRequest.addHeader(HttpHeader.RANGE, "bytes=100-");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                verify(uploadStorageService, never()).copyUploadTo(any(UploadInfo.class), any(OutputStream.class));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE));
+                assertThat(servletResponse.getHeader(HttpHeader.CONTENT_RANGE), is("bytes */100"));
+        }
+
+        @Test
+        void testRangeRequestWithOutdatedIfRange() throws Exception {
+                createCompletedUpload(100L);
+                servletRequest.addHeader(HttpHeader.RANGE, "bytes=10-29");
+                servletRequest.addHeader(HttpHeader.IF_RANGE, "\"outdated\"");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                //The upload changed since the client received the first part, so the complete upload is sent
+                verify(uploadStorageService, times(1))
+                                .copyUploadTo(any(UploadInfo.class), any(OutputStream.class));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_OK));
+                assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("100"));
+        }
+
+        @Test
+        void testConditionalRequests() throws Exception {
+                UploadInfo info = createCompletedUpload(100L);
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+                String entityTag = servletResponse.getHeader(HttpHeader.ETAG);
+                assertThat(entityTag.startsWith("\"" + info.getId()), is(true));
+                assertThat(servletResponse.getDateHeader(HttpHeader.LAST_MODIFIED) / 1000,
+                                is(info.getCreationTimestamp() / 1000));
+
+                //A matching entity tag results in 304 Not Modified
+                servletRequest = new MockHttpServletRequest();
+                servletRequest.addHeader(HttpHeader.IF_NONE_MATCH, "\"other\", W/" + entityTag);
+                servletResponse = new MockHttpServletResponse();
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NOT_MODIFIED));
+
+                //So does a modification date that is not older than the upload
+                servletRequest = new MockHttpServletRequest();
+                servletRequest.addHeader(HttpHeader.IF_MODIFIED_SINCE, info.getCreationTimestamp() + 1000L);
+                servletResponse = new MockHttpServletResponse();
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NOT_MODIFIED));
+
+                //The bytes were only copied for the first request
+                verify(uploadStorageService, times(1))
+                                .copyUploadTo(any(UploadInfo.class), any(OutputStream.class));
+        }
+
+        @Test
+        void testRangeRequestWithContainerSendFileSupport() throws Exception {
+                UploadInfo info = createCompletedUpload(10L);
+                Path part2Path = Paths.get("part2").toAbsolutePath();
+                when(uploadStorageService.getUploadedFileRegions(info)).thenReturn(Arrays.asList(
+                                new FileRegion(Paths.get("part1").toAbsolutePath(), 0L, 4L),
+                                new FileRegion(part2Path, 64L, 6L)));
+                servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE);
+                servletRequest.addHeader(HttpHeader.RANGE, "bytes=5-");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                //The range lies within the second partial upload, which the container can send by itself
+                verify(uploadStorageService, never()).copyUploadTo(any(UploadInfo.class), anyLong(), anyLong(),
+                                any(OutputStream.class));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+                                is(part2Path.toString()));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_START_ATTRIBUTE), is(65L));
+                assertThat(servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_END_ATTRIBUTE), is(70L));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+        }
+
+        @Test
+        void testDigestHeaders() throws Exception {
+                UploadInfo info = createCompletedUpload(100L);
+                ResumableSha256Digest digest = new ResumableSha256Digest();
+                digest.update(new byte[100]);
+                info.setDigestState(digest.getState());
+                servletRequest.addHeader(HttpHeader.RANGE, "bytes=10-29");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                //The digest describes the complete upload, also when only a range is sent
+                String expected = Base64.getEncoder().encodeToString(
+                                MessageDigest.getInstance("SHA-256").digest(new byte[100]));
+                assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+                assertThat(servletResponse.getHeader(HttpHeader.REPR_DIGEST), is("sha-256=:" + expected + ":"));
+                assertThat(servletResponse.getHeader(HttpHeader.DIGEST), is(nullValue()));
+
+                servletResponse = new MockHttpServletResponse();
+                servletRequest.addHeader(HttpHeader.WANT_DIGEST, "md5;q=0.3, SHA-256;q=0.7");
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                assertThat(servletResponse.getHeader(HttpHeader.DIGEST), is("SHA-256=" + expected));
+        }
+
+        @Test
+        void testDigestHeadersWithoutDigest() throws Exception {
+                createCompletedUpload(100L);
+                servletRequest.addHeader(HttpHeader.WANT_DIGEST, "sha-256");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                assertThat(servletResponse.getHeader(HttpHeader.REPR_DIGEST), is(nullValue()));
+                assertThat(servletResponse.getHeader(HttpHeader.DIGEST), is(nullValue()));
+        }
+
+        @Test
+        void testDigestHeadersWithUnwantedDigest() throws Exception {
+                UploadInfo info = createCompletedUpload(100L);
+                ResumableSha256Digest digest = new ResumableSha256Digest();
+                digest.update(new byte[100]);
+                info.setDigestState(digest.getState());
+                servletRequest.addHeader(HttpHeader.WANT_DIGEST, "sha-256;q=0, md5");
+
+                handler.process(HttpMethod.GET, new TusServletRequest(servletRequest),
+                                new TusServletResponse(servletResponse), uploadStorageService, null);
+
+                assertThat(servletResponse.getHeader(HttpHeader.REPR_DIGEST), is(notNullValue()));
+                assertThat(servletResponse.getHeader(HttpHeader.DIGEST), is(nullValue()));
+        }
+
         @Test
         void testWithInProgressUpload() {
                 assertThrows(UploadInProgressException.class, () -> {
@@ -155,4 +369,13 @@ class DownloadGetRequestHandlerTest {
                 });
         }
 
-}
\ No newline at end of file
+        private UploadInfo createCompletedUpload(long length) throws Exception {
+                UploadInfo info = new UploadInfo();
+                info.setId(new UploadId(UUID.randomUUID()));
+                info.setOffset(length);
+                info.setLength(length);
+                when(uploadStorageService.getUploadInfo(nullable(String.class), nullable(String.class)))
+                                .thenReturn(info);
+                return info;
+        }
+}
@@ -0,0 +1,77 @@
+package com.ejemplos.tus.server.upload;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class LockAcquisitionStrategyTest {
+
+    @Test
+    void acquireUncontended() throws Exception {
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(1000L);
+
+        assertThat(strategy.acquire(() -> "lock"), is("lock"));
+
+        assertThat(strategy.getAcquiredCount(), is(1L));
+        assertThat(strategy.getContendedCount(), is(0L));
+        assertThat(strategy.getTotalWaitMillis(), is(0L));
+    }
+
+    @Test
+    void acquireWithBackoff() throws Exception {
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(1000L);
+        AtomicInteger attempts = new AtomicInteger();
+
+        //The lock is released after the fourth attempt
+        String lock = strategy.acquire(() -> attempts.incrementAndGet() < 5 ? null : "lock");
+
+        assertThat(lock, is("lock"));
+        assertThat(attempts.get(), is(5));
+        assertThat(strategy.getAcquiredCount(), is(1L));
+        assertThat(strategy.getContendedCount(), is(1L));
+        assertThat(strategy.getTimeoutCount(), is(0L));
+        //1 + 2 + 4 + 8 milliseconds of backoff, instead of a fixed sleep
+        assertThat(strategy.getLongestWaitMillis(), greaterThanOrEqualTo(15L));
+        assertThat(strategy.getLongestWaitMillis(), lessThan(500L));
+    }
+
+    @Test
+    void acquireTimeout() throws Exception {
+        LockAcquisitionStrategy strategy = new LockAcquisitionStrategy(50L, 5L, 10L);
+
+        assertThat(strategy.acquire(() -> null), is(nullValue()));
+
+        assertThat(strategy.getAcquiredCount(), is(0L));
+        assertThat(strategy.getContendedCount(), is(1L));
+        assertThat(strategy.getTimeoutCount(), is(1L));
+        assertThat(strategy.getTotalWaitMillis(), greaterThanOrEqualTo(50L));
+    }
+
+    @Test
+    void failFastNeverWaits() throws Exception {
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.failFast();
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThat(strategy.acquire(() -> {
+            attempts.incrementAndGet();
+            return null;
+        }), is(nullValue()));
+
+        assertThat(attempts.get(), is(1));
+        assertThat(strategy.getTimeoutCount(), is(1L));
+    }
+
+    @Test
+    void invalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new LockAcquisitionStrategy(-1L, 1L, 1L));
+        assertThrows(IllegalArgumentException.class, () -> new LockAcquisitionStrategy(10L, 0L, 1L));
+        assertThrows(IllegalArgumentException.class, () -> new LockAcquisitionStrategy(10L, 5L, 1L));
+    }
+}
@@ -4,6 +4,11 @@ import com.ejemplos.tus.server.util.Utils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -118,4 +123,15 @@ class TimeBasedUploadIdFactoryTest {
         assertThat(Long.parseLong(id.getOriginalObject().toString()),
                 lessThan(System.currentTimeMillis()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void createIdIsUniqueWithinSameMillisecond() throws Exception {
+        Set<UploadId> ids = ConcurrentHashMap.newKeySet();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 1000; i++) {
+                executor.execute(() -> ids.add(idFactory.createId()));
+            }
+        }
+        assertThat(ids, hasSize(1000));
+    }
+}
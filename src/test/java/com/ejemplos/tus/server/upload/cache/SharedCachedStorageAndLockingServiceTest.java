@@ -0,0 +1,202 @@
+package com.ejemplos.tus.server.upload.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.upload.UUIDUploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import com.ejemplos.tus.server.upload.disk.DiskStorageService;
+import com.ejemplos.tus.server.util.UploadRequestContext;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class SharedCachedStorageAndLockingServiceTest {
+
+    private static final String UPLOAD_URI = "/upload/test";
+
+    @Mock
+    private UploadStorageService storageService;
+
+    @Mock
+    private UploadLockingService lockingService;
+
+    @Mock
+    private UploadLock uploadLock;
+
+    private UploadInfoCache cache;
+    private SharedCachedStorageAndLockingService service;
+    private UploadInfo info;
+    private String uploadUrl;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        UploadIdFactory idFactory = new UUIDUploadIdFactory();
+        idFactory.setUploadURI(UPLOAD_URI);
+
+        info = new UploadInfo();
+        info.setId(new UploadId(UUID.randomUUID()));
+        info.setOwnerKey("John");
+        info.setLength(10L);
+        uploadUrl = UPLOAD_URI + "/" + info.getId();
+
+        when(storageService.getUploadInfo(info.getId())).thenAnswer(invocation -> new UploadInfo(info));
+        when(lockingService.lockUploadByUri(uploadUrl)).thenReturn(uploadLock);
+
+        cache = new UploadInfoCache(10, 60000L);
+        service = new SharedCachedStorageAndLockingService(cache, storageService, lockingService);
+        service.setIdFactory(idFactory);
+    }
+
+    @Test
+    public void repeatedLookupsAreServedFromCache() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            try (UploadLock lock = service.lockUploadByUri(uploadUrl)) {
+                assertThat(service.getUploadInfo(uploadUrl, "John").getLength(), is(10L));
+            }
+        }
+
+        verify(storageService, times(1)).getUploadInfo(info.getId());
+        assertThat(cache.getHitCount(), is(4L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void otherOwnerDoesNotSeeUpload() throws Exception {
+        assertThat(service.getUploadInfo(uploadUrl, "John").getLength(), is(10L));
+        assertThat(service.getUploadInfo(uploadUrl, "Jane"), is(nullValue()));
+    }
+
+    @Test
+    public void updateInvalidatesCache() throws Exception {
+        UploadInfo uploadInfo = service.getUploadInfo(info.getId());
+        uploadInfo.setOffset(3L);
+        service.update(uploadInfo);
+        info.setOffset(3L);
+
+        assertThat(service.getUploadInfo(info.getId()).getOffset(), is(3L));
+        verify(storageService, times(2)).getUploadInfo(info.getId());
+    }
+
+    @Test
+    public void terminateInvalidatesCache() throws Exception {
+        UploadInfo uploadInfo = service.getUploadInfo(info.getId());
+        service.terminateUpload(uploadInfo);
+        when(storageService.getUploadInfo(info.getId())).thenReturn(null);
+
+        assertThat(service.getUploadInfo(info.getId()), is(nullValue()));
+    }
+
+    @Test
+    public void lockReleaseInvalidatesModifiedUpload() throws Exception {
+        try (UploadLock lock = service.lockUploadByUri(uploadUrl)) {
+            UploadInfo uploadInfo = service.getUploadInfo(info.getId());
+            service.update(uploadInfo);
+            //Read again while still holding the lock
+            service.getUploadInfo(info.getId());
+            assertThat(cache.size(), is(1));
+        }
+
+        assertThat(cache.size(), is(0));
+        verify(uploadLock, times(1)).close();
+    }
+
+    @Test
+    public void invalidateOnLockAcquire() throws Exception {
+        cache.setInvalidateOnLockAcquire(true);
+
+        for (int i = 0; i < 3; i++) {
+            try (UploadLock lock = service.lockUploadByUri(uploadUrl)) {
+                service.getUploadInfo(uploadUrl, "John");
+                service.getUploadInfo(uploadUrl, "John");
+            }
+        }
+
+        verify(storageService, times(3)).getUploadInfo(info.getId());
+    }
+
+    @Test
+    public void cachesAreNotStacked() throws Exception {
+        SharedCachedStorageAndLockingService service2 =
+                new SharedCachedStorageAndLockingService(cache, service, service);
+        service2.setIdFactory(new UUIDUploadIdFactory());
+
+        service2.getUploadInfo(info.getId());
+        service2.getUploadInfo(info.getId());
+
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void staleWriterIsFencedThroughCachedLocks() throws Exception {
+        UploadIdFactory idFactory = new UUIDUploadIdFactory();
+        idFactory.setUploadURI(UPLOAD_URI);
+        Path storagePath = Paths.get("target", "tus", "cached-" + UUID.randomUUID()).toAbsolutePath();
+        DiskStorageService diskStorageService = new DiskStorageService(idFactory, storagePath.toString());
+        service = new SharedCachedStorageAndLockingService(cache, diskStorageService, lockingService);
+        service.setIdFactory(idFactory);
+
+        UploadInfo created = new UploadInfo();
+        created.setLength(50L);
+        created = service.create(created, "John");
+        String url = UPLOAD_URI + "/" + created.getId();
+
+        //The lock of the first request expires and is acquired by a second request with a bigger token
+        UploadLock staleLock = mock(UploadLock.class);
+        when(staleLock.getFencingToken()).thenReturn(5L);
+        UploadLock currentLock = mock(UploadLock.class);
+        when(currentLock.getFencingToken()).thenReturn(10L);
+        when(lockingService.lockUploadByUri(url)).thenReturn(staleLock, currentLock);
+
+        try (UploadLock lock = service.lockUploadByUri(url)) {
+            assertThat(lock.getFencingToken(), is(5L));
+            UploadRequestContext staleContext = new UploadRequestContext(service, idFactory);
+            staleContext.setFencingToken(created.getId(), lock.getFencingToken());
+            UploadInfo staleInfo = staleContext.getUploadInfo(created.getId());
+
+            try (UploadLock otherLock = service.lockUploadByUri(url)) {
+                assertThat(otherLock.getFencingToken(), is(10L));
+                UploadRequestContext currentContext = new UploadRequestContext(service, idFactory);
+                currentContext.setFencingToken(created.getId(), otherLock.getFencingToken());
+                currentContext.append(currentContext.getUploadInfo(created.getId()),
+                        IOUtils.toInputStream("Current content", StandardCharsets.UTF_8));
+                currentContext.flush();
+            }
+
+            assertThrows(StaleUploadLockException.class, () -> staleContext.append(staleInfo,
+                    IOUtils.toInputStream("Stale content", StandardCharsets.UTF_8)));
+        } finally {
+            try (InputStream uploadedBytes = diskStorageService.getUploadedBytes(created.getId())) {
+                assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is("Current content"));
+            }
+            FileUtils.deleteDirectory(storagePath.toFile());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.ejemplos.tus.server.upload.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.when;
+
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("deprecation")
+class ThreadLocalCachedStorageAndLockingServiceTest {
+
+    private static final String UPLOAD_URL = "/upload/test/1234";
+
+    @Mock
+    private UploadStorageService storageService;
+
+    @Mock
+    private UploadLockingService lockingService;
+
+    @Mock
+    private UploadLock uploadLock;
+
+    @Test
+    void lockKeepsFencingTokenOfDelegate() throws Exception {
+        when(lockingService.lockUploadByUri(UPLOAD_URL)).thenReturn(uploadLock);
+        when(uploadLock.getFencingToken()).thenReturn(42L);
+        ThreadLocalCachedStorageAndLockingService service =
+                new ThreadLocalCachedStorageAndLockingService(storageService, lockingService);
+
+        try (UploadLock lock = service.lockUploadByUri(UPLOAD_URL)) {
+            assertThat(lock.getFencingToken(), is(42L));
+        }
+    }
+}
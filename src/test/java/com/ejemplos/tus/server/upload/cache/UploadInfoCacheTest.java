@@ -0,0 +1,125 @@
+package com.ejemplos.tus.server.upload.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.UUID;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class UploadInfoCacheTest {
+
+    private long now;
+    private UploadInfoCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        now = 1000L;
+        cache = new TestUploadInfoCache(2, 100L);
+    }
+
+    @Test
+    public void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new UploadInfoCache(0, 100L));
+        assertThrows(IllegalArgumentException.class, () -> new UploadInfoCache(10, 0L));
+    }
+
+    @Test
+    public void getReturnsCopy() {
+        UploadInfo info = createUploadInfo();
+        cache.put(info);
+        info.setOffset(5L);
+
+        UploadInfo cached = cache.get(info.getId());
+        assertThat(cached, not(sameInstance(info)));
+        assertThat(cached.getOffset(), is(0L));
+
+        cached.setOffset(8L);
+        assertThat(cache.get(info.getId()).getOffset(), is(0L));
+
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(0L));
+    }
+
+    @Test
+    public void getMiss() {
+        assertThat(cache.get(new UploadId(UUID.randomUUID())), is(nullValue()));
+        assertThat(cache.get(null), is(nullValue()));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        UploadInfo info1 = createUploadInfo();
+        UploadInfo info2 = createUploadInfo();
+        UploadInfo info3 = createUploadInfo();
+
+        cache.put(info1);
+        cache.put(info2);
+        //Make info 1 the most recently used entry
+        cache.get(info1.getId());
+        cache.put(info3);
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(info2.getId()), is(nullValue()));
+        assertThat(cache.get(info1.getId()).getId(), is(info1.getId()));
+        assertThat(cache.get(info3.getId()).getId(), is(info3.getId()));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void expiredEntriesAreEvicted() {
+        UploadInfo info = createUploadInfo();
+        cache.put(info);
+
+        now += 99L;
+        assertThat(cache.get(info.getId()), is(not(nullValue())));
+
+        now += 1L;
+        assertThat(cache.get(info.getId()), is(nullValue()));
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void invalidate() {
+        UploadInfo info1 = createUploadInfo();
+        UploadInfo info2 = createUploadInfo();
+        cache.put(info1);
+        cache.put(info2);
+
+        cache.invalidate(info1.getId());
+        assertThat(cache.get(info1.getId()), is(nullValue()));
+        assertThat(cache.size(), is(1));
+
+        cache.invalidateAll();
+        assertThat(cache.size(), is(0));
+    }
+
+    private UploadInfo createUploadInfo() {
+        UploadInfo info = new UploadInfo();
+        info.setId(new UploadId(UUID.randomUUID()));
+        info.setLength(10L);
+        return info;
+    }
+
+    private class TestUploadInfoCache extends UploadInfoCache {
+
+        TestUploadInfoCache(int maxSize, long timeToLiveMillis) {
+            super(maxSize, timeToLiveMillis);
+        }
+
+        @Override
+        long currentTime() {
+            return now;
+        }
+    }
+}
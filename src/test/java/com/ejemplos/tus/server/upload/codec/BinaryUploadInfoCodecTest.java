@@ -0,0 +1,197 @@
+package com.ejemplos.tus.server.upload.codec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BinaryUploadInfoCodecTest {
+
+    private BinaryUploadInfoCodec codec;
+
+    @BeforeEach
+    public void setUp() {
+        codec = new BinaryUploadInfoCodec();
+    }
+
+    @Test
+    public void encodeAndDecode() throws Exception {
+        UploadInfo info = createUploadInfo();
+
+        UploadInfo decoded = codec.decode(codec.encode(info));
+
+        assertThat(decoded.getId(), is(info.getId()));
+        assertThat(decoded.getOffset(), is(10L));
+        assertThat(decoded.getLength(), is(100L));
+        assertThat(decoded.getCreationTimestamp(), is(info.getCreationTimestamp()));
+        assertThat(decoded.getExpirationTimestamp(), is(info.getExpirationTimestamp()));
+        assertThat(decoded.getOwnerKey(), is("John"));
+        assertThat(decoded.getEncodedMetadata(), is("filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg=="));
+        assertThat(decoded.getCreatorIpAddresses(), is("10.11.12.13, 192.168.1.1"));
+        assertThat(decoded.getUploadType(), is(UploadType.CONCATENATED));
+        assertThat(decoded.getUploadConcatHeaderValue(), is("final; 1234 5678"));
+        assertThat(decoded.getConcatenationPartIds(), contains("1234", "5678"));
+    }
+
+    @Test
+    public void encodeAndDecodeEmptyUploadInfo() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setOffset(null);
+        info.setCreationTimestamp(null);
+
+        UploadInfo decoded = codec.decode(codec.encode(info));
+
+        assertThat(decoded.getId(), is(nullValue()));
+        assertThat(decoded.getOffset(), is(nullValue()));
+        assertThat(decoded.getLength(), is(nullValue()));
+        assertThat(decoded.getCreationTimestamp(), is(nullValue()));
+        assertThat(decoded.getExpirationTimestamp(), is(nullValue()));
+        assertThat(decoded.getOwnerKey(), is(nullValue()));
+        assertThat(decoded.getEncodedMetadata(), is(nullValue()));
+        assertThat(decoded.getCreatorIpAddresses(), is(nullValue()));
+        assertThat(decoded.getUploadType(), is(nullValue()));
+        assertThat(decoded.getUploadConcatHeaderValue(), is(nullValue()));
+        assertThat(decoded.getConcatenationPartIds(), is(nullValue()));
+    }
+
+    @Test
+    public void encodeAndDecodeIdTypes() throws Exception {
+        assertRoundTrip(new UploadId(UUID.randomUUID()));
+        assertRoundTrip(new UploadId(1546152320043L));
+        assertRoundTrip(new UploadId("my-custom-id"));
+        assertRoundTrip(new UploadId(42));
+        assertRoundTrip(new UploadId(new BigInteger("123456789012345678901234567890")));
+    }
+
+    @Test
+    public void encodeAndDecodeDigestState() throws Exception {
+        UploadInfo info = createUploadInfo();
+        info.setDigestState(new byte[] {1, 2, 3});
+        info.setPreviousDigestState(new byte[] {4, 5});
+
+        UploadInfo decoded = codec.decode(codec.encode(info));
+
+        assertThat(decoded.getDigestState(), is(new byte[] {1, 2, 3}));
+        assertThat(decoded.getPreviousDigestState(), is(new byte[] {4, 5}));
+        assertThat(decoded.getConcatenationPartIds(), contains("1234", "5678"));
+    }
+
+    @Test
+    public void decodeVersion1() throws Exception {
+        //Version 1 ends after the concatenation part IDs, without the two digest states and the fencing token
+        byte[] bytes = codec.encode(createUploadInfo());
+        byte[] version1 = Arrays.copyOf(bytes, bytes.length - 2 * Integer.BYTES - Long.BYTES);
+        version1[4] = 1;
+
+        UploadInfo decoded = codec.decode(version1);
+
+        assertThat(decoded.getOwnerKey(), is("John"));
+        assertThat(decoded.getConcatenationPartIds(), contains("1234", "5678"));
+        assertThat(decoded.getDigestState(), is(nullValue()));
+        assertThat(decoded.getPreviousDigestState(), is(nullValue()));
+    }
+
+    @Test
+    public void encodeAndDecodeFencingToken() throws Exception {
+        UploadInfo info = createUploadInfo();
+        byte[] withoutToken = codec.encode(info);
+        info.setFencingToken(42L);
+        byte[] withToken = codec.encode(info);
+
+        assertThat(codec.decode(withoutToken).getFencingToken(), is(nullValue()));
+        assertThat(codec.decode(withToken).getFencingToken(), is(42L));
+        assertThat(withToken.length, is(withoutToken.length));
+    }
+
+    @Test
+    public void decodeVersion2() throws Exception {
+        //Version 2 ends after the digest states, without the fencing token
+        UploadInfo info = createUploadInfo();
+        info.setFencingToken(42L);
+        byte[] bytes = codec.encode(info);
+        byte[] version2 = Arrays.copyOf(bytes, bytes.length - Long.BYTES);
+        version2[4] = 2;
+
+        UploadInfo decoded = codec.decode(version2);
+
+        assertThat(decoded.getOwnerKey(), is("John"));
+        assertThat(decoded.getFencingToken(), is(nullValue()));
+    }
+
+    @Test
+    public void decodeLegacySerializedUploadInfo() throws Exception {
+        UploadInfo info = createUploadInfo();
+
+        byte[] legacyBytes = new SerializableUploadInfoCodec().encode(info);
+        UploadInfo decoded = codec.decode(legacyBytes);
+
+        assertThat(decoded.getId(), is(info.getId()));
+        assertThat(decoded.getOffset(), is(10L));
+        assertThat(decoded.getOwnerKey(), is("John"));
+        assertThat(decoded.getConcatenationPartIds(), contains("1234", "5678"));
+    }
+
+    @Test
+    public void binaryFormatIsSmallerThanSerialization() throws Exception {
+        UploadInfo info = createUploadInfo();
+
+        assertThat(codec.encode(info).length, lessThan(new SerializableUploadInfoCodec().encode(info).length));
+    }
+
+    @Test
+    public void decodeInvalidMagic() {
+        byte[] bytes = new byte[BinaryUploadInfoCodec.HEADER_SIZE + 8];
+        assertThrows(IOException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeUnsupportedVersion() throws Exception {
+        byte[] bytes = codec.encode(createUploadInfo());
+        bytes[4] = (byte) (BinaryUploadInfoCodec.VERSION + 1);
+        assertThrows(IOException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeTruncated() throws Exception {
+        byte[] bytes = codec.encode(createUploadInfo());
+        assertThrows(IOException.class, () -> codec.decode(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+
+    private void assertRoundTrip(UploadId id) throws IOException {
+        UploadInfo info = new UploadInfo();
+        info.setId(id);
+
+        UploadInfo decoded = codec.decode(codec.encode(info));
+
+        assertThat(decoded.getId(), is(id));
+        assertThat(decoded.getId().getOriginalObject(), is(id.getOriginalObject()));
+    }
+
+    private UploadInfo createUploadInfo() {
+        UploadInfo info = new UploadInfo();
+        info.setId(new UploadId(UUID.randomUUID()));
+        info.setOffset(10L);
+        info.setLength(100L);
+        info.updateExpiration(1000L);
+        info.setOwnerKey("John");
+        info.setEncodedMetadata("filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==");
+        info.setCreatorIpAddresses("10.11.12.13, 192.168.1.1");
+        info.setUploadType(UploadType.CONCATENATED);
+        info.setUploadConcatHeaderValue("final; 1234 5678");
+        info.setConcatenationPartIds(Arrays.asList("1234", "5678"));
+        return info;
+    }
+}
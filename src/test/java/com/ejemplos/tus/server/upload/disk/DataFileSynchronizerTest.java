@@ -0,0 +1,108 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DataFileSynchronizerTest {
+
+    private long now;
+    private FileChannel file;
+    private UploadId id;
+
+    @BeforeEach
+    public void setUp() {
+        now = 1000L;
+        file = mock(FileChannel.class);
+        id = new UploadId(UUID.randomUUID());
+    }
+
+    @Test
+    public void always() throws Exception {
+        DataFileSynchronizer synchronizer = new DataFileSynchronizer(DurabilityPolicy.ALWAYS);
+        synchronizer.sync(id, file, false);
+        synchronizer.sync(id, file, true);
+
+        verify(file, times(2)).force(true);
+        assertThat(synchronizer.getSyncCount(), is(2L));
+        assertThat(synchronizer.getSkippedSyncCount(), is(0L));
+    }
+
+    @Test
+    public void dataOnly() throws Exception {
+        DataFileSynchronizer synchronizer = new DataFileSynchronizer(DurabilityPolicy.DATA_ONLY);
+        synchronizer.sync(id, file, false);
+
+        verify(file, times(1)).force(false);
+        verify(file, never()).force(true);
+        assertThat(synchronizer.getSyncCount(), is(1L));
+    }
+
+    @Test
+    public void onCompletion() throws Exception {
+        DataFileSynchronizer synchronizer = new DataFileSynchronizer(DurabilityPolicy.ON_COMPLETION);
+        synchronizer.sync(id, file, false);
+        synchronizer.sync(id, file, false);
+        verify(file, never()).force(true);
+
+        synchronizer.sync(id, file, true);
+        verify(file, times(1)).force(true);
+        assertThat(synchronizer.getSyncCount(), is(1L));
+        assertThat(synchronizer.getSkippedSyncCount(), is(2L));
+    }
+
+    @Test
+    public void interval() throws Exception {
+        DataFileSynchronizer synchronizer = new TestDataFileSynchronizer(DurabilityPolicy.INTERVAL, 100L);
+
+        synchronizer.sync(id, file, false);
+        now += 50L;
+        synchronizer.sync(id, file, false);
+        verify(file, never()).force(true);
+
+        now += 50L;
+        synchronizer.sync(id, file, false);
+        verify(file, times(1)).force(true);
+
+        now += 10L;
+        synchronizer.sync(id, file, false);
+        verify(file, times(1)).force(true);
+
+        //Completing the upload always syncs
+        synchronizer.sync(id, file, true);
+        verify(file, times(2)).force(true);
+
+        assertThat(synchronizer.getSyncCount(), is(2L));
+        assertThat(synchronizer.getSkippedSyncCount(), is(3L));
+    }
+
+    @Test
+    public void intervalRequired() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DataFileSynchronizer(DurabilityPolicy.INTERVAL, 0L));
+        assertThrows(NullPointerException.class, () -> new DataFileSynchronizer((DurabilityPolicy) null));
+    }
+
+    private class TestDataFileSynchronizer extends DataFileSynchronizer {
+
+        TestDataFileSynchronizer(DurabilityPolicy policy, long syncIntervalMillis) {
+            super(policy, syncIntervalMillis);
+        }
+
+        @Override
+        long currentTime() {
+            return now;
+        }
+    }
+}
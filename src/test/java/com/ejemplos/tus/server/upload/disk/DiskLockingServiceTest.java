@@ -22,6 +22,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -109,6 +110,29 @@ public class DiskLockingServiceTest {
         assertThat(uploadLock, nullValue());
     }
 
+    @Test
+    public void hashedStorageLayout() throws Exception {
+        lockingService.setStorageLayout(StorageLayout.hashed());
+        Path locksPath = storagePath.resolve("locks");
+        String id = UUID.randomUUID().toString();
+
+        try (UploadLock ignored = lockingService.lockUploadByUri("/upload/test/" + id)) {
+            assertTrue(Files.exists(StorageLayout.hashed().resolve(locksPath, id)));
+            assertThat(lockingService.isLocked(new UploadId(id)), is(true));
+        }
+        assertThat(lockingService.isLocked(new UploadId(id)), is(false));
+
+        String staleLock = UUID.randomUUID().toString();
+        Path staleLockPath = StorageLayout.hashed().resolve(locksPath, staleLock);
+        Files.createDirectories(staleLockPath.getParent());
+        Files.createFile(staleLockPath);
+        Files.setLastModifiedTime(staleLockPath, FileTime.fromMillis(System.currentTimeMillis() - 20000));
+
+        lockingService.cleanupStaleLocks();
+
+        assertFalse(Files.exists(staleLockPath));
+    }
+
     @Test
     public void cleanupStaleLocks() throws Exception {
         Path locksPath = storagePath.resolve("locks");
@@ -142,4 +166,38 @@ public class DiskLockingServiceTest {
         uploadLock.release();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void fencingTokensContinueFromFenceFile() throws Exception {
+        Path locksPath = storagePath.resolve("locks");
+        String id = UUID.randomUUID().toString();
+
+        long fencingToken;
+        try (UploadLock uploadLock = lockingService.lockUploadByUri("/upload/test/" + id)) {
+            fencingToken = uploadLock.getFencingToken();
+        }
+        assertTrue(Files.exists(locksPath.resolve(DiskLockingService.FENCE_FILE)));
+
+        //Another node that shares the storage path continues from the same fence
+        DiskLockingService otherNode = new DiskLockingService(idFactory, storagePath.toString());
+        try (UploadLock uploadLock = otherNode.lockUploadByUri("/upload/test/" + UUID.randomUUID())) {
+            assertTrue(uploadLock.getFencingToken() > fencingToken);
+        }
+    }
+
+    @Test
+    public void cleanupKeepsFenceFile() throws Exception {
+        Path locksPath = storagePath.resolve("locks");
+        String id = UUID.randomUUID().toString();
+        lockingService.lockUploadByUri("/upload/test/" + id).release();
+        Path fencePath = locksPath.resolve(DiskLockingService.FENCE_FILE);
+        Files.setLastModifiedTime(fencePath, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+        lockingService.cleanupStaleLocks();
+
+        assertTrue(Files.exists(fencePath));
+        //No fence is kept per upload
+        try (Stream<Path> files = Files.list(locksPath)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(id)));
+        }
+    }
+}
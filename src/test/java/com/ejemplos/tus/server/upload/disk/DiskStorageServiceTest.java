@@ -1,11 +1,17 @@
 package com.ejemplos.tus.server.upload.disk;
 
+import com.ejemplos.tus.server.checksum.ResumableSha256Digest;
 import com.ejemplos.tus.server.exception.InvalidUploadOffsetException;
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.exception.UploadInProgressException;
 import com.ejemplos.tus.server.exception.UploadNotFoundException;
+import com.ejemplos.tus.server.upload.FileRegion;
 import com.ejemplos.tus.server.upload.UploadId;
 import com.ejemplos.tus.server.upload.UploadIdFactory;
 import com.ejemplos.tus.server.upload.UploadInfo;
 import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.upload.codec.BinaryUploadInfoCodec;
+import com.ejemplos.tus.server.util.ByteBufferPool;
 import com.ejemplos.tus.server.util.Utils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -23,14 +29,21 @@ import org.mockito.stubbing.Answer;
 import org.springframework.test.context.event.annotation.AfterTestClass;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -139,6 +152,31 @@ public class DiskStorageServiceTest {
         assertThat(readInfo.getOwnerKey(), is(info.getOwnerKey()));
     }
 
+    @Test
+    void getUploadInfoStoredWithJavaSerialization() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setLength(10L);
+        info.setEncodedMetadata("Encoded Metadata");
+
+        info = storageService.create(info, "John");
+
+        //Simulate an upload info file that was written by a previous version
+        Utils.writeSerializable(info, getUploadInfoPath(info.getId()));
+
+        UploadInfo readInfo = storageService.getUploadInfo(info.getId());
+        assertThat(readInfo.getId(), is(info.getId()));
+        assertThat(readInfo.getOffset(), is(0L));
+        assertThat(readInfo.getLength(), is(10L));
+        assertThat(readInfo.getEncodedMetadata(), is("Encoded Metadata"));
+        assertThat(readInfo.getOwnerKey(), is("John"));
+
+        //The next update migrates the file to the binary format
+        storageService.update(readInfo);
+        byte[] bytes = Files.readAllBytes(getUploadInfoPath(info.getId()));
+        assertThat(ByteBuffer.wrap(bytes).getInt(), is(BinaryUploadInfoCodec.MAGIC));
+        assertThat(storageService.getUploadInfo(info.getId()).getOwnerKey(), is("John"));
+    }
+
     @Test
     void getUploadInfoByFakeId() throws Exception {
         UploadInfo readInfo = storageService.getUploadInfo(new UploadId(UUID.randomUUID()));
@@ -362,6 +400,276 @@ public class DiskStorageServiceTest {
         assertThat(info.getOffset(), is((long) content.getBytes().length));
     }
 
+    @Test
+    void appendWithoutUpdate() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+
+        storageService.appendWithoutUpdate(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+        //The bytes are written, but the upload info is only saved on the next update
+        assertThat(info.getOffset(), is((long) content.getBytes().length));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(0L));
+
+        storageService.removeLastNumberOfBytesWithoutUpdate(info, 8);
+        assertThat(info.getOffset(), is((long) content.getBytes().length - 8));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(0L));
+
+        storageService.update(info);
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) content.getBytes().length - 8));
+    }
+
+    @Test
+    void updateReplacesInfoFileAtomically() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setLength(10L);
+        info = storageService.create(info, null);
+
+        for (long i = 1; i <= 5; i++) {
+            info.setOffset(i);
+            storageService.update(info);
+        }
+
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(5L));
+        try (Stream<Path> files = Files.list(getStoragePath(info.getId()))) {
+            //No temporary files are left behind
+            assertThat(files.count(), is(2L));
+        }
+    }
+
+    @Test
+    void appendWithDeferredDurability() throws Exception {
+        storageService.setDurabilityPolicy(DurabilityPolicy.ON_COMPLETION);
+        String part1 = "This is the first part ";
+        String part2 = "and this is the second part";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) (part1 + part2).getBytes().length);
+        info = storageService.create(info, null);
+
+        storageService.append(info, IOUtils.toInputStream(part1, StandardCharsets.UTF_8));
+        assertThat(storageService.getDataFileSynchronizer().getSyncCount(), is(0L));
+        assertThat(storageService.getDataFileSynchronizer().getSkippedSyncCount(), is(1L));
+
+        storageService.append(info, IOUtils.toInputStream(part2, StandardCharsets.UTF_8));
+        assertThat(storageService.getDataFileSynchronizer().getSyncCount(), is(1L));
+        assertThat(storageService.getDurabilityPolicy(), is(DurabilityPolicy.ON_COMPLETION));
+
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(part1 + part2));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) (part1 + part2).length()));
+    }
+
+    @Test
+    void appendWithGroupCommit() throws Exception {
+        String content = "This is the content of my upload";
+
+        try (GroupCommitScheduler scheduler = new GroupCommitScheduler(10L)) {
+            storageService.setGroupCommitScheduler(scheduler);
+            assertThat(storageService.getDurabilityPolicy(), is(DurabilityPolicy.GROUP_COMMIT));
+
+            UploadInfo info = new UploadInfo();
+            info.setLength((long) content.getBytes().length);
+            info = storageService.create(info, null);
+
+            storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+            assertThat(info.getOffset(), is((long) content.getBytes().length));
+            assertThat(scheduler.getCommitCount(), is(1L));
+            assertThat(scheduler.getRoundCount(), is(1L));
+            assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+        }
+    }
+
+    @Test
+    void replacedGroupCommitSchedulerIsClosed() throws Exception {
+        try (GroupCommitScheduler sharedScheduler = new GroupCommitScheduler(10L)) {
+            storageService.setDurabilityPolicy(DurabilityPolicy.GROUP_COMMIT, 10L);
+            GroupCommitScheduler ownScheduler = storageService.getDataFileSynchronizer().getGroupCommitScheduler();
+
+            storageService.setGroupCommitScheduler(sharedScheduler);
+            storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+
+            //A closed scheduler forces the file directly instead of in a round
+            FileChannel file = mock(FileChannel.class);
+            ownScheduler.commit(file);
+            assertThat(ownScheduler.getRoundCount(), is(0L));
+
+            //The shared scheduler was not created by the storage service, so it is not closed
+            sharedScheduler.commit(file);
+            assertThat(sharedScheduler.getRoundCount(), is(1L));
+            verify(file, times(2)).force(true);
+        }
+    }
+
+    @Test
+    void appendWithPooledBuffers() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(1, 4);
+        storageService.setAppendBufferPool(pool);
+        storageService.setMaxUploadSize(17L);
+        String content = "This is an upload that is too large";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength(17L);
+        info = storageService.create(info, null);
+
+        //The content is larger than the buffer and the maximum upload size is not a multiple of the buffer size
+        InputStream inputStream = spy(IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+        storageService.append(info, inputStream);
+
+        assertThat(info.getOffset(), is(17L));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is("This is an upload"));
+        //The stream is never read beyond the maximum upload size
+        verify(inputStream, never()).read(any(byte[].class), anyInt(), intThat(length -> length > 4));
+        assertThat(inputStream.available(), is(content.length() - 17));
+        //The buffer was returned to the pool
+        assertThat(pool.getAvailableCount(), is(1));
+        assertThat(pool.getTemporaryBufferCount(), is(0L));
+    }
+
+    @Test
+    void offsetNeverExceedsStoredBytesAfterCrash() throws Exception {
+        storageService.setDurabilityPolicy(DurabilityPolicy.INTERVAL, 60000L);
+        String content = "These bytes were lost in a crash";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength(100L);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) content.length()));
+
+        //Simulate a crash in which the bytes that were not forced to disk are lost
+        try (FileChannel file = FileChannel.open(getUploadDataPath(info.getId()), StandardOpenOption.WRITE)) {
+            file.truncate(11);
+        }
+
+        UploadInfo readInfo = storageService.getUploadInfo(info.getId());
+        assertThat(readInfo.getOffset(), is(11L));
+
+        //The client can resume from the reported offset
+        storageService.append(readInfo, IOUtils.toInputStream(content.substring(11), StandardCharsets.UTF_8));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) content.length()));
+    }
+
+    @Test
+    void preallocationRequiresSyncOnEveryWrite() throws Exception {
+        //After a crash, the size of a preallocated file does not tell how many bytes were lost
+        storageService.setDurabilityPolicy(DurabilityPolicy.INTERVAL, 60000L);
+        assertThrows(IllegalStateException.class, () -> storageService.setPreallocationMode(PreallocationMode.SPARSE));
+        storageService.setDurabilityPolicy(DurabilityPolicy.ON_COMPLETION);
+        assertThrows(IllegalStateException.class, () -> storageService.setPreallocationMode(PreallocationMode.FULL));
+        assertThat(storageService.getPreallocationMode(), is(PreallocationMode.NONE));
+
+        storageService.setDurabilityPolicy(DurabilityPolicy.DATA_ONLY);
+        storageService.setPreallocationMode(PreallocationMode.SPARSE);
+        assertThrows(IllegalStateException.class,
+                () -> storageService.setDurabilityPolicy(DurabilityPolicy.INTERVAL, 60000L));
+        assertThat(storageService.getDurabilityPolicy(), is(DurabilityPolicy.DATA_ONLY));
+    }
+
+    @Test
+    void unacknowledgedBytesAreDiscardedOnAppend() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+
+        //Simulate a crash after writing bytes but before saving the new offset
+        storageService.appendWithoutUpdate(info, IOUtils.toInputStream("Garbage", StandardCharsets.UTF_8));
+        info = storageService.getUploadInfo(info.getId());
+        assertThat(info.getOffset(), is(0L));
+
+        storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+        assertThat(info.getOffset(), is((long) content.getBytes().length));
+    }
+
+    @Test
+    void acknowledgedBytesAreNotDiscardedOnAppend() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 11), StandardCharsets.UTF_8));
+
+        //A client that retries with an outdated offset must not truncate the saved bytes
+        UploadInfo outdatedInfo = storageService.getUploadInfo(info.getId());
+        outdatedInfo.setOffset(4L);
+        assertThrows(InvalidUploadOffsetException.class, () -> storageService.append(outdatedInfo,
+                IOUtils.toInputStream(content.substring(4), StandardCharsets.UTF_8)));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content.substring(0, 11)));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(11L));
+
+        //Consecutive appends of one request continue after bytes of which the offset is not saved yet
+        storageService.appendWithoutUpdate(info, IOUtils.toInputStream(content.substring(11, 20),
+                StandardCharsets.UTF_8));
+        storageService.append(info, IOUtils.toInputStream(content.substring(20), StandardCharsets.UTF_8));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) content.getBytes().length));
+    }
+
+    @Test
+    void writesWithStaleFencingTokenAreRejected() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setLength(50L);
+        info = storageService.create(info, null);
+
+        //A request whose lock was lost still has a copy of the upload information
+        UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+        staleInfo.setFencingToken(5L);
+
+        info.setFencingToken(10L);
+        storageService.append(info, IOUtils.toInputStream("Current content", StandardCharsets.UTF_8));
+
+        UploadInfo stale = staleInfo;
+        assertThrows(StaleUploadLockException.class, () -> storageService.appendWithoutUpdate(stale,
+                IOUtils.toInputStream("Stale content", StandardCharsets.UTF_8)));
+        assertThrows(StaleUploadLockException.class, () -> storageService.removeLastNumberOfBytes(stale, 7L));
+        assertThrows(StaleUploadLockException.class, () -> storageService.update(stale));
+
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is("Current content"));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(15L));
+
+        //A later lock can continue the upload
+        info.setFencingToken(11L);
+        storageService.append(info, IOUtils.toInputStream(" and more", StandardCharsets.UTF_8));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(24L));
+
+        //Changes without a fencing token are not checked
+        info.setFencingToken(null);
+        storageService.removeLastNumberOfBytes(info, 9L);
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(15L));
+    }
+
+    @Test
+    void appendRaisesFencingTokenBeforeUpdate() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setLength(50L);
+        info = storageService.create(info, null);
+        UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+        staleInfo.setFencingToken(5L);
+
+        //The information of the current request is only saved at the end of the request
+        info.setFencingToken(10L);
+        storageService.appendWithoutUpdate(info, IOUtils.toInputStream("Current content", StandardCharsets.UTF_8));
+
+        assertThrows(StaleUploadLockException.class, () -> storageService.appendWithoutUpdate(staleInfo,
+                IOUtils.toInputStream("Stale content", StandardCharsets.UTF_8)));
+        assertThat(storageService.getUploadInfo(info.getId()).getFencingToken(), is(10L));
+        assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is("Current content"));
+
+        //The token is kept in the upload information, no other files are needed
+        try (Stream<Path> files = Files.list(getUploadDataPath(info.getId()).getParent())) {
+            assertThat(files.count(), is(2L));
+        }
+    }
+
     @Test
     void testRemoveLastNumberOfBytes() throws Exception {
         String content = "This is an upload that will be truncated";
@@ -382,6 +690,51 @@ public class DiskStorageServiceTest {
         assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is("This is an upload"));
     }
 
+    @Test
+    void uploadDigestIsContinuedAcrossAppends() throws Exception {
+        storageService.setUploadDigestEnabled(true);
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.length());
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+
+        //The next request continues from the digest state that was stored with the upload
+        UploadInfo storedInfo = storageService.getUploadInfo(info.getId());
+        assertThat(ResumableSha256Digest.getByteCount(storedInfo.getDigestState()), is(10L));
+        assertThat(storedInfo.getUploadDigest(), is(nullValue()));
+        storageService.append(storedInfo, IOUtils.toInputStream(content.substring(10, 20), StandardCharsets.UTF_8));
+
+        //Removing the last appended bytes restores the digest from before they were appended
+        storageService.removeLastNumberOfBytes(storedInfo, 10L);
+        storedInfo = storageService.getUploadInfo(info.getId());
+        assertThat(ResumableSha256Digest.getByteCount(storedInfo.getDigestState()), is(10L));
+        storageService.append(storedInfo, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        assertThat(storageService.getUploadInfo(info.getId()).getUploadDigest(),
+                is(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void uploadDigestIsUnknownWhenEnabledDuringUpload() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.length());
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+
+        //The first bytes were not digested, so the digest of the upload cannot be calculated anymore
+        storageService.setUploadDigestEnabled(true);
+        storageService.append(info, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        UploadInfo storedInfo = storageService.getUploadInfo(info.getId());
+        assertThat(storedInfo.isUploadInProgress(), is(false));
+        assertThat(storedInfo.getDigestState(), is(nullValue()));
+        assertThat(storedInfo.getUploadDigest(), is(nullValue()));
+    }
+
     @Test
     void getUploadedBytes() throws Exception {
         String content = "This is the content of my upload";
@@ -426,6 +779,86 @@ public class DiskStorageServiceTest {
         }
     }
 
+    @Test
+    void copyUploadedBytesThroughSmallPooledBuffer() throws Exception {
+        ByteBufferPool downloadBufferPool = new ByteBufferPool(1, 5);
+        storageService.setDownloadBufferPool(downloadBufferPool);
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+        //The content does not fit in one buffer, so it is copied in several rounds
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            storageService.copyUploadTo(info, output);
+            assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is(content));
+        }
+        assertThat(downloadBufferPool.getAvailableCount(), is(1));
+    }
+
+    @Test
+    void copyUploadedRange() throws Exception {
+        storageService.setDownloadBufferPool(new ByteBufferPool(1, 4));
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            storageService.copyUploadTo(info, 8L, 11L, output);
+            assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("the content"));
+        }
+
+        UploadInfo finalInfo = info;
+        assertThrows(EOFException.class,
+                () -> storageService.copyUploadTo(finalInfo, 30L, 10L, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void copyStoredRangeOfUploadInProgress() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        info = storageService.append(info, IOUtils.toInputStream(content.substring(0, 19), StandardCharsets.UTF_8));
+
+        //Only the bytes that are already stored can be copied
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            storageService.copyUploadTo(info, 8L, 11L, output);
+            assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("the content"));
+        }
+
+        UploadInfo inProgressInfo = info;
+        assertThrows(EOFException.class,
+                () -> storageService.copyUploadTo(inProgressInfo, 15L, 10L, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void getUploadedFileRegions() throws Exception {
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+
+        //The bytes of an upload in progress cannot be sent from the file
+        assertThat(storageService.getUploadedFileRegions(info), is(nullValue()));
+
+        storageService.append(info, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        List<FileRegion> regions = storageService.getUploadedFileRegions(info);
+        assertThat(regions.size(), is(1));
+        assertThat(regions.get(0).getPath(), is(getUploadDataPath(info.getId()).toAbsolutePath()));
+        assertThat(regions.get(0).getPosition(), is(0L));
+        assertThat(regions.get(0).getEnd(), is((long) content.length()));
+    }
+
     @Test
     void terminateCompletedUpload() throws Exception {
         String content = "This is the content of my upload";
@@ -494,6 +927,146 @@ public class DiskStorageServiceTest {
         assertFalse(Files.exists(getStoragePath(info.getId())));
     }
 
+    @Test
+    void fileChannelCacheReusesDataFile() throws Exception {
+        FileChannelCache fileChannelCache = new FileChannelCache(4, 60000L);
+        storageService.setFileChannelCache(fileChannelCache);
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+        storageService.append(info, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(content));
+        }
+        assertThat(fileChannelCache.getOpenedCount(), is(1L));
+        assertThat(fileChannelCache.getOpenChannelCount(), is(1));
+
+        storageService.terminateUpload(info);
+
+        assertThat(fileChannelCache.getOpenChannelCount(), is(0));
+        assertFalse(Files.exists(getStoragePath(info.getId())));
+    }
+
+    @Test
+    void getUploadedBytesAsBuffers() throws Exception {
+        storageService.setPreallocationMode(PreallocationMode.SPARSE);
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength((long) content.getBytes().length);
+        info = storageService.create(info, null);
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+
+        UploadId id = info.getId();
+        assertThrows(UploadInProgressException.class, () -> storageService.getUploadedBytesAsBuffers(id));
+
+        storageService.append(info, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        List<ByteBuffer> buffers = storageService.getUploadedBytesAsBuffers(id);
+        assertThat(buffers.size(), is(1));
+        assertThat(buffers.get(0).isReadOnly(), is(true));
+        assertThat(StandardCharsets.UTF_8.decode(buffers.get(0)).toString(), is(content));
+
+        assertThrows(UploadNotFoundException.class,
+                () -> storageService.getUploadedBytesAsBuffers(new UploadId(UUID.randomUUID())));
+    }
+
+    @Test
+    void sparsePreallocation() throws Exception {
+        storageService.setPreallocationMode(PreallocationMode.SPARSE);
+        String content = "This is the content of my upload";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength(50L);
+        info = storageService.create(info, null);
+        //The data file has its final size before any bytes are uploaded
+        assertThat(Files.size(getUploadDataPath(info.getId())), is(50L));
+
+        storageService.append(info, IOUtils.toInputStream(content.substring(0, 10), StandardCharsets.UTF_8));
+        storageService.append(info, IOUtils.toInputStream(content.substring(10), StandardCharsets.UTF_8));
+
+        //The offset is taken from the upload info, not from the file size
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) content.length()));
+        assertThat(Files.size(getUploadDataPath(info.getId())), is(50L));
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(content));
+        }
+
+        UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+        staleInfo.setOffset(40L);
+        assertThrows(InvalidUploadOffsetException.class, () -> storageService.append(staleInfo,
+                IOUtils.toInputStream(content, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void fullPreallocation() throws Exception {
+        storageService.setPreallocationMode(PreallocationMode.FULL);
+        String content = "This is an upload that will be truncated";
+
+        UploadInfo info = new UploadInfo();
+        info.setLength(100000L);
+        info = storageService.create(info, null);
+        assertThat(Files.size(getUploadDataPath(info.getId())), is(100000L));
+
+        storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+        storageService.removeLastNumberOfBytes(info, 23);
+
+        //Removing bytes only moves the offset back, the reserved space is kept
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(17L));
+        assertThat(Files.size(getUploadDataPath(info.getId())), is(100000L));
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is("This is an upload"));
+        }
+    }
+
+    @Test
+    void hashedStorageLayout() throws Exception {
+        when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+        when(idFactory.createId()).thenAnswer(invocation -> new UploadId(UUID.randomUUID()));
+        //Use a separate folder so that the prefix directories do not end up in the flat storage of other tests
+        Path hashedStoragePath = storagePath.resolveSibling("hashed-data");
+        Path uploadsPath = hashedStoragePath.resolve("uploads");
+        storageService = new DiskStorageService(idFactory, hashedStoragePath.toString());
+        storageService.setStorageLayout(StorageLayout.hashed());
+        String content = "This is the content of my upload";
+
+        try {
+            UploadInfo info = new UploadInfo();
+            info.setLength((long) content.getBytes().length);
+            info.updateExpiration(60000L);
+            info = storageService.create(info, null);
+            storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+            Path uploadPath = StorageLayout.hashed().resolve(uploadsPath, info.getId().toString());
+            assertTrue(Files.exists(uploadPath.resolve("info")));
+            assertFalse(Files.exists(uploadsPath.resolve(info.getId().toString())));
+            assertThat(storageService.getUploadInfo(info.getId()).getOffset(),
+                    is((long) content.getBytes().length));
+            try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+                assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(content));
+            }
+
+            UploadInfo expiredInfo = new UploadInfo();
+            expiredInfo.setLength(100L);
+            expiredInfo.updateExpiration(100L);
+            expiredInfo = storageService.create(expiredInfo, null);
+            Path expiredPath = StorageLayout.hashed().resolve(uploadsPath, expiredInfo.getId().toString());
+            assertTrue(Files.exists(expiredPath));
+
+            Utils.sleep(200L);
+            storageService.cleanupExpiredUploads(uploadLockingService);
+
+            assertFalse(Files.exists(expiredPath));
+            assertTrue(Files.exists(uploadPath));
+        } finally {
+            FileUtils.deleteDirectory(hashedStoragePath.toFile());
+        }
+    }
+
     private Path getUploadInfoPath(UploadId id) {
         return getStoragePath(id).resolve("info");
     }
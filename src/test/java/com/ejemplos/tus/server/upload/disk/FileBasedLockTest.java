@@ -1,15 +1,19 @@
 package com.ejemplos.tus.server.upload.disk;
 
 import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -97,6 +101,118 @@ public class FileBasedLockTest {
             lock.close();
         });
     }
+    @Test
+    void testWaitForLockRelease() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(5000L);
+
+        FileBasedLock lock1 = new FileBasedLock("/test/upload/" + test, path, strategy);
+        CompletableFuture.runAsync(lock1::release, CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+
+        //The waiting lock must not end up on the lock file that was removed by the first lock
+        try (FileBasedLock lock2 = new FileBasedLock("/test/upload/" + test, path, strategy)) {
+            assertTrue(Files.exists(path));
+            assertEquals(0L, Files.size(path));
+            assertThrows(UploadAlreadyLockedException.class,
+                    () -> new FileBasedLock("/test/upload/" + test, path).close());
+        }
+
+        assertEquals(2L, strategy.getAcquiredCount());
+        assertEquals(1L, strategy.getContendedCount());
+        assertEquals(0L, strategy.getTimeoutCount());
+        assertTrue(strategy.getLongestWaitMillis() < 5000L);
+    }
+
+    @Test
+    void testWaitForLockTimeout() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(30L);
+
+        try (FileBasedLock ignored = new FileBasedLock("/test/upload/" + test, path, strategy)) {
+            assertThrows(UploadAlreadyLockedException.class,
+                    () -> new FileBasedLock("/test/upload/" + test, path, strategy).close());
+        }
+
+        assertEquals(1L, strategy.getTimeoutCount());
+        assertTrue(strategy.getLongestWaitMillis() >= 30L);
+    }
+
+    @Test
+    void testFencingTokenIncreases() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+
+        long fencingToken;
+        try (FileBasedLock lock = new FileBasedLock("/test/upload/" + test, path)) {
+            fencingToken = lock.getFencingToken();
+            assertTrue(fencingToken > 0);
+        }
+        try (FileBasedLock lock = new FileBasedLock("/test/upload/" + test, path)) {
+            assertTrue(lock.getFencingToken() > fencingToken);
+        }
+    }
+
+    @Test
+    void testFencingTokenFollowsFenceFile() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+        Path fencePath = storagePath.resolve(test + ".fence");
+        //The fence was raised before by a node whose clock is an hour ahead
+        long previousToken = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        Files.write(fencePath, ByteBuffer.allocate(Long.BYTES).putLong(previousToken).array());
+
+        try (FenceFile fenceFile = new FenceFile(fencePath)) {
+            try (FileBasedLock lock = new FileBasedLock("/test/upload/" + test, path, fenceFile,
+                    LockAcquisitionStrategy.failFast())) {
+                assertEquals(previousToken + 1, lock.getFencingToken());
+            }
+            //The fence is shared by all uploads
+            try (FileBasedLock lock = new FileBasedLock("/test/upload/" + UUID.randomUUID(),
+                    storagePath.resolve(UUID.randomUUID().toString()), fenceFile, LockAcquisitionStrategy.failFast())) {
+                assertEquals(previousToken + 2, lock.getFencingToken());
+            }
+        }
+        assertEquals(previousToken + 2, ByteBuffer.wrap(Files.readAllBytes(fencePath)).getLong());
+    }
+
+    @Test
+    void testReclaimStaleTombstone() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+        //A lock holder that crashed after marking the lock file as released
+        Files.write(path, new byte[] {0});
+
+        try (FileBasedLock ignored = new FileBasedLock("/test/upload/" + test, path)) {
+            assertEquals(0L, Files.size(path));
+        }
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    void testTombstoneOfReplacedFileIsNotReclaimed() throws Exception {
+        UUID test = UUID.randomUUID();
+        Path path = storagePath.resolve(test.toString());
+        Files.write(path, new byte[] {0});
+
+        //Every time we lock the file, another lock holder already removed it and a new tombstoned file took its place
+        assertThrows(UploadAlreadyLockedException.class, () -> new FileBasedLock("/test/upload/" + test, path) {
+            @Override
+            protected FileChannel createFileChannel() throws IOException {
+                FileChannel channel = spy(super.createFileChannel());
+                doAnswer(invocation -> {
+                    Files.delete(path);
+                    Files.write(path, new byte[] {0});
+                    return invocation.callRealMethod();
+                }).when(channel).tryLock(anyLong(), anyLong(), anyBoolean());
+                return channel;
+            }
+        }.close());
+
+        //The file at the lock path was left alone
+        assertEquals(1L, Files.size(path));
+    }
 
     private FileChannel createFileChannelMock() {
         return spy(FileChannel.class);
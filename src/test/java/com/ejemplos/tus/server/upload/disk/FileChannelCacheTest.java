@@ -0,0 +1,223 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.upload.UploadId;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileChannelCacheTest {
+
+    private long now;
+    private FileChannelCache cache;
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        now = 1000L;
+        cache = new TestFileChannelCache(2, 100L);
+        directory = Paths.get("target", "tus", "channels-" + UUID.randomUUID()).toAbsolutePath();
+        Files.createDirectories(directory);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        cache.invalidateAll();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new FileChannelCache(-1, 100L));
+        assertThrows(IllegalArgumentException.class, () -> new FileChannelCache(10, 0L));
+    }
+
+    @Test
+    public void channelIsReused() throws IOException {
+        UploadId id = createFile();
+
+        FileChannel channel;
+        try (FileChannelCache.Handle handle = cache.acquire(id, getPath(id))) {
+            channel = handle.channel();
+        }
+        assertTrue(channel.isOpen());
+
+        try (FileChannelCache.Handle handle = cache.acquire(id, getPath(id))) {
+            assertThat(handle.channel(), sameInstance(channel));
+            assertThat(cache.getInUseChannelCount(), is(1));
+        }
+
+        assertThat(cache.getOpenChannelCount(), is(1));
+        assertThat(cache.getInUseChannelCount(), is(0));
+        assertThat(cache.getOpenedCount(), is(1L));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void channelInUseIsNotShared() throws IOException {
+        UploadId id = createFile();
+
+        try (FileChannelCache.Handle first = cache.acquire(id, getPath(id))) {
+            FileChannel second;
+            try (FileChannelCache.Handle handle = cache.acquire(id, getPath(id))) {
+                second = handle.channel();
+                assertThat(second, not(sameInstance(first.channel())));
+            }
+            //A channel that is not cached is closed after use
+            assertFalse(second.isOpen());
+            assertTrue(first.channel().isOpen());
+        }
+
+        assertThat(cache.getOpenChannelCount(), is(1));
+        assertThat(cache.getUncachedCount(), is(1L));
+    }
+
+    @Test
+    public void leastRecentlyUsedChannelIsEvicted() throws IOException {
+        UploadId id1 = createFile();
+        UploadId id2 = createFile();
+        UploadId id3 = createFile();
+
+        FileChannel channel1 = use(id1);
+        use(id2);
+        use(id3);
+
+        assertFalse(channel1.isOpen());
+        assertThat(cache.getOpenChannelCount(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void idleChannelIsEvicted() throws IOException {
+        UploadId id = createFile();
+        FileChannel channel = use(id);
+
+        now += 50L;
+        cache.evictIdleChannels();
+        assertTrue(channel.isOpen());
+
+        now += 50L;
+        cache.evictIdleChannels();
+        assertFalse(channel.isOpen());
+        assertThat(cache.getOpenChannelCount(), is(0));
+    }
+
+    @Test
+    public void invalidateClosesChannel() throws IOException {
+        UploadId id = createFile();
+        FileChannel idleChannel = use(id);
+
+        cache.invalidate(id);
+        assertFalse(idleChannel.isOpen());
+
+        try (FileChannelCache.Handle handle = cache.acquire(id, getPath(id))) {
+            cache.invalidate(id);
+            //A channel in use is only closed when it is returned
+            assertTrue(handle.channel().isOpen());
+            idleChannel = handle.channel();
+        }
+        assertFalse(idleChannel.isOpen());
+        assertThat(cache.getOpenChannelCount(), is(0));
+    }
+
+    @Test
+    public void discardClosesChannel() throws IOException {
+        UploadId id = createFile();
+
+        FileChannelCache.Handle handle = cache.acquire(id, getPath(id));
+        handle.discard();
+
+        assertFalse(handle.channel().isOpen());
+        assertThat(cache.getOpenChannelCount(), is(0));
+    }
+
+    @Test
+    public void disabledCacheClosesChannels() throws IOException {
+        cache = FileChannelCache.disabled();
+        UploadId id = createFile();
+
+        assertFalse(use(id).isOpen());
+        assertThat(cache.getOpenChannelCount(), is(0));
+    }
+
+    @Test
+    public void missingFile() {
+        UploadId id = new UploadId(UUID.randomUUID());
+        assertThrows(NoSuchFileException.class, () -> cache.acquire(id, getPath(id)));
+        assertThat(cache.getOpenChannelCount(), is(0));
+    }
+
+    @Test
+    public void readOnlyChannelsAreOpenedForReading() throws IOException {
+        UploadId id = createFile();
+        Path path = getPath(id);
+        assertTrue(path.toFile().setWritable(false));
+
+        FileChannel readOnlyChannel;
+        try (FileChannelCache.Handle handle = cache.acquireForReading(id, path)) {
+            readOnlyChannel = handle.channel();
+            assertThrows(NonWritableChannelException.class, () -> readOnlyChannel.write(ByteBuffer.allocate(1)));
+        }
+        try (FileChannelCache.Handle handle = cache.acquireForReading(id, path)) {
+            assertThat(handle.channel(), sameInstance(readOnlyChannel));
+        }
+
+        //Writing replaces the idle read-only channel
+        assertTrue(path.toFile().setWritable(true));
+        FileChannel channel = use(id);
+        assertThat(channel, not(sameInstance(readOnlyChannel)));
+        assertFalse(readOnlyChannel.isOpen());
+        assertThat(cache.getOpenChannelCount(), is(1));
+
+        //Reading reuses the read-write channel
+        try (FileChannelCache.Handle handle = cache.acquireForReading(id, path)) {
+            assertThat(handle.channel(), sameInstance(channel));
+        }
+    }
+
+    private FileChannel use(UploadId id) throws IOException {
+        try (FileChannelCache.Handle handle = cache.acquire(id, getPath(id))) {
+            return handle.channel();
+        }
+    }
+
+    private UploadId createFile() throws IOException {
+        UploadId id = new UploadId(UUID.randomUUID());
+        Files.createFile(getPath(id));
+        return id;
+    }
+
+    private Path getPath(UploadId id) {
+        return directory.resolve(id.toString());
+    }
+
+    private class TestFileChannelCache extends FileChannelCache {
+
+        TestFileChannelCache(int maxSize, long idleTimeoutMillis) {
+            super(maxSize, idleTimeoutMillis);
+        }
+
+        @Override
+        long currentTime() {
+            return now;
+        }
+    }
+}
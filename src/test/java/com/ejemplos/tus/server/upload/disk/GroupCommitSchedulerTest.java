@@ -0,0 +1,192 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GroupCommitSchedulerTest {
+
+    private GroupCommitScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new GroupCommitScheduler(50L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void concurrentCommitsShareRounds() throws Exception {
+        int writers = 20;
+        List<FileChannel> files = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                FileChannel file = mock(FileChannel.class);
+                files.add(file);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    scheduler.commit(file);
+                    //The commit only returns once the file was forced to disk
+                    verify(file, times(1)).force(true);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (FileChannel file : files) {
+            verify(file, times(1)).force(true);
+        }
+        assertThat(scheduler.getCommitCount(), is((long) writers));
+        assertThat(scheduler.getRoundCount(), lessThan((long) writers));
+    }
+
+    @Test
+    public void failedForceOnlyFailsItsOwnCommit() throws Exception {
+        FileChannel failingFile = mock(FileChannel.class);
+        doThrow(new IOException("Disk failure")).when(failingFile).force(true);
+        FileChannel file = mock(FileChannel.class);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> other = executor.submit(() -> {
+                scheduler.commit(file);
+                return null;
+            });
+            assertThrows(IOException.class, () -> scheduler.commit(failingFile));
+            other.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(file, times(1)).force(true);
+        assertThat(scheduler.getCommitCount(), is(1L));
+    }
+
+    @Test
+    public void commitsOfSameFileShareOneForce() throws Exception {
+        try (GroupCommitScheduler slowScheduler = new GroupCommitScheduler(1000L)) {
+            //The first round starts right away, the next round collects all commits of the next second
+            slowScheduler.commit(mock(FileChannel.class));
+
+            int writers = 5;
+            FileChannel file = mock(FileChannel.class);
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < writers; i++) {
+                    futures.add(executor.submit(() -> {
+                        slowScheduler.commit(file);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            verify(file, times(1)).force(true);
+            assertThat(slowScheduler.getCommitCount(), is(writers + 1L));
+            assertThat(slowScheduler.getForceCount(), is(2L));
+            assertThat(slowScheduler.getRoundCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void singleCommitDoesNotWaitForRoundInterval() throws Exception {
+        try (GroupCommitScheduler slowScheduler = new GroupCommitScheduler(60000L)) {
+            FileChannel file = mock(FileChannel.class);
+            long start = System.currentTimeMillis();
+
+            slowScheduler.commit(file);
+
+            assertThat(System.currentTimeMillis() - start, lessThan(10000L));
+            verify(file, times(1)).force(true);
+        }
+    }
+
+    @Test
+    public void filesOfRoundAreForcedInParallel() throws Exception {
+        //Both files can only be forced when they are forced at the same time
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        FileChannel file1 = mock(FileChannel.class);
+        FileChannel file2 = mock(FileChannel.class);
+        for (FileChannel file : List.of(file1, file2)) {
+            doAnswer(invocation -> barrier.await(10, TimeUnit.SECONDS)).when(file).force(true);
+        }
+
+        try (GroupCommitScheduler slowScheduler = new GroupCommitScheduler(1000L, 2)) {
+            //Make sure both files end up in the same round
+            slowScheduler.commit(mock(FileChannel.class));
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> commit1 = executor.submit(() -> {
+                    slowScheduler.commit(file1);
+                    return null;
+                });
+                Future<?> commit2 = executor.submit(() -> {
+                    slowScheduler.commit(file2);
+                    return null;
+                });
+                commit1.get();
+                commit2.get();
+            } finally {
+                executor.shutdown();
+            }
+            assertThat(slowScheduler.getRoundCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void commitAfterCloseForcesDirectly() throws Exception {
+        scheduler.close();
+        FileChannel file = mock(FileChannel.class);
+
+        scheduler.commit(file);
+
+        verify(file, times(1)).force(true);
+        assertThat(scheduler.getRoundCount(), is(0L));
+    }
+
+    @Test
+    public void invalidInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new GroupCommitScheduler(0L));
+        assertThrows(IllegalArgumentException.class, () -> new GroupCommitScheduler(10L, 0));
+    }
+}
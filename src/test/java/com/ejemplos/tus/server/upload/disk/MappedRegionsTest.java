@@ -0,0 +1,68 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MappedRegionsTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Paths.get("target", "tus", "mapped-" + UUID.randomUUID()).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void mapRegionInChunks() throws Exception {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedRegions.map(channel, 2L, 15L, 4, buffers);
+        }
+
+        assertThat(buffers.size(), is(4));
+        assertThat(buffers.get(0).remaining(), is(4));
+        assertThat(buffers.get(3).remaining(), is(3));
+        assertThat(buffers.get(0).isReadOnly(), is(true));
+
+        StringBuilder mapped = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            mapped.append(StandardCharsets.UTF_8.decode(buffer));
+        }
+        assertThat(mapped.toString(), is(CONTENT.substring(2, 17)));
+    }
+
+    @Test
+    void mapEmptyRegion() throws Exception {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedRegions.map(channel, 0L, 0L, MappedRegions.MAX_CHUNK_SIZE, buffers);
+        }
+
+        assertThat(buffers.isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,332 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.exception.InvalidUploadOffsetException;
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.exception.UploadInProgressException;
+import com.ejemplos.tus.server.upload.FileRegion;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import com.ejemplos.tus.server.util.Utils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class SingleFileStorageServiceTest {
+
+    private static final String UPLOAD_URL = "/upload/test";
+    private static final String CONTENT = "This is the content of my upload";
+
+    private SingleFileStorageService storageService;
+
+    @Mock
+    private UploadIdFactory idFactory;
+
+    @Mock
+    private UploadLockingService uploadLockingService;
+
+    private Path storagePath;
+
+    @BeforeEach
+    public void setUp() {
+        storagePath = Paths.get("target", "tus", "containers-" + UUID.randomUUID()).toAbsolutePath();
+        when(idFactory.getUploadURI()).thenReturn(UPLOAD_URL);
+        when(idFactory.createId()).thenAnswer(invocation -> new UploadId(UUID.randomUUID()));
+        when(idFactory.readUploadId(nullable(String.class))).thenAnswer(invocation ->
+                new UploadId(StringUtils.substringAfter(invocation.getArguments()[0].toString(), UPLOAD_URL + "/")));
+
+        storageService = new SingleFileStorageService(idFactory, storagePath.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(storagePath.toFile());
+    }
+
+    @Test
+    void createAndGetUploadInfo() throws Exception {
+        UploadInfo info = new UploadInfo();
+        info.setLength(10L);
+        info.setEncodedMetadata("filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==");
+        info.updateExpiration(1000L);
+
+        info = storageService.create(info, "John");
+
+        Path containerPath = getContainerPath(info.getId());
+        assertTrue(Files.isRegularFile(containerPath));
+        //The container is preallocated up to the declared length
+        assertThat(Files.size(containerPath), is(SingleFileStorageService.DATA_ALIGNMENT + 10L));
+
+        UploadInfo readInfo = storageService.getUploadInfo(UPLOAD_URL + "/" + info.getId(), "John");
+        assertThat(readInfo, is(info));
+        assertThat(readInfo.getOffset(), is(0L));
+        assertThat(readInfo.getExpirationTimestamp(), is(info.getExpirationTimestamp()));
+        assertThat(readInfo.getFileName(), is("world_domination_plan.pdf"));
+        assertThat(storageService.getUploadInfo(UPLOAD_URL + "/" + info.getId(), "Jane"), is(nullValue()));
+        assertThat(storageService.getUploadInfo(new UploadId(UUID.randomUUID())), is(nullValue()));
+    }
+
+    @Test
+    void appendAndReadBytes() throws Exception {
+        UploadInfo info = createUpload((long) CONTENT.length());
+
+        storageService.append(info, IOUtils.toInputStream(CONTENT.substring(0, 10), StandardCharsets.UTF_8));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(10L));
+
+        storageService.append(info, IOUtils.toInputStream(CONTENT.substring(10), StandardCharsets.UTF_8));
+        UploadInfo readInfo = storageService.getUploadInfo(info.getId());
+        assertThat(readInfo.getOffset(), is((long) CONTENT.length()));
+        assertThat(readInfo.isUploadInProgress(), is(false));
+
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(CONTENT));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        storageService.copyUploadTo(readInfo, output);
+        assertThat(output.toString(StandardCharsets.UTF_8), is(CONTENT));
+    }
+
+    @Test
+    void getUploadedBytesAsBuffers() throws Exception {
+        UploadInfo info = createUpload((long) CONTENT.length());
+        UploadId id = info.getId();
+        storageService.append(info, IOUtils.toInputStream(CONTENT.substring(0, 10), StandardCharsets.UTF_8));
+
+        assertThrows(UploadInProgressException.class, () -> storageService.getUploadedBytesAsBuffers(id));
+
+        storageService.append(info, IOUtils.toInputStream(CONTENT.substring(10), StandardCharsets.UTF_8));
+
+        //Only the data region of the container is mapped
+        List<ByteBuffer> buffers = storageService.getUploadedBytesAsBuffers(id);
+        assertThat(buffers.size(), is(1));
+        assertThat(StandardCharsets.UTF_8.decode(buffers.get(0)).toString(), is(CONTENT));
+    }
+
+    @Test
+    void getUploadedFileRegions() throws Exception {
+        UploadInfo info = createUpload((long) CONTENT.length());
+        storageService.append(info, IOUtils.toInputStream(CONTENT, StandardCharsets.UTF_8));
+
+        //The region skips the header and metadata of the container
+        List<FileRegion> regions = storageService.getUploadedFileRegions(info);
+        assertThat(regions.size(), is(1));
+        assertThat(regions.get(0).getPath(), is(getContainerPath(info.getId())));
+        assertThat(regions.get(0).getPosition(), is((long) SingleFileStorageService.DATA_ALIGNMENT));
+        assertThat(regions.get(0).getCount(), is((long) CONTENT.length()));
+
+        try (FileChannel file = FileChannel.open(regions.get(0).getPath(), StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.allocate(CONTENT.length());
+            file.read(bytes, regions.get(0).getPosition());
+            assertThat(new String(bytes.array(), StandardCharsets.UTF_8), is(CONTENT));
+        }
+    }
+
+    @Test
+    void appendWithoutUpdateKeepsSavedOffset() throws Exception {
+        UploadInfo info = createUpload(null);
+
+        storageService.appendWithoutUpdate(info, IOUtils.toInputStream(CONTENT, StandardCharsets.UTF_8));
+
+        assertThat(info.getOffset(), is((long) CONTENT.length()));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(0L));
+        //Unsaved bytes are not part of the upload
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(""));
+        }
+
+        storageService.update(info);
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is((long) CONTENT.length()));
+    }
+
+    @Test
+    void appendBeyondSavedOffset() throws Exception {
+        UploadInfo info = createUpload(100L);
+        info.setOffset(5L);
+
+        assertThrows(InvalidUploadOffsetException.class,
+                () -> storageService.append(info, IOUtils.toInputStream(CONTENT, StandardCharsets.UTF_8)));
+        assertThat(info.getOffset(), is(0L));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(0L));
+    }
+
+    @Test
+    void appendRespectsMaxUploadSize() throws Exception {
+        storageService.setMaxUploadSize(10L);
+        UploadInfo info = createUpload(null);
+
+        storageService.append(info, IOUtils.toInputStream(CONTENT, StandardCharsets.UTF_8));
+
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(10L));
+    }
+
+    @Test
+    void removeLastNumberOfBytes() throws Exception {
+        UploadInfo info = createUpload(null);
+        storageService.append(info, IOUtils.toInputStream(CONTENT, StandardCharsets.UTF_8));
+
+        storageService.removeLastNumberOfBytes(info, 8L);
+
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(CONTENT.length() - 8L));
+        try (InputStream uploadedBytes = storageService.getUploadedBytes(info.getId())) {
+            assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8),
+                    is(CONTENT.substring(0, CONTENT.length() - 8)));
+        }
+    }
+
+    @Test
+    void uploadDigestIsContinuedAcrossAppends() throws Exception {
+        storageService.setUploadDigestEnabled(true);
+        UploadInfo info = createUpload((long) CONTENT.length());
+        storageService.append(info, IOUtils.toInputStream(CONTENT.substring(0, 10), StandardCharsets.UTF_8));
+
+        //A new service continues from the digest state that is stored in the container
+        storageService = new SingleFileStorageService(idFactory, storagePath.toString());
+        storageService.setUploadDigestEnabled(true);
+        UploadInfo storedInfo = storageService.getUploadInfo(info.getId());
+        assertThat(storedInfo.getUploadDigest(), is(nullValue()));
+        storageService.append(storedInfo, IOUtils.toInputStream(CONTENT.substring(10, 20), StandardCharsets.UTF_8));
+
+        //Removing the last appended bytes restores the digest from before they were appended
+        storageService.removeLastNumberOfBytes(storedInfo, 10L);
+        storedInfo = storageService.getUploadInfo(info.getId());
+        storageService.append(storedInfo, IOUtils.toInputStream(CONTENT.substring(10), StandardCharsets.UTF_8));
+
+        assertThat(storageService.getUploadInfo(info.getId()).getUploadDigest(),
+                is(MessageDigest.getInstance("SHA-256").digest(CONTENT.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void updateMovesGrowingMetadataToOtherSlot() throws Exception {
+        UploadInfo info = createUpload(null);
+
+        info.setEncodedMetadata("filename " + StringUtils.repeat('a', 100));
+        info.setLength(20L);
+        storageService.update(info);
+        info.setEncodedMetadata("filename " + StringUtils.repeat('b', 100));
+        storageService.update(info);
+
+        UploadInfo readInfo = storageService.getUploadInfo(info.getId());
+        assertThat(readInfo.getEncodedMetadata(), is(info.getEncodedMetadata()));
+        assertThat(readInfo.getLength(), is(20L));
+
+        info.setEncodedMetadata("filename " + StringUtils.repeat('c', 5000));
+        assertThrows(IOException.class, () -> storageService.update(info));
+        assertThat(storageService.getUploadInfo(info.getId()).getEncodedMetadata(), is(readInfo.getEncodedMetadata()));
+    }
+
+    @Test
+    void corruptHeaderIsDetected() throws Exception {
+        UploadInfo info = createUpload(null);
+
+        try (FileChannel file = FileChannel.open(getContainerPath(info.getId()), StandardOpenOption.WRITE)) {
+            file.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 8);
+        }
+
+        assertThrows(IOException.class, () -> storageService.getUploadInfo(info.getId()));
+    }
+
+    @Test
+    void writesWithStaleFencingTokenAreRejected() throws Exception {
+        UploadInfo info = createUpload(null);
+        info.setFencingToken(20L);
+        storageService.append(info, IOUtils.toInputStream("abc", StandardCharsets.UTF_8));
+
+        UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+        staleInfo.setFencingToken(10L);
+
+        assertThrows(StaleUploadLockException.class,
+                () -> storageService.append(staleInfo, IOUtils.toInputStream("def", StandardCharsets.UTF_8)));
+        assertThrows(StaleUploadLockException.class, () -> storageService.removeLastNumberOfBytes(staleInfo, 1L));
+        assertThrows(StaleUploadLockException.class, () -> storageService.update(staleInfo));
+        assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(3L));
+    }
+
+    @Test
+    void preallocationRequiresSyncOnEveryWrite() throws Exception {
+        //Containers are preallocated by default, so a policy that skips syncs needs preallocation to be disabled
+        assertThrows(IllegalStateException.class,
+                () -> storageService.setDurabilityPolicy(DurabilityPolicy.INTERVAL, 60000L));
+        assertThrows(IllegalStateException.class,
+                () -> storageService.setDurabilityPolicy(DurabilityPolicy.ON_COMPLETION));
+        assertThat(storageService.getDataFileSynchronizer().getPolicy(), is(DurabilityPolicy.ALWAYS));
+
+        storageService.setPreallocationMode(PreallocationMode.NONE);
+        storageService.setDurabilityPolicy(DurabilityPolicy.INTERVAL, 60000L);
+        assertThrows(IllegalStateException.class, () -> storageService.setPreallocationMode(PreallocationMode.SPARSE));
+        assertThat(storageService.getPreallocationMode(), is(PreallocationMode.NONE));
+    }
+
+    @Test
+    void terminateUpload() throws Exception {
+        UploadInfo info = createUpload(null);
+
+        storageService.terminateUpload(info);
+
+        assertFalse(Files.exists(getContainerPath(info.getId())));
+        assertThat(storageService.getUploadInfo(info.getId()), is(nullValue()));
+    }
+
+    @Test
+    void cleanupExpiredUploads() throws Exception {
+        when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+        storageService.setStorageLayout(StorageLayout.hashed());
+        UploadInfo expiredInfo = new UploadInfo();
+        expiredInfo.updateExpiration(100L);
+        expiredInfo = storageService.create(expiredInfo, null);
+        UploadInfo activeInfo = new UploadInfo();
+        activeInfo.updateExpiration(60000L);
+        activeInfo = storageService.create(activeInfo, null);
+
+        Utils.sleep(200L);
+        storageService.cleanupExpiredUploads(uploadLockingService);
+
+        assertFalse(Files.exists(getContainerPath(expiredInfo.getId())));
+        assertTrue(Files.exists(getContainerPath(activeInfo.getId())));
+    }
+
+    private UploadInfo createUpload(Long length) throws IOException {
+        UploadInfo info = new UploadInfo();
+        info.setLength(length);
+        return storageService.create(info, null);
+    }
+
+    private Path getContainerPath(UploadId id) {
+        return storageService.getStorageLayout().resolve(storagePath.resolve("containers"), id.toString());
+    }
+}
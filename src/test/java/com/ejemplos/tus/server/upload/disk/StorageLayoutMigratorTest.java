@@ -0,0 +1,120 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StorageLayoutMigratorTest {
+
+    private Path storagePath;
+    private Path uploadsPath;
+    private Path locksPath;
+
+    @BeforeEach
+    public void setUp() {
+        storagePath = Paths.get("target", "tus", "migration", UUID.randomUUID().toString()).toAbsolutePath();
+        uploadsPath = storagePath.resolve("uploads");
+        locksPath = storagePath.resolve("locks");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        FileUtils.deleteQuietly(storagePath.toFile());
+    }
+
+    @Test
+    public void migrateFlatToHashedAndBack() throws Exception {
+        createUpload(StorageLayout.FLAT, "upload1");
+        createUpload(StorageLayout.FLAT, "upload2");
+        Files.createDirectories(locksPath);
+        Files.createFile(locksPath.resolve("upload1"));
+        Files.createFile(locksPath.resolve(DiskLockingService.FENCE_FILE));
+
+        StorageLayout hashed = StorageLayout.hashed();
+        long count = new StorageLayoutMigrator(StorageLayout.FLAT, hashed).migrateStoragePath(storagePath.toString());
+
+        assertThat(count, is(3L));
+        assertUpload(hashed, "upload1");
+        assertUpload(hashed, "upload2");
+        assertTrue(Files.exists(hashed.resolve(locksPath, "upload1")));
+        assertTrue(Files.exists(locksPath.resolve(DiskLockingService.FENCE_FILE)));
+        assertFalse(Files.exists(uploadsPath.resolve("upload1")));
+        assertFalse(Files.exists(storagePath.resolve("uploads.migration")));
+
+        count = new StorageLayoutMigrator(hashed, StorageLayout.FLAT).migrate(uploadsPath);
+
+        assertThat(count, is(2L));
+        assertUpload(StorageLayout.FLAT, "upload1");
+        assertUpload(StorageLayout.FLAT, "upload2");
+        try (var entries = Files.list(uploadsPath)) {
+            assertThat(entries.count(), is(2L));
+        }
+
+        count = new StorageLayoutMigrator(hashed, StorageLayout.FLAT).migrate(locksPath);
+
+        assertThat(count, is(1L));
+        assertTrue(Files.exists(locksPath.resolve("upload1")));
+        assertTrue(Files.exists(locksPath.resolve(DiskLockingService.FENCE_FILE)));
+    }
+
+    @Test
+    public void resumeInterruptedMigration() throws Exception {
+        StorageLayout hashed = StorageLayout.hashed();
+        createUpload(StorageLayout.FLAT, "upload1");
+        //A previous run already moved this upload before it was interrupted
+        Path migrationPath = storagePath.resolve("uploads.migration");
+        Path movedUpload = hashed.resolve(migrationPath, "upload2");
+        Files.createDirectories(movedUpload);
+        Files.write(movedUpload.resolve("info"), "upload2".getBytes(StandardCharsets.UTF_8));
+
+        long count = new StorageLayoutMigrator(StorageLayout.FLAT, hashed).migrate(uploadsPath);
+
+        assertThat(count, is(1L));
+        assertUpload(hashed, "upload1");
+        assertUpload(hashed, "upload2");
+    }
+
+    @Test
+    public void unexpectedFilesStopMigration() throws Exception {
+        StorageLayout hashed = StorageLayout.hashed();
+        createUpload(hashed, "upload1");
+        Files.createFile(uploadsPath.resolve("unknown"));
+
+        assertThrows(IOException.class,
+                () -> new StorageLayoutMigrator(hashed, StorageLayout.FLAT).migrate(uploadsPath));
+        assertTrue(Files.exists(uploadsPath.resolve("unknown")));
+    }
+
+    @Test
+    public void migrateNonExistingStoragePath() throws Exception {
+        assertThat(new StorageLayoutMigrator(StorageLayout.FLAT, StorageLayout.hashed())
+                .migrateStoragePath(storagePath.toString()), is(0L));
+        assertFalse(Files.exists(uploadsPath));
+    }
+
+    private void createUpload(StorageLayout layout, String id) throws IOException {
+        Path uploadPath = layout.resolve(uploadsPath, id);
+        Files.createDirectories(uploadPath);
+        Files.write(uploadPath.resolve("info"), id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assertUpload(StorageLayout layout, String id) throws IOException {
+        Path infoPath = layout.resolve(uploadsPath, id).resolve("info");
+        assertTrue(Files.exists(infoPath));
+        assertThat(new String(Files.readAllBytes(infoPath), StandardCharsets.UTF_8), is(id));
+    }
+}
@@ -0,0 +1,91 @@
+package com.ejemplos.tus.server.upload.disk;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StorageLayoutTest {
+
+    private Path root;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        root = Paths.get("target", "tus", "layout", UUID.randomUUID().toString()).toAbsolutePath();
+        Files.createDirectories(root);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        FileUtils.deleteQuietly(root.toFile());
+    }
+
+    @Test
+    public void resolveFlat() {
+        assertThat(StorageLayout.FLAT.resolve(root, "upload"), is(root.resolve("upload")));
+        assertThat(StorageLayout.hashed(0, 2), sameInstance(StorageLayout.FLAT));
+    }
+
+    @Test
+    public void resolveHashed() {
+        Path path = StorageLayout.hashed().resolve(root, "upload");
+
+        assertThat(path.getFileName().toString(), is("upload"));
+        assertThat(root.relativize(path).getNameCount(), is(3));
+        assertThat(path.getParent().getFileName().toString().length(), is(2));
+        //The same name always results in the same path
+        assertThat(StorageLayout.hashed().resolve(root, "upload"), is(path));
+        assertThat(StorageLayout.hashed(1, 3).resolve(root, "upload").getParent().getFileName().toString(),
+                is(path.getParent().getParent().getFileName() + path.getParent().getFileName().toString()
+                        .substring(0, 1)));
+    }
+
+    @Test
+    public void hashedSpreadsSequentialIds() {
+        Set<Path> prefixes = new HashSet<>();
+        for (long id = 1546152320000L; id < 1546152320100L; id++) {
+            prefixes.add(StorageLayout.hashed(1, 2).resolve(root, Long.toString(id)).getParent());
+        }
+        assertThat(prefixes.size(), greaterThan(50));
+    }
+
+    @Test
+    public void listHashed() throws Exception {
+        StorageLayout layout = StorageLayout.hashed();
+        for (String name : List.of("a", "b", "c")) {
+            Path path = layout.resolve(root, name);
+            Files.createDirectories(path);
+            //Content of an entry is not listed
+            Files.createFile(path.resolve("info"));
+        }
+
+        try (Stream<Path> entries = layout.list(root)) {
+            assertThat(entries.map(path -> path.getFileName().toString()).collect(Collectors.toList()),
+                    containsInAnyOrder("a", "b", "c"));
+        }
+    }
+
+    @Test
+    public void invalidLayout() {
+        assertThrows(IllegalArgumentException.class, () -> StorageLayout.hashed(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> StorageLayout.hashed(2, 0));
+        assertThrows(IllegalArgumentException.class, () -> StorageLayout.hashed(3, 3));
+    }
+}
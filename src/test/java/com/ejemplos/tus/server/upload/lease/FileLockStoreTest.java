@@ -0,0 +1,124 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileLockStoreTest {
+
+    private static final Path STORAGE_PATH = Paths.get("target", "tus", "leases").toAbsolutePath();
+
+    private long now;
+    private FileLockStore lockStore;
+    private String key;
+
+    @BeforeEach
+    public void setUp() {
+        now = System.currentTimeMillis();
+        lockStore = createLockStore();
+        key = UUID.randomUUID().toString();
+    }
+
+    @AfterAll
+    public static void destroyDataFolder() {
+        FileUtils.deleteQuietly(STORAGE_PATH.toFile());
+    }
+
+    @Test
+    public void acquireAndRelease() throws Exception {
+        Lease lease = lockStore.tryAcquire(key, "node1", 100L);
+        assertThat(lease, notNullValue());
+        assertThat(lease.getExpirationTimestamp(), is(now + 100L));
+
+        //Another store on the same directory, for example of another process, sees the lease
+        FileLockStore otherStore = createLockStore();
+        assertThat(otherStore.getLease(key).getOwner(), is("node1"));
+        assertThat(otherStore.getLease(key).getFencingToken(), is(lease.getFencingToken()));
+        assertThat(otherStore.tryAcquire(key, "node2", 100L), is(nullValue()));
+
+        lockStore.release(lease);
+
+        assertThat(otherStore.getLease(key), is(nullValue()));
+        Lease nextLease = otherStore.tryAcquire(key, "node2", 100L);
+        assertThat(nextLease.getFencingToken(), greaterThan(lease.getFencingToken()));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        Lease lease = lockStore.tryAcquire(key, "node1", 100L);
+        now += 100L;
+
+        Lease nextLease = lockStore.tryAcquire(key, "node2", 100L);
+        assertThat(nextLease.getFencingToken(), greaterThan(lease.getFencingToken()));
+        assertThat(lockStore.renew(lease, 100L), is(nullValue()));
+        lockStore.release(lease);
+        assertThat(lockStore.getLease(key).getOwner(), is("node2"));
+    }
+
+    @Test
+    public void renew() throws Exception {
+        Lease lease = lockStore.tryAcquire(key, "node1", 100L);
+        now += 50L;
+
+        Lease renewed = lockStore.renew(lease, 100L);
+
+        assertThat(renewed.getFencingToken(), is(lease.getFencingToken()));
+        assertThat(renewed.getExpirationTimestamp(), is(now + 100L));
+        now += 75L;
+        assertThat(lockStore.getLease(key), notNullValue());
+    }
+
+    @Test
+    public void removeExpiredLeases() throws Exception {
+        String otherKey = UUID.randomUUID().toString();
+        Lease lease = lockStore.tryAcquire(key, "node1", 100L);
+        lockStore.tryAcquire(otherKey, "node1", 200L);
+        now += 150L;
+        //Lease files are only removed once their lease expired, so the clock moved on
+        Thread.sleep(2L);
+
+        lockStore.removeExpiredLeases();
+
+        assertThat(Files.exists(STORAGE_PATH.resolve(key)), is(false));
+        assertThat(Files.exists(STORAGE_PATH.resolve(otherKey)), is(true));
+        //Fencing tokens keep increasing after the lease file was removed
+        assertThat(lockStore.tryAcquire(key, "node2", 100L).getFencingToken(),
+                greaterThan(lease.getFencingToken()));
+    }
+
+    @Test
+    public void reclaimStaleTombstone() throws Exception {
+        Files.createDirectories(STORAGE_PATH);
+        Files.write(STORAGE_PATH.resolve(key), new byte[] {0});
+
+        assertThat(lockStore.getLease(key), is(nullValue()));
+        assertThat(lockStore.tryAcquire(key, "node1", 100L), notNullValue());
+    }
+
+    @Test
+    public void invalidKey() {
+        assertThrows(IllegalArgumentException.class, () -> lockStore.tryAcquire("../" + key, "node1", 100L));
+    }
+
+    private FileLockStore createLockStore() {
+        return new FileLockStore(STORAGE_PATH.toString()) {
+            @Override
+            long currentTime() {
+                return now;
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryLockStoreTest {
+
+    private long now;
+    private InMemoryLockStore lockStore;
+
+    @BeforeEach
+    public void setUp() {
+        now = 1000000L;
+        lockStore = new InMemoryLockStore() {
+            @Override
+            long currentTime() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void acquireAndRelease() throws Exception {
+        Lease lease = lockStore.tryAcquire("upload", "node1", 100L);
+        assertThat(lease, notNullValue());
+        assertThat(lease.getOwner(), is("node1"));
+        assertThat(lease.getExpirationTimestamp(), is(now + 100L));
+        assertThat(lockStore.getLease("upload").getFencingToken(), is(lease.getFencingToken()));
+        assertThat(lockStore.tryAcquire("upload", "node2", 100L), is(nullValue()));
+
+        lockStore.release(lease);
+
+        assertThat(lockStore.getLease("upload"), is(nullValue()));
+        Lease nextLease = lockStore.tryAcquire("upload", "node2", 100L);
+        assertThat(nextLease.getFencingToken(), greaterThan(lease.getFencingToken()));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        Lease lease = lockStore.tryAcquire("upload", "node1", 100L);
+        now += 100L;
+
+        assertThat(lockStore.getLease("upload"), is(nullValue()));
+        Lease nextLease = lockStore.tryAcquire("upload", "node2", 100L);
+        assertThat(nextLease.getFencingToken(), greaterThan(lease.getFencingToken()));
+
+        //The old holder can neither renew nor release the lease of the new holder
+        assertThat(lockStore.renew(lease, 100L), is(nullValue()));
+        lockStore.release(lease);
+        assertThat(lockStore.getLease("upload").getOwner(), is("node2"));
+    }
+
+    @Test
+    public void renew() throws Exception {
+        Lease lease = lockStore.tryAcquire("upload", "node1", 100L);
+        now += 50L;
+
+        Lease renewed = lockStore.renew(lease, 100L);
+
+        assertThat(renewed.getFencingToken(), is(lease.getFencingToken()));
+        assertThat(renewed.getExpirationTimestamp(), is(now + 100L));
+        now += 75L;
+        assertThat(lockStore.getLease("upload"), notNullValue());
+    }
+
+    @Test
+    public void removeExpiredLeases() throws Exception {
+        lockStore.tryAcquire("upload1", "node1", 100L);
+        lockStore.tryAcquire("upload2", "node1", 200L);
+        now += 150L;
+
+        lockStore.removeExpiredLeases();
+
+        assertThat(lockStore.size(), is(1));
+        assertThat(lockStore.getLease("upload2"), notNullValue());
+    }
+}
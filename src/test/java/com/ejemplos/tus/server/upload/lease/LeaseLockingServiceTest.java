@@ -0,0 +1,159 @@
+package com.ejemplos.tus.server.upload.lease;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
+import com.ejemplos.tus.server.upload.UUIDUploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadLock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LeaseLockingServiceTest {
+
+    private static final String UPLOAD_URI = "/upload/test";
+
+    private UploadIdFactory idFactory;
+    private InMemoryLockStore lockStore;
+    private LeaseLockingService lockingService;
+    private UploadId id;
+    private String uploadUrl;
+
+    @BeforeEach
+    public void setUp() {
+        idFactory = new UUIDUploadIdFactory();
+        idFactory.setUploadURI(UPLOAD_URI);
+        lockStore = new InMemoryLockStore();
+        lockingService = createLockingService(30000L);
+        id = new UploadId(UUID.randomUUID());
+        uploadUrl = UPLOAD_URI + "/" + id;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        lockingService.close();
+    }
+
+    @Test
+    public void lockUploadByUri() throws Exception {
+        LeaseLockingService otherNode = createLockingService(30000L);
+        try (UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl)) {
+            assertThat(uploadLock, instanceOf(LeaseLockingService.LeaseLock.class));
+            assertThat(uploadLock.getUploadUri(), is(uploadUrl));
+            assertThat(((LeaseLockingService.LeaseLock) uploadLock).isValid(), is(true));
+            assertThat(lockStore.getLease(id.toString()).getOwner(), is(lockingService.getOwnerId()));
+            assertThat(lockingService.isLocked(id), is(true));
+            assertThat(otherNode.isLocked(id), is(true));
+            assertThat(lockingService.getActiveLockCount(), is(1));
+            assertThrows(UploadAlreadyLockedException.class, () -> lockingService.lockUploadByUri(uploadUrl));
+            assertThrows(UploadAlreadyLockedException.class, () -> otherNode.lockUploadByUri(uploadUrl));
+        } finally {
+            otherNode.close();
+        }
+
+        assertThat(lockingService.isLocked(id), is(false));
+        assertThat(lockingService.getActiveLockCount(), is(0));
+        assertThat(lockStore.size(), is(0));
+    }
+
+    @Test
+    public void lockInvalidUri() throws Exception {
+        assertThat(lockingService.lockUploadByUri("/otherurl/"), is(nullValue()));
+        assertThat(lockingService.isLocked(null), is(false));
+    }
+
+    @Test
+    public void leaseIsRenewed() throws Exception {
+        lockingService.close();
+        lockingService = createLockingService(150L);
+
+        try (UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl)) {
+            long fencingToken = ((LeaseLockingService.LeaseLock) uploadLock).getFencingToken();
+
+            //Wait for multiple lease durations, the renewal thread keeps the lease alive
+            Thread.sleep(400L);
+
+            assertThat(lockingService.isLocked(id), is(true));
+            assertThat(((LeaseLockingService.LeaseLock) uploadLock).isValid(), is(true));
+            assertThat(lockStore.getLease(id.toString()).getFencingToken(), is(fencingToken));
+        }
+        assertThat(lockingService.getLostLeaseCount(), is(0L));
+    }
+
+    @Test
+    public void leaseOfCrashedNodeExpires() throws Exception {
+        LeaseLockingService crashedNode = createLockingService(50L);
+        UploadLock crashedLock = crashedNode.lockUploadByUri(uploadUrl);
+        crashedNode.close();
+
+        lockingService.setLockAcquisitionStrategy(LockAcquisitionStrategy.boundedWait(5000L));
+        try (UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl)) {
+            assertThat(((LeaseLockingService.LeaseLock) uploadLock).getFencingToken(),
+                    greaterThan(((LeaseLockingService.LeaseLock) crashedLock).getFencingToken()));
+
+            //The crashed lock no longer guarantees exclusive access and cannot release the new lock
+            assertThat(((LeaseLockingService.LeaseLock) crashedLock).isValid(), is(false));
+            crashedLock.release();
+            assertThat(lockingService.isLocked(id), is(true));
+        }
+        assertThat(lockingService.getLockAcquisitionStrategy().getContendedCount(), is(1L));
+    }
+
+    @Test
+    public void lostLeaseIsDetected() throws Exception {
+        UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl);
+        //Simulate another node that took over the lease
+        lockStore.release(((LeaseLockingService.LeaseLock) uploadLock).getLease());
+        Lease otherLease = lockStore.tryAcquire(id.toString(), "other", 30000L);
+
+        lockingService.renewLeases();
+
+        assertThat(((LeaseLockingService.LeaseLock) uploadLock).isValid(), is(false));
+        assertThat(lockingService.getLostLeaseCount(), is(1L));
+        assertThat(lockingService.getActiveLockCount(), is(0));
+        uploadLock.release();
+        assertThat(lockStore.getLease(id.toString()).getFencingToken(), is(otherLease.getFencingToken()));
+    }
+
+    @Test
+    public void waitForLockRelease() throws Exception {
+        lockingService.setLockAcquisitionStrategy(LockAcquisitionStrategy.boundedWait(5000L));
+        UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl);
+
+        CompletableFuture.runAsync(uploadLock::release, CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+
+        try (UploadLock otherLock = lockingService.lockUploadByUri(uploadUrl)) {
+            assertThat(otherLock, notNullValue());
+            assertThat(lockingService.isLocked(id), is(true));
+        }
+    }
+
+    @Test
+    public void cleanupStaleLocks() throws Exception {
+        lockStore.tryAcquire(id.toString(), "crashed", 1L);
+        Thread.sleep(5L);
+
+        lockingService.cleanupStaleLocks();
+
+        assertThat(lockStore.size(), is(0));
+    }
+
+    private LeaseLockingService createLockingService(long leaseDurationMillis) {
+        LeaseLockingService service = new LeaseLockingService(lockStore, leaseDurationMillis);
+        service.setIdFactory(idFactory);
+        return service;
+    }
+}
@@ -0,0 +1,162 @@
+package com.ejemplos.tus.server.upload.memory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.ejemplos.tus.server.exception.UploadAlreadyLockedException;
+import com.ejemplos.tus.server.upload.LockAcquisitionStrategy;
+import com.ejemplos.tus.server.upload.UUIDUploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadLock;
+import com.ejemplos.tus.server.upload.UploadLockingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryLockingServiceTest {
+
+    private static final String UPLOAD_URI = "/upload/test";
+
+    private UploadIdFactory idFactory;
+    private InMemoryLockingService lockingService;
+    private UploadId id;
+    private String uploadUrl;
+
+    @BeforeEach
+    public void setUp() {
+        idFactory = new UUIDUploadIdFactory();
+        idFactory.setUploadURI(UPLOAD_URI);
+        lockingService = new InMemoryLockingService();
+        lockingService.setIdFactory(idFactory);
+        id = new UploadId(UUID.randomUUID());
+        uploadUrl = UPLOAD_URI + "/" + id;
+    }
+
+    @Test
+    public void lockUploadByUri() throws Exception {
+        try (UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl)) {
+            assertThat(uploadLock, notNullValue());
+            assertThat(uploadLock.getUploadUri(), is(uploadUrl));
+            assertThat(lockingService.isLocked(id), is(true));
+            assertThrows(UploadAlreadyLockedException.class, () -> lockingService.lockUploadByUri(uploadUrl));
+        }
+
+        assertThat(lockingService.isLocked(id), is(false));
+        assertThat(lockingService.getLockTableSize(), is(0));
+    }
+
+    @Test
+    public void lockInvalidUri() throws Exception {
+        assertThat(lockingService.lockUploadByUri("/upload/test/not-a-uuid"), nullValue());
+        assertThat(lockingService.lockUploadByUri("/other/path"), nullValue());
+        assertThat(lockingService.getLockTableSize(), is(0));
+    }
+
+    @Test
+    public void releaseTwice() throws Exception {
+        UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl);
+        uploadLock.release();
+        uploadLock.close();
+
+        UploadLock otherLock = lockingService.lockUploadByUri(uploadUrl);
+        //Releasing the old lock again does not release the new lock
+        uploadLock.release();
+        assertThat(lockingService.isLocked(id), is(true));
+        otherLock.release();
+        assertThat(lockingService.getLockTableSize(), is(0));
+    }
+
+    @Test
+    public void waitForLockRelease() throws Exception {
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(5000L);
+        lockingService.setLockAcquisitionStrategy(strategy);
+        UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl);
+
+        CompletableFuture<UploadLock> waitingLock = CompletableFuture.supplyAsync(() -> {
+            try {
+                return lockingService.lockUploadByUri(uploadUrl);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //The lock is released by another thread than the one that acquired it
+        CompletableFuture<Void> release = CompletableFuture.runAsync(uploadLock::release,
+                CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+
+        UploadLock acquiredLock = waitingLock.get(5, TimeUnit.SECONDS);
+        assertThat(acquiredLock, notNullValue());
+        assertThat(lockingService.isLocked(id), is(true));
+        release.get(5, TimeUnit.SECONDS);
+        acquiredLock.release();
+        assertThat(lockingService.getLockTableSize(), is(0));
+        assertThat(strategy.getAcquiredCount(), is(2L));
+        assertThat(strategy.getContendedCount(), is(1L));
+        assertThat(strategy.getTimeoutCount(), is(0L));
+    }
+
+    @Test
+    public void waitForLockTimeout() throws Exception {
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(20L);
+        lockingService.setLockAcquisitionStrategy(strategy);
+        try (UploadLock ignored = lockingService.lockUploadByUri(uploadUrl)) {
+            assertThrows(UploadAlreadyLockedException.class, () -> lockingService.lockUploadByUri(uploadUrl));
+            assertThat(lockingService.getLockTableSize(), is(1));
+        }
+        assertThat(lockingService.getLockTableSize(), is(0));
+        assertThat(strategy.getTimeoutCount(), is(1L));
+        assertThat(strategy.getLongestWaitMillis(), greaterThanOrEqualTo(20L));
+    }
+
+    @Test
+    public void clusterLockIsTakenAfterInMemoryLock() throws Exception {
+        UploadLockingService clusterLockingService = mock(UploadLockingService.class);
+        UploadLock clusterLock = mock(UploadLock.class);
+        when(clusterLockingService.lockUploadByUri(uploadUrl)).thenReturn(clusterLock);
+        when(clusterLock.getFencingToken()).thenReturn(42L);
+        lockingService = new InMemoryLockingService(clusterLockingService);
+        lockingService.setIdFactory(idFactory);
+        verify(clusterLockingService).setIdFactory(idFactory);
+        LockAcquisitionStrategy strategy = LockAcquisitionStrategy.boundedWait(10L);
+        lockingService.setLockAcquisitionStrategy(strategy);
+        verify(clusterLockingService).setLockAcquisitionStrategy(strategy);
+
+        UploadLock uploadLock = lockingService.lockUploadByUri(uploadUrl);
+        //The fencing token of the shared lock is also known by the other nodes
+        assertThat(uploadLock.getFencingToken(), is(42L));
+        assertThrows(UploadAlreadyLockedException.class, () -> lockingService.lockUploadByUri(uploadUrl));
+        //Contention within this node never reaches the cluster locking service
+        verify(clusterLockingService, times(1)).lockUploadByUri(uploadUrl);
+
+        uploadLock.close();
+        verify(clusterLock).release();
+    }
+
+    @Test
+    public void clusterLockFailureReleasesInMemoryLock() throws Exception {
+        UploadLockingService clusterLockingService = mock(UploadLockingService.class);
+        when(clusterLockingService.lockUploadByUri(uploadUrl))
+                .thenThrow(new UploadAlreadyLockedException("Locked by another node"));
+        when(clusterLockingService.isLocked(id)).thenReturn(true);
+        lockingService = new InMemoryLockingService(clusterLockingService);
+        lockingService.setIdFactory(idFactory);
+
+        assertThrows(UploadAlreadyLockedException.class, () -> lockingService.lockUploadByUri(uploadUrl));
+
+        assertThat(lockingService.getLockTableSize(), is(0));
+        //The upload is still locked by the other node
+        assertThat(lockingService.isLocked(id), is(true));
+    }
+}
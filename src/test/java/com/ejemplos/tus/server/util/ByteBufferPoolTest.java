@@ -0,0 +1,59 @@
+package com.ejemplos.tus.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void buffersAreReused() {
+        ByteBufferPool pool = new ByteBufferPool(2, 16);
+
+        ByteBuffer first;
+        try (ByteBufferPool.Buffer buffer = pool.acquire()) {
+            first = buffer.byteBuffer();
+            assertThat(first.isDirect(), is(true));
+            assertThat(first.capacity(), is(16));
+            assertThat(buffer.array().length, is(16));
+            first.put((byte) 1);
+        }
+        assertThat(pool.getAvailableCount(), is(1));
+
+        try (ByteBufferPool.Buffer buffer = pool.acquire()) {
+            assertThat(buffer.byteBuffer(), sameInstance(first));
+            //A reused buffer is cleared
+            assertThat(buffer.byteBuffer().position(), is(0));
+            assertThat(buffer.byteBuffer().remaining(), is(16));
+        }
+    }
+
+    @Test
+    public void exhaustedPoolHandsOutTemporaryBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(1, 16);
+
+        ByteBufferPool.Buffer pooled = pool.acquire();
+        ByteBufferPool.Buffer temporary = pool.acquire();
+
+        assertThat(temporary.byteBuffer(), not(sameInstance(pooled.byteBuffer())));
+        assertThat(temporary.byteBuffer().isDirect(), is(false));
+        assertThat(temporary.array().length, is(16));
+        assertThat(pool.getTemporaryBufferCount(), is(1L));
+
+        temporary.close();
+        pooled.close();
+        assertThat(pool.getAvailableCount(), is(1));
+    }
+
+    @Test
+    public void invalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new ByteBufferPool(0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new ByteBufferPool(1, 0));
+    }
+}
@@ -1,5 +1,7 @@
 package com.ejemplos.tus.server.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -9,6 +11,7 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -272,4 +275,110 @@ class HttpChunkedEncodingInputStreamTest {
             }
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    void testChunkSizeWithWhitespaceAndExtensions() throws IOException {
+        String input = " a ;name=value;quoted=\"a;b\\\"c\"\r\n0123456789\r\n" +
+                "00000005\r\n" +
+                "abcde\r\n" +
+                "0;last\r\n" +
+                "\r\n";
+        InputStream in = new HttpChunkedEncodingInputStream(IOUtils.toInputStream(input, StandardCharsets.UTF_8),
+                trailerHeaders);
+
+        assertEquals("0123456789abcde", IOUtils.toString(in, StandardCharsets.UTF_8));
+        assertTrue(trailerHeaders.isEmpty());
+    }
+
+    @Test
+    void testChunksSplitAcrossBufferBoundaries() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 50; i++) {
+            String data = StringUtils.repeat((char) ('a' + i % 26), i);
+            input.append(Integer.toHexString(i)).append(";ext=").append(i).append("\r\n").append(data).append("\r\n");
+            expected.append(data);
+        }
+        input.append("0\r\nFooter: abc\r\n\r\n");
+
+        //Every chunk size line, CRLF and trailer is split over multiple reads of the wrapped stream
+        for (int bufferSize : new int[] {1, 2, 3, 7, 64}) {
+            trailerHeaders.clear();
+            InputStream in = new HttpChunkedEncodingInputStream(
+                    new TricklingInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+                    trailerHeaders, bufferSize);
+
+            assertEquals(expected.toString(), IOUtils.toString(in, StandardCharsets.UTF_8));
+            assertEquals("abc", trailerHeaders.get("footer").get(0));
+        }
+    }
+
+    @Test
+    void testLargeChunksBypassBuffer() throws IOException {
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        input.write(data);
+        input.write("\r\n3\r\nend\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        InputStream in = new HttpChunkedEncodingInputStream(new ByteArrayInputStream(input.toByteArray()),
+                trailerHeaders, 16);
+
+        byte[] result = new byte[data.length];
+        assertEquals(data.length, IOUtils.read(in, result));
+        assertArrayEquals(data, result);
+        assertEquals("end", IOUtils.toString(in, StandardCharsets.UTF_8));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void testAvailableIsLimitedToCurrentChunk() throws IOException {
+        String input = "4\r\n0123\r\n6\r\n456789\r\n0\r\n\r\n";
+        InputStream in = new HttpChunkedEncodingInputStream(IOUtils.toInputStream(input, StandardCharsets.UTF_8),
+                trailerHeaders);
+
+        assertEquals(0, in.available());
+        assertEquals('0', (char) in.read());
+        assertEquals(3, in.available());
+        in.close();
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void testInvalidChunkSizes() {
+        for (String input : new String[] {"\r\n", "x\r\n", "A B\r\n", "A\n0123456789\r\n",
+                "10000000000000000\r\n", "A"}) {
+            assertThrows(IOException.class, () -> {
+                try (InputStream in = new HttpChunkedEncodingInputStream(
+                        IOUtils.toInputStream(input, StandardCharsets.UTF_8), trailerHeaders)) {
+                    IOUtils.toByteArray(in);
+                }
+            }, input);
+        }
+    }
+
+    @Test
+    void testInvalidBufferSize() {
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThrows(IllegalArgumentException.class, () -> new HttpChunkedEncodingInputStream(in, null, 0));
+    }
+
+    /**
+     * Input stream that returns at most one byte per read
+     */
+    private static class TricklingInputStream extends ByteArrayInputStream {
+
+        TricklingInputStream(byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
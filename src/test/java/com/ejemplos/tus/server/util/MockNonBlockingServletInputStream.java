@@ -0,0 +1,90 @@
+package com.ejemplos.tus.server.util;
+
+import java.io.IOException;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+/**
+ * Servlet input stream that, once a read listener is registered, switches to non-blocking mode and makes its
+ * content available in small rounds, like a servlet container does for a slow client. The read listener is
+ * notified synchronously once it is registered. Without read listener, the stream behaves like a regular
+ * blocking stream. An optional action runs before every round, for example to let time pass between rounds.
+ */
+public class MockNonBlockingServletInputStream extends ServletInputStream {
+
+    private final byte[] content;
+    private final int roundSize;
+
+    private int position = 0;
+    private int roundRemaining = 0;
+    private int roundCount = 0;
+    private boolean isNonBlocking = false;
+    private Runnable beforeRound = () -> { };
+
+    public MockNonBlockingServletInputStream(byte[] content, int roundSize) {
+        this.content = content == null ? new byte[0] : content;
+        this.roundSize = roundSize;
+    }
+
+    public void setBeforeRound(Runnable beforeRound) {
+        this.beforeRound = beforeRound;
+    }
+
+    public int getRoundCount() {
+        return roundCount;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return position >= content.length;
+    }
+
+    @Override
+    public boolean isReady() {
+        return !isNonBlocking || isFinished() || roundRemaining > 0;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        isNonBlocking = true;
+        try {
+            while (!isFinished()) {
+                beforeRound.run();
+                int startPosition = position;
+                roundRemaining = Math.min(roundSize, content.length - position);
+                roundCount++;
+                readListener.onDataAvailable();
+                if (position == startPosition) {
+                    //The listener stopped reading
+                    return;
+                }
+            }
+            readListener.onAllDataRead();
+        } catch (IOException | RuntimeException e) {
+            readListener.onError(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read < 0 ? read : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (!isReady()) {
+            throw new IllegalStateException("No data is available, wait for the read listener to be notified");
+        } else if (isFinished()) {
+            return -1;
+        }
+
+        int read = Math.min(len, isNonBlocking ? roundRemaining : content.length - position);
+        System.arraycopy(content, position, b, off, read);
+        position += read;
+        roundRemaining = Math.max(roundRemaining - read, 0);
+        return read;
+    }
+}
@@ -0,0 +1,100 @@
+package com.ejemplos.tus.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PipelinedDigestInputStreamTest {
+
+    private byte[] content;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        content = new byte[100_000];
+        new Random(42L).nextBytes(content);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void digestInBuffersOnExecutor() throws Exception {
+        MessageDigest sha256 = ChecksumAlgorithm.SHA256.getMessageDigest();
+        MessageDigest md5 = ChecksumAlgorithm.MD5.getMessageDigest();
+
+        //Small buffers make sure many buffers are digested while reading
+        PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(content),
+                Arrays.asList(sha256, md5), executor, 3, 1000);
+
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        in.awaitDigests();
+
+        assertArrayEquals(ChecksumAlgorithm.SHA256.getMessageDigest().digest(content), sha256.digest());
+        assertArrayEquals(ChecksumAlgorithm.MD5.getMessageDigest().digest(content), md5.digest());
+    }
+
+    @Test
+    void digestSingleBytesAndSkippedBytes() throws Exception {
+        MessageDigest sha1 = ChecksumAlgorithm.SHA1.getMessageDigest();
+        PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(content),
+                Arrays.asList(sha1), executor, 2, 7);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(in.read(), is(content[i] & 0xFF));
+        }
+        assertThat(in.skip(50_000L), is(50_000L));
+        byte[] rest = IOUtils.toByteArray(in);
+        assertThat(rest.length, is(content.length - 50_010));
+        assertThat(in.read(), is(-1));
+
+        //Partial buffers are digested when the digest is awaited
+        in.awaitDigests();
+        assertArrayEquals(ChecksumAlgorithm.SHA1.getMessageDigest().digest(content), sha1.digest());
+    }
+
+    @Test
+    void digestPartiallyReadContent() throws Exception {
+        MessageDigest sha1 = ChecksumAlgorithm.SHA1.getMessageDigest();
+        PipelinedDigestInputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(content),
+                Arrays.asList(sha1), executor);
+
+        byte[] read = new byte[12_345];
+        assertThat(IOUtils.read(in, read), is(read.length));
+        in.awaitDigests();
+
+        assertArrayEquals(ChecksumAlgorithm.SHA1.getMessageDigest().digest(read), sha1.digest());
+    }
+
+    @Test
+    void failWhenDigestCannotBeCalculated() {
+        InputStream in = new PipelinedDigestInputStream(new ByteArrayInputStream(content),
+                Arrays.asList(ChecksumAlgorithm.SHA1.getMessageDigest()),
+                command -> {
+                    throw new RejectedExecutionException("Test");
+                }, 2, 100);
+
+        //Reading does not wait forever for buffers that will never be digested
+        assertThrows(IOException.class, () -> IOUtils.toByteArray(in));
+    }
+}
@@ -0,0 +1,151 @@
+package com.ejemplos.tus.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+import com.ejemplos.tus.server.HttpHeader;
+import com.ejemplos.tus.server.checksum.ChecksumAlgorithm;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+class TusServletRequestTest {
+
+    private static final String CHUNKED_CONTENT = "7\r\nMozilla\r\n0\r\n"
+            + "Upload-Checksum: sha1 2DAW3Vbpv5GZ0XWHD/Vu53ZZz7c=\r\n\r\n";
+
+    private MockHttpServletRequest servletRequest;
+
+    @BeforeEach
+    void setUp() {
+        servletRequest = new MockHttpServletRequest();
+        servletRequest.setContent(CHUNKED_CONTENT.getBytes(StandardCharsets.UTF_8));
+        servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    }
+
+    @Test
+    void calculateAllAllowedChecksumsWhenTrailerIsPossible() throws Exception {
+        TusServletRequest request = readContent(new TusServletRequest(servletRequest, true));
+
+        assertThat(request.getEnabledChecksums(), containsInAnyOrder(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA1,
+                ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA384, ChecksumAlgorithm.SHA512));
+        assertThat(request.isChecksumVerificationDeferred(), is(false));
+        assertThat(request.getCalculatedChecksum(ChecksumAlgorithm.SHA1), is("2DAW3Vbpv5GZ0XWHD/Vu53ZZz7c="));
+        assertThat(request.getHeader(HttpHeader.UPLOAD_CHECKSUM), is("sha1 2DAW3Vbpv5GZ0XWHD/Vu53ZZz7c="));
+    }
+
+    @Test
+    void calculateCrcChecksumsWhenTrailerIsPossible() throws Exception {
+        TusServletRequest request = new TusServletRequest(servletRequest, true);
+        request.setChecksumAlgorithms(EnumSet.allOf(ChecksumAlgorithm.class));
+        readContent(request);
+
+        CRC32C crc32c = new CRC32C();
+        crc32c.update("Mozilla".getBytes(StandardCharsets.UTF_8));
+        byte[] expected = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc32c.getValue()).array();
+        assertThat(request.getCalculatedChecksum(ChecksumAlgorithm.CRC32C), is(Base64.encodeBase64String(expected)));
+        assertThat(request.getEnabledChecksums().size(), is(ChecksumAlgorithm.values().length));
+    }
+
+    @Test
+    void calculateOnlyAllowedChecksums() throws Exception {
+        TusServletRequest request = new TusServletRequest(servletRequest, true);
+        request.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.SHA256));
+        readContent(request);
+
+        assertThat(request.getEnabledChecksums(),
+                containsInAnyOrder(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.SHA256));
+    }
+
+    @Test
+    void calculateOnlyChecksumOfHeader() throws Exception {
+        servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha256 1234567890");
+        TusServletRequest request = readContent(new TusServletRequest(servletRequest, true));
+
+        assertThat(request.getEnabledChecksums(), containsInAnyOrder(ChecksumAlgorithm.SHA256));
+    }
+
+    @Test
+    void skipChecksumsWhenTrailerIsNotAnnounced() throws Exception {
+        servletRequest.addHeader(HttpHeader.TRAILER, "Expires, Server-Timing");
+        TusServletRequest request = readContent(new TusServletRequest(servletRequest, true));
+
+        assertThat(request.getEnabledChecksums(), is(empty()));
+        assertThat(request.hasCalculatedChecksum(), is(false));
+    }
+
+    @Test
+    void calculateChecksumsWhenTrailerIsAnnounced() throws Exception {
+        servletRequest.addHeader(HttpHeader.TRAILER, "Expires, upload-checksum");
+        TusServletRequest request = readContent(new TusServletRequest(servletRequest, true));
+
+        assertThat(request.getEnabledChecksums(), containsInAnyOrder(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA1,
+                ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA384, ChecksumAlgorithm.SHA512));
+    }
+
+    @Test
+    void deferChecksumVerification() throws Exception {
+        TusServletRequest request = new TusServletRequest(servletRequest, true);
+        request.setDeferredChecksumVerification(true);
+        readContent(request);
+
+        assertThat(request.getEnabledChecksums(), is(empty()));
+        assertThat(request.isChecksumVerificationDeferred(), is(true));
+        assertThat(request.getBytesRead(), is(7L));
+    }
+
+    @Test
+    void doNotDeferSingleAllowedChecksum() throws Exception {
+        TusServletRequest request = new TusServletRequest(servletRequest, true);
+        request.setDeferredChecksumVerification(true);
+        request.setChecksumAlgorithms(EnumSet.of(ChecksumAlgorithm.SHA1));
+        readContent(request);
+
+        assertThat(request.getEnabledChecksums(), containsInAnyOrder(ChecksumAlgorithm.SHA1));
+        assertThat(request.isChecksumVerificationDeferred(), is(false));
+    }
+
+    @Test
+    void noChecksumsWithoutChunkedContent() throws Exception {
+        servletRequest = new MockHttpServletRequest();
+        servletRequest.setContent("Mozilla".getBytes(StandardCharsets.UTF_8));
+        TusServletRequest request = new TusServletRequest(servletRequest, true);
+        request.setDeferredChecksumVerification(true);
+        readContent(request);
+
+        assertThat(request.getEnabledChecksums(), is(empty()));
+        assertThat(request.isChecksumVerificationDeferred(), is(false));
+    }
+
+    @Test
+    void calculateChecksumsOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TusServletRequest request = new TusServletRequest(servletRequest, true);
+            request.setChecksumExecutor(executor);
+            readContent(request);
+
+            assertThat(request.getEnabledChecksums(), containsInAnyOrder(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA1,
+                ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA384, ChecksumAlgorithm.SHA512));
+            assertThat(request.getCalculatedChecksum(ChecksumAlgorithm.SHA1), is("2DAW3Vbpv5GZ0XWHD/Vu53ZZz7c="));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private TusServletRequest readContent(TusServletRequest request) throws Exception {
+        IOUtils.toByteArray(request.getContentInputStream());
+        return request;
+    }
+}
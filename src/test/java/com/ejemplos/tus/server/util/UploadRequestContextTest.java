@@ -0,0 +1,205 @@
+package com.ejemplos.tus.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import com.ejemplos.tus.server.exception.StaleUploadLockException;
+import com.ejemplos.tus.server.upload.UUIDUploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadId;
+import com.ejemplos.tus.server.upload.UploadIdFactory;
+import com.ejemplos.tus.server.upload.UploadInfo;
+import com.ejemplos.tus.server.upload.UploadStorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class UploadRequestContextTest {
+
+    private static final String UPLOAD_URI = "/upload/test";
+
+    @Mock
+    private UploadStorageService storageService;
+
+    private UploadIdFactory idFactory;
+    private UploadRequestContext context;
+    private UploadInfo info;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        idFactory = new UUIDUploadIdFactory();
+        idFactory.setUploadURI(UPLOAD_URI);
+
+        info = new UploadInfo();
+        info.setId(new UploadId(UUID.randomUUID()));
+        info.setOwnerKey("John");
+        info.setLength(10L);
+        when(storageService.getUploadInfo(info.getId())).thenReturn(info);
+
+        context = new UploadRequestContext(storageService, idFactory);
+    }
+
+    @Test
+    public void getUploadInfoIsLoadedOnce() throws Exception {
+        String uploadUrl = UPLOAD_URI + "/" + info.getId();
+
+        assertThat(context.getUploadInfo(uploadUrl, "John"), sameInstance(info));
+        assertThat(context.getUploadInfo(uploadUrl, "John"), sameInstance(info));
+        assertThat(context.getUploadInfo(info.getId()), sameInstance(info));
+
+        verify(storageService, times(1)).getUploadInfo(info.getId());
+        verify(storageService, never()).getUploadInfo(any(String.class), any(String.class));
+    }
+
+    @Test
+    public void getUploadInfoOtherOwner() throws Exception {
+        String uploadUrl = UPLOAD_URI + "/" + info.getId();
+
+        assertThat(context.getUploadInfo(uploadUrl, "Jane"), is(nullValue()));
+        assertThat(context.getUploadInfo(uploadUrl, "John"), sameInstance(info));
+
+        verify(storageService, times(1)).getUploadInfo(info.getId());
+    }
+
+    @Test
+    public void getUploadInfoAbsenceIsRemembered() throws Exception {
+        UploadId unknownId = new UploadId(UUID.randomUUID());
+
+        assertThat(context.getUploadInfo(unknownId), is(nullValue()));
+        assertThat(context.getUploadInfo(UPLOAD_URI + "/" + unknownId, null), is(nullValue()));
+
+        verify(storageService, times(1)).getUploadInfo(unknownId);
+    }
+
+    @Test
+    public void updateIsDeferredUntilFlush() throws Exception {
+        UploadInfo uploadInfo = context.getUploadInfo(info.getId());
+        uploadInfo.updateExpiration(1000L);
+        context.update(uploadInfo);
+        context.update(uploadInfo);
+
+        verify(storageService, never()).update(any(UploadInfo.class));
+        assertThat(context.hasPendingUpdates(), is(true));
+
+        context.flush();
+        context.flush();
+
+        verify(storageService, times(1)).update(info);
+        assertThat(context.hasPendingUpdates(), is(false));
+    }
+
+    @Test
+    public void appendAndUpdateAreSavedOnce() throws Exception {
+        ByteArrayInputStream content = new ByteArrayInputStream(new byte[] {1, 2, 3});
+        when(storageService.appendWithoutUpdate(info, content)).thenAnswer(invocation -> {
+            info.setOffset(3L);
+            return info;
+        });
+
+        UploadInfo uploadInfo = context.getUploadInfo(info.getId());
+        assertThat(context.append(uploadInfo, content), sameInstance(info));
+        uploadInfo.updateExpiration(1000L);
+        context.update(uploadInfo);
+
+        verify(storageService, never()).append(any(UploadInfo.class), any(InputStream.class));
+        verify(storageService, never()).update(any(UploadInfo.class));
+
+        context.flush();
+
+        verify(storageService, times(1)).update(info);
+    }
+
+    @Test
+    public void failedAppendIsSavedOnFlush() throws Exception {
+        ByteArrayInputStream content = new ByteArrayInputStream(new byte[] {1, 2, 3});
+        when(storageService.appendWithoutUpdate(info, content)).thenAnswer(invocation -> {
+            info.setOffset(2L);
+            throw new IOException("Connection reset");
+        });
+
+        assertThrows(IOException.class, () -> context.append(info, content));
+        context.removeLastNumberOfBytes(info, 2L);
+        context.flush();
+
+        verify(storageService, times(1)).removeLastNumberOfBytesWithoutUpdate(info, 2L);
+        verify(storageService, times(1)).update(info);
+    }
+
+    @Test
+    public void terminateDropsPendingUpdate() throws Exception {
+        context.update(info);
+        context.terminateUpload(info);
+        context.flush();
+
+        verify(storageService, times(1)).terminateUpload(info);
+        verify(storageService, never()).update(any(UploadInfo.class));
+        assertThat(context.getUploadInfo(info.getId()), is(nullValue()));
+    }
+
+    @Test
+    public void createIsRemembered() throws Exception {
+        UploadInfo newInfo = new UploadInfo();
+        when(storageService.create(newInfo, "John")).thenAnswer(invocation -> {
+            newInfo.setId(new UploadId(UUID.randomUUID()));
+            return newInfo;
+        });
+
+        context.create(newInfo, "John");
+
+        assertThat(context.getUploadInfo(newInfo.getId()), sameInstance(newInfo));
+        verify(storageService, never()).getUploadInfo(newInfo.getId());
+    }
+
+    @Test
+    public void changesCarryFencingTokenOfLockedUpload() throws Exception {
+        UploadInfo otherInfo = new UploadInfo();
+        otherInfo.setId(new UploadId(UUID.randomUUID()));
+        context.setFencingToken(info.getId(), 42L);
+
+        ByteArrayInputStream content = new ByteArrayInputStream(new byte[] {1, 2, 3});
+        when(storageService.appendWithoutUpdate(info, content)).thenReturn(info);
+        context.append(info, content);
+        context.update(otherInfo);
+
+        assertThat(info.getFencingToken(), is(42L));
+        assertThat(otherInfo.getFencingToken(), is(nullValue()));
+    }
+
+    @Test
+    public void staleLockDiscardsPendingUpdates() throws Exception {
+        context.setFencingToken(info.getId(), 42L);
+        doThrow(new StaleUploadLockException("Lock lost")).when(storageService).update(info);
+        context.update(info);
+
+        assertThrows(StaleUploadLockException.class, context::flush);
+
+        assertThat(context.hasPendingUpdates(), is(false));
+    }
+
+    @Test
+    public void readingBytesFlushesPendingUpdates() throws Exception {
+        context.update(info);
+        context.getUploadedBytes(info.getId());
+
+        verify(storageService, times(1)).update(info);
+    }
+}